@@ -0,0 +1,176 @@
+package nitron.benchmarks;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures how long a change made by one Nitron instance takes to reach another through
+ * ChangeStreamWatcher, against the mongod given by -p mongoUri=... .
+ *
+ * Two DatabaseManagers share a throwaway database: one writes visits and bookmarks, the other
+ * watches, and each operation waits until the watcher has reported its change. "stream" needs a
+ * replica set; a single node is enough:
+ *   mongod --replSet rs0 --dbpath data    then in mongosh: rs.initiate()
+ * "poll" uses the fallback for standalone servers, polling every second. After every iteration in
+ * stream mode the watcher is closed, more visits are written, and a new watcher with the same token
+ * file must report exactly those visits, so the resume token is checked as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Dnitron.changes.pollSeconds=1"})
+public class ChangeStreamBenchmark {
+    private static final String BENCHMARK_DATABASE = "nitronbrowser_bench_changes";
+    private static final int MISSED_WHILE_CLOSED = 50;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Param({"stream", "poll"})
+    public String mode;
+
+    @Param("mongodb://localhost:27017")
+    public String mongoUri;
+
+    private Object writer;
+    private Object reader;
+    private Path tokenFile;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        try (MongoClient client = MongoClients.create(mongoUri)) {
+            client.getDatabase(BENCHMARK_DATABASE).drop();
+        }
+        tokenFile = Files.createTempDirectory("nitron-changes").resolve("change-stream.token");
+        System.setProperty("nitron.changes.poll", Boolean.toString(mode.equals("poll")));
+        writer = Nitron.NEW_DATABASE_MANAGER.invoke(mongoUri, BENCHMARK_DATABASE);
+        Nitron.ENSURE_INDEXES.invoke(writer);
+        reader = openReader();
+    }
+
+    /**
+     * Open the watching instance. Every reported change is queued as "TYPE url".
+     */
+    private Object openReader() throws Throwable {
+        Object database = Nitron.NEW_DATABASE_MANAGER.invoke(mongoUri, BENCHMARK_DATABASE);
+        Object watcher = Nitron.START_WATCHING.invoke(database, tokenFile);
+        if ((boolean) Nitron.IS_POLLING.invoke(watcher) != mode.equals("poll")) {
+            throw new IllegalStateException("Watcher is not in " + mode + " mode");
+        }
+        Consumer<List<?>> listener = changes -> {
+            try {
+                for (Object change : changes) {
+                    received.add(Nitron.CHANGE_TYPE.invoke(change) + " " + Nitron.CHANGE_URL.invoke(change));
+                }
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        Nitron.ADD_CHANGE_LISTENER.invoke(watcher, listener);
+        // The first poll only records what is there; let it run before anything is written
+        Thread.sleep(mode.equals("poll") ? 1500 : 500);
+        return database;
+    }
+
+    @TearDown(Level.Iteration)
+    public void verifyResume() throws Throwable {
+        received.clear();
+        if (!mode.equals("stream")) {
+            return;
+        }
+        Nitron.CLOSE.invoke(reader);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < MISSED_WHILE_CLOSED; i++) {
+            String url = "https://missed.example/" + (sequence++);
+            Nitron.ADD_HISTORY.invoke(writer, url, new Date());
+            expected.add("VISIT_ADDED " + url);
+        }
+        reader = openReader();
+        List<String> replayed = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (replayed.size() < expected.size() && System.nanoTime() < deadline) {
+            String change = received.poll(100, TimeUnit.MILLISECONDS);
+            if (change != null) {
+                replayed.add(change);
+            }
+        }
+        if (!new HashSet<>(replayed).equals(expected) || replayed.size() != expected.size()) {
+            throw new IllegalStateException("Resumed watcher reported " + replayed.size() + " changes, expected the "
+                    + expected.size() + " made while it was closed");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Nitron.CLOSE.invoke(reader);
+        Nitron.CLOSE.invoke(writer);
+        System.clearProperty("nitron.changes.poll");
+    }
+
+    private void await(String change) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        String next;
+        do {
+            next = received.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                throw new IllegalStateException("No " + change + " within " + TIMEOUT_SECONDS + " s");
+            }
+        } while (!next.equals(change));
+    }
+
+    /**
+     * A visit recorded by one instance until the other reports it
+     */
+    @Benchmark
+    public void visitAdded() throws Throwable {
+        String url = "https://site.example/page" + (sequence++);
+        Nitron.ADD_HISTORY.invoke(writer, url, new Date());
+        await("VISIT_ADDED " + url);
+    }
+
+    /**
+     * A bookmark added and deleted by one instance until the other reports both
+     */
+    @Benchmark
+    public void bookmarkAddedAndDeleted() throws Throwable {
+        String url = "https://bookmark.example/" + (sequence++);
+        Nitron.ADD_BOOKMARK.invoke(writer, url);
+        await("BOOKMARK_ADDED " + url);
+        Nitron.DELETE_BOOKMARK.invoke(writer, url);
+        // Servers without pre-images report the delete without its URL
+        String deleted;
+        do {
+            deleted = received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (deleted == null) {
+                throw new IllegalStateException("No delete reported for " + url);
+            }
+        } while (!deleted.equals("BOOKMARK_DELETED " + url) && !deleted.equals("BOOKMARK_DELETED null"));
+    }
+}
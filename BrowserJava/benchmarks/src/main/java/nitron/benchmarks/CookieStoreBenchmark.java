@@ -0,0 +1,137 @@
+package nitron.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares cookie lookups in PersistentCookieStore with the JDK's in-memory store.
+ *
+ * Both hold the same cookies: a few on each of many sites, set for the site's domain, and some
+ * set by one of its subdomains. Each lookup is for a random page on a random site, as a request
+ * from a tab would be. After the trial the Nitron store is closed, read back from its log, and
+ * must hold every persistent cookie again, so the log is checked as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class CookieStoreBenchmark {
+    private static final int COOKIES_PER_SITE = 5;
+
+    @Param({"nitron", "jdk"})
+    public String store;
+
+    @Param({"50000"})
+    public int cookies;
+
+    private Path directory;
+    private Object nitronStore;
+    private CookieStore cookieStore;
+    private URI[] pages;
+    private URI[] origins;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        directory = Files.createTempDirectory("nitron-cookies");
+        if (store.equals("nitron")) {
+            nitronStore = Nitron.NEW_COOKIE_STORE.invoke(directory);
+            Nitron.LOAD_COOKIES.invoke(nitronStore);
+            cookieStore = (CookieStore) nitronStore;
+        } else {
+            cookieStore = new CookieManager().getCookieStore();
+        }
+        int sites = cookies / COOKIES_PER_SITE;
+        pages = new URI[sites];
+        origins = new URI[sites];
+        for (int site = 0; site < sites; site++) {
+            String domain = "site" + site + ".example";
+            origins[site] = new URI("https://www." + domain + "/");
+            pages[site] = new URI("https://www." + domain + "/articles/" + site);
+            for (int i = 0; i < COOKIES_PER_SITE; i++) {
+                HttpCookie cookie = new HttpCookie("c" + i, Long.toHexString(ThreadLocalRandom.current().nextLong()));
+                // Two of the site's cookies belong to www only, the rest to the whole domain
+                cookie.setDomain(i < 2 ? "www." + domain : "." + domain);
+                cookie.setPath("/");
+                cookie.setMaxAge(i == 0 ? -1 : TimeUnit.DAYS.toSeconds(30));
+                cookieStore.add(origins[site], cookie);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void verifyReload() throws Throwable {
+        if (nitronStore == null) {
+            return;
+        }
+        Nitron.CLOSE_COOKIES.invoke(nitronStore);
+        System.out.println(Nitron.COOKIE_STATISTICS.invoke(nitronStore));
+        Object reloaded = Nitron.NEW_COOKIE_STORE.invoke(directory);
+        Nitron.LOAD_COOKIES.invoke(reloaded);
+        System.out.println(Nitron.COOKIE_STATISTICS.invoke(reloaded));
+        // Session cookies are not kept
+        int expected = pages.length * (COOKIES_PER_SITE - 1);
+        int loaded = ((CookieStore) reloaded).getCookies().size();
+        Nitron.CLOSE_COOKIES.invoke(reloaded);
+        deleteDirectory();
+        if (loaded != expected) {
+            throw new IllegalStateException("Reloaded " + loaded + " cookies, expected " + expected);
+        }
+    }
+
+    private void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * The cookies for a request to a random page
+     */
+    @Benchmark
+    public List<HttpCookie> lookup() {
+        List<HttpCookie> found = cookieStore.get(pages[ThreadLocalRandom.current().nextInt(pages.length)]);
+        if (found.size() != COOKIES_PER_SITE) {
+            throw new IllegalStateException("Found " + found.size() + " cookies, expected " + COOKIES_PER_SITE);
+        }
+        return found;
+    }
+
+    /**
+     * A response replacing one of a random site's persistent cookies
+     */
+    @Benchmark
+    public void replace() {
+        int site = ThreadLocalRandom.current().nextInt(origins.length);
+        HttpCookie cookie = new HttpCookie("c2", Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        cookie.setDomain(".site" + site + ".example");
+        cookie.setPath("/");
+        cookie.setMaxAge(TimeUnit.DAYS.toSeconds(30));
+        cookieStore.add(origins[site], cookie);
+    }
+}
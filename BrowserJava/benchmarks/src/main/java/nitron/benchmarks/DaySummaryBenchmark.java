@@ -0,0 +1,53 @@
+package nitron.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the domain extraction and top-site ranking DaySummaryPage runs over the full history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class DaySummaryBenchmark {
+    @Param({"10000", "1000000"})
+    public int visits;
+
+    private List<String> history;
+
+    @Setup
+    public void setUp() {
+        history = new ArrayList<>(visits);
+        for (SyntheticHistory.Visit visit : new SyntheticHistory(42, 5000).generate(visits, System.currentTimeMillis(), 365)) {
+            history.add(visit.getUrl());
+        }
+        Collections.reverse(history);
+    }
+
+    @Benchmark
+    public Object uniqueSites() throws Throwable {
+        return Nitron.EXTRACT_UNIQUE_SITES.invoke(history);
+    }
+
+    @Benchmark
+    public Object topSites() throws Throwable {
+        return Nitron.GET_TOP_SITES.invoke(history, 3);
+    }
+}
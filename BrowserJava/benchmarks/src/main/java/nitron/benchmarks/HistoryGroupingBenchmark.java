@@ -0,0 +1,51 @@
+package nitron.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks HistoryGrouping.groupByDay, which every history page goes through.
+ * 200 is the history dialog's page size; the larger sizes are the unpaged getHistoryByDay().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class HistoryGroupingBenchmark {
+    @Param({"200", "100000", "1000000"})
+    public int visits;
+
+    private List<Object> history;
+
+    @Setup
+    public void setUp() throws Throwable {
+        history = new ArrayList<>(visits);
+        for (SyntheticHistory.Visit visit : new SyntheticHistory(42, 5000).generate(visits, System.currentTimeMillis(), 365)) {
+            history.add(Nitron.NEW_HISTORY_VISIT.invoke(visit.getUrl(), new Date(visit.getVisitedAt())));
+        }
+        // Stores return newest first
+        Collections.reverse(history);
+    }
+
+    @Benchmark
+    public Object groupByDay() throws Throwable {
+        return Nitron.GROUP_BY_DAY.invoke(history);
+    }
+}
@@ -0,0 +1,144 @@
+package nitron.benchmarks;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the DatabaseOperations queries the history dialog, day summary and predictors issue.
+ *
+ * The "memory" backend is InMemoryDatabase. The "mongo" backend is DatabaseManager against the
+ * mongod given by -p mongoUri=... (default localhost:27017), using a throwaway database that is
+ * dropped and bulk loaded before each trial. Without a reachable mongod those trials fail and
+ * JMH moves on to the next one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class HistoryStoreBenchmark {
+    private static final String BENCHMARK_DATABASE = "nitronbrowser_bench";
+
+    @Param({"memory", "mongo"})
+    public String backend;
+
+    @Param({"100000", "1000000"})
+    public int visits;
+
+    @Param("mongodb://localhost:27017")
+    public String mongoUri;
+
+    private Object database;
+    private long nextVisitTime;
+    // The history dialog reaches the middle of the history by paging from the time of the last row shown
+    private Date middleVisitTime;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        long now = System.currentTimeMillis();
+        List<SyntheticHistory.Visit> history = new SyntheticHistory(42, 5000).generate(visits, now, 365);
+        if (backend.equals("mongo")) {
+            bulkLoad(history);
+            database = Nitron.NEW_DATABASE_MANAGER.invoke(mongoUri, BENCHMARK_DATABASE);
+            Nitron.ENSURE_INDEXES.invoke(database);
+        } else {
+            database = Nitron.NEW_IN_MEMORY_DATABASE.invoke();
+            for (SyntheticHistory.Visit visit : history) {
+                Nitron.ADD_HISTORY.invoke(database, visit.getUrl(), new Date(visit.getVisitedAt()));
+            }
+        }
+        nextVisitTime = now;
+        middleVisitTime = new Date(history.get(history.size() / 2).getVisitedAt());
+    }
+
+    private void bulkLoad(List<SyntheticHistory.Visit> history) {
+        try (MongoClient client = MongoClients.create(mongoUri)) {
+            client.getDatabase(BENCHMARK_DATABASE).drop();
+            MongoCollection<Document> collection = client.getDatabase(BENCHMARK_DATABASE).getCollection("history");
+            List<Document> batch = new ArrayList<>();
+            for (SyntheticHistory.Visit visit : history) {
+                batch.add(new Document("url", visit.getUrl()).append("visited_at", new Date(visit.getVisitedAt())));
+                if (batch.size() == 10_000) {
+                    collection.insertMany(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                collection.insertMany(batch);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        if (database != null) {
+            Nitron.CLOSE.invoke(database);
+        }
+    }
+
+    /**
+     * The first page the history dialog shows
+     */
+    @Benchmark
+    public Object historyFirstPage() throws Throwable {
+        return Nitron.GET_HISTORY_BEFORE.invoke(database, null, 200);
+    }
+
+    /**
+     * A page deep into the history, as reached by scrolling
+     */
+    @Benchmark
+    public Object historyMiddlePage() throws Throwable {
+        return Nitron.GET_HISTORY_BEFORE.invoke(database, middleVisitTime, 200);
+    }
+
+    /**
+     * The window the prerenderer scores
+     */
+    @Benchmark
+    public Object recentVisits() throws Throwable {
+        return Nitron.GET_RECENT_VISITS.invoke(database, 500);
+    }
+
+    /**
+     * The full read the day summary does on close
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    @Warmup(iterations = 2)
+    public Object fullHistory() throws Throwable {
+        return Nitron.GET_HISTORY.invoke(database);
+    }
+
+    /**
+     * Recording a visit. The store grows by one entry per call.
+     */
+    @Benchmark
+    public void addVisit() throws Throwable {
+        nextVisitTime += 1000;
+        Nitron.ADD_HISTORY.invoke(database, "https://github.com/abishek-vk/nitronbrowser", new Date(nextVisitTime));
+    }
+}
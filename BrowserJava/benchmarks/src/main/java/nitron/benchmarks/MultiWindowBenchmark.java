@@ -0,0 +1,162 @@
+package nitron.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress benchmark for the storage and cache every browser window shares.
+ *
+ * Each thread plays one window: most record and then update visits and bookmark pages, the rest
+ * page through history or load resources through the response cache's memory tier, all at once
+ * against the same InMemoryDatabase and MemoryCacheTier. After every iteration the history is
+ * checked for lost or duplicated visits and the bookmarks for lost writes, so a locking
+ * regression fails the run instead of only slowing it down.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class MultiWindowBenchmark {
+    private static final int SEEDED_VISITS = 20_000;
+    private static final int RESOURCES = 4096;
+    private static final Object LINK = transition("LINK");
+
+    private Object database;
+    private Object memoryTier;
+    private Object[] responses;
+    private final AtomicLong visitsRecorded = new AtomicLong();
+    private final AtomicLong bookmarksKept = new AtomicLong();
+
+    /**
+     * Per-thread state: the window's own random stream and visit ids
+     */
+    @State(Scope.Thread)
+    public static class Window {
+        private final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+        private final long windowId = Thread.currentThread().getId();
+        private long nextVisit;
+        // Time of the last history row shown, or null to start again from the top
+        private Date historyCursor;
+        private int historyPages;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        database = Nitron.NEW_IN_MEMORY_DATABASE.invoke();
+        long now = System.currentTimeMillis();
+        for (SyntheticHistory.Visit visit : new SyntheticHistory(42, 5000).generate(SEEDED_VISITS, now, 30)) {
+            Nitron.ADD_HISTORY.invoke(database, visit.getUrl(), new Date(visit.getVisitedAt()));
+        }
+        memoryTier = Nitron.NEW_MEMORY_CACHE_TIER.invoke(32L * 1024 * 1024, 256 * 1024);
+        responses = new Object[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            Map<String, List<String>> headers = Map.of("Content-Type", List.of("text/css"));
+            responses[i] = Nitron.NEW_CACHED_RESPONSE.invoke(headers, new byte[1024 + (i % 16) * 1024], null,
+                    Collections.emptyList(), now, now + 3_600_000);
+        }
+        visitsRecorded.set(0);
+        bookmarksKept.set(0);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object transition(String name) {
+        return Enum.valueOf((Class) Nitron.TRANSITION, name);
+    }
+
+    @TearDown(Level.Iteration)
+    public void verify() throws Throwable {
+        int history = ((List<?>) Nitron.GET_HISTORY.invoke(database)).size();
+        long expected = SEEDED_VISITS + visitsRecorded.get();
+        if (history != expected) {
+            throw new IllegalStateException("History has " + history + " entries, expected " + expected);
+        }
+        int bookmarks = ((List<?>) Nitron.GET_BOOKMARKS.invoke(database)).size();
+        if (bookmarks != bookmarksKept.get()) {
+            throw new IllegalStateException("Bookmarks has " + bookmarks + " entries, expected " + bookmarksKept.get());
+        }
+    }
+
+    /**
+     * A window recording a visit as the VisitRecorder does: saved when the page loads and
+     * replaced with its counters when the user leaves. Every tenth page is bookmarked
+     * and every twentieth bookmark removed again.
+     */
+    @Benchmark
+    @Group("windows")
+    @GroupThreads(6)
+    public void recordVisit(Window window) throws Throwable {
+        long visit = window.nextVisit++;
+        String id = window.windowId + "-" + visit;
+        String url = "https://site" + window.random.nextInt(5000) + ".example/page" + visit;
+        Date visitedAt = new Date();
+        Nitron.SAVE_VISIT.invoke(database, Nitron.NEW_RECORDED_VISIT.invoke(id, url, visitedAt, LINK,
+                new ArrayList<String>(), 0, 0, 0L));
+        Nitron.SAVE_VISIT.invoke(database, Nitron.NEW_RECORDED_VISIT.invoke(id, url, visitedAt, LINK,
+                new ArrayList<String>(), 1, 2, 5000L));
+        visitsRecorded.incrementAndGet();
+        if (visit % 10 == 0) {
+            Nitron.ADD_BOOKMARK.invoke(database, url);
+            if (visit % 200 == 0) {
+                Nitron.DELETE_BOOKMARK.invoke(database, url);
+            } else {
+                bookmarksKept.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A window with the history dialog open, scrolling through the first pages
+     */
+    @Benchmark
+    @Group("windows")
+    @GroupThreads(2)
+    public Object pageHistory(Window window) throws Throwable {
+        List<?> page = (List<?>) Nitron.GET_HISTORY_BEFORE.invoke(database, window.historyCursor, 200);
+        if (page.isEmpty() || ++window.historyPages == 5) {
+            window.historyCursor = null;
+            window.historyPages = 0;
+        } else {
+            window.historyCursor = (Date) Nitron.VISITED_AT.invoke(page.get(page.size() - 1));
+        }
+        return page;
+    }
+
+    /**
+     * A window loading a page's subresources through the shared memory tier
+     */
+    @Benchmark
+    @Group("windows")
+    @GroupThreads(2)
+    public Object loadResources(Window window) throws Throwable {
+        int resource = window.random.nextInt(RESOURCES);
+        String key = "https://cdn.example/asset" + resource + ".css";
+        Object cached = Nitron.MEMORY_CACHE_GET.invoke(memoryTier, key);
+        if (cached == null) {
+            Nitron.MEMORY_CACHE_PUT.invoke(memoryTier, key, responses[resource]);
+        }
+        return cached;
+    }
+}
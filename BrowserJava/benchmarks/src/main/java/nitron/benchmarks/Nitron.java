@@ -0,0 +1,109 @@
+package nitron.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Handles to the browser classes under benchmark.
+ *
+ * The browser lives in the default package, which code in a named package cannot reference,
+ * and JMH refuses benchmarks in the default package. The benchmarks therefore call the browser
+ * through these method handles. They are static final, so the JIT inlines them like direct calls.
+ */
+final class Nitron {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final Class<?> DATABASE_OPERATIONS = load("DatabaseOperations");
+    static final Class<?> HISTORY_VISIT = load("HistoryVisit");
+    static final Class<?> CACHED_RESPONSE = load("CachedResponse");
+
+    static final MethodHandle NEW_IN_MEMORY_DATABASE = constructor("InMemoryDatabase");
+    static final MethodHandle NEW_DATABASE_MANAGER = constructor("DatabaseManager", String.class, String.class);
+    static final MethodHandle ENSURE_INDEXES = virtual(load("DatabaseManager"), "ensureIndexes", void.class);
+    static final MethodHandle ADD_HISTORY = virtual(DATABASE_OPERATIONS, "addHistory", void.class, String.class, Date.class);
+    static final MethodHandle GET_HISTORY = virtual(DATABASE_OPERATIONS, "getHistory", List.class);
+    static final MethodHandle GET_HISTORY_BEFORE = virtual(DATABASE_OPERATIONS, "getHistoryBefore", List.class, Date.class, int.class);
+    static final MethodHandle SAVE_VISIT = virtual(DATABASE_OPERATIONS, "saveVisit", void.class, HISTORY_VISIT);
+    static final MethodHandle ADD_BOOKMARK = virtual(DATABASE_OPERATIONS, "addBookmark", void.class, String.class);
+    static final MethodHandle GET_BOOKMARKS = virtual(DATABASE_OPERATIONS, "getBookmarks", List.class);
+    static final MethodHandle DELETE_BOOKMARK = virtual(DATABASE_OPERATIONS, "deleteBookmark", void.class, String.class);
+    static final MethodHandle GET_RECENT_VISITS = virtual(DATABASE_OPERATIONS, "getRecentVisits", List.class, int.class);
+    static final MethodHandle CLOSE = virtual(DATABASE_OPERATIONS, "close", void.class);
+
+    static final MethodHandle NEW_HISTORY_VISIT = constructor("HistoryVisit", String.class, Date.class);
+    static final MethodHandle VISITED_AT = virtual(HISTORY_VISIT, "getVisitedAt", Date.class);
+    static final Class<?> TRANSITION = load("HistoryVisit$Transition");
+    static final MethodHandle NEW_RECORDED_VISIT = constructor("HistoryVisit", String.class, String.class, Date.class,
+            TRANSITION, List.class, int.class, int.class, long.class);
+
+    static final MethodHandle NEW_MEMORY_CACHE_TIER = constructor("MemoryCacheTier", long.class, int.class);
+    static final MethodHandle MEMORY_CACHE_GET = virtual(load("MemoryCacheTier"), "get", CACHED_RESPONSE, String.class);
+    static final MethodHandle MEMORY_CACHE_PUT = virtual(load("MemoryCacheTier"), "put", void.class, String.class, CACHED_RESPONSE);
+    static final MethodHandle NEW_CACHED_RESPONSE = constructor("CachedResponse", Map.class, byte[].class, String.class,
+            List.class, long.class, long.class);
+    static final MethodHandle GROUP_BY_DAY = staticMethod("HistoryGrouping", "groupByDay", Map.class, Iterable.class);
+
+    static final MethodHandle EXTRACT_UNIQUE_SITES = staticMethod("DaySummaryPage", "extractUniqueSites", Set.class, List.class);
+    static final MethodHandle GET_TOP_SITES = staticMethod("DaySummaryPage", "getTopSites", List.class, List.class, int.class);
+
+    static final Class<?> CHANGE_STREAM_WATCHER = load("ChangeStreamWatcher");
+    static final MethodHandle START_WATCHING = virtual(load("DatabaseManager"), "startWatching", CHANGE_STREAM_WATCHER, Path.class);
+    static final MethodHandle ADD_CHANGE_LISTENER = virtual(CHANGE_STREAM_WATCHER, "addListener", void.class, Consumer.class);
+    static final MethodHandle IS_POLLING = virtual(CHANGE_STREAM_WATCHER, "isPolling", boolean.class);
+    static final MethodHandle CHANGE_TYPE = virtual(load("DatabaseChange"), "getType", load("DatabaseChange$Type"));
+    static final MethodHandle CHANGE_URL = virtual(load("DatabaseChange"), "getUrl", String.class);
+
+    static final MethodHandle NEW_PROFILE_IMPORTER = constructor("ProfileImporter", DATABASE_OPERATIONS, Path.class,
+            int.class, int.class);
+    static final MethodHandle IMPORT_PROFILE = virtual(load("ProfileImporter"), "importProfile", long.class, Path.class);
+
+    static final MethodHandle NEW_COOKIE_STORE = constructor("PersistentCookieStore", Path.class);
+    static final MethodHandle LOAD_COOKIES = virtual(load("PersistentCookieStore"), "load", void.class);
+    static final MethodHandle CLOSE_COOKIES = virtual(load("PersistentCookieStore"), "close", void.class);
+    static final MethodHandle COOKIE_STATISTICS = virtual(load("PersistentCookieStore"), "getStatisticsAsString", String.class);
+
+    static final MethodHandle SCENE_STYLESHEET = staticMethod("ThemeManager", "getSceneStylesheet", String.class, boolean.class);
+    static final MethodHandle WEBPAGE_THEME_SCRIPT = staticMethod("ThemeManager", "getWebpageThemeScript", String.class, boolean.class);
+
+    private Nitron() {
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Browser class not on the classpath: " + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(String className, Class<?>... parameters) {
+        try {
+            return LOOKUP.findConstructor(load(className), MethodType.methodType(void.class, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return LOOKUP.findStatic(load(className), name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
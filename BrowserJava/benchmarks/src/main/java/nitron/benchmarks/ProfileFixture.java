@@ -0,0 +1,202 @@
+package nitron.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ProfileFixture writes browser profiles for the import benchmarks.
+ *
+ * The visits come from SyntheticHistory and are stored in the tables Chromium (History) and
+ * Firefox (places.sqlite) use, with their timestamp formats. Among them are the rows an import has
+ * to leave out: non-web pages, visits to frames and a second record of a visit a few hundred
+ * milliseconds after the first. The fixture counts the visits and bookmarks an import should end
+ * up with, so a benchmark can check the result.
+ *
+ * Run main to write a profile: ProfileFixture chromium|firefox &lt;visits&gt; &lt;directory&gt;
+ */
+public final class ProfileFixture {
+    private static final long CHROMIUM_EPOCH_OFFSET_MICROS = 11_644_473_600_000_000L;
+    private static final String[] INTERNAL_PAGES = {"chrome://settings/", "about:config", "file:///tmp/notes.txt"};
+    private static final int BOOKMARK_EVERY = 50;
+
+    private final String browser;
+    private final Path file;
+    private long expectedVisits;
+    private long expectedBookmarks;
+
+    private ProfileFixture(String browser, Path file) {
+        this.browser = browser;
+        this.file = file;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: ProfileFixture chromium|firefox <visits> <directory>");
+            System.exit(2);
+        }
+        ProfileFixture fixture = write(args[0], Integer.parseInt(args[1]), Paths.get(args[2]));
+        System.out.println("Wrote " + fixture.getFile() + ": " + fixture.getExpectedVisits() + " visits and "
+                + fixture.getExpectedBookmarks() + " bookmarks to import");
+    }
+
+    /**
+     * Write a profile
+     * @param browser "chromium" or "firefox"
+     * @param visits Number of synthetic visits
+     * @param directory Directory for the profile files
+     * @return The fixture with its expected counts
+     */
+    public static ProfileFixture write(String browser, int visits, Path directory) throws IOException, SQLException {
+        Files.createDirectories(directory);
+        boolean firefox = "firefox".equals(browser);
+        ProfileFixture fixture = new ProfileFixture(browser, directory.resolve(firefox ? "places.sqlite" : "History"));
+        Files.deleteIfExists(fixture.file);
+        List<SyntheticHistory.Visit> history = new SyntheticHistory(7, 2000).generate(visits, System.currentTimeMillis(), 90);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + fixture.file.toAbsolutePath())) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                if (firefox) {
+                    statement.execute("CREATE TABLE moz_places (id INTEGER PRIMARY KEY, url LONGVARCHAR, title LONGVARCHAR)");
+                    statement.execute("CREATE TABLE moz_historyvisits (id INTEGER PRIMARY KEY, from_visit INTEGER, "
+                            + "place_id INTEGER, visit_date INTEGER, visit_type INTEGER, session INTEGER)");
+                    statement.execute("CREATE TABLE moz_bookmarks (id INTEGER PRIMARY KEY, type INTEGER, fk INTEGER, "
+                            + "parent INTEGER, title LONGVARCHAR, dateAdded INTEGER)");
+                } else {
+                    statement.execute("CREATE TABLE urls (id INTEGER PRIMARY KEY, url LONGVARCHAR, title LONGVARCHAR, "
+                            + "visit_count INTEGER DEFAULT 0, last_visit_time INTEGER)");
+                    statement.execute("CREATE TABLE visits (id INTEGER PRIMARY KEY, url INTEGER, visit_time INTEGER, "
+                            + "from_visit INTEGER, transition INTEGER DEFAULT 0)");
+                }
+            }
+            fixture.writeVisits(connection, history, firefox);
+            connection.commit();
+        }
+        return fixture;
+    }
+
+    private void writeVisits(Connection connection, List<SyntheticHistory.Visit> history, boolean firefox)
+            throws SQLException, IOException {
+        Map<String, Long> places = new HashMap<>();
+        Set<String> ids = new HashSet<>();
+        Set<String> bookmarked = new HashSet<>();
+        StringBuilder chromiumBookmarks = new StringBuilder();
+        String previousUrl = null;
+        long previousTime = Long.MIN_VALUE;
+        try (PreparedStatement place = connection.prepareStatement(firefox
+                     ? "INSERT INTO moz_places (id, url) VALUES (?, ?)" : "INSERT INTO urls (id, url) VALUES (?, ?)");
+             PreparedStatement visit = connection.prepareStatement(firefox
+                     ? "INSERT INTO moz_historyvisits (place_id, visit_date, visit_type) VALUES (?, ?, ?)"
+                     : "INSERT INTO visits (url, visit_time, transition) VALUES (?, ?, ?)");
+             PreparedStatement bookmark = firefox ? connection.prepareStatement(
+                     "INSERT INTO moz_bookmarks (type, fk, parent, dateAdded) VALUES (?, ?, 2, ?)") : null) {
+            if (bookmark != null) {
+                // A folder, which has no page
+                bookmark.setInt(1, 2);
+                bookmark.setNull(2, java.sql.Types.INTEGER);
+                bookmark.setLong(3, 0);
+                bookmark.executeUpdate();
+            }
+            int row = 0;
+            for (SyntheticHistory.Visit synthetic : history) {
+                row++;
+                String url = synthetic.getUrl();
+                long time = synthetic.getVisitedAt();
+                // Chromium keeps qualifiers in the high bits; these say the link starts and ends a redirect chain
+                addVisit(place, visit, places, url, time, firefox ? 1 : 0x30000000, firefox);
+                // Same rules as the importer: collapse repeats within a second, one visit per URL and time
+                if (!url.equals(previousUrl) || time - previousTime >= 1000) {
+                    previousUrl = url;
+                    previousTime = time;
+                    if (ids.add(url + "@" + time)) {
+                        expectedVisits++;
+                    }
+                }
+                if (row % 20 == 0) {
+                    addVisit(place, visit, places, INTERNAL_PAGES[row % INTERNAL_PAGES.length], time + 10, 1, firefox);
+                }
+                if (row % 25 == 0) {
+                    // An embedded frame: Chromium's AUTO_SUBFRAME, Firefox's TRANSITION_EMBED
+                    addVisit(place, visit, places, "https://ads.example/frame" + row, time + 20, firefox ? 4 : 3, firefox);
+                }
+                if (row % 30 == 0) {
+                    // The same page recorded twice, as after a client redirect
+                    addVisit(place, visit, places, url, time + 300, firefox ? 1 : 0, firefox);
+                }
+                if (row % BOOKMARK_EVERY == 0 && bookmarked.add(url)) {
+                    expectedBookmarks++;
+                    if (bookmark != null) {
+                        bookmark.setInt(1, 1);
+                        bookmark.setLong(2, places.get(url));
+                        bookmark.setLong(3, time * 1000);
+                        bookmark.executeUpdate();
+                    } else {
+                        chromiumBookmarks.append(chromiumBookmarks.length() == 0 ? "" : ",")
+                                .append("{\"type\":\"url\",\"name\":\"Page ").append(row).append("\",\"url\":\"")
+                                .append(url).append("\",\"date_added\":\"")
+                                .append(time * 1000 + CHROMIUM_EPOCH_OFFSET_MICROS).append("\"}");
+                    }
+                }
+            }
+            visit.executeBatch();
+        }
+        if (!firefox) {
+            // Bookmarks sit next to History; the other roots hold a nested folder and nothing
+            String json = "{\"version\":1,\"roots\":{"
+                    + "\"bookmark_bar\":{\"type\":\"folder\",\"name\":\"Bookmarks bar\",\"children\":["
+                    + "{\"type\":\"folder\",\"name\":\"Reading\",\"children\":[" + chromiumBookmarks + "]},"
+                    + "{\"type\":\"url\",\"name\":\"Settings\",\"url\":\"chrome://settings/\",\"date_added\":\"0\"}]},"
+                    + "\"other\":{\"type\":\"folder\",\"name\":\"Other bookmarks\",\"children\":[]},"
+                    + "\"synced\":{\"type\":\"folder\",\"name\":\"Mobile bookmarks\",\"children\":[]}}}";
+            Files.write(file.resolveSibling("Bookmarks"), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void addVisit(PreparedStatement place, PreparedStatement visit, Map<String, Long> places,
+                                 String url, long time, int type, boolean firefox) throws SQLException {
+        Long id = places.get(url);
+        if (id == null) {
+            id = (long) places.size() + 1;
+            places.put(url, id);
+            place.setLong(1, id);
+            place.setString(2, url);
+            place.executeUpdate();
+        }
+        visit.setLong(1, id);
+        visit.setLong(2, firefox ? time * 1000 : time * 1000 + CHROMIUM_EPOCH_OFFSET_MICROS);
+        visit.setInt(3, type);
+        visit.addBatch();
+    }
+
+    public String getBrowser() {
+        return browser;
+    }
+
+    /**
+     * Get the file to import
+     * @return History or places.sqlite
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    public long getExpectedVisits() {
+        return expectedVisits;
+    }
+
+    public long getExpectedBookmarks() {
+        return expectedBookmarks;
+    }
+}
@@ -0,0 +1,146 @@
+package nitron.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks ProfileImporter on generated Chromium and Firefox profiles.
+ *
+ * Each iteration imports a fresh ProfileFixture into an empty InMemoryDatabase. "resume" makes
+ * one saveVisits call fail partway through, imports again from the checkpoint the failed run left
+ * and then a third time, which must add nothing. After every iteration the history and bookmarks
+ * are compared with the counts the fixture expects, so an import that drops, duplicates or
+ * misreads visits fails the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ProfileImportBenchmark {
+    private static final int FAILING_BATCH = 20;
+
+    @Param({"chromium", "firefox"})
+    public String browser;
+
+    @Param({"200000"})
+    public int visits;
+
+    @Param({"4"})
+    public int writers;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private Path directory;
+    private ProfileFixture fixture;
+    private Object database;
+    private Path checkpoints;
+
+    @Setup(Level.Trial)
+    public void writeProfile() throws Exception {
+        directory = Files.createTempDirectory("nitron-profile");
+        fixture = ProfileFixture.write(browser, visits, directory.resolve("profile"));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        database = Nitron.NEW_IN_MEMORY_DATABASE.invoke();
+        checkpoints = Files.createTempDirectory(directory, "checkpoints");
+    }
+
+    @TearDown(Level.Iteration)
+    public void verify() throws Throwable {
+        int history = ((List<?>) Nitron.GET_HISTORY.invoke(database)).size();
+        if (history != fixture.getExpectedVisits()) {
+            throw new IllegalStateException("Imported " + history + " visits from " + browser + ", expected "
+                    + fixture.getExpectedVisits());
+        }
+        int bookmarks = ((List<?>) Nitron.GET_BOOKMARKS.invoke(database)).size();
+        if (bookmarks != fixture.getExpectedBookmarks()) {
+            throw new IllegalStateException("Imported " + bookmarks + " bookmarks from " + browser + ", expected "
+                    + fixture.getExpectedBookmarks());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProfile() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * A first import of the whole profile
+     */
+    @Benchmark
+    public long importProfile() throws Throwable {
+        Object importer = Nitron.NEW_PROFILE_IMPORTER.invoke(database, checkpoints, writers, batchSize);
+        return (long) Nitron.IMPORT_PROFILE.invoke(importer, fixture.getFile());
+    }
+
+    /**
+     * An import that fails, is continued from its checkpoint and is then repeated
+     */
+    @Benchmark
+    public long resume() throws Throwable {
+        Object failing = Nitron.NEW_PROFILE_IMPORTER.invoke(failingOn(database, FAILING_BATCH), checkpoints, writers, batchSize);
+        try {
+            Nitron.IMPORT_PROFILE.invoke(failing, fixture.getFile());
+            throw new IllegalStateException("Import did not fail on batch " + FAILING_BATCH);
+        } catch (IOException expected) {
+            // The checkpoint holds what was saved before the failure
+        }
+        Object importer = Nitron.NEW_PROFILE_IMPORTER.invoke(database, checkpoints, writers, batchSize);
+        long resumed = (long) Nitron.IMPORT_PROFILE.invoke(importer, fixture.getFile());
+        if (resumed >= fixture.getExpectedVisits()) {
+            throw new IllegalStateException("Resumed import started over: " + resumed + " visits");
+        }
+        long repeated = (long) Nitron.IMPORT_PROFILE.invoke(importer, fixture.getFile());
+        if (repeated != 0) {
+            throw new IllegalStateException("Repeated import saved " + repeated + " visits again");
+        }
+        return resumed;
+    }
+
+    /**
+     * Wrap a database so that one saveVisits call throws, as a dropped connection would
+     */
+    private static Object failingOn(Object database, int failingCall) {
+        AtomicInteger calls = new AtomicInteger();
+        return Proxy.newProxyInstance(Nitron.DATABASE_OPERATIONS.getClassLoader(), new Class<?>[] {Nitron.DATABASE_OPERATIONS},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("saveVisits") && calls.incrementAndGet() == failingCall) {
+                        throw new IllegalStateException("Connection lost");
+                    }
+                    try {
+                        return method.invoke(database, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
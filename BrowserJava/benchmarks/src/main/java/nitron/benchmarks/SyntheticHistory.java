@@ -0,0 +1,204 @@
+package nitron.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SyntheticHistory generates realistic browsing history for benchmarks.
+ *
+ * Sites and the pages within a site are picked from Zipf distributions, so a handful of sites
+ * dominate and most URLs are revisited, as in real profiles. Visits come in sessions that start
+ * more often in the morning, after lunch and in the evening, with short gaps between page views.
+ * The same seed always produces the same history.
+ *
+ * Run main to write a history file: SyntheticHistory &lt;visits&gt; &lt;file&gt; [days]
+ */
+public final class SyntheticHistory {
+    private static final String[] POPULAR_SITES = {
+        "www.google.com", "www.youtube.com", "github.com", "stackoverflow.com", "en.wikipedia.org",
+        "www.reddit.com", "news.ycombinator.com", "mail.google.com", "docs.google.com", "www.amazon.com",
+        "twitter.com", "www.linkedin.com", "search.brave.com", "docs.oracle.com", "www.nytimes.com",
+        "www.bbc.co.uk", "medium.com", "www.netflix.com", "maven.apache.org", "openjfx.io"
+    };
+    private static final String[] SYLLABLES = {
+        "ka", "lo", "mi", "ne", "tor", "vex", "ra", "zen", "pol", "dy", "sun", "mar", "io", "quo", "bel", "tri"
+    };
+    private static final String[] TLDS = {".com", ".org", ".net", ".io", ".dev", ".co.uk", ".de"};
+    private static final String[] WORDS = {
+        "java", "release", "guide", "review", "news", "weather", "recipe", "pricing", "docs", "install",
+        "error", "stream", "tutorial", "benchmark", "travel", "music", "football", "market", "cloud", "design"
+    };
+    private static final double[] HOUR_WEIGHTS = {
+        0.2, 0.1, 0.05, 0.05, 0.05, 0.1, 0.3, 0.7, 1.0, 1.3, 1.4, 1.2,
+        1.0, 1.2, 1.3, 1.2, 1.0, 0.9, 1.0, 1.3, 1.5, 1.4, 1.0, 0.5
+    };
+    private static final int PAGES_PER_SITE = 500;
+    private static final double MEAN_SESSION_VISITS = 8;
+    private static final double MEAN_GAP_SECONDS = 45;
+
+    private final SplittableRandom random;
+    private final String[] sites;
+    private final double[] siteCdf;
+    private final double[] pageCdf;
+    private final double[] hourCdf;
+
+    /**
+     * Constructor for SyntheticHistory
+     * @param seed Seed for the generator
+     * @param siteCount Number of distinct sites
+     */
+    public SyntheticHistory(long seed, int siteCount) {
+        this.random = new SplittableRandom(seed);
+        this.sites = new String[siteCount];
+        for (int i = 0; i < siteCount; i++) {
+            sites[i] = i < POPULAR_SITES.length ? POPULAR_SITES[i] : syntheticSite(i);
+        }
+        this.siteCdf = zipfCdf(siteCount, 1.07);
+        this.pageCdf = zipfCdf(PAGES_PER_SITE, 0.9);
+        this.hourCdf = cumulative(HOUR_WEIGHTS);
+    }
+
+    /**
+     * Generate visits spread over the days before a point in time
+     * @param count Number of visits
+     * @param endMillis Time of the newest possible visit
+     * @param days Number of days the history covers
+     * @return Visits, oldest first
+     */
+    public List<Visit> generate(int count, long endMillis, int days) {
+        List<Visit> visits = new ArrayList<>(count);
+        long dayMillis = TimeUnit.DAYS.toMillis(1);
+        long firstDay = endMillis - days * dayMillis;
+        firstDay -= Math.floorMod(firstDay, dayMillis);
+        while (visits.size() < count) {
+            long time = firstDay + random.nextInt(days) * dayMillis
+                    + pick(hourCdf) * TimeUnit.HOURS.toMillis(1) + random.nextLong(TimeUnit.HOURS.toMillis(1));
+            int sessionVisits = 1 + (int) (-Math.log(1 - random.nextDouble()) * (MEAN_SESSION_VISITS - 1));
+            int site = pick(siteCdf);
+            for (int i = 0; i < sessionVisits && visits.size() < count && time <= endMillis; i++) {
+                // Most page views stay on the same site, some jump elsewhere
+                if (random.nextDouble() < 0.3) {
+                    site = pick(siteCdf);
+                }
+                visits.add(new Visit(url(site, pick(pageCdf)), time));
+                time += (long) (-Math.log(1 - random.nextDouble()) * MEAN_GAP_SECONDS * 1000) + 500;
+            }
+        }
+        visits.sort(Comparator.comparingLong(Visit::getVisitedAt));
+        return visits;
+    }
+
+    private String url(int site, int page) {
+        String host = sites[site];
+        String word = WORDS[(site * 31 + page) % WORDS.length];
+        switch (page % 5) {
+            case 0:
+                return page == 0 ? "https://" + host + "/" : "https://" + host + "/search?q=" + word + "+" + page;
+            case 1:
+                return "https://" + host + "/wiki/" + Character.toUpperCase(word.charAt(0)) + word.substring(1) + "_" + page;
+            case 2:
+                return "https://" + host + "/questions/" + (7_000_000 + site * 1000 + page) + "/" + word + "-" + WORDS[page % WORDS.length];
+            case 3:
+                return "https://" + host + "/" + word + "/" + (2020 + page % 6) + "/" + String.format("%02d", 1 + page % 12) + "/article-" + page + ".html";
+            default:
+                return "https://" + host + "/" + word + "?id=" + page + "&ref=home#section-" + (page % 7);
+        }
+    }
+
+    private int pick(double[] cdf) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return index >= 0 ? index : Math.min(-index - 1, cdf.length - 1);
+    }
+
+    private static String syntheticSite(int index) {
+        StringBuilder name = new StringBuilder(index % 3 == 0 ? "www." : "");
+        int value = index;
+        do {
+            name.append(SYLLABLES[value % SYLLABLES.length]);
+            value /= SYLLABLES.length;
+        } while (value > 0);
+        return name.append(TLDS[index % TLDS.length]).toString();
+    }
+
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = 1 / Math.pow(i + 1, exponent);
+        }
+        return cumulative(weights);
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cdf[i] = sum / total;
+        }
+        return cdf;
+    }
+
+    /**
+     * Write a synthetic history as tab separated "epochMillis url" lines, oldest first
+     * @param args visits, output file and optionally the number of days (default 365)
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticHistory <visits> <file> [days]");
+            return;
+        }
+        int count = Integer.parseInt(args[0]);
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+        List<Visit> visits = new SyntheticHistory(42, 5000).generate(count, System.currentTimeMillis(), days);
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            for (Visit visit : visits) {
+                out.write(visit.getVisitedAt() + "\t" + visit.getUrl());
+                out.newLine();
+            }
+        }
+        System.out.println("Wrote " + visits.size() + " visits to " + args[1]);
+    }
+
+    /**
+     * One generated visit
+     */
+    public static final class Visit {
+        private final String url;
+        private final long visitedAt;
+
+        private Visit(String url, long visitedAt) {
+            this.url = url;
+            this.visitedAt = visitedAt;
+        }
+
+        /**
+         * Get the visited URL
+         * @return The URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get the visit time
+         * @return Milliseconds since the epoch
+         */
+        public long getVisitedAt() {
+            return visitedAt;
+        }
+    }
+}
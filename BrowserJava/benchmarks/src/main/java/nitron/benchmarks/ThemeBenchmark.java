@@ -0,0 +1,38 @@
+package nitron.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the theme stylesheet and page script, which happens on every toggle and page load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThemeBenchmark {
+    @Param({"true", "false"})
+    public boolean dark;
+
+    @Benchmark
+    public Object sceneStylesheet() throws Throwable {
+        return Nitron.SCENE_STYLESHEET.invoke(dark);
+    }
+
+    @Benchmark
+    public Object webpageThemeScript() throws Throwable {
+        return Nitron.WEBPAGE_THEME_SCRIPT.invoke(dark);
+    }
+}
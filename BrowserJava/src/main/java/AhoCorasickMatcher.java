@@ -0,0 +1,251 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * AhoCorasickMatcher finds every keyword occurring in a text in a single pass.
+ * Transitions are kept in one open-addressing table keyed by (state, char) so that
+ * tens of thousands of keywords compile into flat arrays instead of per-node maps.
+ */
+public class AhoCorasickMatcher {
+    /**
+     * Receives keyword hits while scanning a text
+     */
+    public interface MatchVisitor {
+        /**
+         * Called for each keyword occurrence
+         * @param keywordId The id given to the keyword when it was added
+         * @param endIndex Index just past the end of the occurrence in the text
+         * @return true to stop scanning, false to continue
+         */
+        boolean visit(int keywordId, int endIndex);
+    }
+
+    private static final int[] NO_OUTPUT = new int[0];
+
+    private final TransitionTable transitions = new TransitionTable();
+    private final List<int[]> outputList = new ArrayList<>();
+    private int stateCount = 1;
+    private int[] failure;
+    private int[] outputLink;
+    private int[][] outputs;
+    private boolean built;
+
+    /**
+     * Add a keyword to the matcher. Keywords are matched case-sensitively,
+     * so callers normalise case on both sides.
+     * @param keyword The keyword to add
+     * @param keywordId The id reported when the keyword is found
+     */
+    public void add(String keyword, int keywordId) {
+        if (built) {
+            throw new IllegalStateException("Matcher is already built");
+        }
+        if (keyword.isEmpty()) {
+            throw new IllegalArgumentException("Keyword cannot be empty");
+        }
+        int state = 0;
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            int next = transitions.get(state, c);
+            if (next < 0) {
+                next = stateCount++;
+                transitions.put(state, c, next);
+            }
+            state = next;
+        }
+        while (outputList.size() <= state) {
+            outputList.add(NO_OUTPUT);
+        }
+        int[] existing = outputList.get(state);
+        int[] updated = Arrays.copyOf(existing, existing.length + 1);
+        updated[existing.length] = keywordId;
+        outputList.set(state, updated);
+    }
+
+    /**
+     * Compute failure links. Must be called once after all keywords are added.
+     */
+    public void build() {
+        failure = new int[stateCount];
+        outputLink = new int[stateCount];
+        outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            outputs[state] = state < outputList.size() ? outputList.get(state) : NO_OUTPUT;
+        }
+        outputList.clear();
+        Arrays.fill(outputLink, -1);
+
+        // Breadth-first over the trie so parents always have their links before children
+        List<int[]> children = transitions.edgesByState(stateCount);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int[] edge : children.get(0) == null ? new int[0][] : toEdges(children.get(0))) {
+            failure[edge[1]] = 0;
+            queue.add(edge[1]);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int[] packed = children.get(state);
+            if (packed == null) {
+                continue;
+            }
+            for (int[] edge : toEdges(packed)) {
+                char c = (char) edge[0];
+                int child = edge[1];
+                int fallback = failure[state];
+                while (fallback > 0 && transitions.get(fallback, c) < 0) {
+                    fallback = failure[fallback];
+                }
+                int target = transitions.get(fallback, c);
+                failure[child] = (target >= 0 && target != child) ? target : 0;
+                int linked = failure[child];
+                outputLink[child] = outputs[linked].length > 0 ? linked : outputLink[linked];
+                queue.add(child);
+            }
+        }
+        built = true;
+    }
+
+    /**
+     * Scan a text and report every keyword occurrence
+     * @param text The text to scan
+     * @param visitor Receives each occurrence
+     * @return true if the visitor stopped the scan, false otherwise
+     */
+    public boolean match(CharSequence text, MatchVisitor visitor) {
+        if (!built) {
+            throw new IllegalStateException("Matcher is not built");
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = transitions.get(state, c)) < 0 && state > 0) {
+                state = failure[state];
+            }
+            state = Math.max(next, 0);
+            for (int out = outputs[state].length > 0 ? state : outputLink[state]; out > 0; out = outputLink[out]) {
+                for (int keywordId : outputs[out]) {
+                    if (visitor.visit(keywordId, i + 1)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of trie states, useful for sizing diagnostics
+     * @return Number of states
+     */
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    private static int[][] toEdges(int[] packed) {
+        int[][] edges = new int[packed.length / 2][];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = new int[]{packed[2 * i], packed[2 * i + 1]};
+        }
+        return edges;
+    }
+
+    /**
+     * Open-addressing hash table from (state, char) to the next state
+     */
+    private static final class TransitionTable {
+        private static final long EMPTY = -1L;
+        private long[] keys = newKeys(1 << 10);
+        private int[] values = new int[1 << 10];
+        private int size;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static long key(int state, char c) {
+            return ((long) state << 16) | c;
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 40) & mask;
+        }
+
+        int get(int state, char c) {
+            long key = key(state, c);
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(int state, char c, int next) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            insert(key(state, c), next);
+        }
+
+        private void insert(long key, int value) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        /**
+         * Group edges by source state as packed (char, target) pairs
+         */
+        List<int[]> edgesByState(int stateCount) {
+            int[] counts = new int[stateCount];
+            for (long key : keys) {
+                if (key != EMPTY) {
+                    counts[(int) (key >>> 16)]++;
+                }
+            }
+            List<int[]> edges = new ArrayList<>(stateCount);
+            int[] fill = new int[stateCount];
+            for (int state = 0; state < stateCount; state++) {
+                edges.add(counts[state] == 0 ? null : new int[counts[state] * 2]);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    int state = (int) (keys[i] >>> 16);
+                    int[] packed = edges.get(state);
+                    packed[fill[state]++] = (int) (keys[i] & 0xFFFF);
+                    packed[fill[state]++] = values[i];
+                }
+            }
+            return edges;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BandwidthLimiter is a token bucket shared by every download.
+ * Tokens are bytes and refill at the configured rate, up to one second's worth of burst.
+ * A caller takes the bytes it is about to transfer and sleeps off any debt, so all
+ * transfers together stay at the rate however many connections are open.
+ */
+public class BandwidthLimiter {
+    private volatile long bytesPerSecond;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Constructor for BandwidthLimiter
+     * @param bytesPerSecond The rate limit, or 0 for unlimited
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+    }
+
+    /**
+     * Take bytes from the bucket, waiting until the rate allows them
+     * @param bytes The number of bytes about to be transferred
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private synchronized long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        tokens -= bytes;
+        // Going into debt reserves the bytes now; the caller waits until the debt is repaid
+        return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+    }
+
+    /**
+     * Change the rate limit
+     * @param bytesPerSecond The new limit, or 0 for unlimited
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = Math.min(tokens, bytesPerSecond);
+    }
+
+    /**
+     * Get the rate limit
+     * @return Bytes per second, or 0 when unlimited
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -1,18 +1,30 @@
 /**
  * BookmarkManager is a derived class from BrowserFeature.
  * Manages all bookmark-related operations in the browser.
+ * Bookmarks can be made available offline, which keeps an archived copy that is refreshed in the background.
  * Demonstrates inheritance from the abstract BrowserFeature class.
  */
 public class BookmarkManager extends BrowserFeature {
-    private DatabaseOperations dbOperations;
+    private final DatabaseOperations dbOperations;
+    private final PageArchive pageArchive;
 
     /**
      * Constructor for BookmarkManager
      * @param dbOperations The database operations interface
      */
     public BookmarkManager(DatabaseOperations dbOperations) {
+        this(dbOperations, null);
+    }
+
+    /**
+     * Constructor for BookmarkManager with offline copies
+     * @param dbOperations The database operations interface
+     * @param pageArchive The archive that keeps offline copies, or null
+     */
+    public BookmarkManager(DatabaseOperations dbOperations, PageArchive pageArchive) {
         super("Bookmark Manager");
         this.dbOperations = dbOperations;
+        this.pageArchive = pageArchive;
     }
 
     /**
@@ -75,9 +87,48 @@ public class BookmarkManager extends BrowserFeature {
             return;
         }
         dbOperations.deleteBookmark(url);
+        if (pageArchive != null && pageArchive.isPinned(url)) {
+            pageArchive.unpin(url);
+        }
         System.out.println("Bookmark deleted: " + url);
     }
 
+    /**
+     * Keep an archived copy of a bookmark for offline use, refreshed in the background
+     * @param url The bookmarked URL
+     * @return Completes with the number of resources saved once the first copy is stored
+     * @throws InvalidURLException if offline copies are not available or the URL is invalid
+     */
+    public java.util.concurrent.CompletableFuture<Integer> makeAvailableOffline(String url) throws InvalidURLException {
+        if (!isEnabled || pageArchive == null) {
+            throw new InvalidURLException("Offline bookmarks are not available", url);
+        }
+        if (url == null || (!url.startsWith("http://") && !url.startsWith("https://"))) {
+            throw new InvalidURLException("URL must start with http:// or https://", url);
+        }
+        System.out.println("Saving bookmark for offline use: " + url);
+        return pageArchive.pin(url);
+    }
+
+    /**
+     * Stop keeping a bookmark offline and delete its archived copy
+     * @param url The bookmarked URL
+     */
+    public void removeOfflineCopy(String url) {
+        if (pageArchive != null) {
+            pageArchive.unpin(url);
+        }
+    }
+
+    /**
+     * Check whether a bookmark is kept available offline
+     * @param url The bookmarked URL
+     * @return true if the bookmark is marked available offline
+     */
+    public boolean isAvailableOffline(String url) {
+        return pageArchive != null && pageArchive.isPinned(url);
+    }
+
     /**
      * Get the count of bookmarks
      * @return Number of bookmarks
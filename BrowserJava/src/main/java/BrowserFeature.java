@@ -4,8 +4,9 @@
  * Demonstrates inheritance and polymorphism in the browser application.
  */
 public abstract class BrowserFeature {
-    protected String featureName;
-    protected boolean isEnabled;
+    protected final String featureName;
+    // Read by every window's threads, so a disable is seen everywhere at once
+    protected volatile boolean isEnabled;
 
     /**
      * Constructor for BrowserFeature
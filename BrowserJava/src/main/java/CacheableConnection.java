@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Authenticator;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.Permission;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CacheableConnection wraps a JDK HttpURLConnection so the installed ResponseCache is consulted.
+ * WebKit's loader turns caching off on every connection it opens; this wrapper ignores
+ * that request and leaves the caching decision to the response cache, which already
+ * honours Cache-Control and revalidates stale entries. Everything else is delegated.
+ * Subclasses can veto the request in beforeRequest, once its headers are known.
+ */
+public class CacheableConnection extends HttpURLConnection {
+    protected final HttpURLConnection delegate;
+
+    /**
+     * Constructor for CacheableConnection
+     * @param delegate The JDK connection that performs the request
+     */
+    public CacheableConnection(HttpURLConnection delegate) {
+        super(delegate.getURL());
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void setUseCaches(boolean useCaches) {
+        // Intentionally ignored, see class comment
+    }
+
+    @Override
+    public boolean getUseCaches() {
+        return delegate.getUseCaches();
+    }
+
+    /**
+     * Called before the request is sent or its response read. Does nothing by default.
+     * @throws IOException to fail the request instead of sending it
+     */
+    protected void beforeRequest() throws IOException {
+    }
+
+    @Override
+    public void connect() throws IOException {
+        beforeRequest();
+        delegate.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return delegate.usingProxy();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        beforeRequest();
+        return delegate.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        beforeRequest();
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return delegate.getErrorStream();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        beforeRequest();
+        return delegate.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return delegate.getResponseMessage();
+    }
+
+    @Override
+    public void setRequestMethod(String method) throws java.net.ProtocolException {
+        delegate.setRequestMethod(method);
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return delegate.getRequestMethod();
+    }
+
+    @Override
+    public void setInstanceFollowRedirects(boolean followRedirects) {
+        delegate.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public boolean getInstanceFollowRedirects() {
+        return delegate.getInstanceFollowRedirects();
+    }
+
+    @Override
+    public void setAuthenticator(Authenticator authenticator) {
+        delegate.setAuthenticator(authenticator);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+        delegate.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(long contentLength) {
+        delegate.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setChunkedStreamingMode(int chunkLength) {
+        delegate.setChunkedStreamingMode(chunkLength);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        return delegate.getHeaderFieldKey(n);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        return delegate.getHeaderField(n);
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        return delegate.getHeaderField(name);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return delegate.getHeaderFields();
+    }
+
+    @Override
+    public int getHeaderFieldInt(String name, int defaultValue) {
+        return delegate.getHeaderFieldInt(name, defaultValue);
+    }
+
+    @Override
+    public long getHeaderFieldLong(String name, long defaultValue) {
+        return delegate.getHeaderFieldLong(name, defaultValue);
+    }
+
+    @Override
+    public long getHeaderFieldDate(String name, long defaultValue) {
+        return delegate.getHeaderFieldDate(name, defaultValue);
+    }
+
+    @Override
+    public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    @Override
+    public int getContentLength() {
+        return delegate.getContentLength();
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return delegate.getContentLengthLong();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return delegate.getContentEncoding();
+    }
+
+    @Override
+    public long getExpiration() {
+        return delegate.getExpiration();
+    }
+
+    @Override
+    public long getDate() {
+        return delegate.getDate();
+    }
+
+    @Override
+    public long getLastModified() {
+        return delegate.getLastModified();
+    }
+
+    @Override
+    public Object getContent() throws IOException {
+        return delegate.getContent();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Object getContent(Class[] classes) throws IOException {
+        return delegate.getContent(classes);
+    }
+
+    @Override
+    public Permission getPermission() throws IOException {
+        return delegate.getPermission();
+    }
+
+    @Override
+    public URL getURL() {
+        return delegate.getURL();
+    }
+
+    @Override
+    public void setConnectTimeout(int timeout) {
+        delegate.setConnectTimeout(timeout);
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return delegate.getConnectTimeout();
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+        delegate.setReadTimeout(timeout);
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return delegate.getReadTimeout();
+    }
+
+    @Override
+    public void setDoInput(boolean doInput) {
+        delegate.setDoInput(doInput);
+    }
+
+    @Override
+    public boolean getDoInput() {
+        return delegate.getDoInput();
+    }
+
+    @Override
+    public void setDoOutput(boolean doOutput) {
+        delegate.setDoOutput(doOutput);
+    }
+
+    @Override
+    public boolean getDoOutput() {
+        return delegate.getDoOutput();
+    }
+
+    @Override
+    public void setAllowUserInteraction(boolean allowUserInteraction) {
+        delegate.setAllowUserInteraction(allowUserInteraction);
+    }
+
+    @Override
+    public boolean getAllowUserInteraction() {
+        return delegate.getAllowUserInteraction();
+    }
+
+    @Override
+    public void setIfModifiedSince(long ifModifiedSince) {
+        delegate.setIfModifiedSince(ifModifiedSince);
+    }
+
+    @Override
+    public long getIfModifiedSince() {
+        return delegate.getIfModifiedSince();
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        delegate.setRequestProperty(key, value);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        delegate.addRequestProperty(key, value);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        return delegate.getRequestProperty(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        return delegate.getRequestProperties();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CacheResponse;
+import java.net.SecureCacheResponse;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * CachedResponse is one HTTP response held by the NitronResponseCache.
+ * It carries the status line, headers, body and freshness information, plus
+ * the TLS details that HttpsURLConnection requires before it accepts a cached response.
+ */
+public class CachedResponse {
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+    private final String cipherSuite;
+    private final List<Certificate> serverCertificates;
+    private volatile long storedAt;
+    private volatile long expiresAt;
+
+    /**
+     * Constructor for CachedResponse
+     * @param headers Response headers, with the status line under the null key
+     * @param body Response body
+     * @param cipherSuite TLS cipher suite, or null for plain http
+     * @param serverCertificates TLS server certificate chain, empty for plain http
+     * @param storedAt Time the response was received, in epoch milliseconds
+     * @param expiresAt Time the response stops being fresh, in epoch milliseconds
+     */
+    public CachedResponse(Map<String, List<String>> headers, byte[] body, String cipherSuite,
+                          List<Certificate> serverCertificates, long storedAt, long expiresAt) {
+        this.headers = headers;
+        this.body = body;
+        this.cipherSuite = cipherSuite;
+        this.serverCertificates = serverCertificates;
+        this.storedAt = storedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Get the first value of a header, ignoring case
+     * @param name The header name
+     * @return The header value, or null if absent
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name) && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the response headers
+     * @return Headers with the status line under the null key
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get the response body
+     * @return The body bytes
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Check if the response can be served without contacting the server
+     * @param now Current time in epoch milliseconds
+     * @return true if still fresh
+     */
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    /**
+     * Check if the response carries a validator for conditional requests
+     * @return true if an ETag or Last-Modified header is present
+     */
+    public boolean hasValidator() {
+        return getHeader("ETag") != null || getHeader("Last-Modified") != null;
+    }
+
+    /**
+     * Mark the response fresh again after a successful revalidation
+     * @param now Current time in epoch milliseconds
+     * @param newExpiresAt New expiry time in epoch milliseconds
+     */
+    public void refresh(long now, long newExpiresAt) {
+        this.storedAt = now;
+        this.expiresAt = newExpiresAt;
+    }
+
+    /**
+     * Get the time the response was stored
+     * @return Time in epoch milliseconds
+     */
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    /**
+     * Get the time the response stops being fresh
+     * @return Time in epoch milliseconds
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Get the approximate memory footprint of the response
+     * @return Size in bytes
+     */
+    public int getSize() {
+        return body.length + 512;
+    }
+
+    /**
+     * Wrap the response for java.net. https responses must be SecureCacheResponse
+     * or HttpsURLConnection ignores them.
+     * @return The response as seen by HttpURLConnection
+     */
+    public CacheResponse toCacheResponse() {
+        if (cipherSuite == null) {
+            return new CacheResponse() {
+                @Override
+                public Map<String, List<String>> getHeaders() {
+                    return headers;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(body);
+                }
+            };
+        }
+        return new SecureCacheResponse() {
+            @Override
+            public String getCipherSuite() {
+                return cipherSuite;
+            }
+
+            @Override
+            public List<Certificate> getLocalCertificateChain() {
+                return null;
+            }
+
+            @Override
+            public List<Certificate> getServerCertificateChain() throws SSLPeerUnverifiedException {
+                if (serverCertificates.isEmpty()) {
+                    throw new SSLPeerUnverifiedException("No server certificates cached");
+                }
+                return serverCertificates;
+            }
+
+            @Override
+            public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+                return ((X509Certificate) getServerCertificateChain().get(0)).getSubjectX500Principal();
+            }
+
+            @Override
+            public Principal getLocalPrincipal() {
+                return null;
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return headers;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(body);
+            }
+        };
+    }
+
+    /**
+     * Serialize the response for the disk tier
+     * @return The encoded bytes
+     * @throws IOException if encoding fails
+     */
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(storedAt);
+        out.writeLong(expiresAt);
+        out.writeUTF(cipherSuite == null ? "" : cipherSuite);
+        out.writeShort(serverCertificates.size());
+        for (Certificate certificate : serverCertificates) {
+            try {
+                byte[] encoded = certificate.getEncoded();
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            } catch (java.security.cert.CertificateEncodingException e) {
+                throw new IOException("Cannot encode certificate", e);
+            }
+        }
+        out.writeShort(headers.size());
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            out.writeBoolean(entry.getKey() != null);
+            if (entry.getKey() != null) {
+                out.writeUTF(entry.getKey());
+            }
+            out.writeShort(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a response written by encode()
+     * @param in The encoded response
+     * @return The decoded response
+     * @throws IOException if the data is corrupt
+     */
+    public static CachedResponse decode(DataInputStream in) throws IOException {
+        long storedAt = in.readLong();
+        long expiresAt = in.readLong();
+        String cipherSuite = in.readUTF();
+        int certificateCount = in.readShort();
+        List<Certificate> certificates = new ArrayList<>(certificateCount);
+        try {
+            CertificateFactory factory = certificateCount > 0 ? CertificateFactory.getInstance("X.509") : null;
+            for (int i = 0; i < certificateCount; i++) {
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                certificates.add(factory.generateCertificate(new ByteArrayInputStream(encoded)));
+            }
+        } catch (CertificateException e) {
+            throw new IOException("Cannot decode certificate", e);
+        }
+        int headerCount = in.readShort();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            String name = in.readBoolean() ? in.readUTF() : null;
+            int valueCount = in.readShort();
+            List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(in.readUTF());
+            }
+            headers.put(name, Collections.unmodifiableList(values));
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new CachedResponse(Collections.unmodifiableMap(headers), body,
+                cipherSuite.isEmpty() ? null : cipherSuite, certificates, storedAt, expiresAt);
+    }
+}
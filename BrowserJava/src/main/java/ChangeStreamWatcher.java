@@ -0,0 +1,571 @@
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * ChangeStreamWatcher follows the bookmarks and history collections and tells listeners about
+ * every insert and delete, whichever Nitron instance made it, so open lists stay current without
+ * reading the whole collection again.
+ *
+ * On a replica set, one change stream covers both collections. The stream's resume token is
+ * written to a file after each batch of changes, so after a restart or a lost connection the
+ * stream continues where it stopped; if the server no longer has the changes since then,
+ * listeners are told to reload. A standalone server has no change streams, so the watcher polls
+ * it instead, and only while a listener is registered: new visits and bookmarks are found by their
+ * time on the visited_at and added_at indexes. The bookmark URLs are only compared in full when
+ * the collection's size says some were deleted or added with an older time, as imports are.
+ * Polling cannot see deleted visits or visits dated before the newest one it has seen; those show
+ * up when a list is opened again.
+ *
+ * Listeners are called on the watcher thread with the changes in the order they happened,
+ * several at a time when they arrive together.
+ */
+public class ChangeStreamWatcher {
+    /**
+     * System property that turns watching off when set to false
+     */
+    public static final String ENABLED_PROPERTY = "nitron.changes";
+    /**
+     * System property that makes the watcher poll even when the server has change streams
+     */
+    public static final String POLL_PROPERTY = "nitron.changes.poll";
+    private static final long POLL_INTERVAL_MILLIS = Long.getLong("nitron.changes.pollSeconds", 5) * 1000;
+    private static final int MAX_BATCH = 1000;
+    private static final long AWAIT_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    // Tokens are saved at most this often while changes arrive, and now and then while idle
+    private static final long SAVE_INTERVAL_MILLIS = 1000;
+    private static final long IDLE_SAVE_INTERVAL_MILLIS = 60_000;
+    // $changeStream on a standalone server
+    private static final int NOT_A_REPLICA_SET = 40573;
+    // The token's changes are gone from the oplog, or the token is not one of this deployment's
+    private static final Set<Integer> TOKEN_LOST = Set.of(260, 280, 286);
+
+    private final MongoDatabase database;
+    private final MongoCollection<Document> bookmarks;
+    private final MongoCollection<Document> history;
+    private final Path tokenFile;
+    private final long pollIntervalMillis;
+    private final List<Consumer<List<DatabaseChange>>> listeners = new CopyOnWriteArrayList<>();
+    // Told about changes that are found anyway, without keeping a standalone server polled
+    private final List<Consumer<List<DatabaseChange>>> passiveListeners = new CopyOnWriteArrayList<>();
+    // Notified when a listener is added, so polling starts without waiting a whole interval
+    private final Object listenerAdded = new Object();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong resumes = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong fullBookmarkScans = new AtomicLong();
+    private volatile boolean running;
+    private volatile boolean polling;
+    private Thread thread;
+    private BsonDocument token;
+    private long tokenSavedAt;
+    private boolean tokenDirty;
+    private boolean changesSinceSave;
+    // Polling state: the bookmarked URLs, the bookmark count the server should report, and the
+    // newest bookmark and visit times seen, with the documents at those times
+    private Set<String> polledBookmarks;
+    private long bookmarkCount;
+    private Date newestBookmark;
+    private final Set<Object> bookmarksAtNewest = new HashSet<>();
+    private Date newestVisit;
+    private final Set<Object> visitsAtNewest = new HashSet<>();
+
+    /**
+     * Constructor for ChangeStreamWatcher
+     * @param database The database holding both collections
+     * @param bookmarks The bookmarks collection
+     * @param history The history collection
+     * @param tokenFile File the resume token is kept in
+     */
+    ChangeStreamWatcher(MongoDatabase database, MongoCollection<Document> bookmarks, MongoCollection<Document> history,
+                        Path tokenFile) {
+        this(database, bookmarks, history, tokenFile, POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Constructor for ChangeStreamWatcher with a custom polling interval
+     * @param database The database holding both collections
+     * @param bookmarks The bookmarks collection
+     * @param history The history collection
+     * @param tokenFile File the resume token is kept in
+     * @param pollIntervalMillis Time between polls of a standalone server
+     */
+    ChangeStreamWatcher(MongoDatabase database, MongoCollection<Document> bookmarks, MongoCollection<Document> history,
+                        Path tokenFile, long pollIntervalMillis) {
+        this.database = database;
+        this.bookmarks = bookmarks;
+        this.history = history;
+        this.tokenFile = tokenFile;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.polling = Boolean.getBoolean(POLL_PROPERTY);
+    }
+
+    /**
+     * Check whether changes should be watched
+     * @return true unless -Dnitron.changes=false is set
+     */
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+    }
+
+    /**
+     * Start watching on a background thread
+     */
+    synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "nitron-change-stream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching and save the resume token. Call before the client is closed.
+     */
+    synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            // A waiting change stream returns within its await time
+            thread.join(AWAIT_MILLIS * 3);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Add a listener for changes
+     * @param listener Called on the watcher thread with one or more changes
+     */
+    public void addListener(Consumer<List<DatabaseChange>> listener) {
+        listeners.add(listener);
+        synchronized (listenerAdded) {
+            listenerAdded.notifyAll();
+        }
+    }
+
+    /**
+     * Add a listener for changes that does not need them promptly: on a standalone server it is
+     * only told about changes found while some other listener keeps the watcher polling
+     * @param listener Called on the watcher thread with one or more changes
+     */
+    public void addPassiveListener(Consumer<List<DatabaseChange>> listener) {
+        passiveListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with addListener or addPassiveListener
+     * @param listener The listener
+     */
+    public void removeListener(Consumer<List<DatabaseChange>> listener) {
+        listeners.remove(listener);
+        passiveListeners.remove(listener);
+    }
+
+    /**
+     * Check whether the watcher polls instead of following a change stream
+     * @return true on a standalone server or with -Dnitron.changes.poll=true
+     */
+    public boolean isPolling() {
+        return polling;
+    }
+
+    private void run() {
+        token = readToken();
+        long backoff = AWAIT_MILLIS;
+        while (running) {
+            try {
+                if (polling && listeners.isEmpty()) {
+                    // Nobody to tell; lists read the database themselves when they are opened
+                    resetPolling();
+                    awaitListener();
+                } else if (polling) {
+                    poll();
+                    sleep(pollIntervalMillis);
+                } else {
+                    follow();
+                }
+                backoff = AWAIT_MILLIS;
+            } catch (MongoCommandException e) {
+                if (!running) {
+                    break;
+                }
+                if (e.getErrorCode() == NOT_A_REPLICA_SET) {
+                    System.out.println("MongoDB has no change streams (not a replica set); polling every "
+                            + pollIntervalMillis / 1000.0 + " s while changes are listened to");
+                    polling = true;
+                } else if (token != null && TOKEN_LOST.contains(e.getErrorCode())) {
+                    System.err.println("Cannot resume change stream (" + e.getErrorCodeName() + "); starting from now");
+                    token = null;
+                    tokenDirty = true;
+                    reloadAll();
+                } else {
+                    backoff = retryLater(e, backoff);
+                }
+            } catch (MongoException | IllegalStateException e) {
+                // IllegalStateException when the client is closed under the watcher
+                if (!running) {
+                    break;
+                }
+                backoff = retryLater(e, backoff);
+            }
+        }
+        // Clear the interrupt from stop(), which would fail the file write
+        Thread.interrupted();
+        saveToken(true);
+    }
+
+    private long retryLater(RuntimeException e, long backoff) {
+        errors.incrementAndGet();
+        System.err.println("Change stream interrupted, retrying in " + backoff / 1000 + " s: " + e.getMessage());
+        sleep(backoff);
+        return Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+    }
+
+    /**
+     * Follow the change stream until it ends or the watcher stops
+     */
+    private void follow() {
+        ChangeStreamIterable<Document> stream = database.watch(List.of(
+                        Aggregates.match(Filters.in("ns.coll", bookmarks.getNamespace().getCollectionName(),
+                                history.getNamespace().getCollectionName()))))
+                // Deletes only carry the document id; servers keeping pre-images also send the URL
+                .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+                .maxAwaitTime(AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (token != null) {
+            stream = stream.resumeAfter(token);
+            resumes.incrementAndGet();
+        }
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+            List<DatabaseChange> batch = new ArrayList<>();
+            while (running) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null && !convert(change, batch)) {
+                    // Dropped or renamed collections end the stream; start a new one from here
+                    updateToken(cursor.getResumeToken());
+                    deliver(batch);
+                    token = null;
+                    tokenDirty = true;
+                    reloadAll();
+                    return;
+                }
+                // Deliver what has arrived together, without waiting for the next getMore
+                if (!batch.isEmpty() && (change == null || cursor.available() == 0 || batch.size() >= MAX_BATCH)) {
+                    deliver(batch);
+                    batch = new ArrayList<>();
+                }
+                updateToken(cursor.getResumeToken());
+                saveToken(false);
+            }
+        }
+    }
+
+    /**
+     * Turn a change stream event into a change for the listeners
+     * @return false when the event ends the stream
+     */
+    private boolean convert(ChangeStreamDocument<Document> change, List<DatabaseChange> batch) {
+        boolean isBookmark = change.getNamespace() != null
+                && bookmarks.getNamespace().getCollectionName().equals(change.getNamespace().getCollectionName());
+        Document before = change.getFullDocumentBeforeChange();
+        String url = null;
+        switch (change.getOperationType()) {
+            case INSERT:
+                Document doc = change.getFullDocument();
+                url = doc == null ? null : doc.getString("url");
+                if (url == null) {
+                    return true;
+                }
+                batch.add(isBookmark ? new DatabaseChange(DatabaseChange.Type.BOOKMARK_ADDED, url, null)
+                        : doc.getDate("visited_at") == null ? new DatabaseChange(DatabaseChange.Type.HISTORY_CHANGED, null, null)
+                        : new DatabaseChange(DatabaseChange.Type.VISIT_ADDED, url, DatabaseManager.toVisit(doc)));
+                return true;
+            case DELETE:
+                url = before == null ? null : before.getString("url");
+                batch.add(new DatabaseChange(isBookmark ? DatabaseChange.Type.BOOKMARK_DELETED
+                        : DatabaseChange.Type.VISIT_DELETED, url, null));
+                return true;
+            case REPLACE:
+            case UPDATE:
+                // A visit saved again when it ends, with the same URL and time
+                return true;
+            case DROP:
+            case RENAME:
+            case DROP_DATABASE:
+            case INVALIDATE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Look for changes since the last poll
+     */
+    private void poll() {
+        polls.incrementAndGet();
+        List<DatabaseChange> batch = new ArrayList<>();
+        pollBookmarks(batch);
+
+        if (newestVisit == null) {
+            Document newest = history.find(Filters.exists("visited_at")).sort(Sorts.descending("visited_at")).first();
+            newestVisit = newest == null ? new Date(0) : newest.getDate("visited_at");
+            if (newest != null) {
+                visitsAtNewest.add(newest.get("_id"));
+            }
+        } else {
+            // Visits at the newest time may have been written after the last poll, so look at that time again
+            for (Document doc : history.find(Filters.gte("visited_at", newestVisit))
+                    .sort(Sorts.ascending("visited_at")).limit(MAX_BATCH)) {
+                Date visitedAt = doc.getDate("visited_at");
+                if (visitedAt.after(newestVisit)) {
+                    newestVisit = visitedAt;
+                    visitsAtNewest.clear();
+                }
+                if (visitsAtNewest.add(doc.get("_id")) && doc.getString("url") != null) {
+                    batch.add(new DatabaseChange(DatabaseChange.Type.VISIT_ADDED, doc.getString("url"),
+                            DatabaseManager.toVisit(doc)));
+                }
+            }
+        }
+        deliver(batch);
+    }
+
+    /**
+     * Find bookmarks added since the last poll by their time. Deletes, and bookmarks added with an
+     * older time, leave the collection a different size than expected; only then are all URLs read.
+     */
+    private void pollBookmarks(List<DatabaseChange> batch) {
+        if (polledBookmarks == null) {
+            scanBookmarks(null);
+            return;
+        }
+        if (newestBookmark != null) {
+            for (Document doc : bookmarks.find(Filters.gte("added_at", newestBookmark))
+                    .projection(Projections.include("url", "added_at")).sort(Sorts.ascending("added_at"))) {
+                Date addedAt = doc.getDate("added_at");
+                if (addedAt.after(newestBookmark)) {
+                    newestBookmark = addedAt;
+                    bookmarksAtNewest.clear();
+                }
+                if (bookmarksAtNewest.add(doc.get("_id"))) {
+                    bookmarkCount++;
+                    String url = doc.getString("url");
+                    if (url != null && polledBookmarks.add(url)) {
+                        batch.add(new DatabaseChange(DatabaseChange.Type.BOOKMARK_ADDED, url, null));
+                    }
+                }
+            }
+        }
+        if (bookmarks.estimatedDocumentCount() != bookmarkCount) {
+            scanBookmarks(batch);
+        }
+    }
+
+    /**
+     * Read every bookmarked URL, reporting the differences to the last scan unless batch is null
+     */
+    private void scanBookmarks(List<DatabaseChange> batch) {
+        fullBookmarkScans.incrementAndGet();
+        Set<String> urls = new LinkedHashSet<>();
+        long count = 0;
+        Date newest = null;
+        Set<Object> atNewest = new HashSet<>();
+        for (Document doc : bookmarks.find().projection(Projections.include("url", "added_at"))) {
+            count++;
+            if (doc.getString("url") != null) {
+                urls.add(doc.getString("url"));
+            }
+            Date addedAt = doc.getDate("added_at");
+            if (addedAt != null && (newest == null || addedAt.after(newest))) {
+                newest = addedAt;
+                atNewest.clear();
+            }
+            if (addedAt != null && addedAt.equals(newest)) {
+                atNewest.add(doc.get("_id"));
+            }
+        }
+        if (batch != null) {
+            for (String url : urls) {
+                if (!polledBookmarks.contains(url)) {
+                    batch.add(new DatabaseChange(DatabaseChange.Type.BOOKMARK_ADDED, url, null));
+                }
+            }
+            for (String url : polledBookmarks) {
+                if (!urls.contains(url)) {
+                    batch.add(new DatabaseChange(DatabaseChange.Type.BOOKMARK_DELETED, url, null));
+                }
+            }
+        }
+        polledBookmarks = urls;
+        bookmarkCount = count;
+        newestBookmark = newest == null ? new Date(0) : newest;
+        bookmarksAtNewest.clear();
+        bookmarksAtNewest.addAll(atNewest);
+    }
+
+    private void resetPolling() {
+        polledBookmarks = null;
+        newestBookmark = null;
+        bookmarksAtNewest.clear();
+        newestVisit = null;
+        visitsAtNewest.clear();
+    }
+
+    private void awaitListener() {
+        synchronized (listenerAdded) {
+            if (listeners.isEmpty() && running) {
+                try {
+                    listenerAdded.wait(pollIntervalMillis);
+                } catch (InterruptedException e) {
+                    // stop() interrupts to end the wait; running tells the loop whether to go on
+                }
+            }
+        }
+    }
+
+    private void reloadAll() {
+        reloads.incrementAndGet();
+        deliver(List.of(new DatabaseChange(DatabaseChange.Type.BOOKMARKS_CHANGED, null, null),
+                new DatabaseChange(DatabaseChange.Type.HISTORY_CHANGED, null, null)));
+    }
+
+    private void deliver(List<DatabaseChange> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        changes.addAndGet(batch.size());
+        batches.incrementAndGet();
+        changesSinceSave = true;
+        List<DatabaseChange> delivered = List.copyOf(batch);
+        deliver(delivered, listeners);
+        deliver(delivered, passiveListeners);
+    }
+
+    private static void deliver(List<DatabaseChange> changes, List<Consumer<List<DatabaseChange>>> to) {
+        for (Consumer<List<DatabaseChange>> listener : to) {
+            try {
+                listener.accept(changes);
+            } catch (RuntimeException e) {
+                System.err.println("Change listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void updateToken(BsonDocument latest) {
+        if (latest != null && !latest.equals(token)) {
+            token = latest;
+            tokenDirty = true;
+        }
+    }
+
+    private BsonDocument readToken() {
+        if (!Files.exists(tokenFile)) {
+            return null;
+        }
+        try {
+            return BsonDocument.parse(new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable change stream token: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the token atomically, at most once a second while changes arrive and once a minute
+     * while idle, so a stream can resume after a restart even when nothing happened for a while
+     */
+    private void saveToken(boolean now) {
+        long elapsed = System.currentTimeMillis() - tokenSavedAt;
+        if (!tokenDirty || (!now && elapsed < (changesSinceSave ? SAVE_INTERVAL_MILLIS : IDLE_SAVE_INTERVAL_MILLIS))) {
+            return;
+        }
+        try {
+            if (token == null) {
+                Files.deleteIfExists(tokenFile);
+            } else {
+                Files.createDirectories(tokenFile.getParent());
+                Path temp = tokenFile.resolveSibling(tokenFile.getFileName() + ".tmp");
+                Files.write(temp, token.toJson().getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            tokenSavedAt = System.currentTimeMillis();
+            tokenDirty = false;
+            changesSinceSave = false;
+        } catch (IOException e) {
+            System.err.println("Could not save change stream token: " + e.getMessage());
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // stop() interrupts to end the wait; running tells the loop whether to go on
+        }
+    }
+
+    /**
+     * Get watcher statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Change stream: %s, %d changes in %d batches, %d resumes, %d reloads, %d errors, "
+                        + "%d polls (%d full bookmark scans)",
+                polling ? "polling" : "streaming", changes.get(), batches.get(), resumes.get(), reloads.get(), errors.get(),
+                polls.get(), fullBookmarkScans.get());
+    }
+
+    /**
+     * Get the number of polls of a standalone server
+     * @return Poll count
+     */
+    long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * Get the number of polls that read every bookmarked URL
+     * @return Full scan count
+     */
+    long getFullBookmarkScanCount() {
+        return fullBookmarkScans.get();
+    }
+}
@@ -0,0 +1,469 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.Set;
+
+/**
+ * ChunkStore keeps content-addressed chunks in append-only pack files.
+ *
+ * Data is split at content-defined boundaries (a gear rolling hash), so a resource shared by
+ * many pages, or one that changed only in places, is stored once per distinct chunk. Each chunk
+ * is keyed by its SHA-256 and appended to the current pack file; an append-only index log maps
+ * hashes to pack offsets and is replayed on open. Packs are read through read-only memory maps,
+ * and every chunk read back is checked against its hash.
+ *
+ * Compaction copies the live chunks into new packs with a new index, and moving that index over
+ * the old one is the single step that switches to them; the old packs are deleted after it. Packs
+ * no index record points at, left by a compaction that stopped partway, are deleted on open.
+ */
+public class ChunkStore {
+    private static final long PACK_BYTES = 64L * 1024 * 1024;
+    private static final int MIN_CHUNK = 4 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    // 14 bits: a boundary every 16 KB on average past the minimum
+    private static final long BOUNDARY_MASK = 0x3FFFL << 50;
+    private static final int INDEX_RECORD_BYTES = 32 + 4 + 8 + 4;
+    private static final String INDEX = "index.log";
+    private static final String COMPACT_INDEX = "index.log.compact";
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6e6974726f6eL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path directory;
+    private final Map<String, Location> index = new HashMap<>();
+    // By the number in the pack's file name, which index records refer to
+    private final Map<Integer, Pack> packs = new HashMap<>();
+    // The pack new chunks are appended to, the highest numbered one
+    private int currentPack = -1;
+    private FileChannel indexLog;
+    private long dedupedBytes;
+
+    /**
+     * Constructor for ChunkStore
+     * @param directory Directory holding the pack files and index
+     */
+    public ChunkStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Open the pack files and replay the index. Reads from disk, so call it off the FX thread.
+     * @throws IOException if the store cannot be read
+     */
+    public synchronized void open() throws IOException {
+        StorageExecutor.checkNotOnFxThread("ChunkStore.open");
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "pack-*.dat")) {
+            for (Path file : files) {
+                int number = packNumber(file);
+                if (number >= 0) {
+                    packs.put(number, new Pack(file));
+                }
+            }
+        }
+        // The index of a compaction that stopped before it was moved in
+        Files.deleteIfExists(directory.resolve(COMPACT_INDEX));
+        indexLog = FileChannel.open(directory.resolve(INDEX),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_BYTES);
+        long position = 0;
+        Set<Integer> referenced = new HashSet<>();
+        while (indexLog.read(record, position) == INDEX_RECORD_BYTES) {
+            record.flip();
+            byte[] hash = new byte[32];
+            record.get(hash);
+            Location location = new Location(record.getInt(), record.getLong(), record.getInt());
+            if (packs.containsKey(location.pack)) {
+                index.put(toHex(hash), location);
+                referenced.add(location.pack);
+            }
+            record.clear();
+            position += INDEX_RECORD_BYTES;
+        }
+        // Drop a record torn by a crash so new records line up again
+        indexLog.truncate(position);
+        // Written by a compaction that stopped before its index was moved in, or replaced by one
+        // whose old packs could not all be deleted
+        for (Iterator<Map.Entry<Integer, Pack>> it = packs.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Pack> pack = it.next();
+            if (!referenced.contains(pack.getKey())) {
+                pack.getValue().channel.close();
+                Files.deleteIfExists(packFile(pack.getKey()));
+                it.remove();
+            }
+        }
+        currentPack = packs.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+    }
+
+    /**
+     * Store data, splitting it into chunks and skipping chunks already stored
+     * @param data The bytes to store
+     * @return The chunk hashes, in order, that reassemble the data
+     * @throws IOException if a pack file cannot be written
+     */
+    public synchronized List<String> put(byte[] data) throws IOException {
+        StorageExecutor.checkNotOnFxThread("ChunkStore.put");
+        List<String> hashes = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            int end = nextBoundary(data, start);
+            byte[] hash = sha256(data, start, end - start);
+            String key = toHex(hash);
+            if (index.containsKey(key)) {
+                dedupedBytes += end - start;
+            } else {
+                append(hash, key, ByteBuffer.wrap(data, start, end - start));
+            }
+            hashes.add(key);
+            start = end;
+        }
+        return hashes;
+    }
+
+    /**
+     * Reassemble data from its chunks
+     * @param hashes The chunk hashes returned by put
+     * @return The data, or null if a chunk is missing or corrupt
+     * @throws IOException if a pack file cannot be read
+     */
+    public synchronized byte[] get(List<String> hashes) throws IOException {
+        StorageExecutor.checkNotOnFxThread("ChunkStore.get");
+        List<ByteBuffer> chunks = new ArrayList<>(hashes.size());
+        int length = 0;
+        for (String hash : hashes) {
+            Location location = index.get(hash);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer chunk = packs.get(location.pack).read(location.offset, location.length);
+            chunks.add(chunk);
+            length += location.length;
+        }
+        byte[] data = new byte[length];
+        int position = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ByteBuffer chunk = chunks.get(i);
+            int size = chunk.remaining();
+            chunk.get(data, position, size);
+            if (!toHex(sha256(data, position, size)).equals(hashes.get(i))) {
+                System.err.println("Corrupt archive chunk " + hashes.get(i));
+                return null;
+            }
+            position += size;
+        }
+        return data;
+    }
+
+    /**
+     * Check whether every chunk of some data is stored
+     * @param hashes The chunk hashes
+     * @return true if the data can be read back
+     */
+    public synchronized boolean contains(List<String> hashes) {
+        return index.keySet().containsAll(hashes);
+    }
+
+    /**
+     * Rewrite the packs keeping only the given chunks, once enough of the store is garbage
+     * @param live Hashes still referenced
+     * @return Bytes reclaimed, or 0 if compaction was not worth it
+     * @throws IOException if the new packs cannot be written
+     */
+    public synchronized long compact(Set<String> live) throws IOException {
+        StorageExecutor.checkNotOnFxThread("ChunkStore.compact");
+        long total = getSizeBytes();
+        long liveBytes = 0;
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            if (live.contains(entry.getKey())) {
+                liveBytes += entry.getValue().length;
+            }
+        }
+        if (total - liveBytes < total / 2 || total - liveBytes < PACK_BYTES / 4) {
+            return 0;
+        }
+
+        // The live chunks go to new packs numbered after the old ones, listed in a new index
+        Map<Integer, Pack> fresh = new HashMap<>();
+        Map<String, Location> freshIndex = new HashMap<>();
+        Path freshIndexFile = directory.resolve(COMPACT_INDEX);
+        int number = currentPack;
+        try (FileChannel freshLog = FileChannel.open(freshIndexFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Pack pack = null;
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                if (!live.contains(entry.getKey())) {
+                    continue;
+                }
+                Location location = entry.getValue();
+                if (pack == null || pack.size + location.length > PACK_BYTES) {
+                    number++;
+                    pack = new Pack(packFile(number));
+                    fresh.put(number, pack);
+                }
+                long offset = pack.append(packs.get(location.pack).read(location.offset, location.length));
+                writeRecord(freshLog, fromHex(entry.getKey()), number, offset, location.length);
+                freshIndex.put(entry.getKey(), new Location(number, offset, location.length));
+            }
+            // Everything is on disk before the index that points at it takes over
+            for (Pack written : fresh.values()) {
+                written.channel.force(true);
+            }
+            freshLog.force(true);
+        } catch (IOException e) {
+            discard(fresh, freshIndexFile);
+            throw e;
+        }
+
+        indexLog.close();
+        try {
+            Files.move(freshIndexFile, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Still on the old packs and index
+            indexLog = FileChannel.open(directory.resolve(INDEX), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            discard(fresh, freshIndexFile);
+            throw e;
+        }
+        indexLog = FileChannel.open(directory.resolve(INDEX), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Map<Integer, Pack> old = new HashMap<>(packs);
+        packs.clear();
+        packs.putAll(fresh);
+        index.clear();
+        index.putAll(freshIndex);
+        currentPack = number;
+
+        // Nothing points at the old packs any more; one that cannot be deleted now goes at the next open
+        for (Map.Entry<Integer, Pack> pack : old.entrySet()) {
+            try {
+                pack.getValue().channel.close();
+                Files.deleteIfExists(packFile(pack.getKey()));
+            } catch (IOException e) {
+                System.err.println("Could not delete compacted archive pack: " + e.getMessage());
+            }
+        }
+        return total - getSizeBytes();
+    }
+
+    /**
+     * Delete the packs and index of a compaction that failed
+     */
+    private void discard(Map<Integer, Pack> fresh, Path freshIndexFile) {
+        for (Map.Entry<Integer, Pack> pack : fresh.entrySet()) {
+            try {
+                pack.getValue().channel.close();
+                Files.deleteIfExists(packFile(pack.getKey()));
+            } catch (IOException e) {
+                // Not in the index, so the next open deletes it
+            }
+        }
+        try {
+            Files.deleteIfExists(freshIndexFile);
+        } catch (IOException e) {
+            // Deleted on the next open
+        }
+    }
+
+    private void append(byte[] hash, String key, ByteBuffer chunk) throws IOException {
+        int length = chunk.remaining();
+        Pack pack = packs.get(currentPack);
+        if (pack == null || pack.size + length > PACK_BYTES) {
+            currentPack++;
+            pack = new Pack(packFile(currentPack));
+            packs.put(currentPack, pack);
+        }
+        long offset = pack.append(chunk);
+        // The chunk is written before the index points at it
+        writeRecord(indexLog, hash, currentPack, offset, length);
+        index.put(key, new Location(currentPack, offset, length));
+    }
+
+    private static void writeRecord(FileChannel log, byte[] hash, int pack, long offset, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_BYTES);
+        record.put(hash).putInt(pack).putLong(offset).putInt(length).flip();
+        long position = log.size();
+        while (record.hasRemaining()) {
+            position += log.write(record, position);
+        }
+    }
+
+    private Path packFile(int number) {
+        return directory.resolve(String.format("pack-%05d.dat", number));
+    }
+
+    /**
+     * The number in a pack file's name, or -1 if it is not one of ours
+     */
+    private static int packNumber(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring("pack-".length(), name.length() - ".dat".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Find where the chunk starting at start ends: where the rolling hash hits the mask,
+     * but never before MIN_CHUNK or after MAX_CHUNK bytes
+     */
+    private static int nextBoundary(byte[] data, int start) {
+        int limit = Math.min(data.length, start + MAX_CHUNK);
+        int position = start + MIN_CHUNK;
+        if (position >= limit) {
+            return limit;
+        }
+        long hash = 0;
+        for (; position < limit; position++) {
+            hash = (hash << 1) + GEAR[data[position] & 0xFF];
+            if ((hash & BOUNDARY_MASK) == 0) {
+                return position + 1;
+            }
+        }
+        return limit;
+    }
+
+    private static byte[] sha256(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, offset, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hash a string, for naming files after URLs
+     * @param text The text to hash
+     * @return The SHA-256 as lower case hex
+     */
+    public static String sha256Hex(String text) {
+        byte[] bytes = text.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        return toHex(sha256(bytes, 0, bytes.length));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Close the pack files and the index
+     */
+    public synchronized void close() {
+        try {
+            for (Pack pack : packs.values()) {
+                pack.channel.close();
+            }
+            if (indexLog != null) {
+                indexLog.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not close archive packs: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the bytes held in pack files
+     * @return Total pack size
+     */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (Pack pack : packs.values()) {
+            size += pack.size;
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of distinct chunks stored
+     * @return Chunk count
+     */
+    public synchronized int getChunkCount() {
+        return index.size();
+    }
+
+    /**
+     * Get how many bytes were not written again because their chunk was already stored
+     * @return Deduplicated bytes since the store was opened
+     */
+    public synchronized long getDedupedBytes() {
+        return dedupedBytes;
+    }
+
+    /**
+     * Where a chunk lives
+     */
+    private static final class Location {
+        private final int pack;
+        private final long offset;
+        private final int length;
+
+        private Location(int pack, long offset, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * One pack file, appended through its channel and read through a memory map
+     */
+    private static final class Pack {
+        private final FileChannel channel;
+        private long size;
+        private MappedByteBuffer mapped;
+
+        private Pack(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        private long append(ByteBuffer chunk) throws IOException {
+            long offset = size;
+            while (chunk.hasRemaining()) {
+                size += channel.write(chunk, size);
+            }
+            return offset;
+        }
+
+        private ByteBuffer read(long offset, int length) throws IOException {
+            if (mapped == null || offset + length > mapped.capacity()) {
+                // The pack grew since it was mapped
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return mapped.slice((int) offset, length);
+        }
+    }
+}
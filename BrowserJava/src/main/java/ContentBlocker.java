@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ContentBlocker decides which network requests are blocked.
+ * Rules come from EasyList-style filter lists on disk; host rules are compiled into
+ * a DomainTrie and all other rules into an AhoCorasickMatcher, so a URL is checked
+ * in one pass over its characters regardless of how many rules are loaded.
+ * Rules scoped with $third-party or $domain= are decided against the page making the request,
+ * and each blocked request is counted against the tab showing that page, together with an
+ * estimate of the time saved.
+ */
+public class ContentBlocker {
+    /**
+     * System property with the estimated cost of one request in milliseconds
+     */
+    public static final String REQUEST_MILLIS_PROPERTY = "nitron.blocker.requestMillis";
+
+    private static final long DEFAULT_REQUEST_MILLIS = 150;
+
+    private final long estimatedRequestMillis;
+    private final Map<String, LongAdder> blockedByTab = new ConcurrentHashMap<>();
+    private final LongAdder blockedTotal = new LongAdder();
+    private final LongAdder checkedTotal = new LongAdder();
+    private final LongAdder matchNanos = new LongAdder();
+    private final Map<String, TabPage> tabPages = new ConcurrentHashMap<>();
+    private final AtomicLong navigations = new AtomicLong();
+    private volatile RuleSet rules = RuleSet.compile(List.of());
+
+    /**
+     * Constructor for ContentBlocker with no rules loaded
+     */
+    public ContentBlocker() {
+        this.estimatedRequestMillis = Long.getLong(REQUEST_MILLIS_PROPERTY, DEFAULT_REQUEST_MILLIS);
+    }
+
+    /**
+     * Load every *.txt filter list in a directory, replacing the current rules
+     * @param directory The directory containing filter lists
+     * @return Number of rules loaded
+     * @throws IOException if a list cannot be read
+     */
+    public int loadRuleFiles(Path directory) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (DirectoryStream<Path> lists = Files.newDirectoryStream(directory, "*.txt")) {
+            for (Path list : lists) {
+                lines.addAll(Files.readAllLines(list, StandardCharsets.UTF_8));
+            }
+        }
+        return loadRules(lines);
+    }
+
+    /**
+     * Compile filter list lines, replacing the current rules
+     * @param lines The filter list lines
+     * @return Number of rules loaded
+     */
+    public int loadRules(List<String> lines) {
+        long started = System.nanoTime();
+        List<FilterRule> parsed = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            FilterRule rule = FilterRule.parse(line);
+            if (rule != null) {
+                parsed.add(rule);
+            }
+        }
+        rules = RuleSet.compile(parsed);
+        System.out.println("Content blocker loaded " + parsed.size() + " rules in "
+                + (System.nanoTime() - started) / 1_000_000 + " ms");
+        return parsed.size();
+    }
+
+    /**
+     * Check whether any blocking rule matches a URL, before the page making the request is known.
+     * Requests for which this is false can never be blocked and need no further check.
+     * @param url The request URL
+     * @return true if the request may be blocked, false otherwise
+     */
+    public boolean mayBlock(String url) {
+        long started = System.nanoTime();
+        boolean candidate = false;
+        RuleSet current = rules;
+        if (url != null && current.ruleCount > 0) {
+            String lower = url.toLowerCase(Locale.ROOT);
+            candidate = current.blockedHosts.matches(extractHost(lower))
+                    || current.blockPatterns.match(lower, (ruleIndex, end) -> current.blockRules.get(ruleIndex).matches(lower));
+        }
+        matchNanos.add(System.nanoTime() - started);
+        checkedTotal.increment();
+        return candidate;
+    }
+
+    /**
+     * Check a request and count it against the tab that made it if it is blocked
+     * @param url The request URL
+     * @param pageUrl The page making the request, as sent in its Referer, or null for navigations
+     * @return true if the request must be blocked, false otherwise
+     */
+    public boolean shouldBlock(String url, String pageUrl) {
+        long started = System.nanoTime();
+        boolean blocked = matches(url, pageUrl);
+        matchNanos.add(System.nanoTime() - started);
+        if (blocked) {
+            blockedTotal.increment();
+            String tabId = findTab(url, pageUrl);
+            if (tabId != null) {
+                blockedByTab.computeIfAbsent(tabId, k -> new LongAdder()).increment();
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     * Check a URL against the rules without recording statistics
+     * @param url The request URL
+     * @param pageUrl The page making the request, or null if the URL is itself loaded as a page
+     * @return true if the URL matches a blocking rule and no exception rule
+     */
+    public boolean matches(String url, String pageUrl) {
+        if (url == null) {
+            return false;
+        }
+        RuleSet current = rules;
+        if (current.ruleCount == 0) {
+            return false;
+        }
+        String lower = url.toLowerCase(Locale.ROOT);
+        String host = extractHost(lower);
+        String pageHost = pageUrl == null ? host : extractHost(pageUrl.toLowerCase(Locale.ROOT));
+        boolean thirdParty = !PublicSuffixList.get().isSameSite(host, pageHost);
+        if (current.allowedHosts.matches(host)
+                || matchesAny(current.allowPatterns, current.allowRules, lower, pageHost, thirdParty)) {
+            return false;
+        }
+        return current.blockedHosts.matches(host)
+                || matchesAny(current.blockPatterns, current.blockRules, lower, pageHost, thirdParty);
+    }
+
+    /**
+     * Record the page a tab is showing, so requests made by it are counted against the tab
+     * @param tabId The id of the tab
+     * @param pageUrl The URL the tab is loading or showing
+     */
+    public void setTabPage(String tabId, String pageUrl) {
+        if (pageUrl == null || pageUrl.isEmpty()) {
+            tabPages.remove(tabId);
+            return;
+        }
+        String lower = pageUrl.toLowerCase(Locale.ROOT);
+        tabPages.put(tabId, new TabPage(lower, extractHost(lower), navigations.incrementAndGet()));
+    }
+
+    /**
+     * Forget the statistics of a closed tab
+     * @param tabId The id of the closed tab
+     */
+    public void clearTab(String tabId) {
+        blockedByTab.remove(tabId);
+        tabPages.remove(tabId);
+    }
+
+    /**
+     * Get the number of requests blocked for a tab
+     * @param tabId The id of the tab
+     * @return Number of blocked requests
+     */
+    public long getBlockedCount(String tabId) {
+        LongAdder count = blockedByTab.get(tabId);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * Get the number of requests blocked across all tabs
+     * @return Number of blocked requests
+     */
+    public long getBlockedCount() {
+        return blockedTotal.sum();
+    }
+
+    /**
+     * Get the estimated load time saved for a tab
+     * @param tabId The id of the tab
+     * @return Estimated time saved in milliseconds
+     */
+    public long getEstimatedTimeSavedMillis(String tabId) {
+        return getBlockedCount(tabId) * estimatedRequestMillis;
+    }
+
+    /**
+     * Get the average time spent matching one request
+     * @return Average match time in microseconds
+     */
+    public double getAverageMatchMicros() {
+        long checked = checkedTotal.sum();
+        return checked == 0 ? 0 : matchNanos.sum() / 1000.0 / checked;
+    }
+
+    /**
+     * Get the number of loaded rules
+     * @return Number of rules
+     */
+    public int getRuleCount() {
+        return rules.ruleCount;
+    }
+
+    private static boolean matchesAny(AhoCorasickMatcher matcher, List<FilterRule> candidates, String url,
+                                      String pageHost, boolean thirdParty) {
+        return matcher.match(url, (ruleIndex, end) -> {
+            FilterRule rule = candidates.get(ruleIndex);
+            return rule.appliesTo(pageHost, thirdParty) && rule.matches(url);
+        });
+    }
+
+    /**
+     * Find the tab a request came from: the tab showing the page in its Referer, or failing that
+     * the most recently navigated tab on the same host. Navigations carry no Referer of their own
+     * and are matched by their own URL.
+     */
+    private String findTab(String url, String pageUrl) {
+        String page = (pageUrl == null ? url : pageUrl).toLowerCase(Locale.ROOT);
+        String host = extractHost(page);
+        String best = null;
+        long bestNavigation = -1;
+        for (Map.Entry<String, TabPage> tab : tabPages.entrySet()) {
+            TabPage tabPage = tab.getValue();
+            if (tabPage.url.equals(page)) {
+                return tab.getKey();
+            }
+            if (tabPage.host.equals(host) && tabPage.navigation > bestNavigation) {
+                best = tab.getKey();
+                bestNavigation = tabPage.navigation;
+            }
+        }
+        return best;
+    }
+
+    private static String extractHost(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        String authority = url.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            authority = authority.substring(at + 1);
+        }
+        int colon = authority.indexOf(':');
+        return colon >= 0 ? authority.substring(0, colon) : authority;
+    }
+
+    /**
+     * The page a tab is showing, and when it was navigated to
+     */
+    private static final class TabPage {
+        private final String url;
+        private final String host;
+        private final long navigation;
+
+        private TabPage(String url, String host, long navigation) {
+            this.url = url;
+            this.host = host;
+            this.navigation = navigation;
+        }
+    }
+
+    /**
+     * Immutable compiled form of a rule list, swapped in atomically on reload
+     */
+    private static final class RuleSet {
+        private final DomainTrie blockedHosts = new DomainTrie();
+        private final DomainTrie allowedHosts = new DomainTrie();
+        private final AhoCorasickMatcher blockPatterns = new AhoCorasickMatcher();
+        private final AhoCorasickMatcher allowPatterns = new AhoCorasickMatcher();
+        private final List<FilterRule> blockRules = new ArrayList<>();
+        private final List<FilterRule> allowRules = new ArrayList<>();
+        private int ruleCount;
+
+        private static RuleSet compile(List<FilterRule> rules) {
+            RuleSet set = new RuleSet();
+            for (FilterRule rule : rules) {
+                if (rule.isHostRule()) {
+                    (rule.isException() ? set.allowedHosts : set.blockedHosts).add(rule.getHost());
+                } else if (rule.isException()) {
+                    set.allowPatterns.add(rule.getKeyword(), set.allowRules.size());
+                    set.allowRules.add(rule);
+                } else {
+                    set.blockPatterns.add(rule.getKeyword(), set.blockRules.size());
+                    set.blockRules.add(rule);
+                }
+            }
+            set.blockPatterns.build();
+            set.allowPatterns.build();
+            set.ruleCount = rules.size();
+            return set;
+        }
+    }
+}
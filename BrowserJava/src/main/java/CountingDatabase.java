@@ -0,0 +1,120 @@
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CountingDatabase wraps another DatabaseOperations and counts every call by operation name.
+ * The benchmark reports these counts so builds that issue more queries show up in the comparison.
+ */
+public class CountingDatabase implements DatabaseOperations {
+    private final DatabaseOperations delegate;
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for CountingDatabase
+     * @param delegate The database that does the actual work
+     */
+    public CountingDatabase(DatabaseOperations delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Get the number of calls per operation
+     * @return Snapshot of the counts sorted by operation name
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counts.forEach((name, count) -> snapshot.put(name, count.sum()));
+        return snapshot;
+    }
+
+    private void count(String operation) {
+        counts.computeIfAbsent(operation, k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void addBookmark(String url) {
+        count("addBookmark");
+        delegate.addBookmark(url);
+    }
+
+    @Override
+    public void addBookmarks(Map<String, Date> bookmarks) {
+        count("addBookmarks");
+        delegate.addBookmarks(bookmarks);
+    }
+
+    @Override
+    public List<String> getBookmarks() {
+        count("getBookmarks");
+        return delegate.getBookmarks();
+    }
+
+    @Override
+    public void deleteBookmark(String url) {
+        count("deleteBookmark");
+        delegate.deleteBookmark(url);
+    }
+
+    @Override
+    public void addHistory(String url) {
+        count("addHistory");
+        delegate.addHistory(url);
+    }
+
+    @Override
+    public void addHistory(String url, Date visitedAt) {
+        count("addHistory");
+        delegate.addHistory(url, visitedAt);
+    }
+
+    @Override
+    public void saveVisit(HistoryVisit visit) {
+        count("saveVisit");
+        delegate.saveVisit(visit);
+    }
+
+    @Override
+    public void saveVisits(List<HistoryVisit> visits) {
+        count("saveVisits");
+        delegate.saveVisits(visits);
+    }
+
+    @Override
+    public List<String> getHistory() {
+        count("getHistory");
+        return delegate.getHistory();
+    }
+
+    @Override
+    public Map<String, List<String>> getHistoryByDay() {
+        count("getHistoryByDay");
+        return delegate.getHistoryByDay();
+    }
+
+    @Override
+    public List<HistoryVisit> getHistoryBefore(Date before, int limit) {
+        count("getHistoryBefore");
+        return delegate.getHistoryBefore(before, limit);
+    }
+
+    @Override
+    public List<HistoryVisit> getRecentVisits(int limit) {
+        count("getRecentVisits");
+        return delegate.getRecentVisits(limit);
+    }
+
+    @Override
+    public void deleteHistory(String url) {
+        count("deleteHistory");
+        delegate.deleteHistory(url);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * DatabaseChange is one change to the bookmarks or history collection, made by this or another
+ * Nitron instance sharing the database, as reported by the ChangeStreamWatcher.
+ *
+ * A delete on a server that keeps no copy of deleted documents arrives without its URL. When the
+ * watcher cannot tell what changed at all, for example after it missed changes, it reports
+ * BOOKMARKS_CHANGED or HISTORY_CHANGED and lists should be loaded again.
+ */
+public class DatabaseChange {
+    /**
+     * What happened
+     */
+    public enum Type {
+        BOOKMARK_ADDED, BOOKMARK_DELETED, BOOKMARKS_CHANGED, VISIT_ADDED, VISIT_DELETED, HISTORY_CHANGED
+    }
+
+    private final Type type;
+    private final String url;
+    private final HistoryVisit visit;
+
+    /**
+     * Constructor for DatabaseChange
+     * @param type What happened
+     * @param url The bookmarked or visited URL; null for BOOKMARKS_CHANGED, HISTORY_CHANGED and deletes the server sent without it
+     * @param visit The visit for VISIT_ADDED, otherwise null
+     */
+    public DatabaseChange(Type type, String url, HistoryVisit visit) {
+        this.type = type;
+        this.url = url;
+        this.visit = visit;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public HistoryVisit getVisit() {
+        return visit;
+    }
+
+    /**
+     * Check whether the change is to the bookmarks
+     * @return true for bookmark changes, false for history changes
+     */
+    public boolean isBookmark() {
+        return type == Type.BOOKMARK_ADDED || type == Type.BOOKMARK_DELETED || type == Type.BOOKMARKS_CHANGED;
+    }
+
+    @Override
+    public String toString() {
+        return type + (url == null ? "" : " " + url);
+    }
+}
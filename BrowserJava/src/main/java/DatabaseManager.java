@@ -1,8 +1,16 @@
+import com.mongodb.MongoException;
 import com.mongodb.client.*;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import org.bson.Document;
 
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -14,85 +22,273 @@ public class DatabaseManager implements DatabaseOperations {
     private final MongoDatabase database;
     private final MongoCollection<Document> bookmarks;
     private final MongoCollection<Document> history;
+    private ChangeStreamWatcher changeWatcher;
 
     public DatabaseManager() {
         // Connect to MongoDB (default localhost:27017)
-        mongoClient = MongoClients.create("mongodb://localhost:27017");
-        database = mongoClient.getDatabase("nitronbrowser");
+        this("mongodb://localhost:27017", "nitronbrowser");
+    }
+
+    /**
+     * Constructor for DatabaseManager connecting to a specific server and database
+     * @param connectionString The MongoDB connection string
+     * @param databaseName The database holding the bookmarks and history collections
+     */
+    public DatabaseManager(String connectionString, String databaseName) {
+        mongoClient = MongoClients.create(connectionString);
+        database = mongoClient.getDatabase(databaseName);
         bookmarks = database.getCollection("bookmarks");
         history = database.getCollection("history");
+    }
 
-        // Create indexes if needed
+    /**
+     * Create indexes if needed. Blocks on the server, so run it off the FX thread.
+     */
+    public void ensureIndexes() {
+        StorageExecutor.checkNotOnFxThread("ensureIndexes");
         bookmarks.createIndex(new Document("url", 1));
+        // Bookmarks are listed and polled newest first
+        bookmarks.createIndex(new Document("added_at", -1));
         history.createIndex(new Document("url", 1));
+        // History is paged and polled by time, newest first
+        history.createIndex(new Document("visited_at", -1));
+        // Lets change streams report the URL of a deleted bookmark or visit (MongoDB 6.0 and later)
+        for (String collection : List.of("bookmarks", "history")) {
+            try {
+                database.runCommand(new Document("collMod", collection)
+                        .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+            } catch (MongoException e) {
+                // Older servers and standalone servers report deletes without the URL
+            }
+        }
+    }
+
+    /**
+     * Start following bookmark and history changes made by any instance sharing this database.
+     * Calling it again returns the same watcher.
+     * @param tokenFile File the change stream's resume token is kept in across restarts
+     * @return The watcher, to add listeners to
+     */
+    public synchronized ChangeStreamWatcher startWatching(Path tokenFile) {
+        if (changeWatcher == null) {
+            changeWatcher = new ChangeStreamWatcher(database, bookmarks, history, tokenFile);
+            changeWatcher.start();
+        }
+        return changeWatcher;
     }
 
     // Bookmarks
     @Override
     public void addBookmark(String url) {
+        StorageExecutor.checkNotOnFxThread("addBookmark");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("addBookmark", "bookmarks");
         Document doc = new Document("url", url)
                       .append("added_at", new java.util.Date());
         bookmarks.insertOne(doc);
+        event.end(1);
+    }
+
+    @Override
+    public void addBookmarks(Map<String, Date> urls) {
+        StorageExecutor.checkNotOnFxThread("addBookmarks");
+        if (urls.isEmpty()) {
+            return;
+        }
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("addBookmarks", "bookmarks");
+        // Upsert on the URL, so bookmarks that exist already keep their own time
+        List<UpdateOneModel<Document>> writes = new ArrayList<>(urls.size());
+        for (Map.Entry<String, Date> bookmark : urls.entrySet()) {
+            writes.add(new UpdateOneModel<>(Filters.eq("url", bookmark.getKey()),
+                    Updates.setOnInsert("added_at", bookmark.getValue()), new UpdateOptions().upsert(true)));
+        }
+        int inserted = bookmarks.bulkWrite(writes, new BulkWriteOptions().ordered(false)).getUpserts().size();
+        event.end(inserted);
     }
 
     @Override
     public List<String> getBookmarks() {
+        StorageExecutor.checkNotOnFxThread("getBookmarks");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("getBookmarks", "bookmarks");
         List<String> bookmarkList = new ArrayList<>();
         bookmarks.find()
                 .sort(Sorts.descending("added_at"))
                 .forEach(doc -> bookmarkList.add(doc.getString("url")));
+        event.end(bookmarkList.size());
         return bookmarkList;
     }
 
     @Override
     public void deleteBookmark(String url) {
-        bookmarks.deleteOne(new Document("url", url));
+        StorageExecutor.checkNotOnFxThread("deleteBookmark");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("deleteBookmark", "bookmarks");
+        long deleted = bookmarks.deleteOne(new Document("url", url)).getDeletedCount();
+        event.end((int) deleted);
     }
 
     // History
     @Override
     public void addHistory(String url) {
+        StorageExecutor.checkNotOnFxThread("addHistory");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("addHistory", "history");
         Document doc = new Document("url", url)
                       .append("visited_at", new java.util.Date());
         history.insertOne(doc);
+        event.end(1);
+    }
+
+    @Override
+    public void addHistory(String url, Date visitedAt) {
+        StorageExecutor.checkNotOnFxThread("addHistory");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("addHistory", "history");
+        history.insertOne(new Document("url", url).append("visited_at", visitedAt));
+        event.end(1);
+    }
+
+    @Override
+    public void saveVisit(HistoryVisit visit) {
+        StorageExecutor.checkNotOnFxThread("saveVisit");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("saveVisit", "history");
+        // The recorder's id is the document id, so the save at the end of a visit replaces the first one
+        Document doc = toDocument(visit);
+        history.replaceOne(Filters.eq("_id", visit.getId()), doc, new ReplaceOptions().upsert(true));
+        event.end(1);
+    }
+
+    @Override
+    public void saveVisits(List<HistoryVisit> visits) {
+        StorageExecutor.checkNotOnFxThread("saveVisits");
+        if (visits.isEmpty()) {
+            return;
+        }
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("saveVisits", "history");
+        // One round trip per batch; unordered, so the server can apply the replacements in parallel
+        List<ReplaceOneModel<Document>> writes = new ArrayList<>(visits.size());
+        ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+        for (HistoryVisit visit : visits) {
+            writes.add(new ReplaceOneModel<>(Filters.eq("_id", visit.getId()), toDocument(visit), upsert));
+        }
+        history.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        event.end(visits.size());
     }
 
     @Override
     public List<String> getHistory() {
+        StorageExecutor.checkNotOnFxThread("getHistory");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("getHistory", "history");
         List<String> historyList = new ArrayList<>();
         history.find()
               .sort(Sorts.descending("visited_at"))
               .forEach(doc -> historyList.add(doc.getString("url")));
+        event.end(historyList.size());
         return historyList;
     }
 
     @Override
     public Map<String, List<String>> getHistoryByDay() {
-        Map<String, List<String>> historyByDay = new LinkedHashMap<>();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("EEEE, MMMM d, yyyy");
-        
+        StorageExecutor.checkNotOnFxThread("getHistoryByDay");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("getHistoryByDay", "history");
+        Map<String, List<String>> days = groupByDay(history.find()
+                .sort(Sorts.descending("visited_at")));
+        event.end(countVisits(days));
+        return days;
+    }
+
+    @Override
+    public List<HistoryVisit> getHistoryBefore(Date before, int limit) {
+        StorageExecutor.checkNotOnFxThread("getHistoryBefore");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("getHistoryBefore", "history");
+        // Seeks the visited_at index instead of skipping over the rows of earlier pages
+        List<HistoryVisit> visits = new ArrayList<>(limit);
+        history.find(before == null ? Filters.exists("visited_at") : Filters.lt("visited_at", before))
+              .sort(Sorts.descending("visited_at"))
+              .limit(limit)
+              .forEach(doc -> visits.add(toVisit(doc)));
+        if (visits.size() == limit && limit > 0) {
+            // Replace the visits at the last time with all of them, so the next page can start before it
+            Date last = visits.get(visits.size() - 1).getVisitedAt();
+            visits.removeIf(visit -> visit.getVisitedAt().equals(last));
+            history.find(Filters.eq("visited_at", last))
+                  .sort(Sorts.ascending("_id"))
+                  .forEach(doc -> visits.add(toVisit(doc)));
+        }
+        event.end(visits.size());
+        return visits;
+    }
+
+    @Override
+    public List<HistoryVisit> getRecentVisits(int limit) {
+        StorageExecutor.checkNotOnFxThread("getRecentVisits");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("getRecentVisits", "history");
+        List<HistoryVisit> visits = new ArrayList<>();
         history.find()
               .sort(Sorts.descending("visited_at"))
+              .limit(limit)
               .forEach(doc -> {
-                  String url = doc.getString("url");
-                  Date visitedAt = doc.getDate("visited_at");
-                  
-                  if (url != null && visitedAt != null) {
-                      String dateKey = dateFormat.format(visitedAt);
-                      historyByDay.computeIfAbsent(dateKey, k -> new ArrayList<>()).add(url);
+                  if (doc.getString("url") != null && doc.getDate("visited_at") != null) {
+                      visits.add(toVisit(doc));
                   }
               });
-        
-        return historyByDay;
+        event.end(visits.size());
+        return visits;
+    }
+
+    private static Document toDocument(HistoryVisit visit) {
+        Document doc = new Document("_id", visit.getId())
+                .append("url", visit.getUrl())
+                .append("visited_at", visit.getVisitedAt())
+                .append("reload_count", visit.getReloadCount())
+                .append("fragment_count", visit.getFragmentCount())
+                .append("dwell_ms", visit.getDwellMillis());
+        if (visit.getTransition() != null) {
+            doc.append("transition", visit.getTransition().name());
+        }
+        if (!visit.getRedirects().isEmpty()) {
+            doc.append("redirects", visit.getRedirects());
+        }
+        return doc;
+    }
+
+    private static int countVisits(Map<String, List<String>> days) {
+        int count = 0;
+        for (List<String> urls : days.values()) {
+            count += urls.size();
+        }
+        return count;
+    }
+
+    private Map<String, List<String>> groupByDay(FindIterable<Document> visits) {
+        return HistoryGrouping.groupByDay(visits.map(DatabaseManager::toVisit));
+    }
+
+    static HistoryVisit toVisit(Document doc) {
+        String transition = doc.getString("transition");
+        if (transition == null && !doc.containsKey("dwell_ms")) {
+            // Written by addHistory, before visits were coalesced
+            return new HistoryVisit(doc.getString("url"), doc.getDate("visited_at"));
+        }
+        Object id = doc.get("_id");
+        return new HistoryVisit(id == null ? null : id.toString(), doc.getString("url"), doc.getDate("visited_at"),
+                transition == null ? null : HistoryVisit.Transition.valueOf(transition),
+                doc.getList("redirects", String.class),
+                doc.getInteger("reload_count", 0), doc.getInteger("fragment_count", 0),
+                doc.get("dwell_ms", 0L));
     }
 
     @Override
     public void deleteHistory(String url) {
-        history.deleteOne(new Document("url", url));
+        StorageExecutor.checkNotOnFxThread("deleteHistory");
+        NitronEvents.StorageEvent event = NitronEvents.StorageEvent.start("deleteHistory", "history");
+        long deleted = history.deleteOne(new Document("url", url)).getDeletedCount();
+        event.end((int) deleted);
     }
 
     @Override
     public void close() {
+        synchronized (this) {
+            if (changeWatcher != null) {
+                changeWatcher.stop();
+            }
+        }
         if (mongoClient != null) {
             mongoClient.close();
         }
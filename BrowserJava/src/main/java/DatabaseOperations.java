@@ -1,10 +1,11 @@
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Interface for database operations.
  * Defines the contract for all database-related operations in the browser.
- * Implemented by DatabaseManager.
+ * Implemented by DatabaseManager, and by InMemoryDatabase for benchmarks.
  */
 public interface DatabaseOperations {
     /**
@@ -13,6 +14,12 @@ public interface DatabaseOperations {
      */
     void addBookmark(String url);
 
+    /**
+     * Add many bookmarks at once, for imports. URLs that are already bookmarked are skipped.
+     * @param bookmarks Bookmarked URLs with the time each was added
+     */
+    void addBookmarks(Map<String, Date> bookmarks);
+
     /**
      * Get all bookmarks from the database
      * @return List of bookmark URLs
@@ -31,6 +38,27 @@ public interface DatabaseOperations {
      */
     void addHistory(String url);
 
+    /**
+     * Add a browsing history entry that happened at a given time
+     * @param url The URL to add to history
+     * @param visitedAt The time of the visit
+     */
+    void addHistory(String url, Date visitedAt);
+
+    /**
+     * Save a visit recorded by the VisitRecorder. Saving a visit with the same id again
+     * replaces the earlier entry, so a visit is written when it starts and updated when it ends.
+     * @param visit The visit, with its id set
+     */
+    void saveVisit(HistoryVisit visit);
+
+    /**
+     * Save many visits at once, for imports. As with saveVisit, a visit whose id is already
+     * stored replaces it, so importing the same visits twice adds nothing.
+     * @param visits The visits, each with its id set
+     */
+    void saveVisits(List<HistoryVisit> visits);
+
     /**
      * Get all history entries from the database
      * @return List of history URLs
@@ -43,6 +71,23 @@ public interface DatabaseOperations {
      */
     Map<String, List<String>> getHistoryByDay();
 
+    /**
+     * Get one page of history entries, newest first, older than the previous page. Every visit at
+     * the time of the last one returned is included, even past the limit, so the next page can
+     * continue strictly before that time without skipping or repeating entries.
+     * @param before Time of the last visit of the previous page, or null for the first page
+     * @param limit Maximum number of history entries to return, apart from visits at the same time
+     * @return List of visits, newest first
+     */
+    List<HistoryVisit> getHistoryBefore(Date before, int limit);
+
+    /**
+     * Get the most recent history entries with their visit times
+     * @param limit Maximum number of entries to return
+     * @return List of visits, newest first
+     */
+    List<HistoryVisit> getRecentVisits(int limit);
+
     /**
      * Delete a history entry from the database
      * @param url The URL to delete from history
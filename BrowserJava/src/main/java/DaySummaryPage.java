@@ -15,15 +15,18 @@ import java.util.*;
  */
 public class DaySummaryPage {
     private final HistoryManager historyManager;
+    private final StorageExecutor storageExecutor;
     private final LocalDate today;
     private final long sessionStartTime;
 
     /**
      * Constructor for DaySummaryPage
      * @param historyManager The history manager to get browsing data
+     * @param storageExecutor The executor used to read history off the FX thread
      */
-    public DaySummaryPage(HistoryManager historyManager) {
+    public DaySummaryPage(HistoryManager historyManager, StorageExecutor storageExecutor) {
         this.historyManager = historyManager;
+        this.storageExecutor = storageExecutor;
         this.today = LocalDate.now();
         this.sessionStartTime = System.currentTimeMillis();
     }
@@ -51,8 +54,27 @@ public class DaySummaryPage {
         dateLabel.setStyle("-fx-font-size: 14; -fx-text-fill: #666;");
         root.getChildren().add(dateLabel);
 
+        Label loadingLabel = new Label("Loading browsing activity...");
+        loadingLabel.setStyle("-fx-font-size: 14; -fx-text-fill: #999;");
+        root.getChildren().add(loadingLabel);
+
+        Scene scene = new Scene(root);
+        summaryStage.setScene(scene);
+        summaryStage.show();
+
+        storageExecutor.submit(historyManager::getHistory, history -> {
+            root.getChildren().remove(loadingLabel);
+            addStatistics(root, history);
+        });
+    }
+
+    /**
+     * Add the browsing statistics to the summary window
+     * @param root The summary window content
+     * @param history List of history URLs
+     */
+    private void addStatistics(VBox root, List<String> history) {
         // Sites visited
-        List<String> history = historyManager.getHistory();
         Set<String> uniqueSites = extractUniqueSites(history);
         Label sitesLabel = new Label("🔗 Number of Sites Visited: " + uniqueSites.size());
         sitesLabel.setStyle("-fx-font-size: 16; -fx-font-weight: bold;");
@@ -86,10 +108,6 @@ public class DaySummaryPage {
             noSitesLabel.setStyle("-fx-font-size: 14; -fx-text-fill: #999;");
             root.getChildren().add(noSitesLabel);
         }
-
-        Scene scene = new Scene(root);
-        summaryStage.setScene(scene);
-        summaryStage.show();
     }
 
     /**
@@ -97,7 +115,7 @@ public class DaySummaryPage {
      * @param history List of history URLs
      * @return Set of unique domain names
      */
-    private Set<String> extractUniqueSites(List<String> history) {
+    public static Set<String> extractUniqueSites(List<String> history) {
         Set<String> sites = new HashSet<>();
         for (String url : history) {
             try {
@@ -120,7 +138,7 @@ public class DaySummaryPage {
      * @param topN Number of top sites to return
      * @return List of top sites with visit counts
      */
-    private List<Map.Entry<String, Integer>> getTopSites(List<String> history, int topN) {
+    public static List<Map.Entry<String, Integer>> getTopSites(List<String> history, int topN) {
         Map<String, Integer> siteVisits = new HashMap<>();
         
         for (String url : history) {
@@ -143,7 +161,7 @@ public class DaySummaryPage {
     }
 
     /**
-     * Get browsing statistics
+     * Get browsing statistics. Reads the full history, so call it off the FX thread.
      * @return Statistics as formatted string
      */
     public String getStatisticsAsString() {
@@ -0,0 +1,339 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * DiskCacheTier is the persistent tier of the NitronResponseCache.
+ * Responses are appended to fixed-size segment files; full segments are memory-mapped
+ * for reads. A compact index maps each key to its segment, offset and length and is
+ * saved next to the segments. When the tier exceeds its byte budget the oldest
+ * segment is dropped as a whole, which keeps eviction a single file delete.
+ */
+public class DiskCacheTier {
+    private static final int INDEX_MAGIC = 0x4E524331;
+    private static final String INDEX_FILE = "index.dat";
+    private static final long SEGMENT_BYTES = 16L * 1024 * 1024;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<String, IndexEntry> index = new HashMap<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long sizeBytes;
+    private int nextSegmentId;
+    private boolean open;
+
+    /**
+     * Constructor for DiskCacheTier
+     * @param directory The directory holding segments and the index
+     * @param maxBytes Total byte budget of the tier
+     */
+    public DiskCacheTier(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Open existing segments and load the index. Until this returns every lookup misses.
+     * @throws IOException if the cache directory cannot be read
+     */
+    public synchronized void open() throws IOException {
+        StorageExecutor.checkNotOnFxThread("DiskCacheTier.open");
+        Files.createDirectories(directory);
+        Map<Integer, Segment> byId = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int id = Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+                byId.put(id, new Segment(id, file));
+            }
+        }
+        byId.keySet().stream().sorted().forEach(id -> segments.add(byId.get(id)));
+        nextSegmentId = segments.isEmpty() ? 0 : segments.peekLast().id + 1;
+        for (Segment segment : segments) {
+            segment.open();
+            sizeBytes += segment.size;
+        }
+        loadIndex(byId);
+        open = true;
+    }
+
+    /**
+     * Get a response from disk
+     * @param key The cache key
+     * @return The response, or null if not cached
+     */
+    public synchronized CachedResponse get(String key) {
+        StorageExecutor.checkNotOnFxThread("DiskCacheTier.get");
+        IndexEntry entry = index.get(key);
+        if (!open || entry == null) {
+            return null;
+        }
+        Segment segment = findSegment(entry.segment);
+        if (segment == null) {
+            index.remove(key);
+            return null;
+        }
+        try {
+            byte[] bytes = segment.read(entry.offset, entry.length);
+            CachedResponse response = CachedResponse.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+            // The index holds the latest expiry after revalidations
+            response.refresh(response.getStoredAt(), entry.expiresAt);
+            return response;
+        } catch (IOException e) {
+            index.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Append a response to the active segment
+     * @param key The cache key
+     * @param response The response to store
+     */
+    public synchronized void put(String key, CachedResponse response) {
+        StorageExecutor.checkNotOnFxThread("DiskCacheTier.put");
+        if (!open) {
+            return;
+        }
+        try {
+            byte[] bytes = response.encode();
+            if (bytes.length > SEGMENT_BYTES) {
+                return;
+            }
+            Segment active = segments.peekLast();
+            if (active == null || active.size + bytes.length > SEGMENT_BYTES) {
+                if (active != null) {
+                    active.seal();
+                }
+                int id = nextSegmentId++;
+                active = new Segment(id, directory.resolve("segment-" + id + ".dat"));
+                active.open();
+                segments.add(active);
+            }
+            long offset = active.append(bytes);
+            sizeBytes += bytes.length;
+            index.put(key, new IndexEntry(active.id, (int) offset, bytes.length, response.getExpiresAt()));
+            evictOldestSegments();
+        } catch (IOException e) {
+            System.err.println("Disk cache write failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget a response. Its bytes are reclaimed when its segment is evicted.
+     * @param key The cache key
+     */
+    public synchronized void remove(String key) {
+        index.remove(key);
+    }
+
+    /**
+     * Record a new expiry time after a successful revalidation
+     * @param key The cache key
+     * @param expiresAt The new expiry time in epoch milliseconds
+     */
+    public synchronized void updateExpiry(String key, long expiresAt) {
+        IndexEntry entry = index.get(key);
+        if (entry != null) {
+            entry.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Write the index to disk atomically
+     * @throws IOException if the index cannot be written
+     */
+    public synchronized void flushIndex() throws IOException {
+        if (!open) {
+            return;
+        }
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(index.size());
+            for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().segment);
+                out.writeInt(entry.getValue().offset);
+                out.writeInt(entry.getValue().length);
+                out.writeLong(entry.getValue().expiresAt);
+            }
+        }
+        Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Save the index and close all segments
+     */
+    public synchronized void close() {
+        try {
+            flushIndex();
+        } catch (IOException e) {
+            System.err.println("Could not save disk cache index: " + e.getMessage());
+        }
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        open = false;
+    }
+
+    /**
+     * Get the current size of the tier
+     * @return Size in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Get the number of indexed responses
+     * @return Number of entries
+     */
+    public synchronized int getEntryCount() {
+        return index.size();
+    }
+
+    private void loadIndex(Map<Integer, Segment> byId) {
+        Path file = directory.resolve(INDEX_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                IndexEntry entry = new IndexEntry(in.readInt(), in.readInt(), in.readInt(), in.readLong());
+                Segment segment = byId.get(entry.segment);
+                // Skip entries whose segment was evicted or truncated by a crash
+                if (segment != null && entry.offset + (long) entry.length <= segment.size) {
+                    index.put(key, entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Disk cache index is unreadable, starting empty: " + e.getMessage());
+            index.clear();
+        }
+    }
+
+    private void evictOldestSegments() {
+        while (sizeBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.pollFirst();
+            sizeBytes -= oldest.size;
+            Iterator<IndexEntry> entries = index.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().segment == oldest.id) {
+                    entries.remove();
+                }
+            }
+            oldest.close();
+            try {
+                Files.deleteIfExists(oldest.file);
+            } catch (IOException e) {
+                System.err.println("Could not delete cache segment: " + e.getMessage());
+            }
+        }
+    }
+
+    private Segment findSegment(int id) {
+        for (Segment segment : segments) {
+            if (segment.id == id) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private static final class IndexEntry {
+        private final int segment;
+        private final int offset;
+        private final int length;
+        private long expiresAt;
+
+        private IndexEntry(int segment, int offset, int length, long expiresAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One append-only segment file. Sealed segments are read through a memory mapping.
+     */
+    private static final class Segment {
+        private final int id;
+        private final Path file;
+        private FileChannel channel;
+        private MappedByteBuffer mapped;
+        private long size;
+
+        private Segment(int id, Path file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        private void open() throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = channel.size();
+            if (size >= SEGMENT_BYTES / 2) {
+                seal();
+            }
+        }
+
+        private void seal() throws IOException {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        private long append(byte[] bytes) throws IOException {
+            long offset = size;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            size += bytes.length;
+            return offset;
+        }
+
+        private byte[] read(int offset, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            if (mapped != null && offset + (long) length <= mapped.capacity()) {
+                mapped.duplicate().position(offset).get(bytes);
+                return bytes;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Cache segment truncated");
+                }
+            }
+            return bytes;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Could not close cache segment: " + e.getMessage());
+            }
+        }
+    }
+}
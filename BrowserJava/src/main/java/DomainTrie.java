@@ -0,0 +1,66 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * DomainTrie stores host names by their labels from the top-level domain down.
+ * Each level is a hash map, so looking up a host costs one probe per label
+ * no matter how many domains are stored, and a stored domain also matches its subdomains.
+ */
+public class DomainTrie {
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * Add a domain. The domain and all of its subdomains will match.
+     * @param domain The domain to add, for example "ads.example.com"
+     */
+    public void add(String domain) {
+        Node node = root;
+        int end = domain.length();
+        while (end > 0) {
+            int dot = domain.lastIndexOf('.', end - 1);
+            String label = domain.substring(dot + 1, end);
+            node = node.children.computeIfAbsent(label, k -> new Node());
+            end = dot;
+        }
+        if (!node.terminal) {
+            node.terminal = true;
+            size++;
+        }
+    }
+
+    /**
+     * Check if a host is a stored domain or a subdomain of one
+     * @param host The lower-case host name to check
+     * @return true if the host matches, false otherwise
+     */
+    public boolean matches(String host) {
+        Node node = root;
+        int end = host.length();
+        while (end > 0) {
+            int dot = host.lastIndexOf('.', end - 1);
+            node = node.children.get(host.substring(dot + 1, end));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+            end = dot;
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of stored domains
+     * @return Number of domains
+     */
+    public int size() {
+        return size;
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>(4);
+        private boolean terminal;
+    }
+}
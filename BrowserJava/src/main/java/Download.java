@@ -0,0 +1,652 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Download is one file being fetched by the DownloadManager.
+ *
+ * When the server supports byte ranges the file is split into segments fetched in parallel,
+ * each writing at its own position in a preallocated ".part" file with FileChannel.transferFrom,
+ * so no per-download buffers are kept on the heap. Progress is checkpointed to a
+ * ".nitron-download" sidecar next to the part file after forcing the data to disk, and a
+ * restarted download asks for the missing ranges with If-Range so a changed file is not spliced.
+ */
+public class Download {
+    /**
+     * Lifecycle of a download
+     */
+    public enum State { QUEUED, RUNNING, PAUSED, COMPLETED, FAILED, CANCELLED }
+
+    /**
+     * Suffix of the file a download writes into until it completes
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Suffix of the progress file kept next to the part file
+     */
+    public static final String STATE_SUFFIX = ".nitron-download";
+
+    private static final int CHUNK_BYTES = 256 * 1024;
+    private static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long CHECKPOINT_MILLIS = 1000;
+    private static final int TIMEOUT_MILLIS = 15_000;
+    private static final Object NAME_LOCK = new Object();
+
+    private final String url;
+    private final Path directory;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Object runLock = new Object();
+    private volatile String sourceUrl;
+    private volatile String fileName;
+    private volatile Path file;
+    private volatile long totalBytes = -1;
+    private volatile String validator;
+    private volatile State state = State.QUEUED;
+    private volatile boolean pausedByUser;
+    private boolean nameClaimed;
+    private volatile String error;
+    private long speedSampleBytes;
+    private long speedSampleNanos;
+    private long bytesPerSecond;
+
+    /**
+     * Constructor for Download
+     * @param url The URL to download
+     * @param directory The directory the file is saved in
+     */
+    public Download(String url, Path directory) {
+        this.url = url;
+        this.sourceUrl = url;
+        this.directory = directory;
+        this.fileName = fileNameFor(null, url);
+    }
+
+    /**
+     * Load a download from its progress file, in the PAUSED state
+     * @param stateFile The ".nitron-download" file
+     * @return The restored download
+     * @throws IOException if the file cannot be read
+     */
+    public static Download restore(Path stateFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            properties.load(in);
+        }
+        Download download = new Download(properties.getProperty("url"), stateFile.getParent());
+        download.sourceUrl = properties.getProperty("sourceUrl", download.url);
+        download.fileName = properties.getProperty("fileName", download.fileName);
+        download.totalBytes = Long.parseLong(properties.getProperty("totalBytes", "-1"));
+        download.validator = properties.getProperty("validator");
+        download.pausedByUser = Boolean.parseBoolean(properties.getProperty("paused"));
+        if (Files.exists(download.partFile())) {
+            download.nameClaimed = true;
+            for (int i = 0; properties.containsKey("segment." + i); i++) {
+                String[] parts = properties.getProperty("segment." + i).split(",");
+                Segment segment = new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                segment.written = Long.parseLong(parts[2]);
+                download.segments.add(segment);
+            }
+        } else {
+            // Without its data the progress is worthless; the download starts over when resumed
+            Files.deleteIfExists(stateFile);
+        }
+        download.state = State.PAUSED;
+        return download;
+    }
+
+    /**
+     * Fetch the file. Called on a download thread; returns when the download completes,
+     * fails, is paused or is cancelled.
+     * @param segmentPool Threads that fetch the segments
+     * @param limiter The shared bandwidth limit
+     * @param maxSegments The most parallel connections for this download
+     */
+    void run(ExecutorService segmentPool, BandwidthLimiter limiter, int maxSegments) {
+        // A paused run may still be winding down its connections; wait for it
+        synchronized (runLock) {
+            synchronized (this) {
+                if (state != State.QUEUED) {
+                    return;
+                }
+                state = State.RUNNING;
+                error = null;
+            }
+            try {
+                if (segments.isEmpty()) {
+                    if (nameClaimed) {
+                        // Left over from an attempt that has to start over
+                        Files.deleteIfExists(partFile());
+                        nameClaimed = false;
+                    }
+                    plan(maxSegments);
+                }
+                try (FileChannel channel = FileChannel.open(partFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    if (totalBytes > 0 && channel.size() < totalBytes) {
+                        // Extend the file so every segment can write at its own position
+                        channel.write(ByteBuffer.allocate(1), totalBytes - 1);
+                    }
+                    List<Future<Void>> running = new ArrayList<>();
+                    for (Segment segment : segments) {
+                        if (!segment.isComplete()) {
+                            running.add(segmentPool.submit(() -> {
+                                fetch(segment, channel, limiter);
+                                return null;
+                            }));
+                        }
+                    }
+                    awaitSegments(running, channel);
+                    if (state == State.RUNNING && totalBytes >= 0) {
+                        // A server that resent the whole file may have sent less than first announced
+                        channel.truncate(totalBytes);
+                    }
+                }
+                if (state == State.RUNNING) {
+                    complete();
+                }
+            } catch (IOException e) {
+                fail(e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                suspend();
+            }
+            if (state == State.CANCELLED) {
+                deleteFiles();
+            }
+        }
+    }
+
+    /**
+     * Ask the server for the size, range support and file name, then split the file into segments
+     */
+    private void plan(int maxSegments) throws IOException {
+        HttpURLConnection head = open(url);
+        head.setRequestMethod("HEAD");
+        boolean ranges = false;
+        String disposition = null;
+        try {
+            int status = head.getResponseCode();
+            // Servers that reject HEAD still get a single streamed download
+            if (status < 400) {
+                totalBytes = head.getContentLengthLong();
+                ranges = "bytes".equalsIgnoreCase(head.getHeaderField("Accept-Ranges"));
+                disposition = head.getHeaderField("Content-Disposition");
+                sourceUrl = head.getURL().toString();
+                // If-Range needs a strong validator
+                String etag = head.getHeaderField("ETag");
+                validator = etag != null && !etag.startsWith("W/") ? etag : head.getHeaderField("Last-Modified");
+            } else if (status != HttpURLConnection.HTTP_BAD_METHOD && status != HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+                throw new IOException("HTTP " + status + " " + head.getResponseMessage());
+            }
+        } finally {
+            head.disconnect();
+        }
+        claimFileName(fileNameFor(disposition, sourceUrl));
+
+        int count = ranges && totalBytes >= 2 * MIN_SEGMENT_BYTES
+                ? (int) Math.min(maxSegments, totalBytes / MIN_SEGMENT_BYTES) : 1;
+        if (totalBytes <= 0) {
+            segments.add(new Segment(0, -1));
+        } else {
+            long size = totalBytes / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                segments.add(new Segment(start, i == count - 1 ? totalBytes - 1 : start + size - 1));
+            }
+        }
+        checkpoint(null);
+    }
+
+    private void fetch(Segment segment, FileChannel channel, BandwidthLimiter limiter) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            if (state != State.RUNNING || segment.isComplete()) {
+                return;
+            }
+            try {
+                transfer(segment, channel, limiter);
+                return;
+            } catch (ChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || state != State.RUNNING) {
+                    throw e;
+                }
+                // Back off and continue from wherever the segment got to
+                TimeUnit.MILLISECONDS.sleep(500L << attempt);
+            }
+        }
+    }
+
+    private void transfer(Segment segment, FileChannel channel, BandwidthLimiter limiter) throws IOException, InterruptedException {
+        HttpURLConnection connection = open(sourceUrl);
+        long position = segment.start + segment.written;
+        // Asking an empty file for "bytes=0-" gets 416, so a fresh download of unknown length asks for all of it
+        if (segment.end >= 0 || position > 0) {
+            connection.setRequestProperty("Range", "bytes=" + position + "-" + (segment.end >= 0 ? segment.end : ""));
+        }
+        if (validator != null) {
+            connection.setRequestProperty("If-Range", validator);
+        }
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK) {
+                // The server ignored the range: no range support, or the file changed since we started
+                if (segments.size() > 1) {
+                    throw new ChangedException();
+                }
+                segment.written = 0;
+                long length = connection.getContentLengthLong();
+                segment.end = length >= 0 ? length - 1 : -1;
+                totalBytes = length;
+            } else if (status != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + status + " " + connection.getResponseMessage());
+            }
+            try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream())) {
+                while (state == State.RUNNING) {
+                    long remaining = segment.end >= 0 ? segment.end - (segment.start + segment.written) + 1 : CHUNK_BYTES;
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    long chunk = Math.min(CHUNK_BYTES, remaining);
+                    limiter.acquire(chunk);
+                    long transferred = channel.transferFrom(in, segment.start + segment.written, chunk);
+                    if (transferred == 0) {
+                        if (segment.end < 0) {
+                            // Streamed without a length: the end of the body is the end of the file
+                            segment.end = segment.start + segment.written - 1;
+                            totalBytes = segment.written;
+                            return;
+                        }
+                        throw new EOFException("Connection closed at byte " + (segment.start + segment.written));
+                    }
+                    segment.written += transferred;
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void awaitSegments(List<Future<Void>> running, FileChannel channel) throws IOException, InterruptedException {
+        for (Future<Void> future : running) {
+            while (true) {
+                try {
+                    future.get(CHECKPOINT_MILLIS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    checkpoint(channel);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ChangedException) {
+                        // Nothing downloaded so far can be trusted; start over on retry
+                        segments.clear();
+                        totalBytes = -1;
+                    }
+                    fail(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+                    break;
+                } catch (InterruptedException e) {
+                    // Stop the other segments before the channel closes under them
+                    suspend();
+                    throw e;
+                }
+            }
+        }
+        if (state != State.CANCELLED) {
+            checkpoint(channel);
+        }
+    }
+
+    /**
+     * Write the progress file. The data is forced to disk first, so the file never claims
+     * bytes that a crash could lose.
+     */
+    private void checkpoint(FileChannel channel) throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+        if (segments.isEmpty()) {
+            Files.deleteIfExists(stateFile());
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        properties.setProperty("sourceUrl", sourceUrl);
+        properties.setProperty("fileName", fileName);
+        properties.setProperty("totalBytes", Long.toString(totalBytes));
+        properties.setProperty("paused", Boolean.toString(pausedByUser));
+        if (validator != null) {
+            properties.setProperty("validator", validator);
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            properties.setProperty("segment." + i, segment.start + "," + segment.end + "," + segment.written);
+        }
+        Path temp = directory.resolve(fileName + STATE_SUFFIX + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Nitron download progress");
+        }
+        Files.move(temp, stateFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void complete() throws IOException {
+        Path target;
+        synchronized (NAME_LOCK) {
+            target = directory.resolve(fileName);
+            for (int i = 1; Files.exists(target); i++) {
+                target = directory.resolve(numbered(fileName, i));
+            }
+            Files.move(partFile(), target);
+        }
+        Files.deleteIfExists(stateFile());
+        file = target;
+        synchronized (this) {
+            if (state == State.RUNNING) {
+                state = State.COMPLETED;
+            }
+        }
+        System.out.println("Downloaded " + url + " to " + target);
+    }
+
+    /**
+     * Pick a name that no finished or unfinished download uses, and reserve it by creating the part file
+     */
+    private void claimFileName(String wanted) throws IOException {
+        synchronized (NAME_LOCK) {
+            for (int i = 0; ; i++) {
+                String candidate = i == 0 ? wanted : numbered(wanted, i);
+                if (Files.exists(directory.resolve(candidate))) {
+                    continue;
+                }
+                try {
+                    Files.createFile(directory.resolve(candidate + PART_SUFFIX));
+                    fileName = candidate;
+                    nameClaimed = true;
+                    return;
+                } catch (FileAlreadyExistsException e) {
+                    // Another download has it
+                }
+            }
+        }
+    }
+
+    private synchronized void fail(String message) {
+        if (state == State.RUNNING) {
+            state = State.FAILED;
+            error = message;
+            System.err.println("Download failed: " + url + ": " + message);
+        }
+    }
+
+    /**
+     * Stop a running download so it resumes when the browser next starts
+     */
+    synchronized void suspend() {
+        if (state == State.RUNNING || state == State.QUEUED) {
+            state = State.PAUSED;
+        }
+    }
+
+    /**
+     * Pause the download. Progress is kept and the download stays paused across restarts.
+     */
+    public synchronized void pause() {
+        if (state == State.RUNNING || state == State.QUEUED) {
+            state = State.PAUSED;
+            pausedByUser = true;
+        }
+    }
+
+    /**
+     * Queue a paused or failed download again
+     * @return true if the download needs to be scheduled
+     */
+    synchronized boolean requeue() {
+        if (state == State.PAUSED || state == State.FAILED) {
+            state = State.QUEUED;
+            pausedByUser = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cancel the download and delete what was downloaded
+     */
+    public void cancel() {
+        boolean running;
+        synchronized (this) {
+            if (state == State.COMPLETED || state == State.CANCELLED) {
+                return;
+            }
+            running = state == State.RUNNING;
+            state = State.CANCELLED;
+        }
+        // A running download deletes its files once its connections have stopped
+        if (!running) {
+            deleteFiles();
+        }
+    }
+
+    private void deleteFiles() {
+        try {
+            Files.deleteIfExists(partFile());
+            Files.deleteIfExists(stateFile());
+        } catch (IOException e) {
+            System.err.println("Could not delete partial download: " + e.getMessage());
+        }
+    }
+
+    private static HttpURLConnection open(String address) throws IOException {
+        URLConnection connection = new URL(address).openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            throw new IOException("Only http and https downloads are supported: " + address);
+        }
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return (HttpURLConnection) connection;
+    }
+
+    /**
+     * Work out the file name from a Content-Disposition header, falling back to the URL path
+     * @param disposition The Content-Disposition header, or null
+     * @param url The download URL
+     * @return A file name safe to create in the downloads directory
+     */
+    public static String fileNameFor(String disposition, String url) {
+        String name = null;
+        if (disposition != null) {
+            for (String part : disposition.split(";")) {
+                String trimmed = part.trim();
+                String lower = trimmed.toLowerCase();
+                if (lower.startsWith("filename*=")) {
+                    // RFC 5987: charset'language'percent-encoded-name
+                    String value = trimmed.substring(10);
+                    int quote = value.indexOf('\'', value.indexOf('\'') + 1);
+                    name = decode(quote >= 0 ? value.substring(quote + 1) : value);
+                    break;
+                } else if (lower.startsWith("filename=")) {
+                    name = trimmed.substring(9).replace("\"", "");
+                }
+            }
+        }
+        if (name == null) {
+            String path = url.replaceFirst("[?#].*$", "");
+            name = decode(path.substring(path.lastIndexOf('/') + 1));
+        }
+        name = name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        return name.isEmpty() || name.startsWith(".") ? "download" + name : name;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8.name());
+        } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+
+    private static String numbered(String name, int number) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0
+                ? name.substring(0, dot) + " (" + number + ")" + name.substring(dot)
+                : name + " (" + number + ")";
+    }
+
+    private Path partFile() {
+        return directory.resolve(fileName + PART_SUFFIX);
+    }
+
+    private Path stateFile() {
+        return directory.resolve(fileName + STATE_SUFFIX);
+    }
+
+    /**
+     * Get the URL being downloaded
+     * @return The URL as requested
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Get the name the file is saved under
+     * @return The file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Get the saved file
+     * @return Path of the completed file, or null until the download completes
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Get the size of the file
+     * @return Total bytes, or -1 while unknown
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Get how much has been downloaded
+     * @return Bytes written so far
+     */
+    public long getDownloadedBytes() {
+        long downloaded = 0;
+        for (Segment segment : segments) {
+            downloaded += segment.written;
+        }
+        return downloaded;
+    }
+
+    /**
+     * Get the number of parallel connections used
+     * @return The segment count, or 0 before the download is planned
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Get the download speed, averaged since the previous call at least a second ago
+     * @return Bytes per second
+     */
+    public synchronized long getBytesPerSecond() {
+        long now = System.nanoTime();
+        long downloaded = getDownloadedBytes();
+        if (state != State.RUNNING) {
+            bytesPerSecond = 0;
+        } else if (now - speedSampleNanos >= TimeUnit.SECONDS.toNanos(1)) {
+            if (speedSampleNanos != 0 && downloaded >= speedSampleBytes) {
+                bytesPerSecond = (long) ((downloaded - speedSampleBytes) * 1e9 / (now - speedSampleNanos));
+            }
+            speedSampleBytes = downloaded;
+            speedSampleNanos = now;
+        }
+        return bytesPerSecond;
+    }
+
+    /**
+     * Get the download state
+     * @return The current state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Check whether the user paused this download
+     * @return true if paused by the user rather than by the browser closing
+     */
+    public boolean isPausedByUser() {
+        return pausedByUser;
+    }
+
+    /**
+     * Get why the download failed
+     * @return The error message, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * A byte range of the file fetched over one connection
+     */
+    private static final class Segment {
+        private final long start;
+        private volatile long end;
+        private volatile long written;
+
+        private Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private boolean isComplete() {
+            return end >= 0 && start + written > end;
+        }
+    }
+
+    /**
+     * The server sent the whole file instead of the requested range
+     */
+    private static final class ChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private ChangedException() {
+            super("The file changed on the server; retry to download it again");
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DownloadManager is a derived class from BrowserFeature.
+ * Runs the browser's downloads with a limit on how many run at once and a shared bandwidth
+ * limit, and resumes the downloads that were still running when the browser last closed.
+ *
+ * Settings: -Dnitron.downloads.dir (default ~/Downloads), -Dnitron.downloads.maxConcurrent (3),
+ * -Dnitron.downloads.segments (parallel connections per file, 4) and
+ * -Dnitron.downloads.maxBytesPerSecond (0 for unlimited).
+ */
+public class DownloadManager extends BrowserFeature {
+    private static final String[] DOWNLOAD_EXTENSIONS = {
+        ".zip", ".gz", ".tgz", ".bz2", ".xz", ".7z", ".rar", ".tar", ".jar", ".exe", ".msi", ".dmg",
+        ".pkg", ".deb", ".rpm", ".apk", ".iso", ".img", ".bin"
+    };
+
+    private final Path directory;
+    private final int maxSegments;
+    private final BandwidthLimiter limiter;
+    private final List<Download> downloads = new CopyOnWriteArrayList<>();
+    private final ExecutorService downloadPool;
+    private final ExecutorService segmentPool;
+
+    /**
+     * Constructor for DownloadManager using the settings from the system properties
+     */
+    public DownloadManager() {
+        this(Paths.get(System.getProperty("nitron.downloads.dir", Paths.get(System.getProperty("user.home"), "Downloads").toString())),
+             Integer.getInteger("nitron.downloads.maxConcurrent", 3),
+             Integer.getInteger("nitron.downloads.segments", 4),
+             Long.getLong("nitron.downloads.maxBytesPerSecond", 0));
+    }
+
+    /**
+     * Constructor for DownloadManager
+     * @param directory Where downloaded files are saved
+     * @param maxConcurrent The most downloads running at once; the rest wait in the queue
+     * @param maxSegments The most parallel connections per download
+     * @param maxBytesPerSecond The bandwidth limit across all downloads, or 0 for unlimited
+     */
+    public DownloadManager(Path directory, int maxConcurrent, int maxSegments, long maxBytesPerSecond) {
+        super("Download Manager");
+        this.directory = directory;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.limiter = new BandwidthLimiter(maxBytesPerSecond);
+        this.downloadPool = Executors.newFixedThreadPool(Math.max(1, maxConcurrent), daemonThreads("nitron-download-"));
+        this.segmentPool = Executors.newFixedThreadPool(Math.max(1, maxConcurrent) * this.maxSegments,
+                daemonThreads("nitron-download-segment-"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Initialize the download manager: restore unfinished downloads and resume the ones
+     * that were running when the browser closed
+     */
+    @Override
+    public void initialize() {
+        System.out.println("Initializing " + featureName);
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + Download.STATE_SUFFIX)) {
+                for (Path stateFile : files) {
+                    restore(stateFile);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read unfinished downloads: " + e.getMessage());
+        }
+        enable();
+    }
+
+    private void restore(Path stateFile) {
+        try {
+            Download download = Download.restore(stateFile);
+            downloads.add(download);
+            if (!download.isPausedByUser()) {
+                resume(download);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Skipping unreadable download state " + stateFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Execute download operation
+     */
+    @Override
+    public void execute() {
+        System.out.println("Executing " + featureName);
+    }
+
+    /**
+     * Start downloading a URL
+     * @param url The http or https URL to save
+     * @return The queued download, or null if downloads are disabled
+     */
+    public Download download(String url) {
+        if (!isEnabled) {
+            System.out.println("Download Manager is disabled");
+            return null;
+        }
+        Download download = new Download(url, directory);
+        downloads.add(download);
+        schedule(download);
+        return download;
+    }
+
+    /**
+     * Download a URL the browser navigated to if the server says it is a file rather than a page.
+     * Asks with a HEAD request off the calling thread, so a queue of running downloads never delays it.
+     * @param url The URL that failed to render or rendered nothing
+     * @return Completes with the started download, or null if the URL is a page
+     */
+    public CompletableFuture<Download> downloadIfAttachment(String url) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                URLConnection connection = new URL(url).openConnection();
+                if (!(connection instanceof HttpURLConnection)) {
+                    return null;
+                }
+                HttpURLConnection head = (HttpURLConnection) connection;
+                head.setRequestMethod("HEAD");
+                try {
+                    if (head.getResponseCode() >= 400
+                            || !isDownloadResponse(head.getContentType(), head.getHeaderField("Content-Disposition"))) {
+                        return null;
+                    }
+                } finally {
+                    head.disconnect();
+                }
+                return download(url);
+            } catch (IOException e) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Check whether a URL names a file type that should always be downloaded
+     * @param url The URL about to be loaded
+     * @return true if the path ends in an archive, installer or disk image extension
+     */
+    public static boolean hasDownloadExtension(String url) {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return false;
+        }
+        String path = url.replaceFirst("[?#].*$", "").toLowerCase(Locale.ROOT);
+        for (String extension : DOWNLOAD_EXTENSIONS) {
+            if (path.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether response headers describe a file to save rather than something WebView renders
+     * @param contentType The Content-Type header, or null
+     * @param contentDisposition The Content-Disposition header, or null
+     * @return true for attachments and content types WebView cannot show
+     */
+    public static boolean isDownloadResponse(String contentType, String contentDisposition) {
+        if (contentDisposition != null && contentDisposition.trim().toLowerCase(Locale.ROOT).startsWith("attachment")) {
+            return true;
+        }
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        boolean renderable = type.startsWith("text/") || type.startsWith("image/") || type.contains("html")
+                || type.contains("xml") || type.contains("json") || type.contains("javascript");
+        return !renderable;
+    }
+
+    /**
+     * Resume a paused or failed download
+     * @param download The download
+     */
+    public void resume(Download download) {
+        if (download.requeue()) {
+            schedule(download);
+        }
+    }
+
+    /**
+     * Forget a finished, failed or cancelled download. Running downloads are cancelled first.
+     * @param download The download
+     */
+    public void remove(Download download) {
+        if (download.getState() != Download.State.COMPLETED) {
+            download.cancel();
+        }
+        downloads.remove(download);
+    }
+
+    private void schedule(Download download) {
+        downloadPool.execute(() -> download.run(segmentPool, limiter, maxSegments));
+    }
+
+    /**
+     * Stop all downloads, keeping their progress so they resume on the next start
+     */
+    public void shutdown() {
+        for (Download download : downloads) {
+            download.suspend();
+        }
+        downloadPool.shutdown();
+        try {
+            // Give running downloads a moment to write their final checkpoint
+            downloadPool.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        downloadPool.shutdownNow();
+        segmentPool.shutdownNow();
+    }
+
+    /**
+     * Get every download in this session, including restored ones
+     * @return Downloads, oldest first
+     */
+    public List<Download> getDownloads() {
+        return new ArrayList<>(downloads);
+    }
+
+    /**
+     * Get the shared bandwidth limit
+     * @return The limiter, whose rate can be changed while downloads run
+     */
+    public BandwidthLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Get the directory downloads are saved in
+     * @return The downloads directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get download statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        int completed = 0;
+        int active = 0;
+        long bytes = 0;
+        for (Download download : downloads) {
+            if (download.getState() == Download.State.COMPLETED) {
+                completed++;
+            } else if (download.getState() == Download.State.RUNNING || download.getState() == Download.State.QUEUED) {
+                active++;
+            }
+            bytes += download.getDownloadedBytes();
+        }
+        return String.format("Downloads: %d total, %d completed, %d active, %d KB transferred",
+                downloads.size(), completed, active, bytes / 1024);
+    }
+}
@@ -0,0 +1,348 @@
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * FaviconCache supplies the icons shown on tabs and in the bookmarks and history lists.
+ *
+ * Icons are fetched at most once per host, when a page of that host finishes loading, then
+ * decoded and downscaled on background threads and kept in the FaviconStore. The FX thread only
+ * ever looks icons up in an in-memory LRU of ready Images, so list cells never wait on disk or
+ * the network: a miss queues a load from the store and the lists are refreshed once, however
+ * many icons arrive in the same frame.
+ */
+public class FaviconCache {
+    private static final int MAX_ICON_BYTES = 128 * 1024;
+    private static final int TIMEOUT_MILLIS = 5_000;
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final long RETRY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final FaviconStore store;
+    private final int maxImages;
+    private final ExecutorService worker;
+    private final Map<String, Image> images;
+    // Hosts whose icon has been looked up in the store or is being fetched, so a miss is queued once
+    private final Set<String> requested = ConcurrentHashMap.newKeySet();
+    private final Set<String> fetching = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong diskLoads = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+
+    /**
+     * Constructor for FaviconCache
+     * @param store The on-disk icon store
+     * @param maxImages The most icons kept in memory
+     */
+    public FaviconCache(FaviconStore store, int maxImages) {
+        this.store = store;
+        this.maxImages = maxImages;
+        this.images = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+                if (size() > FaviconCache.this.maxImages) {
+                    requested.remove(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+        AtomicInteger count = new AtomicInteger();
+        this.worker = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "nitron-favicon-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Open the store in the background. Lookups miss until it is open.
+     */
+    public void open() {
+        worker.execute(() -> {
+            try {
+                store.open();
+            } catch (IOException e) {
+                System.err.println("Could not open favicon store: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Get the icon of a page's host without blocking. On a miss the icon is loaded from the
+     * store in the background and the listeners are told when it is ready.
+     * @param pageUrl A URL of the host
+     * @return The icon, or null if it is not in memory yet or the host has none
+     */
+    public Image get(String pageUrl) {
+        String host = hostOf(pageUrl);
+        if (host == null) {
+            return null;
+        }
+        Image image;
+        synchronized (images) {
+            image = images.get(host);
+        }
+        if (image != null) {
+            hits.incrementAndGet();
+            return image;
+        }
+        misses.incrementAndGet();
+        if (requested.add(host)) {
+            worker.execute(() -> {
+                Image loaded = loadFromStore(host);
+                if (loaded != null) {
+                    publish(host, loaded);
+                }
+            });
+        }
+        return null;
+    }
+
+    /**
+     * Make sure a host's icon is available after one of its pages loaded, fetching it if the
+     * store has no recent copy
+     * @param pageUrl The loaded page
+     * @param iconUrl The icon the page links to, or null to use /favicon.ico
+     * @param onLoaded Called on the FX thread with the icon, if there is one
+     */
+    public void fetch(String pageUrl, String iconUrl, Consumer<Image> onLoaded) {
+        String host = hostOf(pageUrl);
+        if (host == null) {
+            return;
+        }
+        Image cached;
+        synchronized (images) {
+            cached = images.get(host);
+        }
+        if (cached != null) {
+            onLoaded.accept(cached);
+            return;
+        }
+        requested.add(host);
+        worker.execute(() -> {
+            Image image = null;
+            if (store.isFresh(host, System.currentTimeMillis(), MAX_AGE_MILLIS, RETRY_MILLIS)) {
+                image = loadFromStore(host);
+            } else if (fetching.add(host)) {
+                try {
+                    image = download(pageUrl, host, iconUrl);
+                } finally {
+                    fetching.remove(host);
+                }
+            }
+            if (image != null) {
+                Image ready = image;
+                publish(host, ready);
+                Platform.runLater(() -> onLoaded.accept(ready));
+            }
+        });
+    }
+
+    private Image loadFromStore(String host) {
+        try {
+            int[] pixels = store.read(host);
+            if (pixels == null) {
+                return null;
+            }
+            diskLoads.incrementAndGet();
+            return toImage(pixels);
+        } catch (IOException e) {
+            System.err.println("Could not read favicon for " + host + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Image download(String pageUrl, String host, String iconUrl) {
+        List<String> candidates = new ArrayList<>();
+        if (iconUrl != null && (iconUrl.startsWith("http://") || iconUrl.startsWith("https://"))) {
+            candidates.add(iconUrl);
+        }
+        URI page = URI.create(pageUrl);
+        String fallback = page.getScheme() + "://" + page.getRawAuthority() + "/favicon.ico";
+        if (!candidates.contains(fallback)) {
+            candidates.add(fallback);
+        }
+        for (String candidate : candidates) {
+            byte[] data = readIcon(candidate);
+            int[] pixels = data == null ? null : FaviconDecoder.decode(data, FaviconStore.ICON_SIZE);
+            if (pixels != null) {
+                try {
+                    store.write(host, pixels, System.currentTimeMillis());
+                } catch (IOException e) {
+                    System.err.println("Could not store favicon for " + host + ": " + e.getMessage());
+                }
+                fetched.incrementAndGet();
+                return toImage(pixels);
+            }
+        }
+        failed.incrementAndGet();
+        store.markMissing(host, System.currentTimeMillis());
+        // Pick up an older icon the store may still have
+        return loadFromStore(host);
+    }
+
+    private byte[] readIcon(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            // Icons are kept in the store; the response cache would hold them a second time
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK
+                        || connection.getContentLengthLong() > MAX_ICON_BYTES) {
+                    return null;
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                        if (out.size() > MAX_ICON_BYTES) {
+                            return null;
+                        }
+                    }
+                    bytesDownloaded.addAndGet(out.size());
+                    return out.toByteArray();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Image toImage(int[] pixels) {
+        int size = FaviconStore.ICON_SIZE;
+        WritableImage image = new WritableImage(size, size);
+        image.getPixelWriter().setPixels(0, 0, size, size, PixelFormat.getIntArgbInstance(), pixels, 0, size);
+        return image;
+    }
+
+    private void publish(String host, Image image) {
+        synchronized (images) {
+            images.put(host, image);
+        }
+        // One refresh for every icon that arrives before the FX thread gets to it
+        if (refreshPending.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                refreshPending.set(false);
+                for (Runnable listener : listeners) {
+                    listener.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Be told on the FX thread when icons missed by get have become available
+     * @param listener Called once per batch of new icons, for example ListView::refresh
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener about new icons
+     * @param listener The listener passed to addListener
+     */
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Drop in-memory icons down to a number; they are loaded from the store again when needed
+     * @param keep The number of most recently used icons to keep
+     * @return The number of icons dropped
+     */
+    public int trim(int keep) {
+        int dropped = 0;
+        synchronized (images) {
+            var eldest = images.keySet().iterator();
+            while (images.size() - dropped > keep && eldest.hasNext()) {
+                requested.remove(eldest.next());
+                eldest.remove();
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Get the host an icon belongs to
+     * @param url A page URL
+     * @return The lower-case host, or null for URLs without an http or https host
+     */
+    public static String hostOf(String url) {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return null;
+        }
+        try {
+            String host = new URI(url).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stop the background threads and save the store
+     */
+    public void shutdown() {
+        worker.shutdown();
+        try {
+            // Interrupting a write would close the sprite file under it, so give fetches a moment first
+            if (!worker.awaitTermination(1, TimeUnit.SECONDS)) {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    /**
+     * Get favicon statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        int inMemory;
+        synchronized (images) {
+            inMemory = images.size();
+        }
+        return String.format("Favicons: %d in memory, %d stored (%d KB), %d hits, %d misses, %d loaded from disk, %d fetched, %d failed, %d KB downloaded",
+                inMemory, store.getIconCount(), store.getSizeBytes() / 1024, hits.get(), misses.get(), diskLoads.get(),
+                fetched.get(), failed.get(), bytesDownloaded.get() / 1024);
+    }
+}
@@ -0,0 +1,237 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+
+/**
+ * FaviconDecoder turns a downloaded favicon into a small square of ARGB pixels.
+ *
+ * ICO files are parsed here, since ImageIO cannot read them: the entry closest to the
+ * target size is picked and decoded from its embedded PNG or from its bitmap with the
+ * transparency mask applied. PNG, GIF, JPEG and BMP icons go through ImageIO. The result
+ * is downscaled with a box filter on premultiplied colours, so edges stay clean.
+ * Dimensions are checked from the image header before any pixels are decoded, so a small
+ * file that claims to be huge is refused without allocating its pixels.
+ */
+public final class FaviconDecoder {
+    private static final int MAX_DIMENSION = 512;
+
+    private FaviconDecoder() {
+    }
+
+    /**
+     * Decode an icon and scale it to a square
+     * @param data The downloaded bytes
+     * @param size Width and height of the result
+     * @return size*size ARGB pixels, row by row, or null if the format is not supported
+     */
+    public static int[] decode(byte[] data, int size) {
+        try {
+            BufferedImage image = isIco(data) ? readIco(data, size) : readImage(data);
+            if (image == null || image.getWidth() <= 0 || image.getHeight() <= 0
+                    || image.getWidth() > MAX_DIMENSION || image.getHeight() > MAX_DIMENSION) {
+                return null;
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            return scale(pixels, width, height, size);
+        } catch (IOException | RuntimeException e) {
+            // Truncated or malformed icons are treated like missing ones
+            return null;
+        }
+    }
+
+    private static boolean isIco(byte[] data) {
+        return data.length >= 6 && data[0] == 0 && data[1] == 0 && data[2] == 1 && data[3] == 0;
+    }
+
+    private static boolean isPng(byte[] data, int offset) {
+        return data.length >= offset + 8 && (data[offset] & 0xFF) == 0x89 && data[offset + 1] == 'P'
+                && data[offset + 2] == 'N' && data[offset + 3] == 'G';
+    }
+
+    private static BufferedImage readImage(byte[] data) throws IOException {
+        return readImage(data, 0, data.length);
+    }
+
+    /**
+     * Decode an image through ImageIO, refusing it before decoding if its header declares
+     * dimensions larger than MAX_DIMENSION
+     */
+    private static BufferedImage readImage(byte[] data, int offset, int length) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data, offset, length))) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width <= 0 || height <= 0 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage readIco(byte[] data, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int count = buffer.getShort(4) & 0xFFFF;
+        int best = -1;
+        int bestWidth = 0;
+        int bestBits = 0;
+        for (int i = 0; i < count && 6 + i * 16 + 16 <= data.length; i++) {
+            int entry = 6 + i * 16;
+            int width = data[entry] == 0 ? 256 : data[entry] & 0xFF;
+            int bits = buffer.getShort(entry + 6) & 0xFFFF;
+            // The smallest entry at least as large as the target, else the largest; more colours on ties
+            boolean better = best < 0
+                    || (width >= size && (bestWidth < size || width < bestWidth))
+                    || (width < size && bestWidth < size && width > bestWidth)
+                    || (width == bestWidth && bits > bestBits);
+            if (better) {
+                best = entry;
+                bestWidth = width;
+                bestBits = bits;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        int length = buffer.getInt(best + 8);
+        int offset = buffer.getInt(best + 12);
+        if (offset < 0 || length <= 0 || offset + (long) length > data.length) {
+            return null;
+        }
+        if (isPng(data, offset)) {
+            return readImage(data, offset, length);
+        }
+        return readDib(buffer, offset);
+    }
+
+    /**
+     * Decode an uncompressed device-independent bitmap as stored in ICO files: the header
+     * height counts the colour rows and the 1-bit transparency mask that follows them.
+     */
+    private static BufferedImage readDib(ByteBuffer buffer, int offset) {
+        int headerSize = buffer.getInt(offset);
+        int width = buffer.getInt(offset + 4);
+        int height = Math.abs(buffer.getInt(offset + 8)) / 2;
+        int bits = buffer.getShort(offset + 14) & 0xFFFF;
+        int compression = buffer.getInt(offset + 16);
+        if (headerSize < 40 || compression != 0 || width <= 0 || height <= 0
+                || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            return null;
+        }
+        int paletteSize = 0;
+        if (bits <= 8) {
+            // A pixel cannot index past 1 << bits entries, whatever biClrUsed claims
+            int used = buffer.getInt(offset + 32);
+            paletteSize = used > 0 ? Math.min(used, 1 << bits) : 1 << bits;
+        }
+        int stride = ((width * bits + 31) / 32) * 4;
+        if ((long) offset + headerSize + paletteSize * 4L + (long) stride * height > buffer.limit()) {
+            return null;
+        }
+        int[] palette = new int[paletteSize];
+        int position = offset + headerSize;
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = 0xFF000000 | (buffer.getInt(position + i * 4) & 0xFFFFFF);
+        }
+        position += paletteSize * 4;
+
+        int maskStride = ((width + 31) / 32) * 4;
+        int maskStart = position + stride * height;
+        boolean hasAlpha = false;
+        int[] pixels = new int[width * height];
+        for (int row = 0; row < height; row++) {
+            int rowStart = position + (height - 1 - row) * stride;
+            for (int x = 0; x < width; x++) {
+                int argb;
+                switch (bits) {
+                    case 32:
+                        argb = buffer.getInt(rowStart + x * 4);
+                        hasAlpha |= (argb >>> 24) != 0;
+                        break;
+                    case 24:
+                        int p = rowStart + x * 3;
+                        argb = 0xFF000000 | (buffer.get(p + 2) & 0xFF) << 16 | (buffer.get(p + 1) & 0xFF) << 8 | (buffer.get(p) & 0xFF);
+                        break;
+                    case 8:
+                    case 4:
+                    case 1:
+                        int bitOffset = x * bits;
+                        int value = (buffer.get(rowStart + bitOffset / 8) & 0xFF) >> (8 - bits - bitOffset % 8) & ((1 << bits) - 1);
+                        argb = value < palette.length ? palette[value] : 0;
+                        break;
+                    default:
+                        return null;
+                }
+                pixels[row * width + x] = argb;
+            }
+        }
+        // Icons without an alpha channel take their transparency from the mask
+        boolean hasMask = maskStart + (long) maskStride * height <= buffer.limit();
+        for (int row = 0; row < height; row++) {
+            int rowStart = maskStart + (height - 1 - row) * maskStride;
+            for (int x = 0; x < width; x++) {
+                int i = row * width + x;
+                if (bits == 32 && hasAlpha) {
+                    continue;
+                }
+                boolean transparent = hasMask && ((buffer.get(rowStart + x / 8) >> (7 - x % 8)) & 1) != 0;
+                pixels[i] = transparent ? 0 : 0xFF000000 | (pixels[i] & 0xFFFFFF);
+            }
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * Box-filter ARGB pixels to a square. Every target pixel averages the source pixels it covers,
+     * weighted by alpha so transparent pixels do not darken the edges.
+     */
+    static int[] scale(int[] source, int width, int height, int size) {
+        int[] target = new int[size * size];
+        for (int ty = 0; ty < size; ty++) {
+            int y0 = ty * height / size;
+            int y1 = Math.max(y0 + 1, (ty + 1) * height / size);
+            for (int tx = 0; tx < size; tx++) {
+                int x0 = tx * width / size;
+                int x1 = Math.max(x0 + 1, (tx + 1) * width / size);
+                long a = 0;
+                long r = 0;
+                long g = 0;
+                long b = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int argb = source[y * width + x];
+                        int alpha = argb >>> 24;
+                        a += alpha;
+                        r += (long) ((argb >> 16) & 0xFF) * alpha;
+                        g += (long) ((argb >> 8) & 0xFF) * alpha;
+                        b += (long) (argb & 0xFF) * alpha;
+                    }
+                }
+                int n = (y1 - y0) * (x1 - x0);
+                if (a == 0) {
+                    continue;
+                }
+                target[ty * size + tx] = (int) (a / n) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a);
+            }
+        }
+        return target;
+    }
+}
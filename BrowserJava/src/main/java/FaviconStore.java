@@ -0,0 +1,275 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FaviconStore keeps one small icon per host on disk.
+ *
+ * Icons are stored already decoded and downscaled, as fixed-size ARGB tiles in a single sprite
+ * file, so reading one is a single positioned read with no decoding. A compact index maps each
+ * host to its tile and to when it was fetched; hosts without an icon are remembered too, so
+ * they are not asked again until the retry time has passed. A host's tile is reused when its
+ * icon is refreshed, and once the store is full the tile fetched longest ago is reused.
+ */
+public class FaviconStore {
+    public static final int ICON_SIZE = 16;
+    private static final int TILE_BYTES = ICON_SIZE * ICON_SIZE * 4;
+    private static final int INDEX_MAGIC = 0x4E464931;
+    private static final String INDEX_FILE = "index.dat";
+    private static final String SPRITE_FILE = "icons.sprite";
+    private static final int MAX_TILES = 16_384;
+    // Save the index every so many changes, so a crash loses few fetches
+    private static final int FLUSH_EVERY = 64;
+    private static final int NO_ICON = -1;
+
+    private final Path directory;
+    private final Map<String, Entry> index = new HashMap<>();
+    private FileChannel sprite;
+    private int nextTile;
+    private int unsavedChanges;
+
+    /**
+     * Constructor for FaviconStore
+     * @param directory Directory holding the sprite file and index
+     */
+    public FaviconStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Open the sprite file and load the index. Reads from disk, so call it off the FX thread.
+     * Until this returns every lookup misses.
+     * @throws IOException if the store cannot be opened
+     */
+    public synchronized void open() throws IOException {
+        StorageExecutor.checkNotOnFxThread("FaviconStore.open");
+        if (sprite != null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        sprite = FileChannel.open(directory.resolve(SPRITE_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int tiles = (int) (sprite.size() / TILE_BYTES);
+        Path file = directory.resolve(INDEX_FILE);
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() == INDEX_MAGIC) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String host = in.readUTF();
+                        Entry entry = new Entry(in.readInt(), in.readLong());
+                        // Skip tiles cut off by a crash
+                        if (entry.tile < tiles) {
+                            index.put(host, entry);
+                            nextTile = Math.max(nextTile, entry.tile + 1);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Favicon index is unreadable, starting empty: " + e.getMessage());
+                index.clear();
+                nextTile = 0;
+            }
+        }
+    }
+
+    /**
+     * Read a host's icon
+     * @param host The host name
+     * @return ICON_SIZE*ICON_SIZE ARGB pixels, or null if the host has no stored icon
+     * @throws IOException if the sprite file cannot be read
+     */
+    public synchronized int[] read(String host) throws IOException {
+        StorageExecutor.checkNotOnFxThread("FaviconStore.read");
+        Entry entry = index.get(host);
+        if (sprite == null || entry == null || entry.tile == NO_ICON) {
+            return null;
+        }
+        ByteBuffer tile = ByteBuffer.allocate(TILE_BYTES);
+        long position = (long) entry.tile * TILE_BYTES;
+        while (tile.hasRemaining() && sprite.read(tile, position + tile.position()) > 0) {
+            // Keep reading until the tile is complete or the file ends
+        }
+        if (tile.hasRemaining()) {
+            return null;
+        }
+        tile.flip();
+        int[] pixels = new int[ICON_SIZE * ICON_SIZE];
+        tile.asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    /**
+     * Store a host's icon, replacing any earlier one
+     * @param host The host name
+     * @param pixels ICON_SIZE*ICON_SIZE ARGB pixels
+     * @param fetchedAt When the icon was fetched, in epoch milliseconds
+     * @throws IOException if the sprite file cannot be written
+     */
+    public synchronized void write(String host, int[] pixels, long fetchedAt) throws IOException {
+        StorageExecutor.checkNotOnFxThread("FaviconStore.write");
+        if (sprite == null) {
+            return;
+        }
+        Entry existing = index.get(host);
+        int tile = existing != null && existing.tile != NO_ICON ? existing.tile : allocateTile();
+        ByteBuffer bytes = ByteBuffer.allocate(TILE_BYTES);
+        bytes.asIntBuffer().put(pixels, 0, ICON_SIZE * ICON_SIZE);
+        long position = (long) tile * TILE_BYTES;
+        while (bytes.hasRemaining()) {
+            sprite.write(bytes, position + bytes.position());
+        }
+        index.put(host, new Entry(tile, fetchedAt));
+        changed();
+    }
+
+    /**
+     * Remember that a host has no usable icon
+     * @param host The host name
+     * @param checkedAt When the fetch failed, in epoch milliseconds
+     */
+    public synchronized void markMissing(String host, long checkedAt) {
+        Entry existing = index.get(host);
+        if (existing != null && existing.tile != NO_ICON) {
+            // Keep a stale icon rather than none
+            index.put(host, new Entry(existing.tile, checkedAt));
+        } else {
+            index.put(host, new Entry(NO_ICON, checkedAt));
+        }
+        changed();
+    }
+
+    /**
+     * Check whether a host's icon, or its absence, is recent enough not to fetch again
+     * @param host The host name
+     * @param now The current time in epoch milliseconds
+     * @param maxAgeMillis How long a fetched icon is kept
+     * @param retryMillis How long a host without an icon is left alone
+     * @return true if no fetch is needed
+     */
+    public synchronized boolean isFresh(String host, long now, long maxAgeMillis, long retryMillis) {
+        Entry entry = index.get(host);
+        if (entry == null) {
+            return false;
+        }
+        return now - entry.fetchedAt < (entry.tile == NO_ICON ? retryMillis : maxAgeMillis);
+    }
+
+    /**
+     * Check whether a host has a stored icon
+     * @param host The host name
+     * @return true if read would return pixels
+     */
+    public synchronized boolean contains(String host) {
+        Entry entry = index.get(host);
+        return entry != null && entry.tile != NO_ICON;
+    }
+
+    private int allocateTile() {
+        if (nextTile < MAX_TILES) {
+            return nextTile++;
+        }
+        String oldestHost = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            if (entry.getValue().tile != NO_ICON && entry.getValue().fetchedAt < oldest) {
+                oldest = entry.getValue().fetchedAt;
+                oldestHost = entry.getKey();
+            }
+        }
+        return index.remove(oldestHost).tile;
+    }
+
+    private void changed() {
+        if (++unsavedChanges >= FLUSH_EVERY) {
+            try {
+                flushIndex();
+            } catch (IOException e) {
+                System.err.println("Could not save favicon index: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the index to disk atomically
+     * @throws IOException if the index cannot be written
+     */
+    public synchronized void flushIndex() throws IOException {
+        if (sprite == null) {
+            return;
+        }
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(index.size());
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().tile);
+                out.writeLong(entry.getValue().fetchedAt);
+            }
+        }
+        Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        unsavedChanges = 0;
+    }
+
+    /**
+     * Save the index and close the sprite file
+     */
+    public synchronized void close() {
+        if (sprite == null) {
+            return;
+        }
+        try {
+            flushIndex();
+            sprite.close();
+        } catch (IOException e) {
+            System.err.println("Could not close favicon store: " + e.getMessage());
+        }
+        sprite = null;
+    }
+
+    /**
+     * Get the number of hosts with a stored icon
+     * @return Icon count
+     */
+    public synchronized int getIconCount() {
+        int count = 0;
+        for (Entry entry : index.values()) {
+            if (entry.tile != NO_ICON) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the size of the sprite file
+     * @return Size in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return (long) nextTile * TILE_BYTES;
+    }
+
+    /**
+     * Where a host's icon is and when it was fetched
+     */
+    private static final class Entry {
+        private final int tile;
+        private final long fetchedAt;
+
+        private Entry(int tile, long fetchedAt) {
+            this.tile = tile;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * FeatureRegistry creates and initializes the browser's BrowserFeatures.
+ *
+ * Each feature is registered with a factory and can declare the features it depends on,
+ * that it must be created on the FX thread, or that it is created lazily on first access.
+ * startAll() initializes the eager features in dependency order, running independent ones
+ * in parallel on background threads, and get() returns a feature, creating it if needed.
+ * The time each feature took to create and initialize is recorded.
+ */
+public class FeatureRegistry {
+    private final Map<Class<? extends BrowserFeature>, Registration<?>> registrations = new LinkedHashMap<>();
+
+    /**
+     * Register a feature
+     * @param type The feature class, used as its key
+     * @param factory Creates the feature
+     * @param <T> The feature type
+     * @return The registration, to declare dependencies and threading
+     */
+    public synchronized <T extends BrowserFeature> Registration<T> register(Class<T> type, Supplier<T> factory) {
+        if (registrations.containsKey(type)) {
+            throw new IllegalArgumentException("Feature already registered: " + type.getName());
+        }
+        Registration<T> registration = new Registration<>(type, factory);
+        registrations.put(type, registration);
+        return registration;
+    }
+
+    /**
+     * Initialize every eager feature. Features whose dependencies are ready start in parallel.
+     * @return Completes when all eager features are initialized, or exceptionally if one fails
+     */
+    public CompletableFuture<Void> startAll() {
+        List<Registration<?>> eager = new ArrayList<>();
+        synchronized (this) {
+            for (Registration<?> registration : registrations.values()) {
+                if (!registration.lazy) {
+                    checkCycles(registration, new ArrayList<>());
+                    eager.add(registration);
+                }
+            }
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), runnable -> {
+            Thread thread = new Thread(runnable, "nitron-feature-init-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Map<Registration<?>, CompletableFuture<Void>> started = new LinkedHashMap<>();
+        for (Registration<?> registration : eager) {
+            schedule(registration, executor, started);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(started.values().toArray(new CompletableFuture<?>[0]));
+        all.whenComplete((ignored, error) -> executor.shutdown());
+        return all;
+    }
+
+    private CompletableFuture<Void> schedule(Registration<?> registration, ExecutorService executor,
+                                            Map<Registration<?>, CompletableFuture<Void>> started) {
+        CompletableFuture<Void> future = started.get(registration);
+        if (future != null) {
+            return future;
+        }
+        List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+        for (Class<? extends BrowserFeature> dependency : registration.dependencies) {
+            Registration<?> dependencyRegistration = lookup(dependency);
+            // A lazy dependency is created by whoever needs it first
+            if (!dependencyRegistration.lazy) {
+                dependencies.add(schedule(dependencyRegistration, executor, started));
+            }
+        }
+        CompletableFuture<Void> ready = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]));
+        future = registration.fxThread
+                ? ready.thenRunAsync(registration::instance, Platform::runLater)
+                : ready.thenRunAsync(registration::instance, executor);
+        started.put(registration, future);
+        return future;
+    }
+
+    /**
+     * Get a feature, creating and initializing it first if that has not happened yet.
+     * Waits if another thread is initializing it.
+     * @param type The feature class
+     * @param <T> The feature type
+     * @return The initialized feature
+     */
+    public <T extends BrowserFeature> T get(Class<T> type) {
+        return type.cast(lookup(type).instance());
+    }
+
+    /**
+     * Get how long each initialized feature took to create and initialize
+     * @return Milliseconds per feature name, in registration order
+     */
+    public synchronized Map<String, Double> getInitTimes() {
+        Map<String, Double> times = new LinkedHashMap<>();
+        for (Registration<?> registration : registrations.values()) {
+            if (registration.initNanos >= 0) {
+                times.put(registration.type.getSimpleName(), registration.initNanos / 1_000_000.0);
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Get feature initialization statistics
+     * @return Statistics as formatted string
+     */
+    public synchronized String getStatisticsAsString() {
+        StringBuilder stats = new StringBuilder("=== Features ===\n");
+        for (Registration<?> registration : registrations.values()) {
+            stats.append(registration.type.getSimpleName()).append(": ");
+            if (registration.initNanos >= 0) {
+                stats.append(String.format("%.1f ms on %s", registration.initNanos / 1_000_000.0, registration.initThread));
+            } else {
+                stats.append("not created");
+            }
+            stats.append(registration.lazy ? " (lazy)" : "").append('\n');
+        }
+        return stats.toString();
+    }
+
+    private synchronized Registration<?> lookup(Class<? extends BrowserFeature> type) {
+        Registration<?> registration = registrations.get(type);
+        if (registration == null) {
+            throw new IllegalArgumentException("Feature not registered: " + type.getName());
+        }
+        return registration;
+    }
+
+    private void checkCycles(Registration<?> registration, List<Class<?>> path) {
+        if (path.contains(registration.type)) {
+            StringBuilder cycle = new StringBuilder("Feature dependency cycle: ");
+            for (Class<?> type : path) {
+                cycle.append(type.getSimpleName()).append(" -> ");
+            }
+            throw new IllegalStateException(cycle.append(registration.type.getSimpleName()).toString());
+        }
+        path.add(registration.type);
+        for (Class<? extends BrowserFeature> dependency : registration.dependencies) {
+            checkCycles(lookup(dependency), path);
+        }
+        path.remove(path.size() - 1);
+    }
+
+    /**
+     * A registered feature and how it is created
+     * @param <T> The feature type
+     */
+    public final class Registration<T extends BrowserFeature> {
+        private final Class<T> type;
+        private final Supplier<T> factory;
+        private final List<Class<? extends BrowserFeature>> dependencies = new ArrayList<>();
+        private boolean fxThread;
+        private boolean lazy;
+        private volatile T feature;
+        private long initNanos = -1;
+        private String initThread;
+
+        private Registration(Class<T> type, Supplier<T> factory) {
+            this.type = type;
+            this.factory = factory;
+        }
+
+        /**
+         * Declare features that must be initialized before this one
+         * @param types The features this one uses
+         * @return This registration
+         */
+        @SafeVarargs
+        public final Registration<T> dependsOn(Class<? extends BrowserFeature>... types) {
+            for (Class<? extends BrowserFeature> type : types) {
+                dependencies.add(type);
+            }
+            return this;
+        }
+
+        /**
+         * Create and initialize this feature on the FX application thread
+         * @return This registration
+         */
+        public Registration<T> onFxThread() {
+            fxThread = true;
+            return this;
+        }
+
+        /**
+         * Create this feature only when it is first requested
+         * @return This registration
+         */
+        public Registration<T> lazy() {
+            lazy = true;
+            return this;
+        }
+
+        private T instance() {
+            T current = feature;
+            if (current != null) {
+                return current;
+            }
+            // Resolve dependencies before taking this feature's lock so two features never wait on each other
+            for (Class<? extends BrowserFeature> dependency : dependencies) {
+                get(dependency);
+            }
+            if (fxThread && !Platform.isFxApplicationThread()) {
+                FutureTask<T> task = new FutureTask<>(this::create);
+                Platform.runLater(task);
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while creating " + type.getSimpleName(), e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Could not create " + type.getSimpleName(), e.getCause());
+                }
+            }
+            return create();
+        }
+
+        private synchronized T create() {
+            if (feature == null) {
+                long start = System.nanoTime();
+                T created = factory.get();
+                created.initialize();
+                synchronized (FeatureRegistry.this) {
+                    initNanos = System.nanoTime() - start;
+                    initThread = Thread.currentThread().getName();
+                }
+                feature = created;
+            }
+            return feature;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * FilterRule is one parsed line of an EasyList-style filter list.
+ * Host rules such as "||ads.example.com^" are matched through a DomainTrie;
+ * every other supported rule carries a literal keyword for the Aho-Corasick
+ * pre-filter and is only confirmed with its full pattern when the keyword is found.
+ *
+ * The $third-party, $first-party and $domain= options are honoured against the page that made
+ * the request. Rules with any other option, such as a resource type, are skipped: applied to
+ * every request they would block far more than their authors meant.
+ */
+public class FilterRule {
+    private static final Pattern HOST = Pattern.compile("[a-z0-9.-]+");
+    private static final int MIN_KEYWORD_LENGTH = 3;
+    private static final String[] NO_DOMAINS = new String[0];
+
+    private final String pattern;
+    private final String host;
+    private final String keyword;
+    private final boolean exception;
+    // TRUE for $third-party, FALSE for $first-party, null when the rule applies to both
+    private final Boolean thirdParty;
+    private final String[] includedDomains;
+    private final String[] excludedDomains;
+    private volatile Pattern compiled;
+
+    private FilterRule(String pattern, String host, String keyword, boolean exception, Boolean thirdParty,
+                       String[] includedDomains, String[] excludedDomains) {
+        this.pattern = pattern;
+        this.host = host;
+        this.keyword = keyword;
+        this.exception = exception;
+        this.thirdParty = thirdParty;
+        this.includedDomains = includedDomains;
+        this.excludedDomains = excludedDomains;
+    }
+
+    /**
+     * Parse one filter list line
+     * @param line The raw line from the filter list
+     * @return The parsed rule, or null for comments, cosmetic filters and unsupported rules
+     */
+    public static FilterRule parse(String line) {
+        String rule = line.trim();
+        if (rule.isEmpty() || rule.startsWith("!") || rule.startsWith("[")) {
+            return null;
+        }
+        // Element hiding and scriptlet filters do not affect network requests
+        if (rule.contains("##") || rule.contains("#@#") || rule.contains("#?#") || rule.contains("#$#")) {
+            return null;
+        }
+
+        boolean exception = rule.startsWith("@@");
+        if (exception) {
+            rule = rule.substring(2);
+        }
+        // Regular expression rules are too slow to check on every request
+        if (rule.length() > 1 && rule.startsWith("/") && rule.endsWith("/")) {
+            return null;
+        }
+
+        Boolean thirdParty = null;
+        List<String> included = new ArrayList<>();
+        List<String> excluded = new ArrayList<>();
+        int dollar = rule.lastIndexOf('$');
+        if (dollar >= 0) {
+            for (String option : rule.substring(dollar + 1).toLowerCase(Locale.ROOT).split(",")) {
+                boolean negated = option.startsWith("~");
+                String name = negated ? option.substring(1) : option;
+                if (name.equals("third-party") || name.equals("3p")) {
+                    thirdParty = !negated;
+                } else if (name.equals("first-party") || name.equals("1p")) {
+                    thirdParty = negated;
+                } else if (name.startsWith("domain=") && !negated) {
+                    for (String domain : name.substring("domain=".length()).split("\\|")) {
+                        if (domain.startsWith("~")) {
+                            excluded.add(domain.substring(1));
+                        } else if (!domain.isEmpty()) {
+                            included.add(domain);
+                        }
+                    }
+                } else if (!name.equals("important")) {
+                    // Resource types and everything else need more than the URL and the page to decide
+                    return null;
+                }
+            }
+            rule = rule.substring(0, dollar);
+        }
+        String[] includedDomains = included.toArray(NO_DOMAINS);
+        String[] excludedDomains = excluded.toArray(NO_DOMAINS);
+        boolean scoped = thirdParty != null || includedDomains.length > 0 || excludedDomains.length > 0;
+
+        rule = rule.toLowerCase(Locale.ROOT);
+        if (rule.isEmpty() || rule.equals("*")) {
+            return null;
+        }
+
+        if (rule.startsWith("||")) {
+            String candidate = rule.substring(2);
+            if (candidate.endsWith("^|")) {
+                candidate = candidate.substring(0, candidate.length() - 2);
+            } else if (candidate.endsWith("^")) {
+                candidate = candidate.substring(0, candidate.length() - 1);
+            }
+            if (HOST.matcher(candidate).matches() && candidate.indexOf('.') > 0) {
+                // A scoped host rule cannot go in the DomainTrie; it is found by its host as keyword
+                return new FilterRule(rule, scoped ? null : candidate, scoped ? candidate : null, exception,
+                        thirdParty, includedDomains, excludedDomains);
+            }
+        }
+
+        String keyword = longestLiteral(rule);
+        if (keyword.length() < MIN_KEYWORD_LENGTH) {
+            return null;
+        }
+        return new FilterRule(rule, null, keyword, exception, thirdParty, includedDomains, excludedDomains);
+    }
+
+    /**
+     * Check the rule's $third-party and $domain= options against the page making a request
+     * @param pageHost The lower-case host of the page, or of the request itself for navigations
+     * @param thirdPartyRequest Whether the request goes to another site than the page
+     * @return true if the rule applies to the request
+     */
+    public boolean appliesTo(String pageHost, boolean thirdPartyRequest) {
+        if (thirdParty != null && thirdParty != thirdPartyRequest) {
+            return false;
+        }
+        for (String domain : excludedDomains) {
+            if (isSameOrSubdomain(pageHost, domain)) {
+                return false;
+            }
+        }
+        if (includedDomains.length == 0) {
+            return true;
+        }
+        for (String domain : includedDomains) {
+            if (isSameOrSubdomain(pageHost, domain)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the rule depends on the page making the request
+     * @return true for rules with $third-party, $first-party or $domain=
+     */
+    public boolean isScoped() {
+        return thirdParty != null || includedDomains.length > 0 || excludedDomains.length > 0;
+    }
+
+    private static boolean isSameOrSubdomain(String host, String domain) {
+        return host.equals(domain) || (host.endsWith(domain) && host.charAt(host.length() - domain.length() - 1) == '.');
+    }
+
+    /**
+     * Check whether a URL matches the full rule pattern
+     * @param url The lower-case URL
+     * @return true if the URL matches, false otherwise
+     */
+    public boolean matches(String url) {
+        Pattern regex = compiled;
+        if (regex == null) {
+            // Compiled on first keyword hit so loading large lists stays fast
+            regex = Pattern.compile(toRegex(pattern));
+            compiled = regex;
+        }
+        return regex.matcher(url).find();
+    }
+
+    /**
+     * Check if this is a host rule
+     * @return true if the rule blocks or allows a whole host
+     */
+    public boolean isHostRule() {
+        return host != null;
+    }
+
+    /**
+     * Get the host of a host rule
+     * @return The host, or null for pattern rules
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Get the literal keyword used by the Aho-Corasick pre-filter
+     * @return The keyword, or null for host rules
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Check if this is an exception ("@@") rule
+     * @return true if matching requests must be allowed
+     */
+    public boolean isException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return (exception ? "@@" : "") + pattern;
+    }
+
+    private static String longestLiteral(String rule) {
+        String longest = "";
+        for (String part : rule.split("[*^|]")) {
+            if (part.length() > longest.length()) {
+                longest = part;
+            }
+        }
+        return longest;
+    }
+
+    private static String toRegex(String rule) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int end = rule.length();
+        if (rule.startsWith("||")) {
+            regex.append("^[a-z][a-z0-9+.-]*://(?:[^/?#]*\\.)?");
+            start = 2;
+        } else if (rule.startsWith("|")) {
+            regex.append('^');
+            start = 1;
+        }
+        boolean anchoredEnd = end > start && rule.endsWith("|");
+        if (anchoredEnd) {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            char c = rule.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '^') {
+                regex.append("(?:[^a-z0-9_.%-]|$)");
+            } else if ("\\.[]{}()+-?$|/".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        if (anchoredEnd) {
+            regex.append('$');
+        }
+        return regex.toString();
+    }
+}
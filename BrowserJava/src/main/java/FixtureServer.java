@@ -0,0 +1,276 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FixtureServer serves the benchmark fixture pages bundled under /benchmark on the classpath.
+ * It binds to an ephemeral loopback port so benchmark runs never touch the network.
+ * /bytes/&lt;n&gt; serves n generated bytes as an attachment with byte range support, for downloads.
+ * A connection latency can be injected: every new connection then waits that long before it is
+ * answered, as the TCP and TLS handshakes with a distant server would, while requests on a
+ * kept-alive connection are answered at once.
+ */
+public class FixtureServer {
+    private static final String RESOURCE_ROOT = "/benchmark";
+    private static final String BYTES_PREFIX = "/bytes/";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final long connectLatencyMillis;
+    private final ServerSocket proxy;
+    private final ExecutorService proxyExecutor;
+    private final Set<Socket> proxied = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connections = new AtomicLong();
+
+    /**
+     * Constructor for FixtureServer. Starts serving immediately.
+     * @throws IOException if the server socket cannot be opened
+     */
+    public FixtureServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Constructor for FixtureServer with an injected connection latency. Starts serving immediately.
+     * @param connectLatencyMillis How long each new connection waits before it is answered, or 0
+     * @throws IOException if the server sockets cannot be opened
+     */
+    public FixtureServer(long connectLatencyMillis) throws IOException {
+        this.connectLatencyMillis = connectLatencyMillis;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "nitron-fixture-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        if (connectLatencyMillis > 0) {
+            proxy = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            proxyExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "nitron-fixture-proxy");
+                thread.setDaemon(true);
+                return thread;
+            });
+            proxyExecutor.execute(this::acceptConnections);
+        } else {
+            proxy = null;
+            proxyExecutor = null;
+        }
+    }
+
+    /**
+     * Get the URL of a fixture page
+     * @param path The page path, for example "/article.html"
+     * @return The absolute http URL
+     */
+    public String url(String path) {
+        int port = proxy != null ? proxy.getLocalPort() : server.getAddress().getPort();
+        return "http://127.0.0.1:" + port + path;
+    }
+
+    /**
+     * Stop serving
+     */
+    public void stop() {
+        if (proxy != null) {
+            close(proxy);
+            proxied.forEach(FixtureServer::close);
+            proxyExecutor.shutdownNow();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get how many connections have been opened through the latency proxy
+     * @return Connection count, or 0 without injected latency
+     */
+    public long getConnectionCount() {
+        return connections.get();
+    }
+
+    private void acceptConnections() {
+        while (!proxy.isClosed()) {
+            try {
+                Socket client = proxy.accept();
+                connections.incrementAndGet();
+                proxied.add(client);
+                proxyExecutor.execute(() -> relay(client));
+            } catch (IOException e) {
+                // Closed by stop()
+            }
+        }
+    }
+
+    /**
+     * Hold a new connection for the injected latency, then pass its bytes to and from the server
+     */
+    private void relay(Socket client) {
+        Socket upstream = null;
+        try (client) {
+            TimeUnit.MILLISECONDS.sleep(connectLatencyMillis);
+            upstream = new Socket(InetAddress.getLoopbackAddress(), server.getAddress().getPort());
+            proxied.add(upstream);
+            Socket target = upstream;
+            proxyExecutor.execute(() -> pipe(target, client));
+            pipe(client, upstream);
+        } catch (IOException | InterruptedException e) {
+            // The connection or the server closed
+        } finally {
+            proxied.remove(client);
+            if (upstream != null) {
+                proxied.remove(upstream);
+                close(upstream);
+            }
+        }
+    }
+
+    private static void pipe(Socket from, Socket to) {
+        try {
+            from.getInputStream().transferTo(to.getOutputStream());
+            to.shutdownOutput();
+        } catch (IOException e) {
+            close(to);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/")) {
+            path = "/index.html";
+        }
+        try (exchange) {
+            // The server closes a kept-alive connection whose request body was not consumed
+            // when its response ends, which a HEAD response does as soon as its headers are sent
+            exchange.getRequestBody().close();
+            if (path.startsWith(BYTES_PREFIX)) {
+                serveBytes(exchange, path.substring(BYTES_PREFIX.length()));
+                return;
+            }
+            InputStream resource = path.contains("..") ? null : FixtureServer.class.getResourceAsStream(RESOURCE_ROOT + path);
+            if (resource == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] body;
+            try (resource) {
+                body = resource.readAllBytes();
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType(path));
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Get how much generated content has been sent
+     * @return Bytes of /bytes/ bodies written so far
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    /**
+     * Get a byte of the generated /bytes/ content
+     * @param position Offset in the content
+     * @return The byte served at that offset
+     */
+    public static byte generatedByte(long position) {
+        return (byte) (position * 31 + (position >>> 13));
+    }
+
+    private void serveBytes(HttpExchange exchange, String sizeText) throws IOException {
+        long size;
+        try {
+            size = Long.parseLong(sizeText);
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        String etag = "\"bytes-" + size + "\"";
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"fixture-" + size + ".bin\"");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("ETag", etag);
+
+        long start = 0;
+        long end = size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(etag))) {
+            String[] bounds = range.substring(6).split("-", 2);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            if (start > end) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        long length = end - start + 1;
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            byte[] buffer = new byte[64 * 1024];
+            for (long position = start; position <= end; ) {
+                int count = (int) Math.min(buffer.length, end - position + 1);
+                for (int i = 0; i < count; i++) {
+                    buffer[i] = generatedByte(position + i);
+                }
+                out.write(buffer, 0, count);
+                bytesServed.addAndGet(count);
+                position += count;
+            }
+        }
+    }
+
+    private static String contentType(String path) {
+        if (path.endsWith(".css")) {
+            return "text/css; charset=utf-8";
+        } else if (path.endsWith(".js")) {
+            return "application/javascript; charset=utf-8";
+        }
+        return "text/html; charset=utf-8";
+    }
+}
@@ -0,0 +1,274 @@
+import javafx.animation.AnimationTimer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameMonitor measures how evenly the FX thread delivers frames.
+ *
+ * An AnimationTimer records the time between consecutive pulses into a histogram. While it runs,
+ * JavaFX pulses continuously, so a gap between two frames is time the FX thread spent on something
+ * else. A watchdog thread samples the FX thread's stack whenever the current frame is overdue, so
+ * each long frame is reported with the code that held the thread, not only with its length.
+ * Running the monitor keeps the scene pulsing, so it is off unless -Dnitron.frames=true is set or
+ * a benchmark starts it.
+ */
+public class FrameMonitor {
+    /**
+     * System property that starts the monitor with the browser
+     */
+    public static final String ENABLED_PROPERTY = "nitron.frames";
+    private static final int RECENT_LONG_FRAMES = 50;
+    private static final int MAX_SAMPLES_PER_FRAME = 32;
+
+    private final long longFrameNanos;
+    private final Deque<LongFrame> recent = new ArrayDeque<>();
+    private volatile LatencyHistogram intervals = new LatencyHistogram();
+    private volatile long lastFrameNanos;
+    private volatile long longFrames;
+    // Stack samples of the frame in progress, taken by the watchdog and read by the FX thread
+    private final List<StackTraceElement[]> samples = new ArrayList<>();
+    private long sampledFrameNanos;
+    private Thread fxThread;
+    private AnimationTimer timer;
+    private ScheduledExecutorService watchdog;
+    private ScheduledFuture<?> watch;
+
+    /**
+     * Constructor for FrameMonitor
+     * @param longFrameMillis Frames taking longer than this are reported with what the FX thread was doing
+     */
+    public FrameMonitor(long longFrameMillis) {
+        this.longFrameNanos = TimeUnit.MILLISECONDS.toNanos(longFrameMillis);
+    }
+
+    /**
+     * Check if the monitor should run with the browser
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Start recording frames. Call on the FX thread.
+     */
+    public void start() {
+        if (timer != null) {
+            return;
+        }
+        fxThread = Thread.currentThread();
+        lastFrameNanos = 0;
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                onFrame();
+            }
+        };
+        timer.start();
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nitron-frame-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Loading the flight recorder classes takes long enough to cause a long frame of its own
+        watchdog.execute(NitronEvents.LongFrameEvent::new);
+        // Sample several times per long frame, so the report shows where most of it went
+        long period = Math.max(1, longFrameNanos / 4);
+        watch = watchdog.scheduleAtFixedRate(this::checkOverdue, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop recording frames. Call on the FX thread.
+     */
+    public void stop() {
+        if (timer == null) {
+            return;
+        }
+        timer.stop();
+        timer = null;
+        watch.cancel(false);
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Start a fresh histogram and forget earlier long frames, for example between benchmark runs
+     */
+    public void reset() {
+        intervals = new LatencyHistogram();
+        longFrames = 0;
+        lastFrameNanos = 0;
+        synchronized (recent) {
+            recent.clear();
+        }
+    }
+
+    private void onFrame() {
+        // The pulse time handed to the timer is the same for every timer, so measure the handler itself
+        long now = System.nanoTime();
+        long last = lastFrameNanos;
+        lastFrameNanos = now;
+        if (last == 0) {
+            return;
+        }
+        long interval = now - last;
+        intervals.record(TimeUnit.NANOSECONDS.toMicros(interval));
+        List<StackTraceElement[]> taken;
+        synchronized (samples) {
+            taken = sampledFrameNanos == last ? new ArrayList<>(samples) : List.of();
+            samples.clear();
+        }
+        if (interval >= longFrameNanos) {
+            longFrames++;
+            LongFrame frame = new LongFrame(System.currentTimeMillis(), TimeUnit.NANOSECONDS.toMillis(interval),
+                    describe(taken), taken.size());
+            synchronized (recent) {
+                recent.addFirst(frame);
+                if (recent.size() > RECENT_LONG_FRAMES) {
+                    recent.removeLast();
+                }
+            }
+            NitronEvents.LongFrameEvent event = new NitronEvents.LongFrameEvent();
+            if (event.shouldCommit()) {
+                event.frameTime = interval;
+                event.activity = frame.getActivity();
+                event.commit();
+            }
+        }
+    }
+
+    private void checkOverdue() {
+        long frameStart = lastFrameNanos;
+        if (frameStart == 0 || System.nanoTime() - frameStart < longFrameNanos) {
+            return;
+        }
+        StackTraceElement[] stack = fxThread.getStackTrace();
+        synchronized (samples) {
+            if (sampledFrameNanos != frameStart) {
+                sampledFrameNanos = frameStart;
+                samples.clear();
+            }
+            if (samples.size() < MAX_SAMPLES_PER_FRAME) {
+                samples.add(stack);
+            }
+        }
+    }
+
+    /**
+     * Name the method that appeared most often in the samples: the first Nitron frame on each
+     * stack, or the top frame when the thread was only in JavaFX or WebKit code
+     */
+    static String describe(List<StackTraceElement[]> stacks) {
+        if (stacks.isEmpty()) {
+            return "unknown (frame ended before it was sampled)";
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        String best = null;
+        for (StackTraceElement[] stack : stacks) {
+            if (stack.length == 0) {
+                continue;
+            }
+            StackTraceElement chosen = stack[0];
+            for (StackTraceElement element : stack) {
+                if (isNitronFrame(element.getClassName())) {
+                    chosen = element;
+                    break;
+                }
+            }
+            String name = chosen.getClassName() + "." + chosen.getMethodName()
+                    + (chosen.getLineNumber() > 0 ? ":" + chosen.getLineNumber() : "");
+            int count = counts.merge(name, 1, Integer::sum);
+            if (best == null || count > counts.get(best)) {
+                best = name;
+            }
+        }
+        return best == null ? "unknown" : best + " (" + counts.get(best) + "/" + stacks.size() + " samples)";
+    }
+
+    private static boolean isNitronFrame(String className) {
+        // The browser's classes are in the default package
+        return className.indexOf('.') < 0 && !className.equals(FrameMonitor.class.getName());
+    }
+
+    /**
+     * Get the histogram of frame intervals
+     * @return Intervals in microseconds
+     */
+    public LatencyHistogram getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * Get the number of long frames since start or the last reset
+     * @return Long frame count
+     */
+    public long getLongFrameCount() {
+        return longFrames;
+    }
+
+    /**
+     * Get the most recent long frames, newest first
+     * @return Snapshot of the long frames
+     */
+    public List<LongFrame> getLongFrames() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    /**
+     * Get frame statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        LatencyHistogram histogram = intervals;
+        return String.format("Frames: %d, interval p50 %.1f ms, p99 %.1f ms, max %.1f ms, %d long frames",
+                histogram.getCount(), histogram.getPercentile(50) / 1000.0, histogram.getPercentile(99) / 1000.0,
+                histogram.getMax() / 1000.0, longFrames);
+    }
+
+    /**
+     * A frame that took longer than the threshold
+     */
+    public static final class LongFrame {
+        private final long endedAt;
+        private final long millis;
+        private final String activity;
+        private final int samples;
+
+        private LongFrame(long endedAt, long millis, String activity, int samples) {
+            this.endedAt = endedAt;
+            this.millis = millis;
+            this.activity = activity;
+            this.samples = samples;
+        }
+
+        public long getEndedAt() {
+            return endedAt;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Get what the FX thread was running during the frame
+         * @return The most sampled method
+         */
+        public String getActivity() {
+            return activity;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HistoryGrouping groups history visits by the day they happened on.
+ * Shared by the DatabaseOperations implementations so every backend produces the same day keys.
+ */
+public final class HistoryGrouping {
+    private static final String DAY_PATTERN = "EEEE, MMMM d, yyyy";
+
+    private HistoryGrouping() {
+    }
+
+    /**
+     * Group visits by day, keeping the order the visits are given in
+     * @param visits Visits, normally newest first. Entries without a URL or time are skipped.
+     * @return Map with date as key and list of URLs as value
+     */
+    public static Map<String, List<String>> groupByDay(Iterable<HistoryVisit> visits) {
+        Map<String, List<String>> historyByDay = new LinkedHashMap<>();
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DAY_PATTERN);
+
+        for (HistoryVisit visit : visits) {
+            if (visit.getUrl() != null && visit.getVisitedAt() != null) {
+                String dateKey = dateFormat.format(visit.getVisitedAt());
+                historyByDay.computeIfAbsent(dateKey, k -> new ArrayList<>()).add(visit.getUrl());
+            }
+        }
+
+        return historyByDay;
+    }
+
+    /**
+     * Get the day key a visit is grouped under
+     * @param visitedAt The time of the visit
+     * @return The day, formatted as in groupByDay
+     */
+    public static String formatDay(Date visitedAt) {
+        return new SimpleDateFormat(DAY_PATTERN).format(visitedAt);
+    }
+}
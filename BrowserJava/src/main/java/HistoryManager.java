@@ -76,6 +76,19 @@ public class HistoryManager extends BrowserFeature {
         return dbOperations.getHistoryByDay();
     }
 
+    /**
+     * Get one page of browsing history, newest first
+     * @param before Time of the last visit of the previous page, or null for the first page
+     * @param limit Maximum number of history entries to return, apart from visits at the same time
+     * @return List of visits, newest first
+     */
+    public List<HistoryVisit> getHistoryBefore(java.util.Date before, int limit) {
+        if (!isEnabled) {
+            return java.util.Collections.emptyList();
+        }
+        return dbOperations.getHistoryBefore(before, limit);
+    }
+
     /**
      * Delete a specific history entry
      * @param url The URL to delete from history
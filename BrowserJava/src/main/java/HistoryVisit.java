@@ -0,0 +1,127 @@
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * HistoryVisit is a single history entry together with the time it was visited.
+ * Visits recorded by the VisitRecorder also carry how the page was reached, the redirects
+ * that led to it, how often it was reloaded or moved between fragments, and how long it was shown.
+ */
+public class HistoryVisit {
+    /**
+     * How the user reached a page
+     */
+    public enum Transition {
+        LINK, TYPED, BOOKMARK, HISTORY, RELOAD, BACK_FORWARD, NEW_TAB
+    }
+
+    private final String id;
+    private final String url;
+    private final Date visitedAt;
+    private final Transition transition;
+    private final List<String> redirects;
+    private final int reloadCount;
+    private final int fragmentCount;
+    private final long dwellMillis;
+
+    /**
+     * Constructor for HistoryVisit
+     * @param url The visited URL
+     * @param visitedAt The time of the visit
+     */
+    public HistoryVisit(String url, Date visitedAt) {
+        this(null, url, visitedAt, null, Collections.emptyList(), 0, 0, 0);
+    }
+
+    /**
+     * Constructor for HistoryVisit
+     * @param id The visit id, so later saves replace the same entry
+     * @param url The final URL, after any redirects
+     * @param visitedAt The time of the visit
+     * @param transition How the page was reached, or null if unknown
+     * @param redirects The URLs redirected through before reaching url, in order
+     * @param reloadCount Reloads folded into this visit
+     * @param fragmentCount Fragment changes within the page folded into this visit
+     * @param dwellMillis Time the page was shown in the selected tab
+     */
+    public HistoryVisit(String id, String url, Date visitedAt, Transition transition, List<String> redirects,
+                        int reloadCount, int fragmentCount, long dwellMillis) {
+        this.id = id;
+        this.url = url;
+        this.visitedAt = visitedAt;
+        this.transition = transition;
+        this.redirects = redirects == null ? Collections.emptyList() : Collections.unmodifiableList(redirects);
+        this.reloadCount = reloadCount;
+        this.fragmentCount = fragmentCount;
+        this.dwellMillis = dwellMillis;
+    }
+
+    /**
+     * Get the visit id
+     * @return The id, or null for entries added with addHistory
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the visited URL
+     * @return The URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Get the time of the visit
+     * @return The visit time
+     */
+    public Date getVisitedAt() {
+        return visitedAt;
+    }
+
+    /**
+     * Get how the page was reached
+     * @return The transition, or null if unknown
+     */
+    public Transition getTransition() {
+        return transition;
+    }
+
+    /**
+     * Get the redirects that led to the visited URL
+     * @return Redirected URLs in order, empty if there were none
+     */
+    public List<String> getRedirects() {
+        return redirects;
+    }
+
+    /**
+     * Get the number of reloads folded into this visit
+     * @return Reload count
+     */
+    public int getReloadCount() {
+        return reloadCount;
+    }
+
+    /**
+     * Get the number of fragment changes folded into this visit
+     * @return Fragment change count
+     */
+    public int getFragmentCount() {
+        return fragmentCount;
+    }
+
+    /**
+     * Get how long the page was shown in the selected tab
+     * @return Dwell time in milliseconds
+     */
+    public long getDwellMillis() {
+        return dwellMillis;
+    }
+
+    @Override
+    public String toString() {
+        return url + " @ " + visitedAt;
+    }
+}
@@ -0,0 +1,249 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * InMemoryDatabase implements the DatabaseOperations interface without a server.
+ * Results come back newest first, mirroring the ordering DatabaseManager gets from MongoDB.
+ * Used by the benchmarks so runs do not depend on a local MongoDB.
+ *
+ * Shared by every browser window, so bookmarks and history have separate read-write locks:
+ * history pages, summaries and bookmark lists from different windows are read in parallel
+ * and only writes take a collection exclusively.
+ */
+public class InMemoryDatabase implements DatabaseOperations {
+    private final List<String> bookmarks = new ArrayList<>();
+    // Oldest first, so recording a visit "now" is an append
+    private final List<HistoryVisit> history = new ArrayList<>();
+    private final Map<String, HistoryVisit> visitsById = new HashMap<>();
+    private final ReadWriteLock bookmarksLock = new ReentrantReadWriteLock();
+    private final ReadWriteLock historyLock = new ReentrantReadWriteLock();
+
+    @Override
+    public void addBookmark(String url) {
+        bookmarksLock.writeLock().lock();
+        try {
+            bookmarks.add(0, url);
+        } finally {
+            bookmarksLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addBookmarks(Map<String, Date> bookmarks) {
+        List<Map.Entry<String, Date>> newestFirst = new ArrayList<>(bookmarks.entrySet());
+        newestFirst.sort(Map.Entry.<String, Date>comparingByValue().reversed());
+        bookmarksLock.writeLock().lock();
+        try {
+            Set<String> existing = new HashSet<>(this.bookmarks);
+            // Imported bookmarks are older than the ones made in Nitron, so they go to the end
+            for (Map.Entry<String, Date> bookmark : newestFirst) {
+                if (existing.add(bookmark.getKey())) {
+                    this.bookmarks.add(bookmark.getKey());
+                }
+            }
+        } finally {
+            bookmarksLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getBookmarks() {
+        bookmarksLock.readLock().lock();
+        try {
+            return new ArrayList<>(bookmarks);
+        } finally {
+            bookmarksLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteBookmark(String url) {
+        bookmarksLock.writeLock().lock();
+        try {
+            bookmarks.remove(url);
+        } finally {
+            bookmarksLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addHistory(String url) {
+        addHistory(url, new Date());
+    }
+
+    @Override
+    public void addHistory(String url, Date visitedAt) {
+        historyLock.writeLock().lock();
+        try {
+            insert(new HistoryVisit(url, visitedAt));
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveVisit(HistoryVisit visit) {
+        historyLock.writeLock().lock();
+        try {
+            replaceOrInsert(visit);
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveVisits(List<HistoryVisit> visits) {
+        historyLock.writeLock().lock();
+        try {
+            for (HistoryVisit visit : visits) {
+                replaceOrInsert(visit);
+            }
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+    }
+
+    private void replaceOrInsert(HistoryVisit visit) {
+        HistoryVisit previous = visitsById.put(visit.getId(), visit);
+        if (previous != null) {
+            int index = history.lastIndexOf(previous);
+            if (index >= 0 && previous.getVisitedAt().equals(visit.getVisitedAt())) {
+                history.set(index, visit);
+                return;
+            }
+            history.remove(previous);
+        }
+        insert(visit);
+    }
+
+    private void insert(HistoryVisit visit) {
+        Date visitedAt = visit.getVisitedAt();
+        // Insert after every visit at the same time or earlier
+        int low = 0;
+        int high = history.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (history.get(mid).getVisitedAt().after(visitedAt)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        history.add(low, visit);
+    }
+
+    @Override
+    public List<String> getHistory() {
+        historyLock.readLock().lock();
+        try {
+            List<String> urls = new ArrayList<>(history.size());
+            for (int i = history.size() - 1; i >= 0; i--) {
+                urls.add(history.get(i).getUrl());
+            }
+            return urls;
+        } finally {
+            historyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> getHistoryByDay() {
+        historyLock.readLock().lock();
+        try {
+            return HistoryGrouping.groupByDay(newestFirst(0, history.size()));
+        } finally {
+            historyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<HistoryVisit> getHistoryBefore(Date before, int limit) {
+        historyLock.readLock().lock();
+        try {
+            // Visits are kept oldest first; find the first one at or after before
+            int low = 0;
+            int high = history.size();
+            while (before != null && low < high) {
+                int mid = (low + high) >>> 1;
+                if (history.get(mid).getVisitedAt().before(before)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int end = high;
+            int start = (int) Math.max(0, end - (long) limit);
+            // Take every visit at the time of the oldest one returned
+            while (start > 0 && start < end && history.get(start - 1).getVisitedAt().equals(history.get(start).getVisitedAt())) {
+                start--;
+            }
+            List<HistoryVisit> visits = new ArrayList<>(end - start);
+            for (int i = end - 1; i >= start; i--) {
+                visits.add(history.get(i));
+            }
+            return visits;
+        } finally {
+            historyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<HistoryVisit> getRecentVisits(int limit) {
+        historyLock.readLock().lock();
+        try {
+            return new ArrayList<>(newestFirst(0, limit));
+        } finally {
+            historyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteHistory(String url) {
+        historyLock.writeLock().lock();
+        try {
+            for (int i = 0; i < history.size(); i++) {
+                if (history.get(i).getUrl().equals(url)) {
+                    HistoryVisit removed = history.remove(i);
+                    if (removed.getId() != null) {
+                        visitsById.remove(removed.getId());
+                    }
+                    return;
+                }
+            }
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /**
+     * View of a range of the history in newest first order, without copying
+     */
+    private List<HistoryVisit> newestFirst(int offset, int limit) {
+        int size = (int) Math.max(0, Math.min(history.size() - (long) offset, limit));
+        int last = history.size() - 1 - offset;
+        return new AbstractList<>() {
+            @Override
+            public HistoryVisit get(int index) {
+                return history.get(last - index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
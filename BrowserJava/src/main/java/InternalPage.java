@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * InternalPage renders a page served under the browser's own nitron:// scheme.
+ * Pages are registered by host with the NitronURLStreamHandlerFactory, so
+ * "nitron://perf/export.csv" is rendered by the "perf" page with path "/export.csv".
+ */
+public interface InternalPage {
+    /**
+     * Render the page
+     * @param path The path of the requested URL, "/" for the page itself
+     * @return The rendered content
+     * @throws IOException if the page cannot be produced
+     */
+    Content render(String path) throws IOException;
+
+    /**
+     * Rendered body of an internal page together with its content type
+     */
+    final class Content {
+        private final String contentType;
+        private final byte[] body;
+
+        /**
+         * Constructor for Content
+         * @param contentType The MIME type including charset
+         * @param body The body bytes
+         */
+        public Content(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        /**
+         * Create an HTML page
+         * @param html The page markup
+         * @return The content
+         */
+        public static Content html(String html) {
+            return new Content("text/html; charset=utf-8", html.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Get the MIME type
+         * @return The content type
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Get the body
+         * @return The body bytes
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram records latencies into log-linear buckets in the style of HdrHistogram.
+ * Values below 128 are counted exactly; above that each power of two is split into
+ * 64 sub-buckets, which keeps the relative error under 1.6% at any magnitude while
+ * the whole histogram stays a fixed array of about two thousand counters.
+ * Recording is lock-free, so it can be called from any thread.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int MAX_SHIFT = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_BUCKETS + MAX_SHIFT * SUB_BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record one value
+     * @param value The value to record; negative values are ignored
+     */
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Get the number of recorded values
+     * @return Number of values
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Get the mean of the recorded values
+     * @return The mean, or 0 if empty
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalValue.get() / (double) count;
+    }
+
+    /**
+     * Get the largest recorded value
+     * @return The maximum, or 0 if empty
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Get the value at a percentile
+     * @param percentile The percentile between 0 and 100
+     * @return The highest value equivalent to the percentile's bucket, or 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        long subBucket = Math.min(value >>> shift, 2L * SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (subBucket - SUB_BUCKETS);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MemoryCacheTier is the hot tier of the NitronResponseCache.
+ * Small responses are kept in access-ordered maps and the least recently
+ * used ones are evicted once the tier exceeds its byte budget.
+ *
+ * Every window's WebViews load through the same cache, so the tier is split into stripes by
+ * key hash, each with its own lock and an equal share of the budget. Lookups for different
+ * resources rarely wait on each other; eviction is least recently used within a stripe.
+ */
+public class MemoryCacheTier {
+    private static final int STRIPES = 16;
+
+    private final int maxEntryBytes;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Constructor for MemoryCacheTier
+     * @param maxBytes Total byte budget of the tier
+     * @param maxEntryBytes Largest response kept in memory
+     */
+    public MemoryCacheTier(long maxBytes, int maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxBytes / STRIPES);
+        }
+    }
+
+    private Stripe stripe(String key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Get a response and mark it as recently used
+     * @param key The cache key
+     * @return The response, or null if not cached
+     */
+    public CachedResponse get(String key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.entries.get(key);
+        }
+    }
+
+    /**
+     * Store a response if it is small enough for the memory tier
+     * @param key The cache key
+     * @param response The response to store
+     */
+    public void put(String key, CachedResponse response) {
+        if (response.getSize() > maxEntryBytes) {
+            return;
+        }
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            CachedResponse previous = stripe.entries.put(key, response);
+            if (previous != null) {
+                stripe.sizeBytes -= previous.getSize();
+            }
+            stripe.sizeBytes += response.getSize();
+            stripe.trimTo(stripe.maxBytes);
+        }
+    }
+
+    /**
+     * Remove a response
+     * @param key The cache key
+     */
+    public void remove(String key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            CachedResponse previous = stripe.entries.remove(key);
+            if (previous != null) {
+                stripe.sizeBytes -= previous.getSize();
+            }
+        }
+    }
+
+    /**
+     * Evict least recently used responses until the tier fits in the given size
+     * @param targetBytes The size to shrink to
+     */
+    public void trimTo(long targetBytes) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.trimTo(targetBytes / STRIPES);
+            }
+        }
+    }
+
+    /**
+     * Get the current size of the tier
+     * @return Size in bytes
+     */
+    public long getSizeBytes() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.sizeBytes;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of cached responses
+     * @return Number of entries
+     */
+    public int getEntryCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.entries.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * One lock's share of the tier. Guarded by its own monitor.
+     */
+    private static final class Stripe {
+        private final long maxBytes;
+        private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(32, 0.75f, true);
+        private long sizeBytes;
+
+        private Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        private void trimTo(long targetBytes) {
+            Iterator<Map.Entry<String, CachedResponse>> eldest = entries.entrySet().iterator();
+            while (sizeBytes > targetBytes && eldest.hasNext()) {
+                sizeBytes -= eldest.next().getValue().getSize();
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * MemoryGovernor watches heap and resident memory against a budget and asks the browser to give memory back.
+ *
+ * The old generation's collection usage threshold triggers an immediate check after a GC that
+ * leaves the heap full, and a background sampler also checks the heap and the process RSS every
+ * few seconds. The worse of the two ratios gives the pressure level. Responders registered for a
+ * level are called, from the cheapest to the most disruptive, whenever pressure reaches it.
+ *
+ * Budgets come from -Dnitron.memory.heapBudgetMB (default: 80% of -Xmx) and
+ * -Dnitron.memory.rssBudgetMB (default: no RSS limit).
+ */
+public class MemoryGovernor {
+    /**
+     * Memory pressure, by share of the budget in use
+     */
+    public enum Level {
+        NORMAL(0), MODERATE(0.70), HIGH(0.85), CRITICAL(0.95);
+
+        private final double threshold;
+
+        Level(double threshold) {
+            this.threshold = threshold;
+        }
+
+        private static Level of(double ratio) {
+            Level level = NORMAL;
+            for (Level candidate : values()) {
+                if (ratio >= candidate.threshold) {
+                    level = candidate;
+                }
+            }
+            return level;
+        }
+    }
+
+    private static final long SAMPLE_SECONDS = 5;
+    private static final long REPEAT_MILLIS = 30_000;
+    private static final int ACTION_LOG_SIZE = 50;
+
+    private final long heapBudget;
+    private final long rssBudget;
+    private final List<Responder> responders = new CopyOnWriteArrayList<>();
+    private final Map<Level, Long> lastActed = new ConcurrentHashMap<>();
+    private final Deque<String> actions = new ArrayDeque<>();
+    private final ScheduledExecutorService sampler;
+    private final NotificationListener thresholdListener = this::onThresholdExceeded;
+    private volatile Level level = Level.NORMAL;
+    private volatile double heapRatio;
+    private volatile double rssRatio;
+
+    /**
+     * Constructor for MemoryGovernor using the budgets from the system properties
+     */
+    public MemoryGovernor() {
+        this(Long.getLong("nitron.memory.heapBudgetMB", Runtime.getRuntime().maxMemory() * 8 / 10 / (1024 * 1024)) * 1024 * 1024,
+             Long.getLong("nitron.memory.rssBudgetMB", 0) * 1024 * 1024);
+    }
+
+    /**
+     * Constructor for MemoryGovernor
+     * @param heapBudget Heap bytes the browser may use
+     * @param rssBudget Resident bytes the process may use, or 0 for no limit
+     */
+    public MemoryGovernor(long heapBudget, long rssBudget) {
+        this.heapBudget = heapBudget;
+        this.rssBudget = rssBudget;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nitron-memory-governor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Register an action to run when pressure reaches a level. Responders run in registration order,
+     * so register cheap actions first.
+     * @param name Name used to remove the responder and in the action log
+     * @param minimumLevel The lowest level at which the responder is called
+     * @param action Called with the current level off the FX thread; returns a description of what
+     *               was released, or null if there was nothing to do
+     */
+    public void addResponder(String name, Level minimumLevel, Function<Level, String> action) {
+        responders.add(new Responder(name, minimumLevel, action));
+    }
+
+    /**
+     * Remove every responder registered under a name
+     * @param name The responder name
+     */
+    public void removeResponder(String name) {
+        responders.removeIf(responder -> responder.name.equals(name));
+    }
+
+    /**
+     * Start watching memory
+     */
+    public void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // The old generation is the heap pool that supports both kinds of threshold
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()) {
+                long max = pool.getUsage().getMax() > 0 ? Math.min(pool.getUsage().getMax(), heapBudget) : heapBudget;
+                pool.setCollectionUsageThreshold((long) (max * Level.MODERATE.threshold));
+            }
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(thresholdListener, null, null);
+        sampler.scheduleWithFixedDelay(this::evaluate, SAMPLE_SECONDS, SAMPLE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop watching memory
+     */
+    public void shutdown() {
+        sampler.shutdownNow();
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(thresholdListener);
+        } catch (javax.management.ListenerNotFoundException e) {
+            // Never started
+        }
+    }
+
+    private void onThresholdExceeded(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())
+                && !sampler.isShutdown()) {
+            // Notifications arrive on a JMX thread; do the work on the governor's own thread
+            sampler.execute(this::evaluate);
+        }
+    }
+
+    private void evaluate() {
+        try {
+            heapRatio = retainedHeap() / (double) heapBudget;
+            long rss = rssBudget > 0 ? readResidentSetSize() : -1;
+            rssRatio = rss > 0 ? rss / (double) rssBudget : 0;
+            Level current = Level.of(Math.max(heapRatio, rssRatio));
+            Level previous = level;
+            level = current;
+            if (current == Level.NORMAL) {
+                lastActed.clear();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Long last = lastActed.get(current);
+            // Act when pressure rises, and again only if it stays up
+            if (current.compareTo(previous) > 0 || last == null || now - last >= REPEAT_MILLIS) {
+                lastActed.put(current, now);
+                relieve(current);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Memory governor check failed: " + e.getMessage());
+        }
+    }
+
+    private void relieve(Level current) {
+        for (Responder responder : responders) {
+            if (current.compareTo(responder.minimumLevel) >= 0) {
+                try {
+                    String result = responder.action.apply(current);
+                    if (result != null) {
+                        record(current + " " + responder.name + ": " + result);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Memory responder " + responder.name + " failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private synchronized void record(String action) {
+        String stamped = new SimpleDateFormat("HH:mm:ss").format(new Date()) + " " + action;
+        System.out.println("Memory governor: " + stamped);
+        actions.addLast(stamped);
+        if (actions.size() > ACTION_LOG_SIZE) {
+            actions.removeFirst();
+        }
+    }
+
+    /**
+     * Heap still in use after the last collection, falling back to current usage before the first one
+     */
+    private static long retainedHeap() {
+        long retained = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                MemoryUsage afterGc = pool.getCollectionUsage();
+                retained += afterGc != null && afterGc.getUsed() > 0 ? afterGc.getUsed() : pool.getUsage().getUsed();
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Read the resident set size of this process from /proc
+     * @return Resident bytes, or -1 where /proc is not available
+     */
+    public static long readResidentSetSize() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+
+    /**
+     * Get the current pressure level
+     * @return The level from the last check
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Get the most recent actions taken
+     * @return Timestamped action descriptions, oldest first
+     */
+    public synchronized List<String> getActions() {
+        return new ArrayList<>(actions);
+    }
+
+    /**
+     * Get memory governor statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        StringBuilder stats = new StringBuilder("=== Memory ===\n");
+        stats.append(String.format("Level: %s (heap %.0f%% of %d MB", level, heapRatio * 100, heapBudget / (1024 * 1024)));
+        if (rssBudget > 0) {
+            stats.append(String.format(", RSS %.0f%% of %d MB", rssRatio * 100, rssBudget / (1024 * 1024)));
+        }
+        stats.append(")\n");
+        for (String action : getActions()) {
+            stats.append(action).append('\n');
+        }
+        return stats.toString();
+    }
+
+    /**
+     * A registered pressure action
+     */
+    private static final class Responder {
+        private final String name;
+        private final Level minimumLevel;
+        private final Function<Level, String> action;
+
+        private Responder(String name, Level minimumLevel, Function<Level, String> action) {
+            this.name = name;
+            this.minimumLevel = minimumLevel;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NavigationPredictor warms up connections to the destinations the user is likely to open next.
+ * Likely hosts are scored from bookmarks and recent history; hovering a bookmark or
+ * history entry is a strong hint for a single host. Warming resolves DNS and opens a
+ * keep-alive connection (including the TLS handshake) that the next real request reuses.
+ * A host counts as warm only once its connection is open, so a failed warm-up is retried on
+ * the next hint and navigations to it are reported as cold.
+ * Optionally the top documents are prefetched into the response cache.
+ * All work runs on a small bounded pool and stops at fixed budgets.
+ */
+public class NavigationPredictor {
+    /**
+     * System property that enables prefetching of predicted documents
+     */
+    public static final String PREFETCH_PROPERTY = "nitron.prefetch";
+
+    private static final int RECENT_VISITS = 1000;
+    private static final int HOSTS_PER_CYCLE = 8;
+    private static final int DOCUMENTS_PER_CYCLE = 3;
+    private static final long PREFETCH_BYTES_PER_CYCLE = 2L * 1024 * 1024;
+    private static final long HOST_COOLDOWN_MILLIS = 60_000;
+    private static final double BOOKMARK_WEIGHT = 3.0;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final DatabaseOperations dbOperations;
+    private final boolean prefetchEnabled;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Long> warmedAt = new ConcurrentHashMap<>();
+    private final Set<String> warming = ConcurrentHashMap.newKeySet();
+    private final LongAdder hostsResolved = new LongAdder();
+    private final LongAdder connectionsWarmed = new LongAdder();
+    private final LongAdder failedWarmUps = new LongAdder();
+    private final LongAdder documentsPrefetched = new LongAdder();
+    private final LongAdder prefetchedBytes = new LongAdder();
+    private final LongAdder hints = new LongAdder();
+    private final LongAdder warmNavigations = new LongAdder();
+    private final LongAdder warmNavigationMillis = new LongAdder();
+    private final LongAdder coldNavigations = new LongAdder();
+    private final LongAdder coldNavigationMillis = new LongAdder();
+
+    /**
+     * Constructor for NavigationPredictor
+     * @param dbOperations The database operations used to read bookmarks and history
+     */
+    public NavigationPredictor(DatabaseOperations dbOperations) {
+        this.dbOperations = dbOperations;
+        this.prefetchEnabled = Boolean.getBoolean(PREFETCH_PROPERTY);
+        AtomicInteger counter = new AtomicInteger();
+        // Two workers and a short queue: excess hints are dropped rather than queued
+        this.executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(16), runnable -> {
+                    Thread thread = new Thread(runnable, "nitron-predictor-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Score likely destinations and warm the best ones in the background
+     */
+    public void refreshPredictions() {
+        executor.execute(() -> {
+            List<String> urls = predictUrls();
+            Map<String, String> hosts = new LinkedHashMap<>();
+            for (String url : urls) {
+                String host = hostOf(url);
+                if (host != null && hosts.size() < HOSTS_PER_CYCLE) {
+                    hosts.putIfAbsent(host, url);
+                }
+            }
+            for (String url : hosts.values()) {
+                warm(url);
+            }
+            if (prefetchEnabled) {
+                prefetch(urls.subList(0, Math.min(DOCUMENTS_PER_CYCLE, urls.size())));
+            }
+        });
+    }
+
+    /**
+     * Hint that the user is about to open a URL, for example while hovering it
+     * @param url The URL that may be opened next
+     */
+    public void hint(String url) {
+        String host = hostOf(url);
+        if (host == null || isRecentlyWarmed(host)) {
+            return;
+        }
+        hints.increment();
+        executor.execute(() -> warm(url));
+    }
+
+    /**
+     * Record how long a navigation took, split by whether its host was warmed first
+     * @param url The URL that was loaded
+     * @param millis Time from start of load to success
+     */
+    public void recordNavigation(String url, long millis) {
+        String host = hostOf(url);
+        if (host != null && isRecentlyWarmed(host)) {
+            warmNavigations.increment();
+            warmNavigationMillis.add(millis);
+        } else {
+            coldNavigations.increment();
+            coldNavigationMillis.add(millis);
+        }
+    }
+
+    /**
+     * Rank likely destinations by bookmarks and recent visit frequency
+     * @return URLs ordered from most to least likely
+     */
+    public List<String> predictUrls() {
+        Map<String, Double> scores = new HashMap<>();
+        for (String bookmark : dbOperations.getBookmarks()) {
+            scores.merge(bookmark, BOOKMARK_WEIGHT, Double::sum);
+        }
+        int rank = 0;
+        for (HistoryVisit visit : dbOperations.getRecentVisits(RECENT_VISITS)) {
+            // Recent visits count more than old ones
+            scores.merge(visit.getUrl(), 1.0 / (1 + rank / 100.0), Double::sum);
+            rank++;
+        }
+        List<String> ranked = new ArrayList<>(scores.keySet());
+        ranked.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        return ranked;
+    }
+
+    /**
+     * Stop the background workers
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get predictor statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Predictor: %d hosts resolved, %d connections warmed, %d warm-ups failed, %d hover hints, "
+                        + "%d documents prefetched (%d KB), warm navigations %d avg %d ms, cold navigations %d avg %d ms",
+                hostsResolved.sum(), connectionsWarmed.sum(), failedWarmUps.sum(), hints.sum(),
+                documentsPrefetched.sum(), prefetchedBytes.sum() / 1024,
+                warmNavigations.sum(), average(warmNavigationMillis, warmNavigations),
+                coldNavigations.sum(), average(coldNavigationMillis, coldNavigations));
+    }
+
+    /**
+     * Check whether navigations to a URL would reuse a warmed connection
+     * @param url The URL
+     * @return true if its host was warmed within the cooldown
+     */
+    boolean isWarm(String url) {
+        String host = hostOf(url);
+        return host != null && isRecentlyWarmed(host);
+    }
+
+    /**
+     * Get the number of connections opened ahead of navigations
+     * @return Warmed connection count
+     */
+    long getConnectionsWarmed() {
+        return connectionsWarmed.sum();
+    }
+
+    /**
+     * Get the number of warm-ups that could not resolve or connect
+     * @return Failed warm-up count
+     */
+    long getFailedWarmUps() {
+        return failedWarmUps.sum();
+    }
+
+    private void warm(String url) {
+        String host = hostOf(url);
+        // Another worker may already be warming the host
+        if (host == null || isRecentlyWarmed(host) || !warming.add(host)) {
+            return;
+        }
+        try {
+            InetAddress.getAllByName(host);
+            hostsResolved.increment();
+
+            // A HEAD request leaves a keep-alive connection (and TLS session) for the real load
+            URI uri = URI.create(url);
+            URL origin = new URL(uri.getScheme() + "://" + uri.getRawAuthority() + "/");
+            HttpURLConnection connection = (HttpURLConnection) origin.openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.getResponseCode();
+            InputStream in = connection.getErrorStream() != null ? connection.getErrorStream() : connection.getInputStream();
+            in.close();
+            warmedAt.put(host, System.currentTimeMillis());
+            connectionsWarmed.increment();
+        } catch (IOException | IllegalArgumentException | ClassCastException e) {
+            // Warming is best effort; the real navigation reports real errors
+            failedWarmUps.increment();
+        } finally {
+            warming.remove(host);
+        }
+    }
+
+    private void prefetch(List<String> urls) {
+        long budget = PREFETCH_BYTES_PER_CYCLE;
+        byte[] chunk = new byte[8192];
+        for (String url : urls) {
+            if (budget <= 0 || hostOf(url) == null) {
+                return;
+            }
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setRequestProperty("Sec-Purpose", "prefetch");
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                connection.setReadTimeout(CONNECT_TIMEOUT_MILLIS);
+                long read = 0;
+                // Reading to the end and closing hands the body to the response cache
+                try (InputStream in = connection.getInputStream()) {
+                    int n;
+                    while ((n = in.read(chunk)) >= 0) {
+                        read += n;
+                        if (read > budget) {
+                            connection.disconnect();
+                            return;
+                        }
+                    }
+                }
+                budget -= read;
+                documentsPrefetched.increment();
+                prefetchedBytes.add(read);
+            } catch (IOException | ClassCastException e) {
+                // Skip documents that cannot be prefetched
+            }
+        }
+    }
+
+    private boolean isRecentlyWarmed(String host) {
+        Long last = warmedAt.get(host);
+        return last != null && System.currentTimeMillis() - last < HOST_COOLDOWN_MILLIS;
+    }
+
+    private static String hostOf(String url) {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return null;
+        }
+        try {
+            return URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long average(LongAdder total, LongAdder count) {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
+    }
+}
@@ -0,0 +1,603 @@
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.concurrent.Worker;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.Tab;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.web.WebView;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * NitronBenchmark runs the browser headless against local fixture pages and reports performance as JSON.
+ *
+ * A workload is a small script (see /benchmark/default.workload) of tab, navigation, theme and
+ * dialog commands. For every command the wall-clock time and the CPU time of the FX application
+ * thread are recorded, together with heap and RSS growth per open tab and the number of database
+ * operations, so two builds can be compared in a regression gate. The busy command also reports
+ * the process CPU used by background tabs with and without tab throttling, and the scroll command
+ * the frame intervals while a page is scrolled and resized with and without the render cache.
+ *
+ * Blocking storage calls on the FX thread fail the run, as in the tests; pass
+ * -Dnitron.strictFxThread=false to measure a build that still makes them.
+ *
+ * Run with: mvn -Pbenchmark compile exec:java -Dexec.args="--out target/benchmark.json"
+ * Options: --workload FILE, --out FILE, --history N (seeded history entries), --bookmarks N
+ */
+public class NitronBenchmark {
+    private static final String MONOCLE_FACTORY = "com.sun.glass.ui.monocle.MonoclePlatformFactory";
+    private static final long STEP_TIMEOUT_SECONDS = 60;
+    private static final long LONG_FRAME_MILLIS = 50;
+    // Roughly one scroll or resize event per frame at 60 Hz
+    private static final long EVENT_SPACING_MILLIS = 16;
+
+    private final FixtureServer server;
+    private final CountingDatabase database;
+    private final NitronBrowser browser;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final List<StepResult> steps = new ArrayList<>();
+    private final List<BackgroundCpuResult> backgroundCpu = new ArrayList<>();
+    private final List<FrameResult> frames = new ArrayList<>();
+    private final FrameMonitor frameMonitor = new FrameMonitor(LONG_FRAME_MILLIS);
+    private long fxThreadId;
+    private boolean started;
+    private long startupMillis;
+    private long baselineHeap;
+    private long baselineRss;
+    private long heapPerTab = -1;
+    private long rssPerTab = -1;
+    private int peakTabs;
+
+    /**
+     * Constructor for NitronBenchmark
+     * @param server The server hosting the fixture pages
+     * @param database The database the browser runs against
+     */
+    public NitronBenchmark(FixtureServer server, CountingDatabase database) {
+        this.server = server;
+        this.database = database;
+        this.browser = new NitronBrowser(database, server.url("/index.html"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String workloadFile = null;
+        String outFile = "nitron-benchmark.json";
+        int historyEntries = 2000;
+        int bookmarkEntries = 100;
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--workload": workloadFile = args[i + 1]; break;
+                case "--out": outFile = args[i + 1]; break;
+                case "--history": historyEntries = Integer.parseInt(args[i + 1]); break;
+                case "--bookmarks": bookmarkEntries = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        configureHeadless();
+        System.setProperty(NitronURLStreamHandlerFactory.WEBKIT_HTTP2_LOADER_PROPERTY, "false");
+        if (System.getProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY) == null) {
+            System.setProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY, "true");
+        }
+        if (System.getProperty("nitron.home") == null) {
+            // Start every run with an empty cache and no filter lists
+            System.setProperty("nitron.home", Files.createTempDirectory("nitron-benchmark").toString());
+        }
+        if (System.getProperty("nitron.downloads.dir") == null) {
+            System.setProperty("nitron.downloads.dir", Paths.get(System.getProperty("nitron.home"), "downloads").toString());
+        }
+
+        FixtureServer server = new FixtureServer();
+        InMemoryDatabase memory = new InMemoryDatabase();
+        seed(memory, server, historyEntries, bookmarkEntries);
+        NitronBenchmark benchmark = new NitronBenchmark(server, new CountingDatabase(memory));
+
+        int exitCode = 0;
+        try {
+            String report = benchmark.run(readWorkload(workloadFile));
+            Files.write(Paths.get(outFile), report.getBytes(StandardCharsets.UTF_8));
+            System.out.println(report);
+            System.out.println("Benchmark report written to " + Paths.get(outFile).toAbsolutePath());
+        } catch (Exception e) {
+            System.err.println("Benchmark failed: " + e);
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            Platform.exit();
+            server.stop();
+        }
+        // WebKit keeps non-daemon threads alive after Platform.exit()
+        System.exit(exitCode);
+    }
+
+    /**
+     * Run a workload and build the JSON report
+     * @param commands The workload lines
+     * @return The report
+     * @throws Exception if a step fails or times out
+     */
+    public String run(List<String> commands) throws Exception {
+        long runStart = System.nanoTime();
+        Platform.startup(() -> { });
+        Platform.setImplicitExit(false);
+        fxThreadId = onFx(() -> Thread.currentThread().getId());
+
+        long startupCpu = fxCpuNanos();
+        awaitLoad(() -> browser.start(new Stage()));
+        startupMillis = (System.nanoTime() - runStart) / 1_000_000;
+        steps.add(new StepResult("startup", startupMillis, (fxCpuNanos() - startupCpu) / 1_000_000));
+        started = true;
+        baselineHeap = usedHeap();
+        baselineRss = MemoryGovernor.readResidentSetSize();
+
+        for (String command : commands) {
+            long wallStart = System.nanoTime();
+            long cpuStart = fxCpuNanos();
+            execute(command.split("\\s+"));
+            steps.add(new StepResult(command, (System.nanoTime() - wallStart) / 1_000_000,
+                    (fxCpuNanos() - cpuStart) / 1_000_000));
+        }
+
+        onFx(() -> {
+            browser.stop();
+            return null;
+        });
+        return toJson((System.nanoTime() - runStart) / 1_000_000);
+    }
+
+    private void execute(String[] command) throws Exception {
+        switch (command[0]) {
+            case "open":
+                int count = command.length > 2 ? Integer.parseInt(command[2]) : 1;
+                for (int i = 0; i < count; i++) {
+                    awaitLoad(() -> browser.addNewTab(server.url(command[1]), "New Tab"));
+                }
+                measureTabMemory();
+                break;
+            case "navigate":
+                for (String path : Arrays.copyOfRange(command, 1, command.length)) {
+                    awaitLoad(() -> browser.navigateCurrentTab(server.url(path)));
+                }
+                break;
+            case "window":
+                int windows = command.length > 2 ? Integer.parseInt(command[2]) : 1;
+                for (int i = 0; i < windows; i++) {
+                    awaitLoad(() -> browser.openWindow(server.url(command[1])));
+                }
+                break;
+            case "move":
+                onFx(() -> {
+                    browser.moveCurrentTabToNewWindow();
+                    return null;
+                });
+                break;
+            case "theme":
+                onFx(() -> {
+                    browser.toggleDarkMode();
+                    return null;
+                });
+                break;
+            case "history":
+                runDialog("History", browser::showHistoryDialog);
+                break;
+            case "bookmarks":
+                runDialog("Bookmarks", browser::showBookmarksDialog);
+                break;
+            case "download":
+                runDownload(command[1]);
+                break;
+            case "scroll":
+                runScroll(command[1], command.length > 2 ? Integer.parseInt(command[2]) : 200);
+                break;
+            case "busy":
+                runBusyTabs(command[1], Integer.parseInt(command[2]),
+                        command.length > 3 ? Integer.parseInt(command[3]) : 10);
+                break;
+            case "close":
+                onFx(() -> {
+                    browser.closeOtherWindows();
+                    List<Tab> tabs = new ArrayList<>(browser.getTabs());
+                    for (int i = 0; i < tabs.size() - 1; i++) {
+                        browser.closeTab(tabs.get(i));
+                    }
+                    return null;
+                });
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown workload command: " + command[0]);
+        }
+    }
+
+    /**
+     * Run an action on the FX thread and wait until the page it starts in the current tab has loaded
+     */
+    private void awaitLoad(Runnable action) throws Exception {
+        CompletableFuture<Worker.State> finished = new CompletableFuture<>();
+        ChangeListener<Worker.State> listener = (obs, oldState, newState) -> {
+            if (newState == Worker.State.SUCCEEDED || newState == Worker.State.FAILED
+                    || newState == Worker.State.CANCELLED) {
+                finished.complete(newState);
+            }
+        };
+        onFx(() -> {
+            WebView before = started ? browser.getCurrentWebView() : null;
+            if (before != null) {
+                before.getEngine().getLoadWorker().stateProperty().addListener(listener);
+            }
+            action.run();
+            WebView after = browser.getCurrentWebView();
+            if (after != before) {
+                if (before != null) {
+                    before.getEngine().getLoadWorker().stateProperty().removeListener(listener);
+                }
+                Worker<Void> worker = after.getEngine().getLoadWorker();
+                if (worker.getState() == Worker.State.SUCCEEDED) {
+                    // A prerendered page was swapped in
+                    finished.complete(worker.getState());
+                } else {
+                    worker.stateProperty().addListener(listener);
+                }
+            }
+            finished.whenComplete((state, error) -> after.getEngine().getLoadWorker().stateProperty().removeListener(listener));
+            return null;
+        });
+        Worker.State state = finished.get(STEP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (state != Worker.State.SUCCEEDED) {
+            System.err.println("Benchmark page load ended in state " + state);
+        }
+    }
+
+    /**
+     * Download a fixture file through the browser's download manager and wait for it to finish
+     */
+    private void runDownload(String path) throws Exception {
+        Download download = browser.getDownloadManager().download(server.url(path));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STEP_TIMEOUT_SECONDS);
+        while (download.getState() == Download.State.QUEUED || download.getState() == Download.State.RUNNING) {
+            if (System.nanoTime() > deadline) {
+                download.cancel();
+                throw new TimeoutException("Download did not finish: " + path);
+            }
+            Thread.sleep(20);
+        }
+        if (download.getState() != Download.State.COMPLETED) {
+            throw new IOException("Download ended in state " + download.getState() + ": " + download.getError());
+        }
+    }
+
+    /**
+     * Scroll a page and resize its window, once without and once with the render cache, and
+     * record the frame intervals of each run
+     */
+    private void runScroll(String path, int events) throws Exception {
+        awaitLoad(() -> browser.navigateCurrentTab(server.url(path)));
+        boolean wasCaching = onFx(browser::isRenderCache);
+        for (boolean cache : new boolean[] {false, true}) {
+            onFx(() -> {
+                browser.setRenderCache(cache);
+                frameMonitor.reset();
+                frameMonitor.start();
+                return null;
+            });
+            for (int i = 0; i < events; i++) {
+                // Down through the page, then back up
+                double delta = i < events / 2 ? -40 : 40;
+                onFx(() -> {
+                    WebView view = browser.getCurrentWebView();
+                    view.fireEvent(new ScrollEvent(ScrollEvent.SCROLL, view.getWidth() / 2, view.getHeight() / 2,
+                            0, 0, false, false, false, false, false, false, 0, delta, 0, delta,
+                            ScrollEvent.HorizontalTextScrollUnits.NONE, 0, ScrollEvent.VerticalTextScrollUnits.NONE, 0,
+                            0, null));
+                    return null;
+                });
+                Thread.sleep(EVENT_SPACING_MILLIS);
+            }
+            for (int i = 0; i < events / 4; i++) {
+                double width = 1200 - (i % 20) * 20;
+                onFx(() -> {
+                    ((Stage) browser.getCurrentWebView().getScene().getWindow()).setWidth(width);
+                    return null;
+                });
+                Thread.sleep(EVENT_SPACING_MILLIS);
+            }
+            onFx(() -> {
+                frameMonitor.stop();
+                return null;
+            });
+            LatencyHistogram intervals = frameMonitor.getIntervals();
+            frames.add(new FrameResult(path, cache, intervals.getCount(), intervals.getPercentile(50),
+                    intervals.getPercentile(99), intervals.getMax(), frameMonitor.getLongFrameCount()));
+        }
+        onFx(() -> {
+            browser.setRenderCache(wasCaching);
+            return null;
+        });
+    }
+
+    /**
+     * Open busy tabs, move them all to the background and compare the process CPU they use
+     * with background tab throttling on and off
+     */
+    private void runBusyTabs(String path, int count, int seconds) throws Exception {
+        for (int i = 0; i < count; i++) {
+            awaitLoad(() -> browser.addNewTab(server.url(path), "New Tab"));
+        }
+        measureTabMemory();
+        boolean wasThrottling = onFx(() -> {
+            Tab first = browser.getTabs().get(0);
+            first.getTabPane().getSelectionModel().select(first);
+            return browser.isTabThrottling();
+        });
+        onFx(() -> {
+            browser.setTabThrottling(true);
+            return null;
+        });
+        long throttled = processCpuMillis(seconds);
+        onFx(() -> {
+            browser.setTabThrottling(false);
+            return null;
+        });
+        long unthrottled = processCpuMillis(seconds);
+        onFx(() -> {
+            browser.setTabThrottling(wasThrottling);
+            return null;
+        });
+        backgroundCpu.add(new BackgroundCpuResult(path, count, seconds, throttled, unthrottled));
+    }
+
+    /**
+     * CPU time used by the whole process, all threads included, while waiting
+     */
+    private static long processCpuMillis(int seconds) throws InterruptedException {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof com.sun.management.OperatingSystemMXBean)) {
+            return -1;
+        }
+        com.sun.management.OperatingSystemMXBean process = (com.sun.management.OperatingSystemMXBean) os;
+        long start = process.getProcessCpuTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        return (process.getProcessCpuTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Open a modal dialog, wait until its list has been filled, then close it.
+     * The dialog runs a nested event loop, so it is started without waiting for it to return.
+     */
+    private void runDialog(String titlePrefix, Runnable show) throws Exception {
+        Platform.runLater(show);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STEP_TIMEOUT_SECONDS);
+        while (true) {
+            Stage dialog = onFx(() -> {
+                for (Window window : Window.getWindows()) {
+                    if (window instanceof Stage stage && stage.isShowing() && stage.getTitle() != null
+                            && stage.getTitle().startsWith(titlePrefix) && isListLoaded(stage)) {
+                        return stage;
+                    }
+                }
+                return null;
+            });
+            if (dialog != null) {
+                onFx(() -> {
+                    dialog.hide();
+                    return null;
+                });
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException(titlePrefix + " dialog did not load");
+            }
+            Thread.sleep(2);
+        }
+    }
+
+    private static boolean isListLoaded(Stage stage) {
+        Node node = stage.getScene().getRoot().lookup(".list-view");
+        if (!(node instanceof ListView<?> list)) {
+            return false;
+        }
+        return !list.getItems().isEmpty()
+                || !(list.getPlaceholder() instanceof Label label && label.getText().startsWith("Loading"));
+    }
+
+    private void measureTabMemory() throws Exception {
+        int tabs = onFx(() -> browser.getTabs().size());
+        if (tabs <= 1 || tabs <= peakTabs) {
+            return;
+        }
+        peakTabs = tabs;
+        heapPerTab = (usedHeap() - baselineHeap) / (tabs - 1);
+        long rss = MemoryGovernor.readResidentSetSize();
+        rssPerTab = rss < 0 ? -1 : (rss - baselineRss) / (tabs - 1);
+    }
+
+    private long fxCpuNanos() {
+        return threads.getThreadCpuTime(fxThreadId);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static <T> T onFx(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<>(task);
+        Platform.runLater(future);
+        return future.get(STEP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private String toJson(long totalMillis) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"startupMillis\": ").append(startupMillis).append(",\n");
+        json.append("  \"totalWallMillis\": ").append(totalMillis).append(",\n");
+        json.append("  \"fxCpuMillis\": ").append(fxCpuNanos() / 1_000_000).append(",\n");
+        json.append("  \"steps\": [\n");
+        for (int i = 0; i < steps.size(); i++) {
+            StepResult step = steps.get(i);
+            json.append("    {\"command\": \"").append(step.command.replace("\"", "\\\""))
+                .append("\", \"wallMillis\": ").append(step.wallMillis)
+                .append(", \"fxCpuMillis\": ").append(step.fxCpuMillis)
+                .append(i < steps.size() - 1 ? "},\n" : "}\n");
+        }
+        json.append("  ],\n");
+        json.append("  \"memory\": {\"baselineHeapBytes\": ").append(baselineHeap)
+            .append(", \"baselineRssBytes\": ").append(baselineRss)
+            .append(", \"peakTabs\": ").append(peakTabs)
+            .append(", \"heapPerTabBytes\": ").append(heapPerTab)
+            .append(", \"rssPerTabBytes\": ").append(rssPerTab).append("},\n");
+        json.append("  \"backgroundCpu\": [");
+        for (int i = 0; i < backgroundCpu.size(); i++) {
+            BackgroundCpuResult result = backgroundCpu.get(i);
+            json.append(i > 0 ? ", " : "").append("{\"path\": \"").append(result.path)
+                .append("\", \"tabs\": ").append(result.tabs)
+                .append(", \"seconds\": ").append(result.seconds)
+                .append(", \"throttledCpuMillis\": ").append(result.throttledCpuMillis)
+                .append(", \"unthrottledCpuMillis\": ").append(result.unthrottledCpuMillis).append('}');
+        }
+        json.append("],\n");
+        json.append("  \"frames\": [");
+        for (int i = 0; i < frames.size(); i++) {
+            FrameResult result = frames.get(i);
+            json.append(i > 0 ? ", " : "").append("{\"path\": \"").append(result.path)
+                .append("\", \"renderCache\": ").append(result.renderCache)
+                .append(", \"frames\": ").append(result.count)
+                .append(", \"p50Micros\": ").append(result.p50Micros)
+                .append(", \"p99Micros\": ").append(result.p99Micros)
+                .append(", \"maxMicros\": ").append(result.maxMicros)
+                .append(", \"longFrames\": ").append(result.longFrames).append('}');
+        }
+        json.append("],\n");
+        json.append("  \"dbOperations\": {");
+        int written = 0;
+        for (Map.Entry<String, Long> entry : database.getCounts().entrySet()) {
+            json.append(written++ > 0 ? ", " : "").append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+        }
+        json.append("}\n}\n");
+        return json.toString();
+    }
+
+    private static void configureHeadless() {
+        if (System.getProperty("glass.platform") != null) {
+            return;
+        }
+        try {
+            Class.forName(MONOCLE_FACTORY);
+        } catch (ClassNotFoundException e) {
+            System.err.println("Monocle not on the classpath, running with a visible window (use -Pbenchmark)");
+            return;
+        }
+        System.setProperty("glass.platform", "Monocle");
+        System.setProperty("monocle.platform", "Headless");
+        System.setProperty("prism.order", "sw");
+    }
+
+    private static void seed(InMemoryDatabase database, FixtureServer server, int historyEntries, int bookmarkEntries) {
+        String[] pages = {"/index.html", "/article.html", "/table.html", "/gallery.html"};
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < historyEntries; i++) {
+            // Spread visits over the last 30 days so the history dialog has many day groups
+            long visitedAt = now - (long) i * TimeUnit.DAYS.toMillis(30) / Math.max(1, historyEntries);
+            database.addHistory(server.url(pages[i % pages.length]) + "?visit=" + i, new Date(visitedAt));
+        }
+        for (int i = 0; i < bookmarkEntries; i++) {
+            database.addBookmark(server.url(pages[i % pages.length]) + "?bookmark=" + i);
+        }
+    }
+
+    private static List<String> readWorkload(String file) throws IOException {
+        InputStream in = file != null ? Files.newInputStream(Path.of(file))
+                : NitronBenchmark.class.getResourceAsStream("/benchmark/default.workload");
+        List<String> commands = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    commands.add(line);
+                }
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Timing of one workload command
+     */
+    private static final class StepResult {
+        private final String command;
+        private final long wallMillis;
+        private final long fxCpuMillis;
+
+        private StepResult(String command, long wallMillis, long fxCpuMillis) {
+            this.command = command;
+            this.wallMillis = wallMillis;
+            this.fxCpuMillis = fxCpuMillis;
+        }
+    }
+
+    /**
+     * Frame intervals while scrolling and resizing, with or without the render cache
+     */
+    private static final class FrameResult {
+        private final String path;
+        private final boolean renderCache;
+        private final long count;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+        private final long longFrames;
+
+        private FrameResult(String path, boolean renderCache, long count, long p50Micros, long p99Micros,
+                            long maxMicros, long longFrames) {
+            this.path = path;
+            this.renderCache = renderCache;
+            this.count = count;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+            this.longFrames = longFrames;
+        }
+    }
+
+    /**
+     * Process CPU used by background busy tabs with and without throttling
+     */
+    private static final class BackgroundCpuResult {
+        private final String path;
+        private final int tabs;
+        private final int seconds;
+        private final long throttledCpuMillis;
+        private final long unthrottledCpuMillis;
+
+        private BackgroundCpuResult(String path, int tabs, int seconds, long throttledCpuMillis, long unthrottledCpuMillis) {
+            this.path = path;
+            this.tabs = tabs;
+            this.seconds = seconds;
+            this.throttledCpuMillis = throttledCpuMillis;
+            this.unthrottledCpuMillis = unthrottledCpuMillis;
+        }
+    }
+}
@@ -1,8 +1,10 @@
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.TabPane.TabClosingPolicy;
+import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
 
 import javafx.scene.web.WebEngine;
@@ -22,201 +24,1421 @@ import javafx.stage.Modality;
 import javafx.scene.layout.Priority;
 
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Alert;
-import javafx.scene.control.ScrollPane;
 
 
 public class NitronBrowser extends Application {
-    private final String defaultHomepage = "https://search.brave.com";
+    private static final int HISTORY_PAGE_SIZE = 200;
+    private static final int HISTORY_PREFETCH_ROWS = 20;
+    private static final int FAVICON_MEMORY_ICONS = 1024;
+    // The first icon a page links to, resolved to an absolute URL
+    private static final String FAVICON_LINK_SCRIPT = "(function() { var link = document.querySelector('link[rel~=\"icon\"]'); "
+            + "return link ? link.href : null; })()";
+
+    private final String defaultHomepage;
     private boolean darkModeEnabled = true;
-    private TabPane tabPane;
-    private BorderPane root;
-    private ToolBar navToolbar;
-    private DatabaseManager dbManager;
+    // Every open window, touched only on the FX thread
+    private final List<BrowserWindow> windows = new java.util.ArrayList<>();
+    private BrowserWindow activeWindow;
+    private int windowCounter;
+    private DatabaseOperations dbManager;
+    private SyncJournal syncJournal;
+    // Follows changes other instances make to the shared database; null without MongoDB
+    private ChangeStreamWatcher changeWatcher;
+    private StorageExecutor storageExecutor;
+    private ContentBlocker contentBlocker;
+    private NitronResponseCache responseCache;
+    // Null when -Dnitron.cookies=false leaves WebView its own session-only cookies
+    private PersistentCookieStore cookieStore;
+    private NavigationPredictor navigationPredictor;
+    private Prerenderer prerenderer;
+    private Stage downloadsDialog;
+    private Stage taskManagerDialog;
+    private final TabSampler tabSampler = new TabSampler();
+    private TabThrottler tabThrottler;
+    private RenderCacheTuner renderCacheTuner;
+    private FrameMonitor frameMonitor;
+    private PageArchive pageArchive;
+    private FaviconCache faviconCache;
+    private VisitRecorder visitRecorder;
+    private MemoryGovernor memoryGovernor;
+    private MetricsRegistry metrics;
+    private PageLoadTimer pageLoadTimer;
+    private int tabCounter;
     
-    // New feature managers
-    private BookmarkManager bookmarkManager;
-    private HistoryManager historyManager;
-    private ThemeManager themeManager;
-    private DaySummaryPage daySummaryPage;
+    // Feature managers, created and initialized by the registry
+    private FeatureRegistry features;
+
+    /**
+     * Constructor for NitronBrowser, backed by MongoDB
+     */
+    public NitronBrowser() {
+        this(null, System.getProperty("nitron.homepage", "https://search.brave.com"));
+    }
+
+    /**
+     * Constructor for NitronBrowser with its storage and homepage supplied by the caller.
+     * Used by NitronBenchmark to run against an in-memory database and local fixture pages.
+     * @param database The database to use, or null to connect to MongoDB in start()
+     * @param homepage The page opened in new tabs
+     */
+    NitronBrowser(DatabaseOperations database, String homepage) {
+        this.dbManager = database;
+        this.defaultHomepage = homepage;
+    }
 
     public static void main(String[] args) {
+        StartupTimeline.mark(StartupTimeline.MAIN);
+        // Route WebKit through java.net.URLConnection so the interception layer sees every request
+        System.setProperty(NitronURLStreamHandlerFactory.WEBKIT_HTTP2_LOADER_PROPERTY, "false");
+        // Continuous flight recording with the Nitron events, when -Dnitron.jfr=true
+        NitronEvents.startRecordingIfRequested();
         launch(args);
     }
 
     @Override
     public void start(Stage primaryStage) {
-        dbManager = new DatabaseManager();
-        
-        // Initialize all feature managers
-        historyManager = new HistoryManager(dbManager);
-        historyManager.initialize();
-        
-        bookmarkManager = new BookmarkManager(dbManager);
-        bookmarkManager.initialize();
-        
-        themeManager = new ThemeManager();
-        themeManager.initialize();
+        StartupTimeline.mark(StartupTimeline.START);
+        storageExecutor = new StorageExecutor();
+        if (dbManager == null) {
+            DatabaseManager mongo = new DatabaseManager();
+            storageExecutor.execute(mongo::ensureIndexes);
+            dbManager = mongo;
+            if (ChangeStreamWatcher.isEnabled()) {
+                changeWatcher = mongo.startWatching(NitronPaths.home().resolve("change-stream.token"));
+            }
+        }
+        // Record bookmark and history changes for other instances when a sync server is configured
+        DatabaseOperations localDatabase = dbManager;
+        if (SyncManager.isConfigured()) {
+            syncJournal = new SyncJournal(NitronPaths.home().resolve("sync"));
+            dbManager = new SyncingDatabase(localDatabase, syncJournal);
+        }
+        // One history visit per page, however many times its location changes while loading
+        visitRecorder = new VisitRecorder(dbManager, storageExecutor::execute);
+        javafx.animation.Timeline visitCheckpoint = new javafx.animation.Timeline(new javafx.animation.KeyFrame(
+                javafx.util.Duration.millis(VisitRecorder.CHECKPOINT_MILLIS), e -> visitRecorder.checkpoint()));
+        visitCheckpoint.setCycleCount(javafx.animation.Animation.INDEFINITE);
+        visitCheckpoint.play();
+
+        // Install request blocking before the first WebView exists
+        contentBlocker = new ContentBlocker();
+        NitronURLStreamHandlerFactory urlHandlers = NitronURLStreamHandlerFactory.install(contentBlocker);
+        metrics = new MetricsRegistry();
+        pageLoadTimer = new PageLoadTimer(metrics);
+        memoryGovernor = new MemoryGovernor();
+        // Frame pacing is measured when -Dnitron.frames=true, since the monitor keeps the scene pulsing
+        if (FrameMonitor.isEnabled()) {
+            frameMonitor = new FrameMonitor(Long.getLong("nitron.frames.longMillis", 50));
+            frameMonitor.start();
+        }
+        renderCacheTuner = new RenderCacheTuner();
+        urlHandlers.registerInternalPage("perf", new PerfPage(metrics, pageLoadTimer, memoryGovernor, frameMonitor));
+        storageExecutor.execute(() -> {
+            try {
+                contentBlocker.loadRuleFiles(NitronPaths.directory("filters"));
+            } catch (java.io.IOException e) {
+                System.err.println("Could not load filter lists: " + e.getMessage());
+            }
+        });
+
+        // Share HTTP responses across tabs and restarts
+        responseCache = NitronResponseCache.install(NitronPaths.home().resolve("cache"));
+        storageExecutor.execute(() -> {
+            try {
+                responseCache.open();
+            } catch (java.io.IOException e) {
+                System.err.println("Could not open response cache: " + e.getMessage());
+            }
+        });
+
+        // Keep cookies across restarts; WebView only picks up a handler installed before its first engine
+        if (PersistentCookieStore.isEnabled()) {
+            cookieStore = PersistentCookieStore.install(NitronPaths.home().resolve("cookies"));
+            storageExecutor.execute(cookieStore::load);
+        }
         
-        // Create day summary page for when browser closes
-        daySummaryPage = new DaySummaryPage(historyManager);
+        // Saved pages are served from the archive under nitron-offline://
+        pageArchive = new PageArchive(NitronPaths.home().resolve("archive"));
+        urlHandlers.setPageArchive(pageArchive);
+        storageExecutor.execute(() -> {
+            try {
+                pageArchive.open();
+                pageArchive.startBackgroundRefresh();
+            } catch (java.io.IOException e) {
+                System.err.println("Could not open page archive: " + e.getMessage());
+            }
+        });
+
+        // Tab and list icons, fetched once per host and kept downscaled on disk
+        faviconCache = new FaviconCache(new FaviconStore(NitronPaths.home().resolve("favicons")), FAVICON_MEMORY_ICONS);
+        faviconCache.open();
+
+        // Background tabs run their timers and animations slowly until selected
+        tabThrottler = new TabThrottler(NitronPaths.home().resolve("throttle-exempt.txt"));
+        storageExecutor.execute(tabThrottler::load);
+
+        // Initialize feature managers in the background; bookmarks are only needed when one is added
+        features = new FeatureRegistry();
+        features.register(HistoryManager.class, () -> new HistoryManager(dbManager));
+        features.register(BookmarkManager.class, () -> new BookmarkManager(dbManager, pageArchive)).lazy();
+        // Theme changes restyle the scene, so the theme manager belongs to the FX thread
+        features.register(ThemeManager.class, ThemeManager::new).onFxThread();
+        // Created eagerly so downloads interrupted by the last exit resume straight away
+        features.register(DownloadManager.class, DownloadManager::new);
+        if (syncJournal != null) {
+            // Pulled changes go to the undecorated database so they are not pushed back
+            features.register(SyncManager.class, () -> new SyncManager(syncJournal, localDatabase));
+        }
+        features.startAll().exceptionally(error -> {
+            System.err.println("Feature initialization failed: " + error.getMessage());
+            return null;
+        });
         
-        root = new BorderPane();
-        tabPane = new TabPane();
-        tabPane.setTabClosingPolicy(TabClosingPolicy.ALL_TABS);
+        // Warm connections to likely destinations in the background
+        navigationPredictor = new NavigationPredictor(dbManager);
+        navigationPredictor.refreshPredictions();
+        if (changeWatcher != null) {
+            // Bookmarks added or removed elsewhere change which sites are worth warming; not worth
+            // polling a standalone server for on its own
+            changeWatcher.addPassiveListener(changes -> {
+                if (changes.stream().anyMatch(DatabaseChange::isBookmark)) {
+                    navigationPredictor.refreshPredictions();
+                }
+            });
+        }
+        if (Prerenderer.isEnabled()) {
+            prerenderer = new Prerenderer(dbManager, storageExecutor, this::isAnyVisibleTabLoading, tabThrottler);
+        }
+        registerMemoryResponders();
 
-        addNewTab(defaultHomepage, "Home");
+        openWindow(primaryStage, defaultHomepage);
+        StartupTimeline.mark(StartupTimeline.STAGE_SHOWN);
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                StartupTimeline.mark(StartupTimeline.FIRST_FRAME);
+                stop();
+            }
+        }.start();
+    }
 
-        navToolbar = createToolbar();
+    /**
+     * Open a browser window. All windows share the storage, caches and feature managers.
+     * @param stage The stage to show the window in
+     * @param url The page for the window's first tab, or null to open it empty for a moved tab
+     * @return The new window
+     */
+    private BrowserWindow openWindow(Stage stage, String url) {
+        BrowserWindow window = new BrowserWindow(stage, ++windowCounter);
+        renderCacheTuner.attachWindow(stage);
+        windows.add(window);
+        activeWindow = window;
+        if (url != null) {
+            addNewTab(window, url, "Home");
+        }
+        applyStyles(window);
+        stage.show();
+        return window;
+    }
 
-        root.setTop(navToolbar);
-        root.setCenter(tabPane);
+    /**
+     * Open a new window with one tab
+     * @param url The page to open
+     */
+    void openWindow(String url) {
+        openWindow(new Stage(), url);
+    }
 
-        Scene scene = new Scene(root, 1200, 800);
-        primaryStage.setTitle("Nitron Browser");
-        primaryStage.setScene(scene);
-        
-        applyStyles();
-        
-        // Show day summary when browser closes
-        primaryStage.setOnCloseRequest(e -> {
-            System.out.println(daySummaryPage.getStatisticsAsString());
+    private void onWindowCloseRequest(BrowserWindow window) {
+        // Show day summary when the last window closes the browser
+        if (windows.size() == 1) {
+            DaySummaryPage daySummaryPage = new DaySummaryPage(features.get(HistoryManager.class), storageExecutor);
+            storageExecutor.submit(daySummaryPage::getStatisticsAsString, System.out::println);
             daySummaryPage.show();
+        }
+    }
+
+    private void onWindowClosed(BrowserWindow window) {
+        if (!windows.remove(window)) {
+            return;
+        }
+        for (Tab tab : window.tabPane.getTabs()) {
+            releaseTab(tab);
+        }
+        if (activeWindow == window) {
+            activeWindow = windows.isEmpty() ? null : windows.get(windows.size() - 1);
+        }
+    }
+
+    /**
+     * Move a tab to another window. The WebView moves with it, so the page is not reloaded
+     * and keeps its scroll position, form input and back/forward list.
+     * @param tab The tab to move
+     * @param target The window to move it to, or null for a new window
+     */
+    private void moveTab(Tab tab, BrowserWindow target) {
+        TabState state = (TabState) tab.getUserData();
+        BrowserWindow source = state.window;
+        if (target == null) {
+            Stage stage = new Stage();
+            stage.setX(source.stage.getX() + 40);
+            stage.setY(source.stage.getY() + 40);
+            target = openWindow(stage, null);
+        }
+        if (target == source) {
+            return;
+        }
+        // Removing a tab is not closing it; only closeTab and the close button release it
+        source.tabPane.getTabs().remove(tab);
+        state.window = target;
+        target.tabPane.getTabs().add(tab);
+        target.tabPane.getSelectionModel().select(tab);
+        target.stage.toFront();
+        activeWindow = target;
+        if (source.tabPane.getTabs().isEmpty()) {
+            source.stage.close();
+        }
+    }
+
+    /**
+     * Give memory back under pressure, cheapest first: the response cache, the prerendered page,
+     * then the least recently used background tabs. Open dialogs add their own responders.
+     */
+    private void registerMemoryResponders() {
+        memoryGovernor.addResponder("response cache", MemoryGovernor.Level.MODERATE, level -> {
+            long freed = responseCache.trimMemory(level == MemoryGovernor.Level.MODERATE ? 8L * 1024 * 1024 : 0);
+            return freed > 0 ? "released " + freed / 1024 + " KB" : null;
         });
-        
-        primaryStage.show();
+        memoryGovernor.addResponder("favicons", MemoryGovernor.Level.MODERATE, level -> {
+            int dropped = faviconCache.trim(level == MemoryGovernor.Level.MODERATE ? FAVICON_MEMORY_ICONS / 4 : 0);
+            return dropped > 0 ? "dropped " + dropped + " favicons" : null;
+        });
+        if (prerenderer != null) {
+            memoryGovernor.addResponder("prerender", MemoryGovernor.Level.MODERATE, level -> onFxAndWait(() -> {
+                if (!prerenderer.isActive()) {
+                    return null;
+                }
+                prerenderer.cancel();
+                return "dropped the hidden page";
+            }));
+        }
+        memoryGovernor.addResponder("tabs", MemoryGovernor.Level.HIGH, level -> onFxAndWait(() -> {
+            int discarded = discardBackgroundTabs(level == MemoryGovernor.Level.CRITICAL ? Integer.MAX_VALUE : 1);
+            return discarded > 0 ? "discarded " + discarded + " background tab(s)" : null;
+        }));
+        memoryGovernor.start();
+    }
+
+    /**
+     * Unload the least recently used background tabs. They keep their URL and reload when selected.
+     * @param max The most tabs to discard
+     * @return The number of tabs discarded
+     */
+    private int discardBackgroundTabs(int max) {
+        List<Tab> candidates = new java.util.ArrayList<>();
+        for (BrowserWindow window : windows) {
+            for (Tab tab : window.tabPane.getTabs()) {
+                TabState state = (TabState) tab.getUserData();
+                if (!tab.isSelected() && state.discardedUrl == null) {
+                    candidates.add(tab);
+                }
+            }
+        }
+        candidates.sort(java.util.Comparator.comparingLong(tab -> ((TabState) tab.getUserData()).lastSelected));
+        int discarded = 0;
+        for (Tab tab : candidates.subList(0, Math.min(max, candidates.size()))) {
+            discardTab(tab);
+            discarded++;
+        }
+        return discarded;
     }
 
-    private ToolBar createToolbar() {
+    /**
+     * Unload a background tab's page; it is loaded again when the tab is selected
+     */
+    private void discardTab(Tab tab) {
+        TabState state = (TabState) tab.getUserData();
+        WebEngine engine = getWebView(tab).getEngine();
+        state.discardedUrl = engine.getLocation();
+        engine.getLoadWorker().cancel();
+        // Replacing the page frees its DOM, images and script heap
+        engine.loadContent("");
+    }
+
+    private static String onFxAndWait(java.util.concurrent.Callable<String> task) {
+        java.util.concurrent.FutureTask<String> future = new java.util.concurrent.FutureTask<>(task);
+        javafx.application.Platform.runLater(future);
+        try {
+            return future.get(10, java.util.concurrent.TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return "failed: " + e;
+        }
+    }
+
+    /**
+     * Run a change listener on the FX thread, for listeners that update dialogs
+     */
+    private static java.util.function.Consumer<List<DatabaseChange>> onFxThread(
+            java.util.function.Consumer<List<DatabaseChange>> listener) {
+        return changes -> javafx.application.Platform.runLater(() -> listener.accept(changes));
+    }
+
+    private void onFirstPageLoaded() {
+        StartupTimeline.mark(StartupTimeline.FIRST_PAGE);
+        if (StartupTimeline.isPrintEnabled()) {
+            System.out.println(StartupTimeline.getStatisticsAsString());
+        }
+        if (StartupTimeline.isExitAfterFirstPage()) {
+            javafx.application.Platform.exit();
+        }
+    }
+
+    @Override
+    public void stop() {
+        // Let pending history writes finish before the connection goes away
+        visitRecorder.flush();
+        storageExecutor.shutdown();
+        navigationPredictor.shutdown();
+        memoryGovernor.shutdown();
+        System.out.println(visitRecorder.getStatisticsAsString());
+        System.out.println(tabSampler.getStatisticsAsString());
+        System.out.println(tabThrottler.getStatisticsAsString());
+        System.out.println(renderCacheTuner.getStatisticsAsString());
+        if (frameMonitor != null) {
+            frameMonitor.stop();
+            System.out.println(frameMonitor.getStatisticsAsString());
+        }
+        System.out.println(memoryGovernor.getStatisticsAsString());
+        System.out.println(navigationPredictor.getStatisticsAsString());
+        if (prerenderer != null) {
+            System.out.println(prerenderer.getStatisticsAsString());
+        }
+        System.out.println(responseCache.getStatisticsAsString());
+        System.out.println(features.getStatisticsAsString());
+        DownloadManager downloads = getDownloadManager();
+        System.out.println(downloads.getStatisticsAsString());
+        downloads.shutdown();
+        System.out.println(pageArchive.getStatisticsAsString());
+        pageArchive.close();
+        System.out.println(faviconCache.getStatisticsAsString());
+        faviconCache.shutdown();
+        responseCache.close();
+        if (cookieStore != null) {
+            cookieStore.close();
+            System.out.println(cookieStore.getStatisticsAsString());
+        }
+        if (syncJournal != null) {
+            // Send the last changes before the journal is closed with the database
+            SyncManager sync = features.get(SyncManager.class);
+            sync.shutdown();
+            System.out.println(sync.getStatisticsAsString());
+        }
+        if (changeWatcher != null) {
+            System.out.println(changeWatcher.getStatisticsAsString());
+        }
+        dbManager.close();
+    }
+
+    private ToolBar createToolbar(BrowserWindow window) {
         Button backBtn = new Button("Back");
         Button forwardBtn = new Button("Forward");
         Button reloadBtn = new Button("Reload");
         Button homeBtn = new Button("Home");
         Button newTabBtn = new Button("Newtab");
+        Button newWindowBtn = new Button("New Window");
         Button bookmarkBtn = new Button("Add Bookmark");
+        Button saveOfflineBtn = new Button("Save Offline");
         Button viewBookmarksBtn = new Button("Bookmarks");
         Button viewHistoryBtn = new Button("History");
+        Button viewDownloadsBtn = new Button("Downloads");
+        Button taskManagerBtn = new Button("Tasks");
         Button darkModeBtn = new Button("Toggle");
 
-        backBtn.setOnAction(e -> getCurrentWebView().getEngine().executeScript("history.back()"));
-        forwardBtn.setOnAction(e -> getCurrentWebView().getEngine().executeScript("history.forward()"));
-        reloadBtn.setOnAction(e -> getCurrentWebView().getEngine().reload());
-        homeBtn.setOnAction(e -> getCurrentWebView().getEngine().load(defaultHomepage));
-        newTabBtn.setOnAction(e -> addNewTab(defaultHomepage, "New Tab"));
-        bookmarkBtn.setOnAction(e -> addBookmark());
-        viewBookmarksBtn.setOnAction(e -> showBookmarksDialog());
-        viewHistoryBtn.setOnAction(e -> showHistoryDialog());
+        // Toolbar buttons act on their own window, dialogs on the window that opened them
+        backBtn.setOnAction(e -> {
+            activeWindow = window;
+            expectTransition(HistoryVisit.Transition.BACK_FORWARD);
+            getCurrentWebView().getEngine().executeScript("history.back()");
+        });
+        forwardBtn.setOnAction(e -> {
+            activeWindow = window;
+            expectTransition(HistoryVisit.Transition.BACK_FORWARD);
+            getCurrentWebView().getEngine().executeScript("history.forward()");
+        });
+        reloadBtn.setOnAction(e -> {
+            activeWindow = window;
+            expectTransition(HistoryVisit.Transition.RELOAD);
+            getCurrentWebView().getEngine().reload();
+        });
+        homeBtn.setOnAction(e -> {
+            activeWindow = window;
+            navigateCurrentTab(defaultHomepage, HistoryVisit.Transition.BOOKMARK);
+        });
+        newTabBtn.setOnAction(e -> addNewTab(window, defaultHomepage, "New Tab"));
+        newWindowBtn.setOnAction(e -> openWindow(defaultHomepage));
+        bookmarkBtn.setOnAction(e -> {
+            activeWindow = window;
+            addBookmark();
+        });
+        saveOfflineBtn.setOnAction(e -> {
+            activeWindow = window;
+            saveCurrentPageOffline();
+        });
+        viewBookmarksBtn.setOnAction(e -> {
+            activeWindow = window;
+            showBookmarksDialog();
+        });
+        viewHistoryBtn.setOnAction(e -> {
+            activeWindow = window;
+            showHistoryDialog();
+        });
+        viewDownloadsBtn.setOnAction(e -> showDownloadsDialog());
+        taskManagerBtn.setOnAction(e -> showTaskManager());
         darkModeBtn.setOnAction(e -> toggleDarkMode());
 
         ToolBar toolbar = new ToolBar(
                 backBtn, forwardBtn, reloadBtn, homeBtn,
-                newTabBtn, bookmarkBtn, viewBookmarksBtn, viewHistoryBtn, darkModeBtn
+                newTabBtn, newWindowBtn, bookmarkBtn, saveOfflineBtn, viewBookmarksBtn, viewHistoryBtn, viewDownloadsBtn, taskManagerBtn, darkModeBtn
         );
         toolbar.setPadding(new Insets(6));
         return toolbar;
     }
 
-    private void addNewTab(String url, String title) {
+    void addNewTab(String url, String title) {
+        addNewTab(activeWindow, url, title);
+    }
+
+    private void addNewTab(BrowserWindow window, String url, String title) {
+        NitronEvents.NewTabEvent tabEvent = new NitronEvents.NewTabEvent();
+        tabEvent.begin();
+        String tabId = "tab-" + (++tabCounter);
         WebView webView = new WebView();
-        WebEngine engine = webView.getEngine();
-        engine.load(url);
 
         TextField urlBar = new TextField(url);
         urlBar.setPromptText("Enter URL and press Enter");
+
+        VBox tabContent = new VBox(urlBar, webView);
+        VBox.setVgrow(webView, Priority.ALWAYS);
+
+        Tab tab = new Tab(title, tabContent);
+        TabState state = new TabState(tabId, urlBar);
+        state.window = window;
+        tab.setUserData(state);
+        tab.setTooltip(state.blockedTooltip);
+        tab.setGraphic(state.icon);
+        tab.setContextMenu(createTabMenu(tab));
+        tab.setOnSelectionChanged(e -> {
+            visitRecorder.tabSelected(tabId, tab.isSelected());
+            if (state.discardedUrl == null) {
+                tabThrottler.setBackground(getWebView(tab).getEngine(), !tab.isSelected());
+            }
+            if (tab.isSelected()) {
+                state.lastSelected = System.nanoTime();
+                if (state.discardedUrl != null) {
+                    // Bring back a tab the memory governor discarded
+                    String restoreUrl = state.discardedUrl;
+                    state.discardedUrl = null;
+                    getWebView(tab).getEngine().load(restoreUrl);
+                }
+            }
+        });
+
         urlBar.setOnKeyPressed(event -> {
             if (event.getCode() == KeyCode.ENTER) {
                 String inputUrl = urlBar.getText().trim();
-                if (!inputUrl.startsWith("http://") && !inputUrl.startsWith("https://")) {
+                if (!inputUrl.startsWith("http://") && !inputUrl.startsWith("https://")
+                        && !inputUrl.startsWith(NitronURLStreamHandlerFactory.INTERNAL_SCHEME + "://")
+                        && !inputUrl.startsWith(PageArchive.OFFLINE_SCHEME + "://")) {
                     inputUrl = "https://" + inputUrl;
                 }
-                engine.load(inputUrl);
+                visitRecorder.expectTransition(tabId, HistoryVisit.Transition.TYPED);
+                navigate(tab, inputUrl);
             }
         });
 
+        attachWebView(tab, webView);
+
+        tab.setOnClosed(e -> {
+            releaseTab(tab);
+            BrowserWindow current = state.window;
+            if (current.tabPane.getTabs().isEmpty()) {
+                // Close an emptied window while others remain; otherwise open a new home tab
+                if (windows.size() > 1) {
+                    current.stage.close();
+                } else {
+                    addNewTab(current, defaultHomepage, "Home");
+                }
+            }
+        });
+
+        window.tabPane.getTabs().add(tab);
+        window.tabPane.getSelectionModel().select(tab);
+        contentBlocker.setTabPage(tabId, url);
+        visitRecorder.expectTransition(tabId, HistoryVisit.Transition.NEW_TAB);
+        webView.getEngine().load(url);
+        tabEvent.url = url;
+        tabEvent.tabs = window.tabPane.getTabs().size();
+        tabEvent.commit();
+    }
+
+    private void releaseTab(Tab tab) {
+        TabState state = (TabState) tab.getUserData();
+        contentBlocker.clearTab(state.tabId);
+        visitRecorder.tabClosed(state.tabId);
+    }
+
+    /**
+     * The tab's right-click menu for moving it to another window
+     */
+    private ContextMenu createTabMenu(Tab tab) {
+        ContextMenu menu = new ContextMenu();
+        menu.setOnShowing(e -> {
+            MenuItem newWindow = new MenuItem("Move to New Window");
+            newWindow.setOnAction(event -> moveTab(tab, null));
+            menu.getItems().setAll(newWindow);
+            TabState state = (TabState) tab.getUserData();
+            for (BrowserWindow window : windows) {
+                if (window != state.window) {
+                    MenuItem item = new MenuItem("Move to " + window.stage.getTitle());
+                    item.setOnAction(event -> moveTab(tab, window));
+                    menu.getItems().add(item);
+                }
+            }
+            String location = getWebView(tab).getEngine().getLocation();
+            if (location != null && (location.startsWith("http://") || location.startsWith("https://"))) {
+                CheckMenuItem keepRunning = new CheckMenuItem("Keep " + getDomain(location) + " Running in Background");
+                keepRunning.setSelected(tabThrottler.isExempt(location));
+                keepRunning.setOnAction(event -> {
+                    tabThrottler.setExempt(location, keepRunning.isSelected());
+                    storageExecutor.execute(tabThrottler::save);
+                    updateThrottling();
+                });
+                menu.getItems().addAll(new SeparatorMenuItem(), keepRunning);
+            }
+        });
+        // A menu needs an item before it is first shown
+        menu.getItems().add(new MenuItem("Move to New Window"));
+        return menu;
+    }
+
+    /**
+     * Re-apply throttling to every loaded tab after the setting or an exemption changed
+     */
+    private void updateThrottling() {
+        for (BrowserWindow window : windows) {
+            for (Tab tab : window.tabPane.getTabs()) {
+                if (((TabState) tab.getUserData()).discardedUrl == null) {
+                    tabThrottler.prepare(getWebView(tab).getEngine(), !tab.isSelected());
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn background tab throttling on or off. Used by NitronBenchmark to measure what it saves.
+     * @param enabled true to throttle background tabs
+     */
+    void setTabThrottling(boolean enabled) {
+        tabThrottler.setEnabled(enabled);
+        updateThrottling();
+    }
+
+    /**
+     * Check whether background tabs are throttled
+     * @return true if enabled
+     */
+    boolean isTabThrottling() {
+        return tabThrottler.isEnabled();
+    }
+
+    /**
+     * Turn node caching during scroll and resize on or off. Used by NitronBenchmark to compare frame times.
+     * @param enabled true to cache
+     */
+    void setRenderCache(boolean enabled) {
+        renderCacheTuner.setEnabled(enabled);
+    }
+
+    /**
+     * Check whether nodes are cached during scroll and resize
+     * @return true if enabled
+     */
+    boolean isRenderCache() {
+        return renderCacheTuner.isEnabled();
+    }
+
+    /**
+     * Wire a WebView to its tab. Used for new tabs and when a prerendered
+     * WebView replaces the tab's current one.
+     */
+    private void attachWebView(Tab tab, WebView webView) {
+        TabState state = (TabState) tab.getUserData();
+        WebEngine engine = webView.getEngine();
+        renderCacheTuner.attach(webView);
+
         engine.locationProperty().addListener((obs, oldLoc, newLoc) -> {
-            urlBar.setText(newLoc);
-            Tab tab = tabPane.getSelectionModel().getSelectedItem();
-            if (tab != null) {
-                tab.setText(getDomain(newLoc));
+            // Ignore late events from a WebView that has been swapped out or a discarded tab
+            if (getWebView(tab) == webView && state.discardedUrl == null) {
+                onLocationChanged(tab, engine, newLoc);
             }
-            // Add to history
-            if (dbManager != null && newLoc != null && !newLoc.isEmpty()) {
-                dbManager.addHistory(newLoc);
+        });
+
+        engine.documentProperty().addListener((obs, oldDoc, newDoc) -> {
+            // Take over the page's timers before its own scripts start them
+            if (newDoc != null && getWebView(tab) == webView && state.discardedUrl == null) {
+                tabThrottler.prepare(engine, !tab.isSelected());
             }
-            // Apply theme to the loaded webpage
-            applyWebpageTheme(engine);
         });
-        
+
+        // Time every navigation and teach the predictor which loads were fast
+        pageLoadTimer.track(engine, record -> {
+            if (getWebView(tab) != webView || state.discardedUrl != null) {
+                return;
+            }
+            state.lastLoadMillis = record.getTotalMillis();
+            state.loadCount++;
+            if (!StartupTimeline.isMarked(StartupTimeline.FIRST_PAGE)) {
+                onFirstPageLoaded();
+            }
+            if ("SUCCEEDED".equals(record.getState())) {
+                navigationPredictor.recordNavigation(record.getUrl(), record.getTotalMillis());
+            }
+        });
+
         // Also apply theme when page finishes loading
         engine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
+            if (getWebView(tab) != webView || state.discardedUrl != null) {
+                return;
+            }
+            if (newState == javafx.concurrent.Worker.State.SUCCEEDED || newState == javafx.concurrent.Worker.State.FAILED) {
+                visitRecorder.loadFinished(state.tabId, engine.getLocation());
+            } else if (newState == javafx.concurrent.Worker.State.CANCELLED) {
+                visitRecorder.loadCancelled(state.tabId);
+            }
+            if (newState == javafx.concurrent.Worker.State.RUNNING) {
+                // Attribute blocked subresources to the tab whose page requested them
+                String location = engine.getLocation();
+                contentBlocker.setTabPage(state.tabId, location);
+                if (DownloadManager.hasDownloadExtension(location)) {
+                    // Archives and installers never render; save them instead
+                    javafx.application.Platform.runLater(() -> {
+                        state.cancelRequested = true;
+                        engine.getLoadWorker().cancel();
+                        startDownload(location);
+                    });
+                }
+            } else if (newState == javafx.concurrent.Worker.State.FAILED && pageArchive.isSaved(engine.getLocation())) {
+                // Offline or the site is down: show the saved copy instead
+                engine.load(PageArchive.toOfflineUrl(engine.getLocation()));
+            } else if (newState == javafx.concurrent.Worker.State.CANCELLED && !state.cancelRequested) {
+                // WebView stops loads it will not render, such as attachments, without reporting an
+                // error. Skip loads that were stopped because another one replaced them.
+                String location = engine.getLocation();
+                javafx.application.Platform.runLater(() -> {
+                    if (engine.getLoadWorker().getState() == javafx.concurrent.Worker.State.CANCELLED
+                            && location != null && location.equals(engine.getLocation())) {
+                        downloadIfAttachment(location);
+                    }
+                });
+            } else if (newState == javafx.concurrent.Worker.State.SUCCEEDED && engine.getDocument() == null) {
+                // WebView could not show the response; ask the server whether it is a file
+                downloadIfAttachment(engine.getLocation());
+            }
+            if (newState == javafx.concurrent.Worker.State.CANCELLED) {
+                state.cancelRequested = false;
+            }
             if (newState == javafx.concurrent.Worker.State.SUCCEEDED) {
                 applyWebpageTheme(engine);
+                fetchFavicon(tab, engine);
+                tabThrottler.prepare(engine, !tab.isSelected());
+                if (taskManagerDialog != null && taskManagerDialog.isShowing()) {
+                    tabSampler.hookTimers(engine);
+                }
+                state.blockedTooltip.setText(String.format("Blocked %d requests (~%.1f s saved)",
+                        contentBlocker.getBlockedCount(state.tabId),
+                        contentBlocker.getEstimatedTimeSavedMillis(state.tabId) / 1000.0));
+                if (prerenderer != null && tab.isSelected()) {
+                    prerenderer.schedulePrediction();
+                }
             }
         });
+    }
 
-        VBox tabContent = new VBox(urlBar, webView);
-        VBox.setVgrow(webView, Priority.ALWAYS);
+    private void downloadIfAttachment(String location) {
+        getDownloadManager().downloadIfAttachment(location).thenAccept(download -> {
+            if (download != null) {
+                javafx.application.Platform.runLater(this::showDownloadsDialog);
+            }
+        });
+    }
 
-        Tab tab = new Tab(title, tabContent);
-        tab.setOnClosed(e -> {
-            // If all tabs are closed, open a new home tab
-            if (tabPane.getTabs().isEmpty()) {
-                addNewTab(defaultHomepage, "Home");
+    private void onLocationChanged(Tab tab, WebEngine engine, String newLoc) {
+        TabState state = (TabState) tab.getUserData();
+        state.urlBar.setText(newLoc);
+        tab.setText(getDomain(newLoc));
+        state.icon.setImage(faviconCache.get(newLoc));
+        // Add to history once the page settles
+        visitRecorder.locationChanged(state.tabId, newLoc);
+        contentBlocker.setTabPage(state.tabId, newLoc);
+        // Apply theme to the loaded webpage
+        applyWebpageTheme(engine);
+    }
+
+    /**
+     * Show the icon of the page a tab has loaded, fetching it if this host's icon is not stored yet
+     */
+    private void fetchFavicon(Tab tab, WebEngine engine) {
+        String location = engine.getLocation();
+        String host = FaviconCache.hostOf(location);
+        if (host == null) {
+            return;
+        }
+        String iconUrl = null;
+        try {
+            Object href = engine.executeScript(FAVICON_LINK_SCRIPT);
+            iconUrl = href instanceof String ? (String) href : null;
+        } catch (RuntimeException e) {
+            // Not an HTML document; fall back to /favicon.ico
+        }
+        TabState state = (TabState) tab.getUserData();
+        faviconCache.fetch(location, iconUrl, image -> {
+            // The tab may have moved on to another site while the icon was fetched
+            if (host.equals(FaviconCache.hostOf(getWebView(tab).getEngine().getLocation()))) {
+                state.icon.setImage(image);
             }
         });
+    }
+
+    /**
+     * Load a URL in a tab, using the prerendered page when the prediction was right
+     */
+    private void navigate(Tab tab, String url) {
+        WebView prerendered = prerenderer != null ? prerenderer.take(url) : null;
+        if (prerendered == null) {
+            getWebView(tab).getEngine().load(url);
+            return;
+        }
+        WebView previous = getWebView(tab);
+        VBox content = (VBox) tab.getContent();
+        content.getChildren().set(1, prerendered);
+        VBox.setVgrow(prerendered, Priority.ALWAYS);
+        previous.getEngine().getLoadWorker().cancel();
+        previous.getEngine().loadContent("");
+        attachWebView(tab, prerendered);
+        // The page is already loaded, so record the visit the listeners missed
+        onLocationChanged(tab, prerendered.getEngine(), prerendered.getEngine().getLocation());
+        visitRecorder.loadFinished(((TabState) tab.getUserData()).tabId, prerendered.getEngine().getLocation());
+    }
 
-        tabPane.getTabs().add(tab);
-        tabPane.getSelectionModel().select(tab);
+    void navigateCurrentTab(String url) {
+        Tab currentTab = getCurrentTab();
+        if (currentTab != null) {
+            navigate(currentTab, url);
+        }
+    }
+
+    private void navigateCurrentTab(String url, HistoryVisit.Transition transition) {
+        expectTransition(transition);
+        navigateCurrentTab(url);
     }
 
-    private WebView getCurrentWebView() {
-        Tab currentTab = tabPane.getSelectionModel().getSelectedItem();
+    /**
+     * Tell the visit recorder how the current tab's next navigation was started
+     */
+    private void expectTransition(HistoryVisit.Transition transition) {
+        Tab currentTab = getCurrentTab();
         if (currentTab != null) {
-            VBox content = (VBox) currentTab.getContent();
-            return (WebView) content.getChildren().get(1);
+            visitRecorder.expectTransition(((TabState) currentTab.getUserData()).tabId, transition);
+        }
+    }
+
+    private WebView getWebView(Tab tab) {
+        VBox content = (VBox) tab.getContent();
+        return (WebView) content.getChildren().get(1);
+    }
+
+    /**
+     * Get the selected tab of the window the user last worked in
+     */
+    private Tab getCurrentTab() {
+        return activeWindow != null ? activeWindow.tabPane.getSelectionModel().getSelectedItem() : null;
+    }
+
+    WebView getCurrentWebView() {
+        Tab currentTab = getCurrentTab();
+        if (currentTab != null) {
+            return getWebView(currentTab);
         }
         return null;
     }
 
+    /**
+     * Get the open tabs of the current window, in display order
+     */
+    List<Tab> getTabs() {
+        return activeWindow.tabPane.getTabs();
+    }
+
+    /**
+     * Get the number of open windows
+     */
+    int getWindowCount() {
+        return windows.size();
+    }
+
+    /**
+     * Close every window except the current one
+     */
+    void closeOtherWindows() {
+        for (BrowserWindow window : new java.util.ArrayList<>(windows)) {
+            if (window != activeWindow) {
+                window.stage.close();
+            }
+        }
+    }
+
+    /**
+     * Move the current tab into a new window
+     */
+    void moveCurrentTabToNewWindow() {
+        Tab currentTab = getCurrentTab();
+        if (currentTab != null) {
+            moveTab(currentTab, null);
+        }
+    }
+
+    /**
+     * Close a tab the same way its close button does
+     */
+    void closeTab(Tab tab) {
+        ((TabState) tab.getUserData()).window.tabPane.getTabs().remove(tab);
+        if (tab.getOnClosed() != null) {
+            tab.getOnClosed().handle(new javafx.event.Event(Tab.CLOSED_EVENT));
+        }
+    }
+
+    private boolean isAnyVisibleTabLoading() {
+        for (BrowserWindow window : windows) {
+            Tab selected = window.tabPane.getSelectionModel().getSelectedItem();
+            if (selected != null && getWebView(selected).getEngine().getLoadWorker().isRunning()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A browser window: its stage, toolbar and tabs. Storage, caches and feature managers
+     * belong to the browser and are shared by every window.
+     */
+    private final class BrowserWindow {
+        private final Stage stage;
+        private final BorderPane root = new BorderPane();
+        private final TabPane tabPane = new TabPane();
+        private final ToolBar navToolbar;
+
+        private BrowserWindow(Stage stage, int number) {
+            this.stage = stage;
+            tabPane.setTabClosingPolicy(TabClosingPolicy.ALL_TABS);
+            navToolbar = createToolbar(this);
+            root.setTop(navToolbar);
+            root.setCenter(tabPane);
+            stage.setTitle(number == 1 ? "Nitron Browser" : "Nitron Browser (" + number + ")");
+            stage.setScene(new Scene(root, 1200, 800));
+            stage.focusedProperty().addListener((obs, wasFocused, focused) -> {
+                if (focused) {
+                    activeWindow = this;
+                }
+            });
+            stage.setOnCloseRequest(e -> onWindowCloseRequest(this));
+            stage.setOnHidden(e -> onWindowClosed(this));
+        }
+    }
+
+    /**
+     * Per-tab state kept in the tab's user data
+     */
+    private static final class TabState {
+        private final String tabId;
+        private final TextField urlBar;
+        private final Tooltip blockedTooltip = new Tooltip();
+        private final ImageView icon = new ImageView();
+        private long lastSelected = System.nanoTime();
+        private String discardedUrl;
+        // Set when the browser itself stops the load, so the stop is not taken for a refused response
+        private boolean cancelRequested;
+        // The window the tab is in; changes when the tab is moved
+        private BrowserWindow window;
+        // Duration and number of finished loads, for the task manager
+        private long lastLoadMillis = -1;
+        private int loadCount;
+
+        private TabState(String tabId, TextField urlBar) {
+            this.tabId = tabId;
+            this.urlBar = urlBar;
+        }
+    }
+
     private void addBookmark() {
         WebView webView = getCurrentWebView();
         if (webView != null) {
             String url = webView.getEngine().getLocation();
-            try {
-                bookmarkManager.addBookmark(url);
-                showAlert("Bookmark Added", "Bookmarked: " + url);
-            } catch (InvalidURLException e) {
-                showAlert("Error", "Failed to bookmark: " + e.getMessage());
+            storageExecutor.submit(() -> {
+                features.get(BookmarkManager.class).addBookmark(url);
+                return url;
+            }, added -> showAlert("Bookmark Added", "Bookmarked: " + added),
+               error -> showAlert("Error", "Failed to bookmark: " + error.getMessage()));
+        }
+    }
+
+    private void saveCurrentPageOffline() {
+        WebView webView = getCurrentWebView();
+        String url = webView != null ? webView.getEngine().getLocation() : null;
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            showAlert("Save Offline", "Only web pages can be saved for offline use");
+            return;
+        }
+        pageArchive.saveAsync(url).whenComplete((count, error) -> javafx.application.Platform.runLater(() -> {
+            if (error != null) {
+                showAlert("Error", "Failed to save page: " + error.getMessage());
+            } else {
+                showAlert("Saved Offline", "Saved " + url + " with " + (count - 1) + " resources");
             }
+        }));
+    }
+
+    private void startDownload(String url) {
+        if (getDownloadManager().download(url) != null) {
+            showDownloadsDialog();
         }
     }
 
-    private void showBookmarksDialog() {
-        List<String> bookmarks = dbManager.getBookmarks();
-        ObservableList<String> items = FXCollections.observableArrayList(bookmarks);
-        ListView<String> listView = new ListView<>(items);
-        listView.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
+    DownloadManager getDownloadManager() {
+        return features.get(DownloadManager.class);
+    }
+
+    void showDownloadsDialog() {
+        if (downloadsDialog != null) {
+            downloadsDialog.show();
+            downloadsDialog.toFront();
+            return;
+        }
+        DownloadManager downloads = getDownloadManager();
+        ObservableList<Download> items = FXCollections.observableArrayList(downloads.getDownloads());
+        ListView<Download> listView = new ListView<>(items);
+        listView.setPlaceholder(new Label("No downloads"));
+        listView.setCellFactory(lv -> new DownloadCell(downloads, items));
+
+        // Downloads change on their own threads; poll them rather than wiring listeners into every segment
+        javafx.animation.Timeline refresh = new javafx.animation.Timeline(new javafx.animation.KeyFrame(
+                javafx.util.Duration.millis(500), e -> {
+                    List<Download> current = downloads.getDownloads();
+                    if (!current.equals(items)) {
+                        items.setAll(current);
+                    }
+                    listView.refresh();
+                }));
+        refresh.setCycleCount(javafx.animation.Animation.INDEFINITE);
+
+        Label location = new Label("Saved to " + downloads.getDirectory());
+        location.setStyle("-fx-font-style: italic;");
+        VBox content = new VBox(8, location, listView);
+        content.setPadding(new Insets(10));
+        VBox.setVgrow(listView, Priority.ALWAYS);
+
+        downloadsDialog = new Stage();
+        downloadsDialog.setTitle("Downloads");
+        downloadsDialog.setScene(new Scene(content, 560, 360));
+        downloadsDialog.setOnShown(e -> refresh.play());
+        downloadsDialog.setOnHidden(e -> refresh.stop());
+        downloadsDialog.show();
+    }
+
+    /**
+     * A row of the downloads dialog: name, progress, speed and pause, resume and cancel buttons
+     */
+    private static final class DownloadCell extends ListCell<Download> {
+        private final Label name = new Label();
+        private final ProgressBar progress = new ProgressBar(0);
+        private final Label status = new Label();
+        private final Button pauseResume = new Button();
+        private final Button cancel = new Button("Cancel");
+        private final VBox content;
+
+        private DownloadCell(DownloadManager downloads, ObservableList<Download> items) {
+            progress.setMaxWidth(Double.MAX_VALUE);
+            HBox buttons = new HBox(6, pauseResume, cancel);
+            content = new VBox(4, name, progress, new HBox(10, status, buttons));
+            pauseResume.setOnAction(e -> {
+                Download download = getItem();
+                if (download.getState() == Download.State.RUNNING || download.getState() == Download.State.QUEUED) {
+                    download.pause();
+                } else {
+                    downloads.resume(download);
+                }
+            });
+            cancel.setOnAction(e -> {
+                Download download = getItem();
+                downloads.remove(download);
+                items.remove(download);
+            });
+        }
+
+        @Override
+        protected void updateItem(Download download, boolean empty) {
+            super.updateItem(download, empty);
+            if (empty || download == null) {
+                setGraphic(null);
+                return;
+            }
+            long total = download.getTotalBytes();
+            long done = download.getDownloadedBytes();
+            name.setText(download.getFileName());
+            progress.setProgress(download.getState() == Download.State.COMPLETED ? 1
+                    : total > 0 ? done / (double) total : ProgressBar.INDETERMINATE_PROGRESS);
+            String size = total > 0 ? String.format("%.1f of %.1f MB", done / 1048576.0, total / 1048576.0)
+                    : String.format("%.1f MB", done / 1048576.0);
+            switch (download.getState()) {
+                case RUNNING:
+                    status.setText(String.format("%s, %.1f MB/s, %d connection(s)", size,
+                            download.getBytesPerSecond() / 1048576.0, download.getSegmentCount()));
+                    break;
+                case FAILED:
+                    status.setText("Failed: " + download.getError());
+                    break;
+                default:
+                    status.setText(download.getState() == Download.State.COMPLETED
+                            ? "Done, " + size : download.getState().toString().charAt(0)
+                            + download.getState().toString().substring(1).toLowerCase() + ", " + size);
+            }
+            boolean active = download.getState() == Download.State.RUNNING || download.getState() == Download.State.QUEUED;
+            boolean finished = download.getState() == Download.State.COMPLETED || download.getState() == Download.State.CANCELLED;
+            pauseResume.setText(active ? "Pause" : download.getState() == Download.State.FAILED ? "Retry" : "Resume");
+            pauseResume.setVisible(!finished);
+            cancel.setText(finished ? "Remove" : "Cancel");
+            setGraphic(content);
+        }
+    }
+
+    /**
+     * Show what each tab costs, sampled every few seconds while the window is open.
+     * Background tabs are sampled once per page load and discarded tabs not at all, so the
+     * cost of sampling follows the number of visible tabs.
+     */
+    void showTaskManager() {
+        if (taskManagerDialog != null) {
+            taskManagerDialog.show();
+            taskManagerDialog.toFront();
+            return;
+        }
+        ObservableList<TaskRow> rows = FXCollections.observableArrayList();
+        TableView<TaskRow> table = new TableView<>(rows);
+        table.setPlaceholder(new Label("No tabs"));
+        renderCacheTuner.attach(table);
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        TableColumn<TaskRow, String> titleColumn = new TableColumn<>("Tab");
+        titleColumn.setCellValueFactory(c -> new javafx.beans.property.ReadOnlyStringWrapper(c.getValue().title));
+        titleColumn.setPrefWidth(200);
+        TableColumn<TaskRow, String> windowColumn = new TableColumn<>("Window");
+        windowColumn.setCellValueFactory(c -> new javafx.beans.property.ReadOnlyStringWrapper(c.getValue().window));
+        TableColumn<TaskRow, String> stateColumn = new TableColumn<>("State");
+        stateColumn.setCellValueFactory(c -> new javafx.beans.property.ReadOnlyStringWrapper(c.getValue().state));
+        table.getColumns().addAll(List.of(titleColumn, windowColumn, stateColumn,
+                taskColumn("DOM Elements", row -> row.elements, String::valueOf),
+                taskColumn("JS Heap", row -> row.jsHeapBytes, bytes -> String.format("%.1f MB", bytes / 1048576.0)),
+                taskColumn("Timers", row -> row.timers, String::valueOf),
+                taskColumn("Last Load", row -> row.lastLoadMillis, millis -> millis + " ms")));
+
+        Label jvmStats = new Label();
+        Label overhead = new Label();
+        overhead.setStyle("-fx-font-style: italic;");
+        Button switchBtn = new Button("Switch To");
+        Button reloadBtn = new Button("Reload");
+        Button discardBtn = new Button("Discard");
+        switchBtn.setOnAction(e -> {
+            TaskRow row = table.getSelectionModel().getSelectedItem();
+            if (row != null) {
+                TabState state = (TabState) row.tab.getUserData();
+                state.window.tabPane.getSelectionModel().select(row.tab);
+                state.window.stage.toFront();
+            }
+        });
+        reloadBtn.setOnAction(e -> {
+            TaskRow row = table.getSelectionModel().getSelectedItem();
+            if (row == null) {
+                return;
+            }
+            TabState state = (TabState) row.tab.getUserData();
+            if (state.discardedUrl != null) {
+                String restoreUrl = state.discardedUrl;
+                state.discardedUrl = null;
+                getWebView(row.tab).getEngine().load(restoreUrl);
+            } else {
+                visitRecorder.expectTransition(state.tabId, HistoryVisit.Transition.RELOAD);
+                getWebView(row.tab).getEngine().reload();
+            }
+        });
+        discardBtn.setOnAction(e -> {
+            TaskRow row = table.getSelectionModel().getSelectedItem();
+            if (row != null && !row.tab.isSelected() && ((TabState) row.tab.getUserData()).discardedUrl == null) {
+                discardTab(row.tab);
+            }
+        });
+        // The selected tab of a window is on screen and cannot be discarded
+        table.getSelectionModel().selectedItemProperty().addListener((obs, old, row) ->
+                discardBtn.setDisable(row == null || row.tab.isSelected()));
+
+        javafx.animation.PauseTransition nextPass = new javafx.animation.PauseTransition();
+        nextPass.setOnFinished(e -> {
+            long interval = sampleTabs(rows, table, jvmStats);
+            overhead.setText(tabSampler.getOverheadAsString());
+            nextPass.setDuration(javafx.util.Duration.millis(interval));
+            nextPass.playFromStart();
+        });
+
+        HBox actions = new HBox(8, switchBtn, reloadBtn, discardBtn);
+        VBox content = new VBox(8, jvmStats, table, actions, overhead);
+        content.setPadding(new Insets(10));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        taskManagerDialog = new Stage();
+        taskManagerDialog.setTitle("Task Manager");
+        taskManagerDialog.setScene(new Scene(content, 820, 420));
+        renderCacheTuner.attachWindow(taskManagerDialog);
+        taskManagerDialog.setOnShown(e -> {
+            // Timers are counted from the moment the task manager opens
+            for (BrowserWindow window : windows) {
+                for (Tab tab : window.tabPane.getTabs()) {
+                    tabSampler.hookTimers(getWebView(tab).getEngine());
+                }
+            }
+            rows.clear();
+            nextPass.setDuration(javafx.util.Duration.ZERO);
+            nextPass.playFromStart();
+        });
+        taskManagerDialog.setOnHidden(e -> nextPass.stop());
+        taskManagerDialog.show();
+    }
+
+    private static TableColumn<TaskRow, Number> taskColumn(String title, java.util.function.ToLongFunction<TaskRow> value,
+                                                          java.util.function.LongFunction<String> format) {
+        TableColumn<TaskRow, Number> column = new TableColumn<>(title);
+        column.setCellValueFactory(c -> new javafx.beans.property.ReadOnlyLongWrapper(value.applyAsLong(c.getValue())));
+        column.setCellFactory(c -> new TableCell<>() {
+            @Override
+            protected void updateItem(Number number, boolean empty) {
+                super.updateItem(number, empty);
+                setText(empty || number == null ? null : number.longValue() < 0 ? "n/a" : format.apply(number.longValue()));
+            }
+        });
+        column.setStyle("-fx-alignment: CENTER-RIGHT;");
+        return column;
+    }
 
+    /**
+     * One task manager pass: sample the visible tabs, and background tabs whose page changed
+     * since their last sample, then update the table in place so sorting and selection survive
+     * @return Milliseconds until the next pass
+     */
+    private long sampleTabs(ObservableList<TaskRow> rows, TableView<TaskRow> table, Label jvmStats) {
+        tabSampler.beginPass();
+        Map<Tab, TaskRow> existing = new java.util.IdentityHashMap<>();
+        for (TaskRow row : rows) {
+            existing.put(row.tab, row);
+        }
+        List<TaskRow> current = new java.util.ArrayList<>();
+        for (BrowserWindow window : windows) {
+            boolean windowVisible = window.stage.isShowing() && !window.stage.isIconified();
+            for (Tab tab : window.tabPane.getTabs()) {
+                TabState state = (TabState) tab.getUserData();
+                TaskRow row = existing.computeIfAbsent(tab, TaskRow::new);
+                WebEngine engine = getWebView(tab).getEngine();
+                row.title = tab.getText();
+                row.window = window.stage.getTitle();
+                row.lastLoadMillis = state.lastLoadMillis;
+                boolean visible = windowVisible && tab.isSelected();
+                if (state.discardedUrl != null) {
+                    row.state = "Discarded";
+                    row.elements = -1;
+                    row.jsHeapBytes = -1;
+                    row.timers = -1;
+                } else if (engine.getLoadWorker().isRunning()) {
+                    row.state = "Loading";
+                } else {
+                    row.state = visible ? "Visible" : "Background";
+                    if (visible || row.sampledLoad != state.loadCount) {
+                        long[] sample = tabSampler.sample(engine);
+                        row.elements = sample[0];
+                        row.jsHeapBytes = sample[1];
+                        row.timers = sample[2];
+                        row.sampledLoad = state.loadCount;
+                    }
+                }
+                current.add(row);
+            }
+        }
+        if (!current.equals(rows)) {
+            rows.setAll(current);
+        }
+        table.sort();
+        table.refresh();
+        jvmStats.setText(tabSampler.getJvmStatsAsString());
+        return tabSampler.endPass();
+    }
+
+    /**
+     * A row of the task manager: one tab and its last sample
+     */
+    private static final class TaskRow {
+        private final Tab tab;
+        private String title;
+        private String window;
+        private String state;
+        private long elements = -1;
+        private long jsHeapBytes = -1;
+        private long timers = -1;
+        private long lastLoadMillis = -1;
+        // The load the sample was taken from, so background tabs are sampled once per page
+        private int sampledLoad = -1;
+
+        private TaskRow(Tab tab) {
+            this.tab = tab;
+        }
+    }
+
+    /**
+     * The bookmark list's right-click menu: delete, and keep or drop an offline copy
+     * @param listView The bookmark list
+     * @param items The bookmark URLs shown in the list
+     * @return The menu
+     */
+    ContextMenu createBookmarkMenu(ListView<String> listView, ObservableList<String> items) {
         ContextMenu contextMenu = new ContextMenu();
         MenuItem deleteItem = new MenuItem("Delete");
         deleteItem.setOnAction(e -> {
             String selected = listView.getSelectionModel().getSelectedItem();
             if (selected != null) {
-                dbManager.deleteBookmark(selected);
                 items.remove(selected);
+                // Through the bookmark manager, which also drops the offline copy
+                storageExecutor.execute(() -> features.get(BookmarkManager.class).deleteBookmark(selected));
             }
         });
-        contextMenu.getItems().add(deleteItem);
-        listView.setContextMenu(contextMenu);
+        MenuItem offlineItem = new MenuItem();
+        offlineItem.setOnAction(e -> {
+            String selected = listView.getSelectionModel().getSelectedItem();
+            if (selected == null) {
+                return;
+            }
+            // Pinning and unpinning write the archive's list of offline pages
+            storageExecutor.submit(() -> {
+                BookmarkManager bookmarks = features.get(BookmarkManager.class);
+                if (bookmarks.isAvailableOffline(selected)) {
+                    bookmarks.removeOfflineCopy(selected);
+                    return null;
+                }
+                return bookmarks.makeAvailableOffline(selected);
+            }, saving -> {
+                listView.refresh();
+                if (saving != null) {
+                    saving.whenComplete((count, error) -> javafx.application.Platform.runLater(() -> {
+                        listView.refresh();
+                        if (error != null) {
+                            showAlert("Error", "Failed to save bookmark offline: " + error.getMessage());
+                        }
+                    }));
+                }
+            }, error -> showAlert("Error", error.getMessage()));
+        });
+        MenuItem openOfflineItem = new MenuItem("Open Offline Copy");
+        openOfflineItem.setOnAction(e -> {
+            String selected = listView.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                navigateCurrentTab(PageArchive.toOfflineUrl(selected), HistoryVisit.Transition.BOOKMARK);
+            }
+        });
+        contextMenu.setOnShowing(e -> {
+            String selected = listView.getSelectionModel().getSelectedItem();
+            boolean offline = selected != null && pageArchive.isPinned(selected);
+            offlineItem.setText(offline ? "Remove Offline Copy" : "Make Available Offline");
+            openOfflineItem.setDisable(selected == null || !pageArchive.isSaved(selected));
+        });
+        contextMenu.getItems().addAll(deleteItem, offlineItem, openOfflineItem);
+        return contextMenu;
+    }
+
+    void showBookmarksDialog() {
+        NitronEvents.DialogEvent dialogEvent = NitronEvents.DialogEvent.open("Bookmarks");
+        ObservableList<String> items = FXCollections.observableArrayList();
+        ListView<String> listView = new ListView<>(items);
+        listView.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
+        listView.setPlaceholder(new Label("Loading bookmarks..."));
+        renderCacheTuner.attach(listView);
+        listView.setCellFactory(lv -> new ListCell<>() {
+            private final ImageView icon = new ImageView();
+
+            {
+                // Hovering a bookmark is a strong hint that it is opened next
+                setOnMouseEntered(e -> navigationPredictor.hint(getItem()));
+            }
+
+            @Override
+            protected void updateItem(String url, boolean empty) {
+                super.updateItem(url, empty);
+                setText(empty ? null : pageArchive.isPinned(url) ? url + "  (offline)" : url);
+                // Memory lookup only; icons still on disk arrive through the refresh below
+                icon.setImage(empty ? null : faviconCache.get(url));
+                setGraphic(empty ? null : icon);
+            }
+        });
+        Runnable refreshIcons = listView::refresh;
+        faviconCache.addListener(refreshIcons);
+
+        StorageTask<List<String>> loadTask = storageExecutor.submit(dbManager::getBookmarks, bookmarks -> {
+            listView.setPlaceholder(new Label("No bookmarks"));
+            items.setAll(bookmarks);
+            dialogEvent.finish(items.size());
+        });
+        // Bookmarks added or deleted by this or another instance while the dialog is open
+        java.util.function.Consumer<List<DatabaseChange>> onChanges = onFxThread(changes -> {
+            for (DatabaseChange change : changes) {
+                switch (change.getType()) {
+                    case BOOKMARK_ADDED:
+                        if (!items.contains(change.getUrl())) {
+                            items.add(0, change.getUrl());
+                        }
+                        break;
+                    case BOOKMARK_DELETED:
+                        if (change.getUrl() != null) {
+                            items.remove(change.getUrl());
+                            break;
+                        }
+                        // Deleted without its URL; load the list again
+                        storageExecutor.submit(dbManager::getBookmarks, items::setAll);
+                        return;
+                    case BOOKMARKS_CHANGED:
+                        storageExecutor.submit(dbManager::getBookmarks, items::setAll);
+                        return;
+                    default:
+                        break;
+                }
+            }
+        });
+        if (changeWatcher != null) {
+            changeWatcher.addListener(onChanges);
+        }
+
+        listView.setContextMenu(createBookmarkMenu(listView, items));
 
         listView.setOnMouseClicked(event -> {
             if (event.getClickCount() == 2) {
                 String selected = listView.getSelectionModel().getSelectedItem();
                 if (selected != null) {
-                    getCurrentWebView().getEngine().load(selected);
+                    navigateCurrentTab(selected, HistoryVisit.Transition.BOOKMARK);
                 }
             }
         });
@@ -224,114 +1446,406 @@ public class NitronBrowser extends Application {
         Stage dialog = new Stage();
         dialog.initModality(Modality.APPLICATION_MODAL);
         dialog.setTitle("Bookmarks");
+        dialog.setOnHidden(e -> {
+            loadTask.cancel();
+            faviconCache.removeListener(refreshIcons);
+            if (changeWatcher != null) {
+                changeWatcher.removeListener(onChanges);
+            }
+            dialogEvent.finish(items.size());
+        });
         VBox vbox = new VBox(new Label("Double-click to open. Right-click to delete."), listView);
         vbox.setPadding(new Insets(10));
         vbox.setSpacing(8);
         Scene scene = new Scene(vbox, 400, 400);
         dialog.setScene(scene);
+        renderCacheTuner.attachWindow(dialog);
+        dialogEvent.constructed();
         dialog.showAndWait();
     }
 
-    private void showHistoryDialog() {
-        Map<String, List<String>> historyByDay = dbManager.getHistoryByDay();
-        
-        VBox mainContainer = new VBox(10);
-        mainContainer.setPadding(new Insets(10));
-        
-        if (historyByDay.isEmpty()) {
-            Label emptyLabel = new Label("No history available");
-            mainContainer.getChildren().add(emptyLabel);
-        } else {
-            for (Map.Entry<String, List<String>> entry : historyByDay.entrySet()) {
-                String date = entry.getKey();
-                List<String> urls = entry.getValue();
-                
-                // Create date header
-                Label dateLabel = new Label(date);
-                dateLabel.setStyle("-fx-font-weight: bold; -fx-font-size: 14px;");
-                mainContainer.getChildren().add(dateLabel);
-                
-                // Create list view for this day's history
-                ObservableList<String> items = FXCollections.observableArrayList(urls);
-                ListView<String> listView = new ListView<>(items);
-                listView.setPrefHeight(Math.min(urls.size() * 24 + 2, 200));
-                listView.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
-                
-                // Context menu for delete
-                ContextMenu contextMenu = new ContextMenu();
-                MenuItem deleteItem = new MenuItem("Delete");
-                deleteItem.setOnAction(e -> {
-                    String selected = listView.getSelectionModel().getSelectedItem();
-                    if (selected != null) {
-                        dbManager.deleteHistory(selected);
-                        items.remove(selected);
-                        // If no more items for this day, refresh the dialog
-                        if (items.isEmpty()) {
-                            Stage stage = (Stage) mainContainer.getScene().getWindow();
-                            stage.close();
-                            showHistoryDialog();
-                        }
-                    }
-                });
-                contextMenu.getItems().add(deleteItem);
-                listView.setContextMenu(contextMenu);
-                
-                // Double-click to open URL
-                listView.setOnMouseClicked(event -> {
-                    if (event.getClickCount() == 2) {
-                        String selected = listView.getSelectionModel().getSelectedItem();
-                        if (selected != null) {
-                            getCurrentWebView().getEngine().load(selected);
-                        }
+    void showHistoryDialog() {
+        NitronEvents.DialogEvent dialogEvent = NitronEvents.DialogEvent.open("History");
+        ObservableList<HistoryRow> rows = FXCollections.observableArrayList();
+        ListView<HistoryRow> listView = new ListView<>(rows);
+        listView.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
+        listView.setPlaceholder(new Label("Loading history..."));
+        renderCacheTuner.attach(listView);
+        HistoryPager pager = new HistoryPager(rows, listView);
+        Runnable refreshIcons = listView::refresh;
+        faviconCache.addListener(refreshIcons);
+        pager.openEvent = dialogEvent;
+
+        // One virtualised list: day headers and URLs share the same cells
+        listView.setCellFactory(lv -> new ListCell<>() {
+            private final ImageView icon = new ImageView();
+
+            {
+                setOnMouseEntered(e -> {
+                    if (getItem() != null && !getItem().isHeader()) {
+                        navigationPredictor.hint(getItem().url);
                     }
                 });
-                
-                mainContainer.getChildren().add(listView);
-                
-                // Add separator between days
-                javafx.scene.control.Separator separator = new javafx.scene.control.Separator();
-                mainContainer.getChildren().add(separator);
             }
+
+            @Override
+            protected void updateItem(HistoryRow row, boolean empty) {
+                super.updateItem(row, empty);
+                if (empty || row == null) {
+                    setText(null);
+                    setGraphic(null);
+                    setStyle("");
+                    return;
+                }
+                setText(row.isHeader() ? row.day : row.url);
+                icon.setImage(row.isHeader() ? null : faviconCache.get(row.url));
+                setGraphic(row.isHeader() ? null : icon);
+                setStyle(row.isHeader() ? "-fx-font-weight: bold; -fx-font-size: 14px;" : "");
+
+                // Pull the next page once the user scrolls close to the end
+                if (getIndex() >= rows.size() - HISTORY_PREFETCH_ROWS) {
+                    javafx.application.Platform.runLater(pager::loadNextPage);
+                }
+            }
+        });
+
+        // Context menu for delete
+        ContextMenu contextMenu = new ContextMenu();
+        MenuItem deleteItem = new MenuItem("Delete");
+        deleteItem.setOnAction(e -> {
+            int index = listView.getSelectionModel().getSelectedIndex();
+            if (index >= 0 && !rows.get(index).isHeader()) {
+                String url = rows.get(index).url;
+                pager.removeEntry(index);
+                pager.expectDelete(url);
+                storageExecutor.execute(() -> dbManager.deleteHistory(url));
+            }
+        });
+        contextMenu.getItems().add(deleteItem);
+        listView.setContextMenu(contextMenu);
+
+        // Double-click to open URL
+        listView.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2) {
+                HistoryRow selected = listView.getSelectionModel().getSelectedItem();
+                if (selected != null && !selected.isHeader()) {
+                    navigateCurrentTab(selected.url, HistoryVisit.Transition.HISTORY);
+                }
+            }
+        });
+
+        pager.loadNextPage();
+        // Visits recorded or deleted by this or another instance while the dialog is open
+        java.util.function.Consumer<List<DatabaseChange>> onChanges = onFxThread(pager::applyChanges);
+        if (changeWatcher != null) {
+            changeWatcher.addListener(onChanges);
         }
-        
-        ScrollPane scrollPane = new ScrollPane(mainContainer);
-        scrollPane.setFitToWidth(true);
-        scrollPane.setPrefViewportHeight(500);
-        
+
         Stage dialog = new Stage();
         dialog.initModality(Modality.APPLICATION_MODAL);
         dialog.setTitle("History - Grouped by Day");
-        
+        // Under memory pressure, drop the rows loaded beyond what the user has scrolled to
+        memoryGovernor.addResponder("history dialog", MemoryGovernor.Level.MODERATE, level -> onFxAndWait(() -> {
+            int dropped = pager.trim();
+            return dropped > 0 ? "dropped " + dropped + " history rows" : null;
+        }));
+        dialog.setOnHidden(e -> {
+            pager.cancel();
+            faviconCache.removeListener(refreshIcons);
+            if (changeWatcher != null) {
+                changeWatcher.removeListener(onChanges);
+            }
+            dialogEvent.finish(rows.size());
+            memoryGovernor.removeResponder("history dialog");
+        });
+
         VBox dialogContent = new VBox(10);
         dialogContent.setPadding(new Insets(10));
         Label instruction = new Label("Double-click to open. Right-click to delete.");
         instruction.setStyle("-fx-font-style: italic;");
-        dialogContent.getChildren().addAll(instruction, scrollPane);
-        
+        dialogContent.getChildren().addAll(instruction, listView);
+        VBox.setVgrow(listView, Priority.ALWAYS);
+
         Scene scene = new Scene(dialogContent, 600, 600);
         dialog.setScene(scene);
+        renderCacheTuner.attachWindow(dialog);
+        dialogEvent.constructed();
         dialog.showAndWait();
     }
 
-    private void toggleDarkMode() {
+    /**
+     * A row of the history dialog: either a day header or a visited URL
+     */
+    private static final class HistoryRow {
+        private final String day;
+        private final String url;
+        // Null for day headers
+        private final java.util.Date visitedAt;
+
+        private HistoryRow(String day, String url, java.util.Date visitedAt) {
+            this.day = day;
+            this.url = url;
+            this.visitedAt = visitedAt;
+        }
+
+        private boolean isHeader() {
+            return url == null;
+        }
+    }
+
+    /**
+     * Loads history into the dialog rows page by page and keeps the
+     * day headers consistent when entries are deleted in place.
+     */
+    private final class HistoryPager {
+        private final ObservableList<HistoryRow> rows;
+        private final ListView<HistoryRow> listView;
+        private StorageTask<List<HistoryVisit>> pendingPage;
+        // Committed when the first page is shown
+        private NitronEvents.DialogEvent openEvent;
+        // Time of the oldest loaded visit; the next page starts before it. Null before the first page.
+        private java.util.Date oldestLoaded;
+        private boolean exhausted;
+        private boolean loading;
+        // Deletes made here whose change stream events are still to come, by URL
+        private final Map<String, Integer> expectedDeletes = new java.util.HashMap<>();
+
+        private HistoryPager(ObservableList<HistoryRow> rows, ListView<HistoryRow> listView) {
+            this.rows = rows;
+            this.listView = listView;
+        }
+
+        private void loadNextPage() {
+            if (exhausted || loading) {
+                return;
+            }
+            loading = true;
+            java.util.Date before = oldestLoaded;
+            pendingPage = storageExecutor.submit(
+                    () -> features.get(HistoryManager.class).getHistoryBefore(before, HISTORY_PAGE_SIZE),
+                    page -> {
+                        loading = false;
+                        appendPage(page);
+                        listView.setPlaceholder(new Label("No history available"));
+                    },
+                    error -> {
+                        loading = false;
+                        listView.setPlaceholder(new Label("Could not load history"));
+                    });
+        }
+
+        private void cancel() {
+            if (pendingPage != null) {
+                pendingPage.cancel();
+            }
+        }
+
+        /**
+         * Drop the loaded rows more than a page below the last visible one. Scrolling back
+         * down loads them again.
+         * @return The number of rows dropped
+         */
+        private int trim() {
+            javafx.scene.Node node = listView.lookup(".virtual-flow");
+            if (loading || !(node instanceof javafx.scene.control.skin.VirtualFlow)) {
+                return 0;
+            }
+            IndexedCell<?> lastVisible = ((javafx.scene.control.skin.VirtualFlow<?>) node).getLastVisibleCell();
+            int keep = (lastVisible != null ? lastVisible.getIndex() + 1 : 0) + HISTORY_PAGE_SIZE;
+            // Keep every visit at the time of the last kept one, since the next page starts before it
+            while (keep < rows.size() && keep > 0 && rows.get(keep).visitedAt != null
+                    && rows.get(keep).visitedAt.equals(rows.get(keep - 1).visitedAt)) {
+                keep++;
+            }
+            if (keep >= rows.size()) {
+                return 0;
+            }
+            int dropped = rows.size() - keep;
+            rows.remove(keep, rows.size());
+            // A day header with none of its entries left is dropped too
+            if (!rows.isEmpty() && rows.get(rows.size() - 1).isHeader()) {
+                rows.remove(rows.size() - 1);
+                dropped++;
+            }
+            oldestLoaded = rows.isEmpty() ? null : rows.get(rows.size() - 1).visitedAt;
+            exhausted = false;
+            return dropped;
+        }
+
+        private void appendPage(List<HistoryVisit> page) {
+            List<HistoryRow> newRows = new java.util.ArrayList<>();
+            String lastDay = lastHeaderDay();
+            for (HistoryVisit visit : page) {
+                String day = HistoryGrouping.formatDay(visit.getVisitedAt());
+                // A day can continue from the previous page, so only add a new header when it changes
+                if (!day.equals(lastDay)) {
+                    newRows.add(new HistoryRow(day, null, null));
+                    lastDay = day;
+                }
+                newRows.add(new HistoryRow(day, visit.getUrl(), visit.getVisitedAt()));
+            }
+            if (!page.isEmpty()) {
+                oldestLoaded = page.get(page.size() - 1).getVisitedAt();
+            }
+            exhausted = page.size() < HISTORY_PAGE_SIZE;
+            rows.addAll(newRows);
+            if (openEvent != null) {
+                openEvent.finish(rows.size());
+                openEvent = null;
+            }
+        }
+
+        private void removeEntry(int index) {
+            rows.remove(index);
+
+            // Drop the day header when its last loaded entry is gone
+            int headerIndex = index - 1;
+            boolean dayEmpty = headerIndex >= 0 && rows.get(headerIndex).isHeader()
+                    && (index >= rows.size() || rows.get(index).isHeader());
+            if (dayEmpty) {
+                rows.remove(headerIndex);
+            }
+        }
+
+        /**
+         * Note a delete made from this dialog, so its echo from the change stream is not applied twice
+         */
+        private void expectDelete(String url) {
+            expectedDeletes.merge(url, 1, Integer::sum);
+        }
+
+        /**
+         * Apply changes reported by the ChangeStreamWatcher. New visits from today go to the top;
+         * anything the loaded rows cannot place reloads the list from the first page.
+         */
+        private void applyChanges(List<DatabaseChange> changes) {
+            if (changes.size() > HISTORY_PAGE_SIZE) {
+                // An import or sync; cheaper to load the first page again than to place each visit
+                reload();
+                return;
+            }
+            for (DatabaseChange change : changes) {
+                switch (change.getType()) {
+                    case VISIT_ADDED:
+                        if (!addLatest(change.getVisit())) {
+                            reload();
+                            return;
+                        }
+                        break;
+                    case VISIT_DELETED:
+                        if (!removeUrl(change.getUrl())) {
+                            reload();
+                            return;
+                        }
+                        break;
+                    case HISTORY_CHANGED:
+                        reload();
+                        return;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private boolean addLatest(HistoryVisit visit) {
+            if (loading && oldestLoaded == null) {
+                // The first page is being read and may or may not hold this visit already
+                return false;
+            }
+            String day = HistoryGrouping.formatDay(visit.getVisitedAt());
+            String firstDay = rows.isEmpty() ? null : rows.get(0).day;
+            if (day.equals(firstDay)) {
+                rows.add(1, new HistoryRow(day, visit.getUrl(), visit.getVisitedAt()));
+            } else if (firstDay == null || day.equals(HistoryGrouping.formatDay(new java.util.Date()))) {
+                rows.add(0, new HistoryRow(day, null, null));
+                rows.add(1, new HistoryRow(day, visit.getUrl(), visit.getVisitedAt()));
+            } else {
+                // An older visit belongs somewhere inside the list
+                return false;
+            }
+            if (oldestLoaded == null) {
+                // The next page continues below this visit
+                oldestLoaded = visit.getVisitedAt();
+            }
+            return true;
+        }
+
+        /**
+         * Remove a visit deleted elsewhere
+         * @param url The deleted visit's URL, or null when the server did not send it
+         * @return false if the rows cannot tell which entry went
+         */
+        private boolean removeUrl(String url) {
+            // Without the URL, a delete made here is the likeliest explanation
+            String key = url != null ? url
+                    : expectedDeletes.isEmpty() ? null : expectedDeletes.keySet().iterator().next();
+            Integer expected = key == null ? null : expectedDeletes.get(key);
+            if (expected != null) {
+                if (expected == 1) {
+                    expectedDeletes.remove(key);
+                } else {
+                    expectedDeletes.put(key, expected - 1);
+                }
+                return true;
+            }
+            if (url == null) {
+                return false;
+            }
+            for (int i = 0; i < rows.size(); i++) {
+                if (url.equals(rows.get(i).url)) {
+                    removeEntry(i);
+                    return true;
+                }
+            }
+            // Not loaded yet, so the loaded rows are unaffected
+            return true;
+        }
+
+        private void reload() {
+            cancel();
+            loading = false;
+            rows.clear();
+            oldestLoaded = null;
+            exhausted = false;
+            loadNextPage();
+        }
+
+        private String lastHeaderDay() {
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                if (rows.get(i).isHeader()) {
+                    return rows.get(i).day;
+                }
+            }
+            return null;
+        }
+    }
+
+    void toggleDarkMode() {
         darkModeEnabled = !darkModeEnabled;
-        applyStyles();
-        
-        // Apply theme to all open webpages
-        for (Tab tab : tabPane.getTabs()) {
-            if (tab.getContent() instanceof VBox) {
-                VBox vbox = (VBox) tab.getContent();
-                for (var child : vbox.getChildren()) {
-                    if (child instanceof WebView) {
-                        WebView webView = (WebView) child;
-                        applyWebpageTheme(webView.getEngine());
+        for (BrowserWindow window : windows) {
+            applyStyles(window);
+
+            // Apply theme to all open webpages
+            for (Tab tab : window.tabPane.getTabs()) {
+                if (tab.getContent() instanceof VBox) {
+                    VBox vbox = (VBox) tab.getContent();
+                    for (var child : vbox.getChildren()) {
+                        if (child instanceof WebView) {
+                            WebView webView = (WebView) child;
+                            applyWebpageTheme(webView.getEngine());
+                        }
                     }
                 }
             }
         }
     }
 
-    private void applyStyles() {
+    private void applyStyles(BrowserWindow window) {
+        NitronEvents.ThemeEvent themeEvent = new NitronEvents.ThemeEvent();
+        themeEvent.begin();
+        BorderPane root = window.root;
+        ToolBar navToolbar = window.navToolbar;
+        TabPane tabPane = window.tabPane;
         String darkStyle = "-fx-background-color: #282828; -fx-text-fill: white;";
         String lightStyle = "-fx-background-color: #f2f2f2; -fx-text-fill: black;";
         String toolbarDark = "-fx-background-color: #333333;";
@@ -349,32 +1863,36 @@ public class NitronBrowser extends Application {
             tabPane.setStyle("-fx-background-color: #333333;");
             
             // Apply button styles
-            applyStyleToAllButtons(darkButtonStyle);
+            applyStyleToAllButtons(navToolbar, darkButtonStyle);
             
             // Apply styles to all tabs
-            applyStylesToAllTabs(darkStyle, darkTextFieldStyle);
+            applyStylesToAllTabs(tabPane, darkStyle, darkTextFieldStyle);
             
             // Apply Scene stylesheet
             root.getScene().getStylesheets().clear();
-            root.getScene().getStylesheets().add(getDarkModeCSS());
+            root.getScene().getStylesheets().add(ThemeManager.getSceneStylesheet(true));
         } else {
             root.setStyle(lightStyle);
             navToolbar.setStyle(toolbarLight);
             tabPane.setStyle("-fx-background-color: #e0e0e0;");
             
             // Apply button styles
-            applyStyleToAllButtons(lightButtonStyle);
+            applyStyleToAllButtons(navToolbar, lightButtonStyle);
             
             // Apply styles to all tabs
-            applyStylesToAllTabs(lightStyle, lightTextFieldStyle);
+            applyStylesToAllTabs(tabPane, lightStyle, lightTextFieldStyle);
             
             // Apply Scene stylesheet
             root.getScene().getStylesheets().clear();
-            root.getScene().getStylesheets().add(getLightModeCSS());
+            root.getScene().getStylesheets().add(ThemeManager.getSceneStylesheet(false));
         }
+        themeEvent.target = "window";
+        themeEvent.dark = darkModeEnabled;
+        themeEvent.nodes = tabPane.getTabs().size();
+        themeEvent.commit();
     }
     
-    private void applyStyleToAllButtons(String style) {
+    private void applyStyleToAllButtons(ToolBar navToolbar, String style) {
         if (navToolbar != null) {
             for (var item : navToolbar.getItems()) {
                 if (item instanceof Button btn) {
@@ -384,7 +1902,7 @@ public class NitronBrowser extends Application {
         }
     }
     
-    private void applyStylesToAllTabs(String baseStyle, String textFieldStyle) {
+    private void applyStylesToAllTabs(TabPane tabPane, String baseStyle, String textFieldStyle) {
         if (tabPane != null) {
             for (Tab tab : tabPane.getTabs()) {
                 if (tab.getContent() instanceof VBox vbox) {
@@ -401,74 +1919,23 @@ public class NitronBrowser extends Application {
         }
     }
     
-    private String getDarkModeCSS() {
-        return "data:text/css," +
-                ".root { -fx-base: #282828; -fx-control-inner-background: #3c3c3c; -fx-text-fill: white; } " +
-                ".button { -fx-text-fill: white; -fx-background-color: #444444; } " +
-                ".button:hover { -fx-background-color: #555555; } " +
-                ".text-field { -fx-control-inner-background: #3c3c3c; -fx-text-fill: white; } " +
-                ".tab-pane { -fx-background-color: #333333; } " +
-                ".tab { -fx-background-color: #404040; -fx-text-fill: white; } " +
-                ".menu { -fx-background-color: #333333; -fx-text-fill: white; } " +
-                ".menu-item { -fx-background-color: #404040; -fx-text-fill: white; } " +
-                ".context-menu { -fx-background-color: #333333; } " +
-                ".list-view { -fx-control-inner-background: #3c3c3c; } " +
-                ".list-cell { -fx-text-fill: white; -fx-background-color: #404040; } " +
-                ".dialog-pane { -fx-background-color: #282828; -fx-text-fill: white; } " +
-                ".label { -fx-text-fill: white; }";
-    }
-    
-    private String getLightModeCSS() {
-        return "data:text/css," +
-                ".root { -fx-base: #f2f2f2; -fx-control-inner-background: #ffffff; -fx-text-fill: black; } " +
-                ".button { -fx-text-fill: black; -fx-background-color: #d0d0d0; } " +
-                ".button:hover { -fx-background-color: #b0b0b0; } " +
-                ".text-field { -fx-control-inner-background: #ffffff; -fx-text-fill: black; } " +
-                ".tab-pane { -fx-background-color: #e0e0e0; } " +
-                ".tab { -fx-background-color: #f0f0f0; -fx-text-fill: black; } " +
-                ".menu { -fx-background-color: #e0e0e0; -fx-text-fill: black; } " +
-                ".menu-item { -fx-background-color: #f0f0f0; -fx-text-fill: black; } " +
-                ".context-menu { -fx-background-color: #e0e0e0; } " +
-                ".list-view { -fx-control-inner-background: #ffffff; } " +
-                ".list-cell { -fx-text-fill: black; -fx-background-color: #f0f0f0; } " +
-                ".dialog-pane { -fx-background-color: #f2f2f2; -fx-text-fill: black; } " +
-                ".label { -fx-text-fill: black; }";
-    }
-
     private void applyWebpageTheme(WebEngine engine) {
+        NitronEvents.ThemeEvent themeEvent = new NitronEvents.ThemeEvent();
+        themeEvent.begin();
+        String script = ThemeManager.getWebpageThemeScript(darkModeEnabled);
         try {
-            if (darkModeEnabled) {
-                // Inject dark mode CSS into the webpage
-                String darkCss = "try { " +
-                        "var style = document.createElement('style'); " +
-                        "style.innerHTML = 'body, html { background-color: #1a1a1a !important; color: #e0e0e0 !important; } " +
-                        "a { color: #64b5f6 !important; } " +
-                        "button { background-color: #333333 !important; color: #e0e0e0 !important; } " +
-                        "input, textarea { background-color: #2d2d2d !important; color: #e0e0e0 !important; } " +
-                        "pre, code { background-color: #2d2d2d !important; color: #e0e0e0 !important; } " +
-                        "nav { background-color: #252525 !important; } " +
-                        "td, th { background-color: #2d2d2d !important; color: #e0e0e0 !important; }'; " +
-                        "document.head.appendChild(style); " +
-                        "} catch(e) {}";
-                engine.executeScript(darkCss);
-            } else {
-                // Inject light mode CSS into the webpage
-                String lightCss = "try { " +
-                        "var style = document.createElement('style'); " +
-                        "style.innerHTML = 'body, html { background-color: #ffffff !important; color: #000000 !important; } " +
-                        "a { color: #0066cc !important; } " +
-                        "button { background-color: #e0e0e0 !important; color: #000000 !important; } " +
-                        "input, textarea { background-color: #ffffff !important; color: #000000 !important; } " +
-                        "pre, code { background-color: #f5f5f5 !important; color: #000000 !important; } " +
-                        "nav { background-color: #f0f0f0 !important; } " +
-                        "td, th { background-color: #f5f5f5 !important; color: #000000 !important; }'; " +
-                        "document.head.appendChild(style); " +
-                        "} catch(e) {}";
-                engine.executeScript(lightCss);
-            }
+            engine.executeScript(script);
         } catch (Exception e) {
             System.err.println("Error applying webpage theme: " + e.getMessage());
         }
+        if (themeEvent.shouldCommit()) {
+            themeEvent.target = "page";
+            themeEvent.dark = darkModeEnabled;
+            themeEvent.nodes = 1;
+            themeEvent.scriptBytes = script.length();
+            themeEvent.url = engine.getLocation();
+            themeEvent.commit();
+        }
     }
 
     private void showAlert(String title, String message) {
@@ -0,0 +1,268 @@
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * NitronEvents defines the JDK Flight Recorder events Nitron emits, so a recording shows
+ * whether a stutter came from storage, theming, dialog construction, tab creation or WebKit,
+ * and long frames show what the FX thread was doing.
+ * Events cost next to nothing while no recording is running.
+ *
+ * -Dnitron.jfr=true starts a continuous recording at launch with the JDK's "default" settings
+ * plus the bundled nitron.jfc profile. It keeps the last -Dnitron.jfr.maxAgeMinutes (30) and is
+ * dumped to ~/.nitron/jfr on exit; "jcmd &lt;pid&gt; JFR.dump name=Nitron" saves it while running.
+ */
+public final class NitronEvents {
+    private static final String SETTINGS_RESOURCE = "/nitron.jfc";
+
+    private NitronEvents() {
+    }
+
+    /**
+     * Start the continuous recording if -Dnitron.jfr is set
+     * @return The recording, or null if recording is off or unavailable
+     */
+    public static Recording startRecordingIfRequested() {
+        if (!Boolean.getBoolean("nitron.jfr")) {
+            return null;
+        }
+        try {
+            Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+            settings.putAll(loadProfile().getSettings());
+            Path directory = NitronPaths.directory("jfr");
+            Recording recording = new Recording(settings);
+            recording.setName("Nitron");
+            recording.setToDisk(true);
+            recording.setMaxAge(Duration.ofMinutes(Long.getLong("nitron.jfr.maxAgeMinutes", 30)));
+            recording.setDumpOnExit(true);
+            recording.setDestination(directory.resolve("nitron-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jfr"));
+            recording.start();
+            System.out.println("Flight recording started, dumped to " + recording.getDestination() + " on exit");
+            return recording;
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            System.err.println("Could not start flight recording: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read the bundled settings profile
+     * @return The nitron.jfc configuration
+     * @throws IOException if the profile cannot be read
+     * @throws ParseException if the profile is not a valid .jfc file
+     */
+    public static Configuration loadProfile() throws IOException, ParseException {
+        InputStream in = NitronEvents.class.getResourceAsStream(SETTINGS_RESOURCE);
+        if (in == null) {
+            throw new IOException("Missing " + SETTINGS_RESOURCE);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        }
+    }
+
+    /**
+     * A DatabaseOperations call on the storage layer
+     */
+    @Name("nitron.Storage")
+    @Label("Storage Operation")
+    @Category({"Nitron", "Storage"})
+    @Description("A bookmark or history operation against the database")
+    @StackTrace(false)
+    public static final class StorageEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Collection")
+        public String collection;
+
+        @Label("Documents")
+        @Description("Documents read or written")
+        public int documents;
+
+        /**
+         * Start timing a storage operation
+         * @param operation The DatabaseOperations method
+         * @param collection The collection it works on
+         * @return The begun event
+         */
+        public static StorageEvent start(String operation, String collection) {
+            StorageEvent event = new StorageEvent();
+            event.operation = operation;
+            event.collection = collection;
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Commit the event
+         * @param documents Documents read or written
+         */
+        public void end(int documents) {
+            this.documents = documents;
+            commit();
+        }
+    }
+
+    /**
+     * Restyling of a window or injection of the page theme into a WebEngine
+     */
+    @Name("nitron.Theme")
+    @Label("Theme Application")
+    @Category({"Nitron", "Theme"})
+    @StackTrace(false)
+    public static final class ThemeEvent extends Event {
+        @Label("Target")
+        @Description("\"window\" for the browser chrome, \"page\" for a web page")
+        public String target;
+
+        @Label("Dark Mode")
+        public boolean dark;
+
+        @Label("Styled Nodes")
+        @Description("Tabs restyled for a window, 1 for a page")
+        public int nodes;
+
+        @Label("Script Size")
+        @DataAmount
+        public long scriptBytes;
+
+        @Label("URL")
+        public String url;
+    }
+
+    /**
+     * Construction of a dialog until its first rows are shown
+     */
+    @Name("nitron.Dialog")
+    @Label("Dialog Construction")
+    @Category({"Nitron", "UI"})
+    @Description("From opening a dialog until its first rows are shown")
+    @StackTrace(false)
+    public static final class DialogEvent extends Event {
+        @Label("Dialog")
+        public String dialog;
+
+        @Label("Rows")
+        public int rows;
+
+        @Label("Construction")
+        @Description("Time until the dialog was built and shown, before its rows arrived")
+        @Timespan(Timespan.NANOSECONDS)
+        public long construction;
+
+        // Transient fields are not recorded
+        private transient long startedAt;
+        private transient boolean finished;
+
+        /**
+         * Start timing a dialog
+         * @param dialog The dialog name
+         * @return The begun event
+         */
+        public static DialogEvent open(String dialog) {
+            DialogEvent event = new DialogEvent();
+            event.dialog = dialog;
+            event.startedAt = System.nanoTime();
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Note that the dialog has been built and is about to be shown
+         */
+        public void constructed() {
+            construction = System.nanoTime() - startedAt;
+        }
+
+        /**
+         * Commit the event once, when the first rows are shown or the dialog closes
+         * @param rows The rows shown
+         */
+        public void finish(int rows) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            this.rows = rows;
+            commit();
+        }
+    }
+
+    /**
+     * Creation of a tab and its WebView
+     */
+    @Name("nitron.NewTab")
+    @Label("New Tab")
+    @Category({"Nitron", "UI"})
+    @StackTrace(false)
+    public static final class NewTabEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Window Tabs")
+        @Description("Tabs in the window after this one was added")
+        public int tabs;
+    }
+
+    /**
+     * A frame the FX thread delivered late, found by the FrameMonitor
+     */
+    @Name("nitron.LongFrame")
+    @Label("Long Frame")
+    @Category({"Nitron", "UI"})
+    @Description("Time between two FX pulses above the long frame threshold")
+    @StackTrace(false)
+    public static final class LongFrameEvent extends Event {
+        @Label("Frame Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long frameTime;
+
+        @Label("Activity")
+        @Description("The method the FX thread was sampled in most often during the frame")
+        public String activity;
+    }
+
+    /**
+     * Time a WebEngine's load worker spent in one state
+     */
+    @Name("nitron.LoadState")
+    @Label("Load Worker State")
+    @Category({"Nitron", "WebKit"})
+    @Description("Time a WebEngine load worker spent in one state before moving to the next")
+    @StackTrace(false)
+    public static final class LoadStateEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("State")
+        public String state;
+
+        @Label("Next State")
+        public String nextState;
+
+        @Label("Elements")
+        @Description("Elements in the loaded document, -1 if unknown")
+        public int elements = -1;
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * NitronLauncher starts Nitron Browser from a plain class path or an executable jar.
+ * The java launcher refuses to start an Application subclass when JavaFX is not on the
+ * module path, so the jar's Main-Class points here instead of at NitronBrowser.
+ */
+public class NitronLauncher {
+    public static void main(String[] args) {
+        NitronBrowser.main(args);
+    }
+}
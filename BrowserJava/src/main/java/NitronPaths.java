@@ -0,0 +1,42 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * NitronPaths resolves the directories where the browser keeps its local files.
+ * Everything lives under ~/.nitron unless the nitron.home system property points elsewhere.
+ */
+public final class NitronPaths {
+    /**
+     * System property that overrides the Nitron home directory
+     */
+    public static final String HOME_PROPERTY = "nitron.home";
+
+    private NitronPaths() {
+    }
+
+    /**
+     * Get the Nitron home directory
+     * @return Path of the home directory
+     */
+    public static Path home() {
+        String configured = System.getProperty(HOME_PROPERTY);
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("user.home"), ".nitron");
+    }
+
+    /**
+     * Get a subdirectory of the Nitron home, creating it if needed
+     * @param name The name of the subdirectory
+     * @return Path of the subdirectory
+     * @throws IOException if the directory cannot be created
+     */
+    public static Path directory(String name) throws IOException {
+        Path dir = home().resolve(name);
+        Files.createDirectories(dir);
+        return dir;
+    }
+}
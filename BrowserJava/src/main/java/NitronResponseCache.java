@@ -0,0 +1,459 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CacheRequest;
+import java.net.CacheResponse;
+import java.net.HttpURLConnection;
+import java.net.ResponseCache;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.Path;
+import java.security.cert.Certificate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * NitronResponseCache keeps HTTP responses across tabs and restarts.
+ * Small hot responses live in a MemoryCacheTier and every cacheable response is
+ * written to a DiskCacheTier. Freshness follows Cache-Control and Expires; stale
+ * responses with an ETag or Last-Modified validator are revalidated with a
+ * conditional request so a 304 costs headers only. When the resource changed, the
+ * 200 answering the conditional request is stored and served, so it is fetched once.
+ */
+public class NitronResponseCache extends ResponseCache {
+    private static final long MEMORY_BYTES = 32L * 1024 * 1024;
+    private static final int MEMORY_ENTRY_BYTES = 256 * 1024;
+    private static final long DISK_BYTES = 512L * 1024 * 1024;
+    private static final int DISK_ENTRY_BYTES = 8 * 1024 * 1024;
+    private static final long MAX_HEURISTIC_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int INDEX_FLUSH_INTERVAL = 100;
+    private static final ThreadLocal<Boolean> BYPASS = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final MemoryCacheTier memory;
+    private final DiskCacheTier disk;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder replaced = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * Constructor for NitronResponseCache
+     * @param directory The directory of the disk tier
+     */
+    public NitronResponseCache(Path directory) {
+        this.memory = new MemoryCacheTier(MEMORY_BYTES, MEMORY_ENTRY_BYTES);
+        this.disk = new DiskCacheTier(directory, DISK_BYTES);
+    }
+
+    /**
+     * Create the cache and register it as the JVM-wide response cache.
+     * The disk tier stays empty until open() is called.
+     * @param directory The directory of the disk tier
+     * @return The installed cache
+     */
+    public static NitronResponseCache install(Path directory) {
+        NitronResponseCache cache = new NitronResponseCache(directory);
+        ResponseCache.setDefault(cache);
+        return cache;
+    }
+
+    /**
+     * Check if the current thread is making a request that must skip the cache
+     * @return true while a revalidation request is in flight on this thread
+     */
+    public static boolean isBypassed() {
+        return BYPASS.get();
+    }
+
+    /**
+     * Open the disk tier. Reads the index from disk, so call it off the FX thread.
+     * @throws IOException if the cache directory cannot be read
+     */
+    public void open() throws IOException {
+        disk.open();
+    }
+
+    /**
+     * Save the disk index and close the segment files
+     */
+    public void close() {
+        disk.close();
+    }
+
+    @Override
+    public CacheResponse get(URI uri, String method, Map<String, List<String>> requestHeaders) {
+        // A cached full response cannot answer a byte range request
+        if (isBypassed() || !"GET".equals(method) || requestHeaders.containsKey("Range")) {
+            return null;
+        }
+        requests.increment();
+        String key = uri.toString();
+        boolean fromMemory = true;
+        CachedResponse cached = memory.get(key);
+        if (cached == null) {
+            fromMemory = false;
+            cached = disk.get(key);
+            if (cached != null) {
+                memory.put(key, cached);
+            }
+        }
+        if (cached == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (cached.isFresh(now) && !requestsRevalidation(requestHeaders)) {
+            (fromMemory ? memoryHits : diskHits).increment();
+            bytesSaved.add(cached.getBody().length);
+            return cached.toCacheResponse();
+        }
+        if (cached.hasValidator()) {
+            return revalidate(uri, key, requestHeaders, cached);
+        }
+        return null;
+    }
+
+    @Override
+    public CacheRequest put(URI uri, URLConnection connection) {
+        if (isBypassed() || !(connection instanceof HttpURLConnection)) {
+            return null;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        if (!"GET".equals(http.getRequestMethod())) {
+            return null;
+        }
+        Map<String, List<String>> headers = copyHeaders(http.getHeaderFields());
+        CachedResponse probe = new CachedResponse(headers, new byte[0], null, List.of(), 0, 0);
+        long now = System.currentTimeMillis();
+        long expiresAt = computeExpiresAt(probe, now);
+        if (!isStorable(headers, probe) || (expiresAt <= now && !probe.hasValidator())) {
+            // An older copy must not be served in place of this response
+            forget(uri.toString());
+            return null;
+        }
+
+        String cipherSuite = null;
+        List<Certificate> certificates = List.of();
+        if (connection instanceof HttpsURLConnection) {
+            try {
+                HttpsURLConnection https = (HttpsURLConnection) connection;
+                cipherSuite = https.getCipherSuite();
+                certificates = Arrays.asList(https.getServerCertificates());
+            } catch (Exception e) {
+                // Without TLS details HttpsURLConnection would reject the entry later
+                return null;
+            }
+        }
+        return new BufferingCacheRequest(uri.toString(), headers, cipherSuite, certificates, now, expiresAt);
+    }
+
+    /**
+     * Drop the memory tier down to the given size, for use under memory pressure
+     * @param targetBytes The size to shrink to
+     * @return The number of bytes released
+     */
+    public long trimMemory(long targetBytes) {
+        long before = memory.getSizeBytes();
+        memory.trimTo(targetBytes);
+        return Math.max(0, before - memory.getSizeBytes());
+    }
+
+    /**
+     * Get the share of requests answered from the cache, including 304 revalidations
+     * @return Hit ratio between 0 and 1
+     */
+    public double getHitRatio() {
+        long total = requests.sum();
+        return total == 0 ? 0 : (memoryHits.sum() + diskHits.sum() + revalidated.sum()) / (double) total;
+    }
+
+    /**
+     * Get the number of body bytes that did not have to be downloaded
+     * @return Bytes saved
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * Get cache statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Response cache: %d lookups, %d memory hits, %d disk hits, %d revalidated, "
+                        + "%d replaced on revalidation, hit ratio %.1f%%, %d KB saved, %d stored, memory %d KB, disk %d KB",
+                requests.sum(), memoryHits.sum(), diskHits.sum(), revalidated.sum(), replaced.sum(),
+                getHitRatio() * 100, bytesSaved.sum() / 1024, stores.sum(),
+                memory.getSizeBytes() / 1024, disk.getSizeBytes() / 1024);
+    }
+
+    private CacheResponse revalidate(URI uri, String key, Map<String, List<String>> requestHeaders, CachedResponse cached) {
+        BYPASS.set(Boolean.TRUE);
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) uri.toURL().openConnection();
+            connection.setUseCaches(false);
+            connection.setInstanceFollowRedirects(false);
+            for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+                String name = header.getKey();
+                if (name != null && !name.toLowerCase(Locale.ROOT).startsWith("if-")) {
+                    for (String value : header.getValue()) {
+                        connection.addRequestProperty(name, value);
+                    }
+                }
+            }
+            if (cached.getHeader("ETag") != null) {
+                connection.setRequestProperty("If-None-Match", cached.getHeader("ETag"));
+            }
+            if (cached.getHeader("Last-Modified") != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.getHeader("Last-Modified"));
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                long now = System.currentTimeMillis();
+                CachedResponse notModified = new CachedResponse(copyHeaders(connection.getHeaderFields()),
+                        new byte[0], null, List.of(), now, 0);
+                long expiresAt = notModified.getHeader("Cache-Control") != null || notModified.getHeader("Expires") != null
+                        ? computeExpiresAt(notModified, now) : computeExpiresAt(cached, now);
+                cached.refresh(now, expiresAt);
+                disk.updateExpiry(key, expiresAt);
+                revalidated.increment();
+                bytesSaved.add(cached.getBody().length);
+                return cached.toCacheResponse();
+            }
+            if (status == HttpURLConnection.HTTP_OK) {
+                return replace(key, connection);
+            }
+            // Failed or redirected: let the original request follow it
+            connection.disconnect();
+            return null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            BYPASS.set(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Serve the new version a conditional request got back, and store it in place of the old one
+     * @return The response, or null when it is too large to hold and the original request must fetch it
+     */
+    private CacheResponse replace(String key, HttpURLConnection connection) throws IOException {
+        if (connection.getContentLengthLong() > DISK_ENTRY_BYTES) {
+            connection.disconnect();
+            return null;
+        }
+        byte[] body;
+        try (InputStream in = connection.getInputStream()) {
+            body = in.readNBytes(DISK_ENTRY_BYTES + 1);
+        }
+        if (body.length > DISK_ENTRY_BYTES) {
+            return null;
+        }
+        String cipherSuite = null;
+        List<Certificate> certificates = List.of();
+        if (connection instanceof HttpsURLConnection) {
+            try {
+                HttpsURLConnection https = (HttpsURLConnection) connection;
+                cipherSuite = https.getCipherSuite();
+                certificates = Arrays.asList(https.getServerCertificates());
+            } catch (Exception e) {
+                // HttpsURLConnection rejects a cached response without TLS details
+                return null;
+            }
+        }
+        Map<String, List<String>> headers = copyHeaders(connection.getHeaderFields());
+        CachedResponse probe = new CachedResponse(headers, new byte[0], null, List.of(), 0, 0);
+        long now = System.currentTimeMillis();
+        long expiresAt = computeExpiresAt(probe, now);
+        CachedResponse response = new CachedResponse(headers, body, cipherSuite, certificates, now, expiresAt);
+        if (isStorable(headers, probe) && (expiresAt > now || probe.hasValidator())) {
+            store(key, response);
+        } else {
+            forget(key);
+        }
+        replaced.increment();
+        return response.toCacheResponse();
+    }
+
+    private void forget(String key) {
+        memory.remove(key);
+        disk.remove(key);
+    }
+
+    private void store(String key, CachedResponse response) {
+        memory.put(key, response);
+        disk.put(key, response);
+        stores.increment();
+        if (stores.sum() % INDEX_FLUSH_INTERVAL == 0) {
+            try {
+                disk.flushIndex();
+            } catch (IOException e) {
+                System.err.println("Could not save disk cache index: " + e.getMessage());
+            }
+        }
+    }
+
+    private static boolean requestsRevalidation(Map<String, List<String>> requestHeaders) {
+        for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+            String name = header.getKey();
+            if (name != null && (name.equalsIgnoreCase("Cache-Control") || name.equalsIgnoreCase("Pragma"))
+                    && header.getValue().toString().toLowerCase(Locale.ROOT).contains("no-cache")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isStorable(Map<String, List<String>> headers, CachedResponse probe) {
+        List<String> status = headers.get(null);
+        if (status == null || status.isEmpty() || !status.get(0).matches("HTTP/\\S+ 200.*")) {
+            return false;
+        }
+        String cacheControl = lower(probe.getHeader("Cache-Control"));
+        if (cacheControl.contains("no-store")) {
+            return false;
+        }
+        String vary = lower(probe.getHeader("Vary"));
+        if (!vary.isEmpty() && !vary.equals("accept-encoding")) {
+            return false;
+        }
+        String length = probe.getHeader("Content-Length");
+        try {
+            return length == null || Long.parseLong(length) <= DISK_ENTRY_BYTES;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long computeExpiresAt(CachedResponse response, long now) {
+        String cacheControl = lower(response.getHeader("Cache-Control"));
+        if (cacheControl.contains("no-cache")) {
+            return now;
+        }
+        for (String directive : cacheControl.split(",")) {
+            String trimmed = directive.trim();
+            if (trimmed.startsWith("max-age=")) {
+                try {
+                    return now + Long.parseLong(trimmed.substring("max-age=".length())) * 1000;
+                } catch (NumberFormatException e) {
+                    return now;
+                }
+            }
+        }
+        long date = parseDate(response.getHeader("Date"), now);
+        String expires = response.getHeader("Expires");
+        if (expires != null) {
+            return now + Math.max(0, parseDate(expires, date) - date);
+        }
+        String lastModified = response.getHeader("Last-Modified");
+        if (lastModified != null) {
+            // Heuristic freshness: a tenth of the resource's age, capped at a day
+            long age = Math.max(0, date - parseDate(lastModified, date));
+            return now + Math.min(age / 10, MAX_HEURISTIC_MILLIS);
+        }
+        return now;
+    }
+
+    private static long parseDate(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            return fallback;
+        }
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    private static Map<String, List<String>> copyHeaders(Map<String, List<String>> source) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : source.entrySet()) {
+            // Cookies belong to the cookie store, never to replayed responses
+            if (header.getKey() == null || !header.getKey().toLowerCase(Locale.ROOT).startsWith("set-cookie")) {
+                headers.put(header.getKey(), Collections.unmodifiableList(new ArrayList<>(header.getValue())));
+            }
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Collects the response body while HttpURLConnection streams it to the caller,
+     * then stores the complete response. Oversized bodies are dropped.
+     */
+    private final class BufferingCacheRequest extends CacheRequest {
+        private final String key;
+        private final Map<String, List<String>> headers;
+        private final String cipherSuite;
+        private final List<Certificate> certificates;
+        private final long storedAt;
+        private final long expiresAt;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private boolean aborted;
+
+        private BufferingCacheRequest(String key, Map<String, List<String>> headers, String cipherSuite,
+                                      List<Certificate> certificates, long storedAt, long expiresAt) {
+            this.key = key;
+            this.headers = headers;
+            this.cipherSuite = cipherSuite;
+            this.certificates = certificates;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) {
+                    if (aborted) {
+                        return;
+                    }
+                    if (buffer.size() + length > DISK_ENTRY_BYTES) {
+                        abort();
+                        return;
+                    }
+                    buffer.write(bytes, offset, length);
+                }
+
+                @Override
+                public void close() {
+                    if (!aborted) {
+                        aborted = true;
+                        store(key, new CachedResponse(headers, buffer.toByteArray(), cipherSuite,
+                                certificates, storedAt, expiresAt));
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+            buffer.reset();
+        }
+    }
+}
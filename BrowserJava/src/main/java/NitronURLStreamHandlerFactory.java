@@ -0,0 +1,280 @@
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ResponseCache;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.URLStreamHandlerFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * NitronURLStreamHandlerFactory is the interception layer for the browser's networking.
+ * WebView's legacy loader opens every request through java.net.URL, so installing
+ * this factory lets the ContentBlocker veto http and https requests before any
+ * connection is made. Requests no rule can match go straight to the JDK's own protocol
+ * handlers, wrapped in a CacheableConnection when a ResponseCache is installed; the others
+ * are decided once WebKit has set their Referer, which names the page that made them.
+ * The factory also serves the browser's own nitron:// pages and saved pages under nitron-offline://.
+ */
+public class NitronURLStreamHandlerFactory implements URLStreamHandlerFactory {
+    /**
+     * System property that makes WebKit load through java.net.URLConnection
+     * instead of its java.net.http client, which bypasses URL handlers
+     */
+    public static final String WEBKIT_HTTP2_LOADER_PROPERTY = "com.sun.webkit.useHTTP2Loader";
+
+    /**
+     * Scheme of the browser's internal pages
+     */
+    public static final String INTERNAL_SCHEME = "nitron";
+
+    private final ContentBlocker contentBlocker;
+    private final Map<String, InternalPage> internalPages = new ConcurrentHashMap<>();
+    private volatile PageArchive pageArchive;
+    private final URL httpTemplate;
+    private final URL httpsTemplate;
+
+    private NitronURLStreamHandlerFactory(ContentBlocker contentBlocker) throws MalformedURLException {
+        this.contentBlocker = contentBlocker;
+        // Created before the factory is installed, so they carry the JDK default handlers
+        this.httpTemplate = new URL("http://localhost/");
+        this.httpsTemplate = new URL("https://localhost/");
+    }
+
+    /**
+     * Install the factory for the whole JVM. Must run before the first WebView is created.
+     * @param contentBlocker The blocker consulted for every http and https request
+     * @return The installed factory
+     */
+    public static NitronURLStreamHandlerFactory install(ContentBlocker contentBlocker) {
+        try {
+            NitronURLStreamHandlerFactory factory = new NitronURLStreamHandlerFactory(contentBlocker);
+            URL.setURLStreamHandlerFactory(factory);
+            return factory;
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException("Cannot capture default URL handlers", e);
+        }
+    }
+
+    /**
+     * Register an internal page under nitron://&lt;host&gt;
+     * @param host The host part of the page URL, for example "perf"
+     * @param page The page renderer
+     */
+    public void registerInternalPage(String host, InternalPage page) {
+        internalPages.put(host, page);
+    }
+
+    /**
+     * Serve saved pages from an archive under nitron-offline://
+     * @param pageArchive The archive
+     */
+    public void setPageArchive(PageArchive pageArchive) {
+        this.pageArchive = pageArchive;
+    }
+
+    @Override
+    public URLStreamHandler createURLStreamHandler(String protocol) {
+        switch (protocol) {
+            case "http":
+                return new FilteringHandler(httpTemplate);
+            case "https":
+                return new FilteringHandler(httpsTemplate);
+            case INTERNAL_SCHEME:
+                return new InternalPageHandler();
+            case PageArchive.OFFLINE_SCHEME:
+                return new OfflinePageHandler();
+            default:
+                // Fall back to the JDK handler for every other protocol
+                return null;
+        }
+    }
+
+    /**
+     * Checks each request against the ContentBlocker and delegates allowed ones
+     */
+    private final class FilteringHandler extends URLStreamHandler {
+        private final URL template;
+
+        private FilteringHandler(URL template) {
+            this.template = template;
+        }
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            return openConnection(url, null);
+        }
+
+        @Override
+        protected URLConnection openConnection(URL url, Proxy proxy) throws IOException {
+            String spec = url.toExternalForm();
+            boolean mayBlock = contentBlocker.mayBlock(spec);
+            URL direct = new URL(template, spec);
+            URLConnection connection = proxy == null ? direct.openConnection() : direct.openConnection(proxy);
+            boolean cacheable = ResponseCache.getDefault() != null && !NitronResponseCache.isBypassed();
+            if (!(connection instanceof HttpURLConnection)) {
+                return mayBlock && contentBlocker.shouldBlock(spec, null) ? new BlockedConnection(url) : connection;
+            }
+            if (mayBlock) {
+                return new FilteredConnection((HttpURLConnection) connection, spec, cacheable);
+            }
+            return cacheable ? new CacheableConnection((HttpURLConnection) connection) : connection;
+        }
+
+        @Override
+        protected int getDefaultPort() {
+            return template.getDefaultPort();
+        }
+    }
+
+    /**
+     * Serves nitron:// URLs from the registered internal pages
+     */
+    private final class InternalPageHandler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            InternalPage page = internalPages.get(url.getHost());
+            if (page == null) {
+                throw new FileNotFoundException("No internal page: " + url);
+            }
+            return new InternalPageConnection(url, page);
+        }
+    }
+
+    /**
+     * Serves nitron-offline:// URLs from the page archive
+     */
+    private final class OfflinePageHandler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            PageArchive archive = pageArchive;
+            if (archive == null) {
+                throw new FileNotFoundException("No page archive: " + url);
+            }
+            String spec = url.toExternalForm();
+            return new InternalPageConnection(url, path -> {
+                InternalPage.Content content = archive.load(spec);
+                if (content == null) {
+                    throw new FileNotFoundException("Not saved for offline use: " + spec);
+                }
+                return content;
+            });
+        }
+    }
+
+    /**
+     * Connection that renders an internal page when it is read
+     */
+    private static final class InternalPageConnection extends URLConnection {
+        private final InternalPage page;
+        private InternalPage.Content content;
+
+        private InternalPageConnection(URL url, InternalPage page) {
+            super(url);
+            this.page = page;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (content == null) {
+                String path = url.getPath().isEmpty() ? "/" : url.getPath();
+                content = page.render(path);
+                connected = true;
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return new ByteArrayInputStream(content.getBody());
+        }
+
+        @Override
+        public String getContentType() {
+            try {
+                connect();
+                return content.getContentType();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                connect();
+                return content.getBody().length;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Connection for a request that a rule may block. The decision waits until the request is
+     * sent, because only then has WebKit added the Referer of the page making it.
+     */
+    private final class FilteredConnection extends CacheableConnection {
+        private final String spec;
+        private final boolean cacheable;
+        private Boolean blocked;
+
+        private FilteredConnection(HttpURLConnection delegate, String spec, boolean cacheable) {
+            super(delegate);
+            this.spec = spec;
+            this.cacheable = cacheable;
+        }
+
+        @Override
+        public void setUseCaches(boolean useCaches) {
+            if (!cacheable) {
+                delegate.setUseCaches(useCaches);
+            }
+        }
+
+        @Override
+        protected void beforeRequest() throws IOException {
+            if (blocked == null) {
+                blocked = contentBlocker.shouldBlock(spec, delegate.getRequestProperty("Referer"));
+            }
+            if (blocked) {
+                throw new IOException("Blocked by content blocker: " + url);
+            }
+        }
+    }
+
+    /**
+     * Connection returned for blocked requests. It fails immediately without touching the network.
+     */
+    private static final class BlockedConnection extends HttpURLConnection {
+        private BlockedConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            throw new IOException("Blocked by content blocker: " + url);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return null;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,577 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * PageArchive saves pages with their subresources for offline reading.
+ *
+ * A saved page is a manifest listing the page and every image, script, stylesheet and font it
+ * uses, each as a list of chunk hashes in a ChunkStore, so assets shared between pages are
+ * stored once. Saved pages are served back under nitron-offline://, which mirrors the original
+ * host and path so relative links keep working; absolute links to archived resources are
+ * rewritten to the offline scheme as the page is served.
+ *
+ * Pinned pages (bookmarks made available offline) are refreshed in the background every
+ * -Dnitron.offline.refreshHours hours (default 6).
+ */
+public class PageArchive {
+    /**
+     * Scheme that serves archived pages
+     */
+    public static final String OFFLINE_SCHEME = "nitron-offline";
+
+    private static final int MAX_RESOURCES = 300;
+    private static final int MAX_RESOURCE_BYTES = 16 * 1024 * 1024;
+    private static final int TIMEOUT_MILLIS = 15_000;
+    private static final Pattern TAG = Pattern.compile("<(img|script|link|source|video|audio|iframe|embed|input)\\b[^>]*>",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("\\b(src|href|poster)\\s*=\\s*(\"([^\"]*)\"|'([^']*)'|([^\\s>]+))",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern CSS_URL = Pattern.compile("url\\(\\s*['\"]?([^'\")]+)['\"]?\\s*\\)|@import\\s+['\"]([^'\"]+)['\"]");
+    private static final Pattern ABSOLUTE_URL = Pattern.compile("https?://[^\\s\"'()<>]+");
+
+    private final Path directory;
+    private final ChunkStore chunks;
+    private final Map<String, Page> pages = new HashMap<>();
+    private final Map<String, Resource> resources = new HashMap<>();
+    private final Set<String> pinned = new LinkedHashSet<>();
+    private final ScheduledExecutorService worker;
+
+    /**
+     * Constructor for PageArchive
+     * @param directory Directory holding the manifests and chunk packs
+     */
+    public PageArchive(Path directory) {
+        this.directory = directory;
+        this.chunks = new ChunkStore(directory.resolve("chunks"));
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nitron-offline-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Load the manifests and open the chunk store. Reads from disk, so call it off the FX thread.
+     * @throws IOException if the archive cannot be read
+     */
+    public void open() throws IOException {
+        StorageExecutor.checkNotOnFxThread("PageArchive.open");
+        chunks.open();
+        Path pageDir = Files.createDirectories(directory.resolve("pages"));
+        synchronized (this) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(pageDir, "*.page")) {
+                for (Path file : files) {
+                    try {
+                        index(Page.read(file));
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("Skipping unreadable archived page " + file + ": " + e.getMessage());
+                    }
+                }
+            }
+            Path pinnedFile = directory.resolve("pinned.list");
+            if (Files.exists(pinnedFile)) {
+                pinned.addAll(Files.readAllLines(pinnedFile, StandardCharsets.UTF_8));
+                pinned.remove("");
+            }
+        }
+    }
+
+    /**
+     * Refresh pinned pages periodically in the background
+     */
+    public void startBackgroundRefresh() {
+        long hours = Long.getLong("nitron.offline.refreshHours", 6);
+        worker.scheduleWithFixedDelay(() -> refreshPinned(TimeUnit.HOURS.toMillis(hours)), 1, hours * 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Save a page and its subresources in the background
+     * @param pageUrl The http or https page URL
+     * @return Completes with the number of resources saved
+     */
+    public CompletableFuture<Integer> saveAsync(String pageUrl) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        worker.execute(() -> {
+            try {
+                result.complete(save(pageUrl));
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Save a page and its subresources, replacing any earlier copy. Runs on the archive thread
+     * only, so compaction never races a save whose chunks are not in a manifest yet.
+     */
+    private int save(String pageUrl) throws IOException {
+        Page page = new Page(pageUrl, System.currentTimeMillis());
+        Resource html = fetch(pageUrl);
+        page.resources.add(html);
+
+        Set<String> pending = new LinkedHashSet<>();
+        collectLinks(html, pending);
+        Set<String> seen = new HashSet<>(Collections.singleton(pageUrl));
+        List<String> queue = new ArrayList<>(pending);
+        for (int i = 0; i < queue.size() && page.resources.size() < MAX_RESOURCES; i++) {
+            String url = queue.get(i);
+            if (!seen.add(url)) {
+                continue;
+            }
+            try {
+                Resource resource = fetch(url);
+                page.resources.add(resource);
+                // Stylesheets pull in fonts, images and other stylesheets
+                if (resource.isCss()) {
+                    Set<String> nested = new LinkedHashSet<>();
+                    collectLinks(resource, nested);
+                    queue.addAll(nested);
+                }
+            } catch (IOException e) {
+                // A missing image should not stop the rest of the page being saved
+                System.err.println("Could not archive " + url + ": " + e.getMessage());
+            }
+        }
+
+        for (Resource resource : page.resources) {
+            resource.body = null;
+        }
+        Path file = manifestFile(pageUrl);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        page.write(temp);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            index(page);
+        }
+        return page.resources.size();
+    }
+
+    private Resource fetch(String url) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (connection instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) connection).getResponseCode();
+            if (status >= 400) {
+                throw new IOException("HTTP " + status);
+            }
+        }
+        long length = connection.getContentLengthLong();
+        if (length > MAX_RESOURCE_BYTES) {
+            throw new IOException("Too large to archive: " + length + " bytes");
+        }
+        byte[] body;
+        try (InputStream in = connection.getInputStream()) {
+            body = in.readNBytes(MAX_RESOURCE_BYTES + 1);
+        }
+        if (body.length > MAX_RESOURCE_BYTES) {
+            throw new IOException("Too large to archive");
+        }
+        String contentType = connection.getContentType();
+        Resource resource = new Resource(url, contentType != null ? contentType : guessContentType(url),
+                body.length, chunks.put(body), body);
+        // Links in a redirected page are relative to where it ended up
+        resource.base = connection.getURL().toString();
+        return resource;
+    }
+
+    private void collectLinks(Resource resource, Set<String> links) {
+        String text = new String(resource.body, resource.charset());
+        if (resource.isHtml()) {
+            Matcher tag = TAG.matcher(text);
+            while (tag.find()) {
+                String element = tag.group();
+                boolean isLink = tag.group(1).equalsIgnoreCase("link");
+                String lower = element.toLowerCase(Locale.ROOT);
+                // Only links the page renders with, not navigation or prefetch hints
+                if (isLink && !(lower.contains("stylesheet") || lower.contains("icon") || lower.contains("preload"))) {
+                    continue;
+                }
+                Matcher attribute = ATTRIBUTE.matcher(element);
+                while (attribute.find()) {
+                    addLink(resource.base, firstNonNull(attribute.group(3), attribute.group(4), attribute.group(5)), links);
+                }
+            }
+        }
+        // Inline styles in pages and url() references in stylesheets
+        Matcher css = CSS_URL.matcher(text);
+        while (css.find()) {
+            addLink(resource.base, css.group(1) != null ? css.group(1) : css.group(2), links);
+        }
+    }
+
+    private static void addLink(String base, String reference, Set<String> links) {
+        if (reference == null || reference.startsWith("data:") || reference.startsWith("javascript:")
+                || reference.startsWith("#")) {
+            return;
+        }
+        try {
+            String resolved = new URL(new URL(base), reference.trim().replace("&amp;", "&")).toString();
+            if (resolved.startsWith("http://") || resolved.startsWith("https://")) {
+                links.add(resolved.replaceFirst("#.*$", ""));
+            }
+        } catch (IOException e) {
+            // Not a URL
+        }
+    }
+
+    private static String firstNonNull(String... values) {
+        for (String value : values) {
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serve an archived resource
+     * @param offlineUrl A nitron-offline:// URL
+     * @return The content, or null if it is not archived
+     * @throws IOException if the chunk store cannot be read
+     */
+    public InternalPage.Content load(String offlineUrl) throws IOException {
+        StorageExecutor.checkNotOnFxThread("PageArchive.load");
+        String rest = offlineUrl.substring(OFFLINE_SCHEME.length() + 3).replaceFirst("#.*$", "");
+        Resource resource;
+        synchronized (this) {
+            resource = resources.get("https://" + rest);
+            if (resource == null) {
+                resource = resources.get("http://" + rest);
+            }
+            // A host root may be requested as "host/" but saved as "host", or the other way round
+            if (resource == null) {
+                String other = rest.endsWith("/") ? rest.substring(0, rest.length() - 1) : rest + "/";
+                resource = resources.getOrDefault("https://" + other, resources.get("http://" + other));
+            }
+        }
+        if (resource == null) {
+            return null;
+        }
+        byte[] body = chunks.get(resource.hashes);
+        if (body == null) {
+            return null;
+        }
+        if (resource.isHtml() || resource.isCss()) {
+            body = rewriteLinks(new String(body, resource.charset())).getBytes(resource.charset());
+        }
+        return new InternalPage.Content(resource.contentType, body);
+    }
+
+    /**
+     * Point absolute links at archived copies where there are some
+     */
+    private synchronized String rewriteLinks(String text) {
+        Matcher matcher = ABSOLUTE_URL.matcher(text);
+        StringBuilder rewritten = new StringBuilder(text.length());
+        while (matcher.find()) {
+            String url = matcher.group().replace("&amp;", "&");
+            String replacement = resources.containsKey(url) ? toOfflineUrl(matcher.group()) : matcher.group();
+            matcher.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(rewritten);
+        return rewritten.toString();
+    }
+
+    /**
+     * Get the address of a page's archived copy
+     * @param pageUrl The original http or https URL
+     * @return The nitron-offline:// URL
+     */
+    public static String toOfflineUrl(String pageUrl) {
+        return OFFLINE_SCHEME + "://" + pageUrl.substring(pageUrl.indexOf("://") + 3);
+    }
+
+    /**
+     * Check whether a page has a complete archived copy
+     * @param pageUrl The original URL
+     * @return true if the page can be opened offline
+     */
+    public synchronized boolean isSaved(String pageUrl) {
+        Page page = pages.get(pageUrl);
+        return page != null && chunks.contains(page.resources.get(0).hashes);
+    }
+
+    /**
+     * Keep a page available offline and refresh it in the background
+     * @param pageUrl The page URL
+     * @return Completes when the first copy is saved
+     */
+    public CompletableFuture<Integer> pin(String pageUrl) {
+        StorageExecutor.checkNotOnFxThread("PageArchive.pin");
+        synchronized (this) {
+            pinned.add(pageUrl);
+            savePinned();
+        }
+        return saveAsync(pageUrl);
+    }
+
+    /**
+     * Stop keeping a page offline and delete its archived copy
+     * @param pageUrl The page URL
+     */
+    public void unpin(String pageUrl) {
+        StorageExecutor.checkNotOnFxThread("PageArchive.unpin");
+        synchronized (this) {
+            pinned.remove(pageUrl);
+            savePinned();
+        }
+        remove(pageUrl);
+    }
+
+    /**
+     * Check whether a page is kept available offline
+     * @param pageUrl The page URL
+     * @return true if pinned
+     */
+    public synchronized boolean isPinned(String pageUrl) {
+        return pinned.contains(pageUrl);
+    }
+
+    /**
+     * Delete a page's archived copy. Its chunks are reclaimed by the next compaction.
+     * @param pageUrl The page URL
+     */
+    public void remove(String pageUrl) {
+        worker.execute(() -> {
+            synchronized (this) {
+                if (pages.remove(pageUrl) == null) {
+                    return;
+                }
+                rebuildResourceIndex();
+            }
+            try {
+                Files.deleteIfExists(manifestFile(pageUrl));
+            } catch (IOException e) {
+                System.err.println("Could not delete archived page: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Save pinned pages again when their copy is older than maxAgeMillis, then compact the store
+     * @param maxAgeMillis How old a copy may get before it is refreshed
+     */
+    public void refreshPinned(long maxAgeMillis) {
+        StorageExecutor.checkNotOnFxThread("PageArchive.refreshPinned");
+        List<String> due = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (String url : pinned) {
+                Page page = pages.get(url);
+                if (page == null || now - page.savedAt >= maxAgeMillis) {
+                    due.add(url);
+                }
+            }
+        }
+        for (String url : due) {
+            try {
+                int saved = save(url);
+                System.out.println("Refreshed offline copy of " + url + " (" + saved + " resources)");
+            } catch (IOException e) {
+                // Keep the old copy until the page can be fetched again
+                System.err.println("Could not refresh offline copy of " + url + ": " + e.getMessage());
+            }
+        }
+        compact();
+    }
+
+    private void compact() {
+        Set<String> live = new HashSet<>();
+        synchronized (this) {
+            for (Page page : pages.values()) {
+                for (Resource resource : page.resources) {
+                    live.addAll(resource.hashes);
+                }
+            }
+        }
+        try {
+            long reclaimed = chunks.compact(live);
+            if (reclaimed > 0) {
+                System.out.println("Compacted page archive, reclaimed " + reclaimed / 1024 + " KB");
+            }
+        } catch (IOException e) {
+            System.err.println("Could not compact page archive: " + e.getMessage());
+        }
+    }
+
+    private void index(Page page) {
+        pages.put(page.url, page);
+        rebuildResourceIndex();
+    }
+
+    /**
+     * Map every archived resource URL to its newest copy
+     */
+    private void rebuildResourceIndex() {
+        List<Page> byAge = new ArrayList<>(pages.values());
+        byAge.sort((a, b) -> Long.compare(a.savedAt, b.savedAt));
+        resources.clear();
+        for (Page page : byAge) {
+            for (Resource resource : page.resources) {
+                resources.put(resource.url, resource);
+            }
+        }
+    }
+
+    private void savePinned() {
+        try {
+            Files.createDirectories(directory);
+            Files.write(directory.resolve("pinned.list"), pinned, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Could not save offline pages list: " + e.getMessage());
+        }
+    }
+
+    private Path manifestFile(String pageUrl) {
+        return directory.resolve("pages").resolve(ChunkStore.sha256Hex(pageUrl).substring(0, 32) + ".page");
+    }
+
+    private static String guessContentType(String url) {
+        String path = url.replaceFirst("[?#].*$", "").toLowerCase(Locale.ROOT);
+        Map<String, String> types = new LinkedHashMap<>();
+        types.put(".css", "text/css");
+        types.put(".js", "application/javascript");
+        types.put(".png", "image/png");
+        types.put(".jpg", "image/jpeg");
+        types.put(".jpeg", "image/jpeg");
+        types.put(".gif", "image/gif");
+        types.put(".svg", "image/svg+xml");
+        types.put(".woff2", "font/woff2");
+        types.put(".woff", "font/woff");
+        for (Map.Entry<String, String> type : types.entrySet()) {
+            if (path.endsWith(type.getKey())) {
+                return type.getValue();
+            }
+        }
+        return "text/html";
+    }
+
+    /**
+     * Stop background work and close the chunk store
+     */
+    public void close() {
+        worker.shutdownNow();
+        chunks.close();
+    }
+
+    /**
+     * Get archive statistics
+     * @return Statistics as formatted string
+     */
+    public synchronized String getStatisticsAsString() {
+        return String.format("Page archive: %d pages (%d offline), %d resources, %d chunks, %d KB packed, %d KB deduplicated",
+                pages.size(), pinned.size(), resources.size(), chunks.getChunkCount(),
+                chunks.getSizeBytes() / 1024, chunks.getDedupedBytes() / 1024);
+    }
+
+    /**
+     * A saved page: the page itself followed by its subresources
+     */
+    private static final class Page {
+        private final String url;
+        private final long savedAt;
+        private final List<Resource> resources = new ArrayList<>();
+
+        private Page(String url, long savedAt) {
+            this.url = url;
+            this.savedAt = savedAt;
+        }
+
+        private void write(Path file) throws IOException {
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write(url + "\t" + savedAt);
+                out.newLine();
+                for (Resource resource : resources) {
+                    out.write(resource.url + "\t" + resource.contentType + "\t" + resource.length + "\t"
+                            + String.join(",", resource.hashes));
+                    out.newLine();
+                }
+            }
+        }
+
+        private static Page read(Path file) throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String[] header = in.readLine().split("\t");
+                Page page = new Page(header[0], Long.parseLong(header[1]));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    List<String> hashes = fields[3].isEmpty() ? List.of() : Arrays.asList(fields[3].split(","));
+                    page.resources.add(new Resource(fields[0], fields[1], Integer.parseInt(fields[2]), hashes, null));
+                }
+                if (page.resources.isEmpty()) {
+                    throw new IOException("Empty manifest");
+                }
+                return page;
+            }
+        }
+    }
+
+    /**
+     * One archived response
+     */
+    private static final class Resource {
+        private final String url;
+        private final String contentType;
+        private final int length;
+        private final List<String> hashes;
+        // Only held while the page is being saved, to find the links in it
+        private byte[] body;
+        private String base;
+
+        private Resource(String url, String contentType, int length, List<String> hashes, byte[] body) {
+            this.url = url;
+            this.contentType = contentType.replace("\t", " ");
+            this.length = length;
+            this.hashes = hashes;
+            this.body = body;
+            this.base = url;
+        }
+
+        private java.nio.charset.Charset charset() {
+            Matcher charset = Pattern.compile("charset=\"?([\\w.:-]+)", Pattern.CASE_INSENSITIVE).matcher(contentType);
+            try {
+                return charset.find() ? java.nio.charset.Charset.forName(charset.group(1)) : StandardCharsets.UTF_8;
+            } catch (IllegalArgumentException e) {
+                return StandardCharsets.UTF_8;
+            }
+        }
+
+        private boolean isHtml() {
+            return contentType.toLowerCase(Locale.ROOT).contains("html");
+        }
+
+        private boolean isCss() {
+            return contentType.toLowerCase(Locale.ROOT).contains("css");
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * PageLoadTimer timestamps the load worker transitions of each WebEngine and,
+ * when a page succeeds, collects the page's own Navigation Timing and Paint entries.
+ * Durations are recorded per domain in the MetricsRegistry and the most recent
+ * navigations are kept for export.
+ */
+public class PageLoadTimer {
+    private static final int RECENT_NAVIGATIONS = 500;
+
+    // Returns "ttfb,domContentLoaded,load,firstPaint,firstContentfulPaint" relative to navigationStart, -1 if unknown
+    private static final String TIMING_SCRIPT = "(function() { try { "
+            + "var t = window.performance && performance.timing; if (!t) { return ''; } "
+            + "var s = t.navigationStart; "
+            + "function rel(v) { return v > 0 ? v - s : -1; } "
+            + "var fp = -1, fcp = -1; "
+            + "if (performance.getEntriesByType) { performance.getEntriesByType('paint').forEach(function(e) { "
+            + "if (e.name === 'first-paint') { fp = Math.round(e.startTime); } "
+            + "if (e.name === 'first-contentful-paint') { fcp = Math.round(e.startTime); } }); } "
+            + "return [rel(t.responseStart), rel(t.domContentLoadedEventEnd), rel(t.loadEventEnd), fp, fcp].join(','); "
+            + "} catch (e) { return ''; } })()";
+
+    private static final String[] TIMING_NAMES = {"ttfb", "domContentLoaded", "load", "firstPaint", "firstContentfulPaint"};
+
+    private final MetricsRegistry metrics;
+    private final Deque<NavigationRecord> recent = new ArrayDeque<>();
+
+    /**
+     * Constructor for PageLoadTimer
+     * @param metrics The registry receiving the per-domain histograms
+     */
+    public PageLoadTimer(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Start timing every load of an engine
+     * @param engine The engine to instrument
+     * @param onFinished Called on the FX thread with each finished navigation
+     */
+    public void track(WebEngine engine, Consumer<NavigationRecord> onFinished) {
+        long[] scheduledAt = new long[1];
+        long[] runningAt = new long[1];
+        NitronEvents.LoadStateEvent[] inState = new NitronEvents.LoadStateEvent[1];
+        engine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
+            long now = System.nanoTime();
+            inState[0] = recordTransition(engine, inState[0], oldState, newState);
+            switch (newState) {
+                case SCHEDULED:
+                    scheduledAt[0] = now;
+                    runningAt[0] = 0;
+                    break;
+                case RUNNING:
+                    runningAt[0] = now;
+                    if (scheduledAt[0] == 0) {
+                        scheduledAt[0] = now;
+                    }
+                    break;
+                case SUCCEEDED:
+                case FAILED:
+                case CANCELLED:
+                    if (scheduledAt[0] != 0) {
+                        NavigationRecord record = finish(engine, newState, scheduledAt[0], runningAt[0], now);
+                        scheduledAt[0] = 0;
+                        onFinished.accept(record);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Commit the flight recorder event for the state being left and begin one for the next
+     * @return The event timing the new state, or null once the load has finished
+     */
+    private static NitronEvents.LoadStateEvent recordTransition(WebEngine engine, NitronEvents.LoadStateEvent leaving,
+                                                              Worker.State oldState, Worker.State newState) {
+        if (leaving != null) {
+            leaving.end();
+            if (leaving.shouldCommit()) {
+                leaving.url = engine.getLocation();
+                leaving.state = oldState.name();
+                leaving.nextState = newState.name();
+                if (newState == Worker.State.SUCCEEDED) {
+                    leaving.elements = countElements(engine);
+                }
+                leaving.commit();
+            }
+        }
+        if (newState != Worker.State.SCHEDULED && newState != Worker.State.RUNNING) {
+            // Finished or idle engines are not timed
+            return null;
+        }
+        NitronEvents.LoadStateEvent entering = new NitronEvents.LoadStateEvent();
+        entering.begin();
+        return entering;
+    }
+
+    private static int countElements(WebEngine engine) {
+        try {
+            Object count = engine.executeScript("document.getElementsByTagName('*').length");
+            return count instanceof Number ? ((Number) count).intValue() : -1;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the most recent navigations, oldest first
+     * @return Snapshot of the recent navigations
+     */
+    public synchronized List<NavigationRecord> getRecentNavigations() {
+        return new ArrayList<>(recent);
+    }
+
+    private NavigationRecord finish(WebEngine engine, Worker.State state, long scheduledAt, long runningAt, long finishedAt) {
+        String url = engine.getLocation();
+        String domain = domainOf(url);
+        long queuedMillis = runningAt == 0 ? -1 : (runningAt - scheduledAt) / 1_000_000;
+        long totalMillis = (finishedAt - scheduledAt) / 1_000_000;
+        long[] timings = {-1, -1, -1, -1, -1};
+
+        metrics.counter("page." + state.name().toLowerCase() + "." + domain).increment();
+        if (state == Worker.State.SUCCEEDED) {
+            metrics.histogram("page.total." + domain).record(totalMillis);
+            timings = readNavigationTiming(engine);
+            for (int i = 0; i < TIMING_NAMES.length; i++) {
+                if (timings[i] >= 0) {
+                    metrics.histogram("page." + TIMING_NAMES[i] + "." + domain).record(timings[i]);
+                }
+            }
+        }
+
+        NavigationRecord record = new NavigationRecord(System.currentTimeMillis(), url, domain, state.name(),
+                queuedMillis, totalMillis, timings);
+        synchronized (this) {
+            recent.addLast(record);
+            if (recent.size() > RECENT_NAVIGATIONS) {
+                recent.removeFirst();
+            }
+        }
+        return record;
+    }
+
+    private static long[] readNavigationTiming(WebEngine engine) {
+        long[] timings = {-1, -1, -1, -1, -1};
+        try {
+            Object result = engine.executeScript(TIMING_SCRIPT);
+            if (result instanceof String && !((String) result).isEmpty()) {
+                String[] parts = ((String) result).split(",");
+                for (int i = 0; i < Math.min(parts.length, timings.length); i++) {
+                    timings[i] = Long.parseLong(parts[i].trim());
+                }
+            }
+        } catch (RuntimeException e) {
+            // Pages without a script context (images, plain text) have no timing entries
+        }
+        return timings;
+    }
+
+    private static String domainOf(String url) {
+        if (url == null) {
+            return "unknown";
+        }
+        String domain = url.replaceFirst("^[a-zA-Z][a-zA-Z0-9+.-]*://", "");
+        int end = 0;
+        while (end < domain.length() && "/?#:".indexOf(domain.charAt(end)) < 0) {
+            end++;
+        }
+        return end == 0 ? "unknown" : domain.substring(0, end);
+    }
+
+    /**
+     * One finished navigation
+     */
+    public static final class NavigationRecord {
+        private final long finishedAt;
+        private final String url;
+        private final String domain;
+        private final String state;
+        private final long queuedMillis;
+        private final long totalMillis;
+        private final long[] timings;
+
+        private NavigationRecord(long finishedAt, String url, String domain, String state,
+                                 long queuedMillis, long totalMillis, long[] timings) {
+            this.finishedAt = finishedAt;
+            this.url = url;
+            this.domain = domain;
+            this.state = state;
+            this.queuedMillis = queuedMillis;
+            this.totalMillis = totalMillis;
+            this.timings = timings;
+        }
+
+        /**
+         * Get the time the navigation finished
+         * @return Time in epoch milliseconds
+         */
+        public long getFinishedAt() {
+            return finishedAt;
+        }
+
+        /**
+         * Get the URL the engine ended on
+         * @return The URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get the domain the navigation is recorded under
+         * @return The domain
+         */
+        public String getDomain() {
+            return domain;
+        }
+
+        /**
+         * Get the final load worker state
+         * @return SUCCEEDED, FAILED or CANCELLED
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * Get the time between SCHEDULED and RUNNING
+         * @return Milliseconds, or -1 if the load never ran
+         */
+        public long getQueuedMillis() {
+            return queuedMillis;
+        }
+
+        /**
+         * Get the time between SCHEDULED and the final state
+         * @return Milliseconds
+         */
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        /**
+         * Get the Navigation Timing and Paint values, -1 where unknown
+         * @return ttfb, domContentLoaded, load, firstPaint and firstContentfulPaint in milliseconds
+         */
+        public long[] getTimings() {
+            return timings.clone();
+        }
+
+        /**
+         * Get the names of the values returned by getTimings()
+         * @return The timing names
+         */
+        public static String[] getTimingNames() {
+            return TIMING_NAMES.clone();
+        }
+    }
+}
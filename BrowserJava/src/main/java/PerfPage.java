@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PerfPage is the internal nitron://perf page.
+ * It shows the per-domain page load histograms from the MetricsRegistry, the startup timeline, the
+ * memory governor's recent actions and, when the frame monitor runs, frame pacing and long frames, and
+ * exports the recent navigations as CSV or JSON under ~/.nitron/perf for offline analysis.
+ */
+public class PerfPage implements InternalPage {
+    private final MetricsRegistry metrics;
+    private final PageLoadTimer pageLoadTimer;
+    private final MemoryGovernor memoryGovernor;
+    private final FrameMonitor frameMonitor;
+
+    /**
+     * Constructor for PerfPage
+     * @param metrics The registry holding the load histograms
+     * @param pageLoadTimer The timer holding the recent navigations
+     * @param memoryGovernor The governor whose pressure level and actions are shown
+     * @param frameMonitor The monitor whose frame times are shown, or null if it is not running
+     */
+    public PerfPage(MetricsRegistry metrics, PageLoadTimer pageLoadTimer, MemoryGovernor memoryGovernor,
+                    FrameMonitor frameMonitor) {
+        this.metrics = metrics;
+        this.pageLoadTimer = pageLoadTimer;
+        this.memoryGovernor = memoryGovernor;
+        this.frameMonitor = frameMonitor;
+    }
+
+    @Override
+    public Content render(String path) throws IOException {
+        switch (path) {
+            case "/export.csv":
+                return exported("csv", toCsv(pageLoadTimer.getRecentNavigations()));
+            case "/export.json":
+                return exported("json", toJson(pageLoadTimer.getRecentNavigations()));
+            default:
+                return Content.html(renderSummary());
+        }
+    }
+
+    private String renderSummary() {
+        StringBuilder html = new StringBuilder();
+        html.append("<html><head><title>Nitron performance</title><style>")
+            .append("body { font-family: sans-serif; margin: 20px; } ")
+            .append("table { border-collapse: collapse; } td, th { border: 1px solid #999; padding: 4px 8px; text-align: right; } ")
+            .append("td:first-child, th:first-child { text-align: left; }")
+            .append("</style></head><body><h1>Page load performance</h1>")
+            .append("<p><a href=\"nitron://perf/export.csv\">Export CSV</a> | ")
+            .append("<a href=\"nitron://perf/export.json\">Export JSON</a></p>")
+            .append("<table><tr><th>Metric</th><th>Count</th><th>Mean ms</th><th>p50</th><th>p90</th><th>p99</th><th>Max</th></tr>");
+        for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            html.append("<tr><td>").append(escape(entry.getKey())).append("</td>")
+                .append("<td>").append(histogram.getCount()).append("</td>")
+                .append("<td>").append(String.format("%.1f", histogram.getMean())).append("</td>")
+                .append("<td>").append(histogram.getPercentile(50)).append("</td>")
+                .append("<td>").append(histogram.getPercentile(90)).append("</td>")
+                .append("<td>").append(histogram.getPercentile(99)).append("</td>")
+                .append("<td>").append(histogram.getMax()).append("</td></tr>");
+        }
+        html.append("</table><h2>Counters</h2><table><tr><th>Counter</th><th>Value</th></tr>");
+        for (Map.Entry<String, Long> entry : metrics.getCounters().entrySet()) {
+            html.append("<tr><td>").append(escape(entry.getKey())).append("</td><td>")
+                .append(entry.getValue()).append("</td></tr>");
+        }
+        html.append("</table><h2>Startup</h2><table><tr><th>Milestone</th><th>ms since JVM start</th></tr>");
+        for (Map.Entry<String, Long> entry : StartupTimeline.getMillisSinceJvmStart().entrySet()) {
+            html.append("<tr><td>").append(entry.getKey()).append("</td><td>")
+                .append(entry.getValue()).append("</td></tr>");
+        }
+        html.append("</table><h2>Memory</h2><p>Pressure: ").append(memoryGovernor.getLevel()).append("</p><ul>");
+        for (String action : memoryGovernor.getActions()) {
+            html.append("<li>").append(escape(action)).append("</li>");
+        }
+        html.append("</ul>");
+        if (frameMonitor != null) {
+            LatencyHistogram frames = frameMonitor.getIntervals();
+            html.append("<h2>Frames</h2><p>").append(escape(frameMonitor.getStatisticsAsString())).append("</p>")
+                .append("<table><tr><th>Interval</th><th>ms</th></tr>");
+            for (double percentile : new double[] {50, 90, 99, 99.9}) {
+                html.append("<tr><td>p").append(percentile == 99.9 ? "99.9" : String.valueOf((int) percentile))
+                    .append("</td><td>").append(String.format("%.1f", frames.getPercentile(percentile) / 1000.0))
+                    .append("</td></tr>");
+            }
+            html.append("</table><table><tr><th>Long frame</th><th>ms</th><th>FX thread was in</th></tr>");
+            SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss");
+            for (FrameMonitor.LongFrame frame : frameMonitor.getLongFrames()) {
+                html.append("<tr><td>").append(time.format(new Date(frame.getEndedAt()))).append("</td><td>")
+                    .append(frame.getMillis()).append("</td><td>").append(escape(frame.getActivity()))
+                    .append("</td></tr>");
+            }
+            html.append("</table>");
+        }
+        html.append("</body></html>");
+        return html.toString();
+    }
+
+    private Content exported(String extension, String data) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path file = NitronPaths.directory("perf").resolve("navigations-" + stamp + "." + extension);
+        Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+        return Content.html("<html><body style=\"font-family: sans-serif; margin: 20px;\">"
+                + "<p>Exported " + pageLoadTimer.getRecentNavigations().size() + " navigations to <b>"
+                + escape(file.toString()) + "</b></p><p><a href=\"nitron://perf\">Back</a></p>"
+                + "<pre>" + escape(data) + "</pre></body></html>");
+    }
+
+    /**
+     * Format navigations as CSV
+     * @param navigations The navigations to export
+     * @return CSV text with a header row
+     */
+    static String toCsv(List<PageLoadTimer.NavigationRecord> navigations) {
+        StringBuilder csv = new StringBuilder("finishedAt,url,domain,state,queuedMs,totalMs");
+        for (String name : PageLoadTimer.NavigationRecord.getTimingNames()) {
+            csv.append(',').append(name).append("Ms");
+        }
+        csv.append('\n');
+        for (PageLoadTimer.NavigationRecord record : navigations) {
+            csv.append(record.getFinishedAt()).append(',')
+               .append('"').append(String.valueOf(record.getUrl()).replace("\"", "\"\"")).append("\",")
+               .append(record.getDomain()).append(',')
+               .append(record.getState()).append(',')
+               .append(record.getQueuedMillis()).append(',')
+               .append(record.getTotalMillis());
+            for (long timing : record.getTimings()) {
+                csv.append(',').append(timing);
+            }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Format navigations as a JSON array
+     * @param navigations The navigations to export
+     * @return JSON text
+     */
+    static String toJson(List<PageLoadTimer.NavigationRecord> navigations) {
+        String[] names = PageLoadTimer.NavigationRecord.getTimingNames();
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < navigations.size(); i++) {
+            PageLoadTimer.NavigationRecord record = navigations.get(i);
+            json.append("  {\"finishedAt\": ").append(record.getFinishedAt())
+                .append(", \"url\": \"").append(jsonEscape(String.valueOf(record.getUrl())))
+                .append("\", \"domain\": \"").append(jsonEscape(record.getDomain()))
+                .append("\", \"state\": \"").append(record.getState())
+                .append("\", \"queuedMs\": ").append(record.getQueuedMillis())
+                .append(", \"totalMs\": ").append(record.getTotalMillis());
+            long[] timings = record.getTimings();
+            for (int t = 0; t < names.length; t++) {
+                json.append(", \"").append(names[t]).append("Ms\": ").append(timings[t]);
+            }
+            json.append(i < navigations.size() - 1 ? "},\n" : "}\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String jsonEscape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
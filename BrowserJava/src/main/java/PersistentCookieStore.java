@@ -0,0 +1,833 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PersistentCookieStore keeps cookies across restarts, so sites stay logged in.
+ *
+ * Cookies are indexed by domain. A lookup walks the request host's suffixes
+ * (a.b.example.com, b.example.com, example.com, com) with one hash lookup each, so its cost
+ * depends on the host, not on how many cookies are stored. Cookies set without a Domain attribute
+ * are host-only: they are found for their own host and not for its subdomains. Each domain's cookies are an immutable
+ * array replaced on every change, so lookups take no locks. Expired cookies are skipped on lookup
+ * and removed then.
+ *
+ * Changes to persistent cookies are appended to cookies.log by a writer thread about once a
+ * second, so a burst of Set-Cookie headers costs one write. Session cookies stay in memory, as in
+ * other browsers. When the log has grown to more than twice the live cookies it is rewritten with
+ * only those. The log is read in the background at startup; requests made before it is read
+ * wait for it briefly, and the FX thread never does.
+ *
+ * The handler installed with install() serves WebKit's document.cookie requests too, which arrive
+ * with a javascript: URI and must not see HttpOnly cookies.
+ */
+public class PersistentCookieStore implements CookieStore {
+    /**
+     * System property that keeps WebView's own in-memory cookies when set to false
+     */
+    public static final String ENABLED_PROPERTY = "nitron.cookies";
+    private static final int LOG_MAGIC = 0x4E434B31;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+    private static final byte SECURE = 1;
+    private static final byte HTTP_ONLY = 2;
+    private static final byte HOST_ONLY = 4;
+    // Browsers keep about this many per domain; it also bounds the cost of one lookup
+    private static final int MAX_PER_DOMAIN = 180;
+    // Values past this are not persisted; real cookies are limited to 4 KB
+    private static final int MAX_PERSISTED_VALUE = 8192;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final int COMPACT_MIN_RECORDS = 10_000;
+    private static final long LOAD_WAIT_MILLIS = 2000;
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private final Path logFile;
+    private final Map<String, Entry[]> byDomain = new ConcurrentHashMap<>();
+    private final AtomicInteger cookieCount = new AtomicInteger();
+    private final AtomicInteger persistentCount = new AtomicInteger();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    // Cookies changed before the log was read; the log's older copies of them are ignored
+    private final Set<String> changedBeforeLoad = ConcurrentHashMap.newKeySet();
+    private volatile boolean clearedBeforeLoad;
+    // The FX thread, which must not wait for the log to be read
+    private volatile Thread uiThread;
+    private final Object pendingLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private DataOutputStream pendingOut = new DataOutputStream(pending);
+    private int pendingRecords;
+    private final Object logLock = new Object();
+    private FileChannel log;
+    private long logRecords;
+    private final ScheduledExecutorService writer;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder recordsWritten = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private volatile long loadMillis = -1;
+
+    /**
+     * Constructor for PersistentCookieStore
+     * @param directory Directory holding cookies.log
+     */
+    public PersistentCookieStore(Path directory) {
+        this.logFile = directory.resolve("cookies.log");
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nitron-cookie-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check whether cookies should be kept across restarts
+     * @return true unless -Dnitron.cookies=false is set
+     */
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+    }
+
+    /**
+     * Make a new store the cookie handler for WebView and URL connections. Call it on the FX
+     * thread before the first WebEngine is created; WebView only uses a handler installed by then.
+     * @param directory Directory holding cookies.log
+     * @return The store; call load() on it off the FX thread
+     */
+    public static PersistentCookieStore install(Path directory) {
+        PersistentCookieStore store = new PersistentCookieStore(directory);
+        store.uiThread = Thread.currentThread();
+        CookieHandler.setDefault(new Handler(store));
+        return store;
+    }
+
+    /**
+     * Read the cookies kept by earlier runs. Reads from disk, so call it off the FX thread.
+     */
+    public void load() {
+        StorageExecutor.checkNotOnFxThread("PersistentCookieStore.load");
+        long started = System.nanoTime();
+        Map<String, Entry> replayed = new HashMap<>();
+        long records = 0;
+        try {
+            Files.createDirectories(logFile.getParent());
+            byte[] bytes = Files.exists(logFile) ? Files.readAllBytes(logFile) : new byte[0];
+            if (bytes.length >= 4) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                if (in.readInt() != LOG_MAGIC) {
+                    throw new IOException("not a cookie log");
+                }
+                long valid = 4;
+                try {
+                    while (in.available() > 0) {
+                        readRecord(in, replayed);
+                        records++;
+                        valid = bytes.length - in.available();
+                    }
+                } catch (IOException e) {
+                    // The last write was cut short, or the disk garbled it; keep the records before it
+                    System.err.println("Cookie log damaged after " + records + " records; dropping "
+                            + (bytes.length - valid) + " bytes");
+                }
+                synchronized (logLock) {
+                    log = FileChannel.open(logFile, StandardOpenOption.WRITE);
+                    log.truncate(valid);
+                    log.position(valid);
+                }
+            } else {
+                // Nothing was saved before the header; the first flush writes a new log
+                Files.deleteIfExists(logFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read cookies, starting with none: " + e.getMessage());
+            replayed.clear();
+            records = 0;
+            moveAside();
+        }
+        if (clearedBeforeLoad) {
+            replayed.clear();
+        }
+        long now = System.currentTimeMillis();
+        for (Entry entry : replayed.values()) {
+            if (!entry.isExpired(now) && !changedBeforeLoad.contains(entry.id())) {
+                byDomain.compute(entry.domain, (domain, entries) -> insert(entries, entry, false));
+            }
+        }
+        synchronized (logLock) {
+            logRecords = records;
+        }
+        changedBeforeLoad.clear();
+        loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        loaded.countDown();
+        writer.execute(this::flushQuietly);
+    }
+
+    private static void readRecord(DataInputStream in, Map<String, Entry> replayed) throws IOException {
+        byte type = in.readByte();
+        if (type == CLEAR) {
+            replayed.clear();
+            return;
+        }
+        String domain = in.readUTF();
+        String name = in.readUTF();
+        String path = in.readUTF();
+        if (type == REMOVE) {
+            replayed.remove(Entry.id(domain, name, path));
+            return;
+        }
+        if (type != ADD) {
+            throw new IOException("Unknown cookie record " + type);
+        }
+        String value = in.readUTF();
+        long expiresAt = in.readLong();
+        byte flags = in.readByte();
+        int version = in.readInt();
+        HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setDomain(domain);
+        cookie.setPath(path);
+        cookie.setSecure((flags & SECURE) != 0);
+        cookie.setHttpOnly((flags & HTTP_ONLY) != 0);
+        cookie.setVersion(version);
+        Entry entry = new Entry(cookie, domain, (flags & HOST_ONLY) != 0, expiresAt);
+        replayed.put(entry.id(), entry);
+    }
+
+    private void moveAside() {
+        try {
+            Files.move(logFile, logFile.resolveSibling("cookies.log.bad"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // Nothing to move, or the directory is not writable and nothing will be saved either
+        }
+    }
+
+    private void awaitLoad() {
+        if (loaded.getCount() == 0 || Thread.currentThread() == uiThread) {
+            return;
+        }
+        try {
+            loaded.await(LOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add a cookie. One without a domain is host-only, for the URI's host alone.
+     */
+    @Override
+    public void add(URI uri, HttpCookie cookie) {
+        String domain = domainOf(uri, cookie);
+        if (domain == null || cookie == null) {
+            return;
+        }
+        boolean hostOnly = cookie.getDomain() == null;
+        if (hostOnly) {
+            cookie.setDomain(domain);
+        }
+        if (cookie.getPath() == null) {
+            cookie.setPath("/");
+        }
+        if (cookie.getMaxAge() == 0) {
+            // An expiry date in the past is how sites delete cookies
+            removeEntry(domain, cookie.getName(), cookie.getPath());
+            return;
+        }
+        long expiresAt = cookie.getMaxAge() < 0 ? -1
+                : System.currentTimeMillis() + Math.min(cookie.getMaxAge(), Long.MAX_VALUE / 2000) * 1000;
+        Entry entry = new Entry(cookie, domain, hostOnly, expiresAt);
+        if (loaded.getCount() > 0) {
+            changedBeforeLoad.add(entry.id());
+        }
+        byDomain.compute(domain, (key, entries) -> insert(entries, entry, true));
+    }
+
+    /**
+     * Add or replace a cookie in its domain's array. Called inside compute, so changes to one
+     * domain are logged in the order they are applied.
+     */
+    private Entry[] insert(Entry[] entries, Entry entry, boolean logChange) {
+        Entry[] current = entries == null ? NO_ENTRIES : entries;
+        long now = System.currentTimeMillis();
+        List<Entry> kept = new ArrayList<>(current.length + 1);
+        Entry replaced = null;
+        for (Entry existing : current) {
+            if (existing.sameCookie(entry)) {
+                replaced = existing;
+            } else if (existing.isExpired(now)) {
+                drop(existing, false);
+                expired.increment();
+            } else {
+                kept.add(existing);
+            }
+        }
+        if (replaced != null) {
+            drop(replaced, false);
+        }
+        kept.add(entry);
+        cookieCount.incrementAndGet();
+        if (entry.isPersistent()) {
+            persistentCount.incrementAndGet();
+        }
+        if (logChange) {
+            if (entry.isPersistent()) {
+                append(ADD, entry);
+            } else if (replaced != null && replaced.isPersistent()) {
+                // Became a session cookie; the log's copy must not come back after a restart
+                append(REMOVE, replaced);
+            }
+        }
+        // The oldest cookies go first once a domain has too many
+        while (kept.size() > MAX_PER_DOMAIN) {
+            Entry evicted = kept.remove(0);
+            drop(evicted, logChange);
+        }
+        return kept.toArray(NO_ENTRIES);
+    }
+
+    private void drop(Entry entry, boolean logChange) {
+        cookieCount.decrementAndGet();
+        if (entry.isPersistent()) {
+            persistentCount.decrementAndGet();
+            if (logChange) {
+                append(REMOVE, entry);
+            }
+        }
+    }
+
+    @Override
+    public List<HttpCookie> get(URI uri) {
+        long started = System.nanoTime();
+        awaitLoad();
+        String host = uri.getHost();
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        List<HttpCookie> cookies = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        boolean sawExpired = false;
+        String suffix = host;
+        // Past the host itself, host-only cookies are not sent
+        boolean parent = false;
+        while (true) {
+            Entry[] entries = byDomain.get(suffix);
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    if (entry.isExpired(now)) {
+                        sawExpired = true;
+                    } else if (!(parent && entry.hostOnly)) {
+                        cookies.add(entry.cookie);
+                    }
+                }
+                if (sawExpired) {
+                    removeExpired(suffix);
+                    sawExpired = false;
+                }
+            }
+            int dot = suffix.indexOf('.');
+            if (dot < 0) {
+                break;
+            }
+            suffix = suffix.substring(dot + 1);
+            parent = true;
+        }
+        lookups.increment();
+        lookupNanos.add(System.nanoTime() - started);
+        return cookies;
+    }
+
+    private void removeExpired(String domain) {
+        long now = System.currentTimeMillis();
+        byDomain.computeIfPresent(domain, (key, entries) -> {
+            List<Entry> kept = new ArrayList<>(entries.length);
+            for (Entry entry : entries) {
+                if (entry.isExpired(now)) {
+                    // Replaying the log drops it too, so there is nothing to write
+                    drop(entry, false);
+                    expired.increment();
+                } else {
+                    kept.add(entry);
+                }
+            }
+            return kept.isEmpty() ? null : kept.toArray(NO_ENTRIES);
+        });
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        awaitLoad();
+        long now = System.currentTimeMillis();
+        List<HttpCookie> cookies = new ArrayList<>(cookieCount.get());
+        for (Entry[] entries : byDomain.values()) {
+            for (Entry entry : entries) {
+                if (!entry.isExpired(now)) {
+                    cookies.add(entry.cookie);
+                }
+            }
+        }
+        return cookies;
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        awaitLoad();
+        List<URI> uris = new ArrayList<>(byDomain.size());
+        for (String domain : byDomain.keySet()) {
+            try {
+                uris.add(new URI("http", domain, "/", null));
+            } catch (java.net.URISyntaxException e) {
+                // Not a host name; it can only have come from a malformed Set-Cookie
+            }
+        }
+        return uris;
+    }
+
+    @Override
+    public boolean remove(URI uri, HttpCookie cookie) {
+        String domain = domainOf(uri, cookie);
+        return domain != null && cookie != null
+                && removeEntry(domain, cookie.getName(), cookie.getPath() == null ? "/" : cookie.getPath());
+    }
+
+    private boolean removeEntry(String domain, String name, String path) {
+        if (loaded.getCount() > 0) {
+            changedBeforeLoad.add(Entry.id(domain, name, path));
+        }
+        boolean[] removed = new boolean[1];
+        byDomain.computeIfPresent(domain, (key, entries) -> {
+            List<Entry> kept = new ArrayList<>(entries.length);
+            for (Entry entry : entries) {
+                if (entry.matches(name, path)) {
+                    removed[0] = true;
+                    drop(entry, true);
+                } else {
+                    kept.add(entry);
+                }
+            }
+            return kept.isEmpty() ? null : kept.toArray(NO_ENTRIES);
+        });
+        if (!removed[0] && loaded.getCount() > 0) {
+            // It may still be in the log being read; make sure it stays deleted
+            append(REMOVE, new Entry(new HttpCookie(name, ""), domain, false, 0, path));
+        }
+        return removed[0];
+    }
+
+    @Override
+    public boolean removeAll() {
+        awaitLoad();
+        boolean any = !byDomain.isEmpty();
+        if (loaded.getCount() > 0) {
+            clearedBeforeLoad = true;
+        }
+        synchronized (pendingLock) {
+            byDomain.clear();
+            cookieCount.set(0);
+            persistentCount.set(0);
+            writeRecord(CLEAR, null);
+        }
+        return any;
+    }
+
+    /**
+     * The index key for a cookie: its Domain attribute without the leading dot, or the host that
+     * set it. CookieManager names a dotless host such as localhost "localhost.local".
+     */
+    private static String domainOf(URI uri, HttpCookie cookie) {
+        String host = uri == null || uri.getHost() == null ? null : uri.getHost().toLowerCase(Locale.ROOT);
+        String domain = cookie == null ? null : cookie.getDomain();
+        if (domain == null) {
+            return host;
+        }
+        domain = domain.toLowerCase(Locale.ROOT);
+        if (domain.startsWith(".")) {
+            domain = domain.substring(1);
+        }
+        if (host != null && host.indexOf('.') < 0 && domain.equals(host + ".local")) {
+            return host;
+        }
+        return domain.isEmpty() ? host : domain;
+    }
+
+    private void append(byte type, Entry entry) {
+        if (type == ADD && entry.cookie.getValue() != null && entry.cookie.getValue().length() > MAX_PERSISTED_VALUE) {
+            return;
+        }
+        synchronized (pendingLock) {
+            writeRecord(type, entry);
+        }
+    }
+
+    private void writeRecord(byte type, Entry entry) {
+        try {
+            pendingOut.writeByte(type);
+            if (type != CLEAR) {
+                writeEntry(pendingOut, type, entry);
+            }
+            pendingRecords++;
+        } catch (IOException e) {
+            // Writing to a byte array does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, byte type, Entry entry) throws IOException {
+        HttpCookie cookie = entry.cookie;
+        out.writeUTF(entry.domain);
+        out.writeUTF(cookie.getName());
+        out.writeUTF(entry.path);
+        if (type == ADD) {
+            out.writeUTF(cookie.getValue() == null ? "" : cookie.getValue());
+            out.writeLong(entry.expiresAt);
+            out.writeByte((cookie.getSecure() ? SECURE : 0) | (cookie.isHttpOnly() ? HTTP_ONLY : 0)
+                    | (entry.hostOnly ? HOST_ONLY : 0));
+            out.writeInt(cookie.getVersion());
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Could not save cookies: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Append the changes made since the last flush to the log, and compact it when it has grown
+     * to more than twice the live cookies. Runs on the writer thread and at close.
+     */
+    private void flush() throws IOException {
+        if (loaded.getCount() > 0) {
+            // Appending now would race the truncation of a partial record in load()
+            return;
+        }
+        byte[] batch;
+        int records;
+        synchronized (pendingLock) {
+            if (pendingRecords == 0) {
+                return;
+            }
+            batch = pending.toByteArray();
+            records = pendingRecords;
+            pending = new ByteArrayOutputStream();
+            pendingOut = new DataOutputStream(pending);
+            pendingRecords = 0;
+        }
+        synchronized (logLock) {
+            if (log == null) {
+                Files.createDirectories(logFile.getParent());
+                log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if (log.size() == 0) {
+                    writeFully(ByteBuffer.allocate(4).putInt(0, LOG_MAGIC));
+                }
+                log.position(log.size());
+            }
+            writeFully(ByteBuffer.wrap(batch));
+            logRecords += records;
+            recordsWritten.add(records);
+            flushes.increment();
+            if (logRecords > COMPACT_MIN_RECORDS && logRecords > 2L * persistentCount.get()) {
+                compact();
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+    }
+
+    /**
+     * Rewrite the log with only the live persistent cookies. Called with logLock held, so no batch
+     * is appended meanwhile; changes made during the rewrite are still pending and follow it.
+     */
+    private void compact() throws IOException {
+        Path temp = logFile.resolveSibling("cookies.log.tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(LOG_MAGIC);
+        long now = System.currentTimeMillis();
+        long records = 0;
+        for (Entry[] entries : byDomain.values()) {
+            for (Entry entry : entries) {
+                if (entry.isPersistent() && !entry.isExpired(now)
+                        && (entry.cookie.getValue() == null || entry.cookie.getValue().length() <= MAX_PERSISTED_VALUE)) {
+                    out.writeByte(ADD);
+                    writeEntry(out, ADD, entry);
+                    records++;
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        log.close();
+        Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logFile, StandardOpenOption.WRITE);
+        log.position(log.size());
+        logRecords = records;
+        compactions.increment();
+    }
+
+    /**
+     * Write outstanding changes and close the log
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        synchronized (logLock) {
+            if (log != null) {
+                try {
+                    log.force(false);
+                    log.close();
+                } catch (IOException e) {
+                    System.err.println("Could not close cookie log: " + e.getMessage());
+                }
+                log = null;
+            }
+        }
+    }
+
+    /**
+     * Get the number of cookies held, including session cookies and expired ones not yet removed
+     * @return Cookie count
+     */
+    public int size() {
+        return cookieCount.get();
+    }
+
+    /**
+     * Get cookie store statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        long count = lookups.sum();
+        long records;
+        synchronized (logLock) {
+            records = logRecords;
+        }
+        return String.format("Cookies: %d (%d persistent) in %d domains, %d lookups (%.1f us average), %d expired, "
+                        + "log %d records, %d written in %d flushes, %d compactions, loaded in %d ms",
+                cookieCount.get(), persistentCount.get(), byDomain.size(), count,
+                count == 0 ? 0 : lookupNanos.sum() / (count * 1000.0), expired.sum(), records,
+                recordsWritten.sum(), flushes.sum(), compactions.sum(), loadMillis);
+    }
+
+    /**
+     * A stored cookie with the domain it is indexed under and its absolute expiry time
+     */
+    private static final class Entry {
+        private final HttpCookie cookie;
+        private final String domain;
+        // Set without a Domain attribute, so only sent to the domain itself
+        private final boolean hostOnly;
+        private final String path;
+        // Epoch millis, or -1 for a session cookie
+        private final long expiresAt;
+
+        private Entry(HttpCookie cookie, String domain, boolean hostOnly, long expiresAt) {
+            this(cookie, domain, hostOnly, expiresAt, cookie.getPath() == null ? "/" : cookie.getPath());
+        }
+
+        private Entry(HttpCookie cookie, String domain, boolean hostOnly, long expiresAt, String path) {
+            this.cookie = cookie;
+            this.domain = domain;
+            this.hostOnly = hostOnly;
+            this.path = path;
+            this.expiresAt = expiresAt;
+            if (expiresAt >= 0) {
+                // HttpCookie counts max-age from when it was created, which for a loaded cookie is now
+                cookie.setMaxAge(Math.max(1, (expiresAt - System.currentTimeMillis()) / 1000));
+            }
+        }
+
+        private static String id(String domain, String name, String path) {
+            return domain + '\t' + name + '\t' + path;
+        }
+
+        private String id() {
+            return id(domain, cookie.getName(), path);
+        }
+
+        private boolean isPersistent() {
+            return expiresAt >= 0;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt >= 0 && now >= expiresAt;
+        }
+
+        private boolean matches(String name, String otherPath) {
+            // Cookie names are case-sensitive in browsers, unlike HttpCookie.equals
+            return cookie.getName().equals(name) && path.equals(otherPath);
+        }
+
+        private boolean sameCookie(Entry other) {
+            return matches(other.cookie.getName(), other.path);
+        }
+    }
+
+    /**
+     * Accept a cookie for the host that sent it or for a parent domain of that host, as browsers
+     * do. CookiePolicy.ACCEPT_ORIGINAL_SERVER follows the older rules, which refuse a cookie for
+     * example.com from www.example.com and one for .example.com from a.b.example.com. A public
+     * suffix such as co.uk is refused unless it is the host itself, so no site can set a cookie
+     * that every other site under it receives.
+     */
+    private static boolean acceptDomain(URI uri, HttpCookie cookie) {
+        String host = uri.getHost();
+        String domain = cookie.getDomain();
+        if (host == null || domain == null) {
+            return false;
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        domain = domain.toLowerCase(Locale.ROOT);
+        if (domain.startsWith(".")) {
+            domain = domain.substring(1);
+        }
+        if (host.equals(domain) || (host.indexOf('.') < 0 && domain.equals(host + ".local"))) {
+            return true;
+        }
+        // A single label such as "com" is never a cookie domain
+        return domain.indexOf('.') > 0 && host.endsWith("." + domain)
+                && !PublicSuffixList.get().isPublicSuffix(domain);
+    }
+
+    /**
+     * The cookie handler: responses store their Set-Cookie cookies, and requests get the cookies
+     * whose path matches, longest path first, as browsers send them
+     */
+    static final class Handler extends CookieManager {
+        private final PersistentCookieStore store;
+
+        Handler(PersistentCookieStore store) {
+            super(store, PersistentCookieStore::acceptDomain);
+            this.store = store;
+        }
+
+        /**
+         * Parse Set-Cookie as CookieManager does, but leave the domain unset when the header has
+         * none, so the store knows the cookie is host-only; CookieManager fills in the host.
+         * The Port attribute is ignored, as browsers ignore it.
+         */
+        @Override
+        public void put(URI uri, Map<String, List<String>> responseHeaders) {
+            if (uri == null || responseHeaders == null) {
+                throw new IllegalArgumentException("Argument is null");
+            }
+            for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+                String name = header.getKey();
+                if (name == null || !(name.equalsIgnoreCase("Set-Cookie") || name.equalsIgnoreCase("Set-Cookie2"))) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    List<HttpCookie> cookies;
+                    try {
+                        cookies = HttpCookie.parse(value);
+                    } catch (IllegalArgumentException e) {
+                        // Malformed header; CookieManager drops these too
+                        continue;
+                    }
+                    for (HttpCookie cookie : cookies) {
+                        if (cookie.getPath() == null) {
+                            cookie.setPath(defaultPath(uri));
+                        }
+                        if (cookie.getDomain() == null || acceptDomain(uri, cookie)) {
+                            store.add(uri, cookie);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * The directory of the request path, the path of a cookie set without one
+         */
+        private static String defaultPath(URI uri) {
+            String path = uri.getPath();
+            if (path == null || path.isEmpty()) {
+                return "/";
+            }
+            int slash = path.lastIndexOf('/');
+            return slash > 0 ? path.substring(0, slash + 1) : "/";
+        }
+
+        @Override
+        public Map<String, List<String>> get(URI uri, Map<String, List<String>> requestHeaders) {
+            String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+            // WebKit asks for document.cookie with javascript: or, on secure pages, javascripts:
+            boolean script = scheme.equals("javascript") || scheme.equals("javascripts");
+            boolean secure = scheme.equals("https") || scheme.equals("javascripts") || scheme.equals("wss");
+            String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+            List<HttpCookie> matching = new ArrayList<>();
+            for (HttpCookie cookie : store.get(uri)) {
+                if ((secure || !cookie.getSecure()) && !(script && cookie.isHttpOnly())
+                        && pathMatches(path, cookie.getPath())) {
+                    matching.add(cookie);
+                }
+            }
+            if (matching.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            matching.sort(Comparator.comparingInt((HttpCookie cookie) -> cookie.getPath().length()).reversed());
+            StringBuilder header = new StringBuilder();
+            for (HttpCookie cookie : matching) {
+                if (header.length() > 0) {
+                    header.append("; ");
+                }
+                header.append(cookie.getName()).append('=').append(cookie.getValue());
+            }
+            return Map.of("Cookie", List.of(header.toString()));
+        }
+
+        private static boolean pathMatches(String requestPath, String cookiePath) {
+            if (cookiePath == null || requestPath.equals(cookiePath)) {
+                return true;
+            }
+            return requestPath.startsWith(cookiePath)
+                    && (cookiePath.endsWith("/") || requestPath.charAt(cookiePath.length()) == '/');
+        }
+    }
+}
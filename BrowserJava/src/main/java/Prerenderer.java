@@ -0,0 +1,263 @@
+import javafx.animation.PauseTransition;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebView;
+import javafx.util.Duration;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Prerenderer keeps one offscreen WebView loading the page the user is most likely to open next.
+ * The prediction combines frecency with the time of day of past visits, so the
+ * morning dashboard wins in the morning. When the user navigates to the predicted URL
+ * the loaded WebView is handed over to the tab, giving an instant page.
+ * Only one page is prerendered at a time, only above a confidence threshold,
+ * only when there is heap headroom and no foreground tab is loading, and never for longer
+ * than a fixed time budget. The hidden page is throttled like a background tab, and a page
+ * held ready is dropped once it is too old to be trusted, so a stale page is never handed over.
+ */
+public class Prerenderer {
+    /**
+     * System property that enables prerendering
+     */
+    public static final String ENABLED_PROPERTY = "nitron.prerender";
+
+    private static final int VISITS_TO_SCORE = 2000;
+    private static final double MIN_CONFIDENCE = 0.2;
+    private static final long MIN_FREE_HEAP_BYTES = 256L * 1024 * 1024;
+    private static final double LOAD_BUDGET_SECONDS = 20;
+    private static final double READY_LIFETIME_SECONDS = 5 * 60;
+    private static final long PREDICTION_INTERVAL_MILLIS = 2 * 60 * 1000;
+    private static final double RECENCY_HALF_LIFE_DAYS = 7;
+    private static final double HOUR_SPREAD = 1.5;
+
+    private final DatabaseOperations dbOperations;
+    private final StorageExecutor storageExecutor;
+    private final BooleanSupplier foregroundBusy;
+    private final TabThrottler throttler;
+    private final PauseTransition loadBudget = new PauseTransition(Duration.seconds(LOAD_BUDGET_SECONDS));
+    private final PauseTransition readyLifetime = new PauseTransition(Duration.seconds(READY_LIFETIME_SECONDS));
+    private WebView webView;
+    private String url;
+    private boolean ready;
+    private long lastPrediction;
+    private int started;
+    private int completed;
+    private int hits;
+    private int misses;
+    private int cancelled;
+    private int expired;
+
+    /**
+     * Constructor for Prerenderer
+     * @param dbOperations The database operations used to read recent visits
+     * @param storageExecutor The executor that reads history off the FX thread
+     * @param foregroundBusy Reports whether a visible tab is currently loading
+     * @param throttler Slows the hidden page down like a background tab
+     */
+    public Prerenderer(DatabaseOperations dbOperations, StorageExecutor storageExecutor, BooleanSupplier foregroundBusy,
+                       TabThrottler throttler) {
+        this.dbOperations = dbOperations;
+        this.storageExecutor = storageExecutor;
+        this.foregroundBusy = foregroundBusy;
+        this.throttler = throttler;
+        this.loadBudget.setOnFinished(e -> {
+            if (!ready) {
+                System.out.println("Prerender of " + url + " exceeded its time budget");
+                cancel();
+            }
+        });
+        this.readyLifetime.setOnFinished(e -> {
+            if (ready) {
+                System.out.println("Prerender of " + url + " expired unused");
+                expired++;
+                cancel();
+            }
+        });
+    }
+
+    /**
+     * Check if prerendering is turned on for this run
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Re-predict the next page if the last prediction is old enough. Call on the FX thread.
+     */
+    public void schedulePrediction() {
+        long now = System.currentTimeMillis();
+        if (now - lastPrediction < PREDICTION_INTERVAL_MILLIS) {
+            return;
+        }
+        lastPrediction = now;
+        storageExecutor.submit(() -> predict(dbOperations.getRecentVisits(VISITS_TO_SCORE), now),
+                prediction -> {
+                    if (prediction == null || prediction.confidence < MIN_CONFIDENCE) {
+                        cancel();
+                    } else {
+                        prerender(prediction.url);
+                    }
+                });
+    }
+
+    /**
+     * Take the prerendered WebView if it shows the given URL. Call on the FX thread.
+     * @param requestedUrl The URL the user is navigating to
+     * @return The loaded WebView, running at full speed again, or null if the prediction missed
+     */
+    public WebView take(String requestedUrl) {
+        if (webView == null || !ready || !sameUrl(url, requestedUrl)) {
+            misses++;
+            return null;
+        }
+        WebView loaded = webView;
+        readyLifetime.stop();
+        webView = null;
+        url = null;
+        ready = false;
+        hits++;
+        throttler.setBackground(loaded.getEngine(), false);
+        // The next most likely page can start right away
+        lastPrediction = 0;
+        return loaded;
+    }
+
+    /**
+     * Stop the current prerender and release its WebView
+     */
+    public void cancel() {
+        loadBudget.stop();
+        readyLifetime.stop();
+        if (webView != null) {
+            webView.getEngine().getLoadWorker().cancel();
+            webView.getEngine().loadContent("");
+            webView = null;
+            cancelled++;
+        }
+        url = null;
+        ready = false;
+    }
+
+    /**
+     * Check whether a page is being prerendered or held ready. Call on the FX thread.
+     * @return true if a hidden WebView is alive
+     */
+    public boolean isActive() {
+        return webView != null;
+    }
+
+    /**
+     * Get prerender statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        int navigations = hits + misses;
+        return String.format("Prerender: %d started, %d completed, %d cancelled (%d expired unused), "
+                        + "%d hits of %d navigations (%.1f%%)",
+                started, completed, cancelled, expired, hits, navigations, navigations == 0 ? 0 : hits * 100.0 / navigations);
+    }
+
+    /**
+     * Pick the most likely next URL from past visits
+     * @param visits Recent visits, newest first
+     * @param now Current time in epoch milliseconds
+     * @return The prediction, or null if there is no history
+     */
+    static Prediction predict(List<HistoryVisit> visits, long now) {
+        ZoneId zone = ZoneId.systemDefault();
+        double currentHour = hourOfDay(ZonedDateTime.ofInstant(Instant.ofEpochMilli(now), zone));
+        Map<String, Double> scores = new HashMap<>();
+        double total = 0;
+        for (HistoryVisit visit : visits) {
+            long visitedAt = visit.getVisitedAt().getTime();
+            double ageDays = Math.max(0, now - visitedAt) / 86_400_000.0;
+            double recency = Math.pow(0.5, ageDays / RECENCY_HALF_LIFE_DAYS);
+            double hour = hourOfDay(ZonedDateTime.ofInstant(visit.getVisitedAt().toInstant(), zone));
+            double distance = Math.abs(hour - currentHour);
+            distance = Math.min(distance, 24 - distance);
+            // Visits made around the same time of day count up to three times as much
+            double timeOfDay = 1 + 2 * Math.exp(-(distance * distance) / (2 * HOUR_SPREAD * HOUR_SPREAD));
+            double score = recency * timeOfDay;
+            scores.merge(visit.getUrl(), score, Double::sum);
+            total += score;
+        }
+        if (scores.isEmpty()) {
+            return null;
+        }
+        Map.Entry<String, Double> best = scores.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .orElseThrow();
+        return new Prediction(best.getKey(), best.getValue() / total);
+    }
+
+    private void prerender(String predictedUrl) {
+        if (sameUrl(url, predictedUrl)) {
+            return;
+        }
+        cancel();
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        if (freeHeap < MIN_FREE_HEAP_BYTES || foregroundBusy.getAsBoolean()) {
+            return;
+        }
+        webView = new WebView();
+        url = predictedUrl;
+        WebView loading = webView;
+        // Nobody sees the page, so its timers and animations run at background speed
+        loading.getEngine().documentProperty().addListener((obs, oldDoc, newDoc) -> {
+            if (loading == webView && newDoc != null) {
+                throttler.prepare(loading.getEngine(), true);
+            }
+        });
+        loading.getEngine().getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
+            if (loading == webView && newState == Worker.State.SUCCEEDED) {
+                throttler.prepare(loading.getEngine(), true);
+                ready = true;
+                completed++;
+                loadBudget.stop();
+                readyLifetime.playFromStart();
+            } else if (loading == webView && newState == Worker.State.FAILED) {
+                cancel();
+            }
+        });
+        started++;
+        loadBudget.playFromStart();
+        loading.getEngine().load(predictedUrl);
+    }
+
+    private static double hourOfDay(ZonedDateTime time) {
+        return time.getHour() + time.getMinute() / 60.0;
+    }
+
+    private static boolean sameUrl(String a, String b) {
+        if (a == null || b == null) {
+            return false;
+        }
+        return stripSlash(a).equals(stripSlash(b));
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * A predicted URL and its share of the total visit score
+     */
+    static final class Prediction {
+        private final String url;
+        private final double confidence;
+
+        Prediction(String url, double confidence) {
+            this.url = url;
+            this.confidence = confidence;
+        }
+    }
+}
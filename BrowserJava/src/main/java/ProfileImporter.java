@@ -0,0 +1,508 @@
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ProfileImporter brings history and bookmarks over from Chromium-based browsers and Firefox.
+ *
+ * The profile's SQLite file (History or places.sqlite) is copied first, since the other browser
+ * may hold it locked, and its visits are streamed in primary key order. Each visit's timestamp is
+ * converted, frame and non-web visits are skipped, and repeats of the same URL within a second are
+ * collapsed. Visits are handed to writer threads in batches, which save each batch with one
+ * saveVisits call; at most two batches per writer are in flight, so memory stays bounded however
+ * large the profile is. Imported visits get the same id for the same URL and time, so importing
+ * twice adds nothing. After every batch the highest visit known to be saved, with all visits before
+ * it, is written to a checkpoint, and an interrupted import continues from there. Running it again
+ * later imports only the visits made since.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=ProfileImporter -Dexec.args="PROFILE_FILE..."
+ * Options: --writers N (4), --batch N (1000)
+ */
+public class ProfileImporter {
+    public static final int DEFAULT_WRITERS = 4;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int BATCHES_PER_WRITER = 2;
+    private static final long DUPLICATE_WINDOW_MILLIS = 1000;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long CHECKPOINT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Chromium counts microseconds from 1601-01-01 UTC
+    private static final long CHROMIUM_EPOCH_OFFSET_MICROS = 11_644_473_600_000_000L;
+
+    /**
+     * The browser family a profile file comes from
+     */
+    public enum Source {
+        CHROMIUM, FIREFOX
+    }
+
+    private static final String CHROMIUM_VISITS = "SELECT visits.id, urls.url, visits.visit_time, visits.transition "
+            + "FROM visits JOIN urls ON urls.id = visits.url WHERE visits.id > ? ORDER BY visits.id";
+    private static final String FIREFOX_VISITS = "SELECT v.id, p.url, v.visit_date, v.visit_type "
+            + "FROM moz_historyvisits v JOIN moz_places p ON p.id = v.place_id WHERE v.id > ? ORDER BY v.id";
+    private static final String FIREFOX_BOOKMARKS = "SELECT p.url, b.dateAdded "
+            + "FROM moz_bookmarks b JOIN moz_places p ON p.id = b.fk WHERE b.type = 1";
+
+    private final DatabaseOperations database;
+    private final Path checkpointDirectory;
+    private final int writers;
+    private final int batchSize;
+    private volatile boolean cancelled;
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong bookmarksImported = new AtomicLong();
+    private final AtomicLong importNanos = new AtomicLong();
+
+    /**
+     * Constructor for ProfileImporter
+     * @param database The database to import into
+     * @param checkpointDirectory Directory holding one checkpoint per imported profile file
+     * @param writers Number of threads saving batches
+     * @param batchSize Visits per saveVisits call
+     */
+    public ProfileImporter(DatabaseOperations database, Path checkpointDirectory, int writers, int batchSize) {
+        this.database = database;
+        this.checkpointDirectory = checkpointDirectory;
+        this.writers = Math.max(1, writers);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int writers = DEFAULT_WRITERS;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--writers": writers = Integer.parseInt(args[++i]); break;
+                case "--batch": batchSize = Integer.parseInt(args[++i]); break;
+                default: files.add(Paths.get(args[i])); break;
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: ProfileImporter [--writers N] [--batch N] PROFILE_FILE...");
+            System.err.println("  Chromium, Chrome, Edge, Brave: <profile>/History (Bookmarks next to it is imported too)");
+            System.err.println("  Firefox: <profile>/places.sqlite");
+            System.exit(2);
+        }
+        DatabaseManager database = new DatabaseManager();
+        database.ensureIndexes();
+        ProfileImporter importer = new ProfileImporter(database, NitronPaths.directory("import"), writers, batchSize);
+        // Ctrl+C stops reading and lets the batches in flight finish, so the checkpoint is current
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            importer.cancel();
+            try {
+                main.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "nitron-import-shutdown"));
+        try {
+            for (Path file : files) {
+                importer.importProfile(file);
+            }
+        } finally {
+            System.out.println(importer.getStatisticsAsString());
+            database.close();
+        }
+    }
+
+    /**
+     * Import a profile's history, then its bookmarks
+     * @param file A Chromium History file or a Firefox places.sqlite
+     * @return The number of visits imported by this call
+     * @throws IOException if the file cannot be read or a batch cannot be saved; the checkpoint
+     *                     keeps what was saved, so calling again continues from there
+     */
+    public long importProfile(Path file) throws IOException {
+        StorageExecutor.checkNotOnFxThread("ProfileImporter.importProfile");
+        Path copy = copyDatabase(file);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + copy.toAbsolutePath())) {
+            Source source = detect(connection);
+            long count = importVisits(file, source, connection);
+            if (!cancelled) {
+                Map<String, Date> bookmarks = source == Source.FIREFOX ? readFirefoxBookmarks(connection)
+                        : readChromiumBookmarks(file.resolveSibling("Bookmarks"));
+                database.addBookmarks(bookmarks);
+                bookmarksImported.addAndGet(bookmarks.size());
+                System.out.println("Imported " + bookmarks.size() + " bookmarks from " + file);
+            }
+            return count;
+        } catch (SQLException e) {
+            throw new IOException("Could not read " + file + ": " + e.getMessage(), e);
+        } finally {
+            deleteCopy(copy);
+        }
+    }
+
+    /**
+     * Stop an import in progress. Batches already read are still saved and checkpointed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private long importVisits(Path file, Source source, Connection connection) throws IOException, SQLException {
+        Path checkpoint = checkpointDirectory.resolve("import-" + Integer.toHexString(file.toAbsolutePath().toString().hashCode())
+                + "-" + source.name().toLowerCase() + ".properties");
+        long resumeAfter = readCheckpoint(checkpoint);
+        if (resumeAfter > 0) {
+            System.out.println("Resuming import of " + file + " after visit " + resumeAfter);
+        }
+        long lastRow;
+        try (Statement statement = connection.createStatement();
+             ResultSet max = statement.executeQuery(source == Source.FIREFOX
+                     ? "SELECT MAX(id) FROM moz_historyvisits" : "SELECT MAX(id) FROM visits")) {
+            lastRow = max.next() ? max.getLong(1) : 0;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(writers, runnable -> {
+            Thread thread = new Thread(runnable, "nitron-import-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(writers * BATCHES_PER_WRITER);
+        Checkpoint progress = new Checkpoint(checkpoint, resumeAfter);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        AtomicLong count = new AtomicLong();
+        long started = System.nanoTime();
+        long nextReport = started + PROGRESS_INTERVAL_NANOS;
+        long sequence = 0;
+        try (PreparedStatement query = connection.prepareStatement(source == Source.FIREFOX ? FIREFOX_VISITS : CHROMIUM_VISITS)) {
+            query.setFetchSize(batchSize);
+            query.setLong(1, resumeAfter);
+            try (ResultSet rows = query.executeQuery()) {
+                List<HistoryVisit> batch = new ArrayList<>(batchSize);
+                Set<String> batchIds = new HashSet<>();
+                String previousUrl = null;
+                long previousTime = Long.MIN_VALUE;
+                long rowId = resumeAfter;
+                boolean more = true;
+                while (more && !cancelled && failure.get() == null) {
+                    more = rows.next();
+                    if (more) {
+                        rowId = rows.getLong(1);
+                        read.incrementAndGet();
+                        String url = rows.getString(2);
+                        long time = toEpochMillis(source, rows.getLong(3));
+                        HistoryVisit.Transition transition = toTransition(source, rows.getInt(4));
+                        if (transition == null || time <= 0 || url == null
+                                || !(url.startsWith("http://") || url.startsWith("https://"))) {
+                            skipped.incrementAndGet();
+                            continue;
+                        }
+                        // Redirect echoes and double-recorded visits
+                        if (url.equals(previousUrl) && time - previousTime < DUPLICATE_WINDOW_MILLIS) {
+                            duplicates.incrementAndGet();
+                            continue;
+                        }
+                        previousUrl = url;
+                        previousTime = time;
+                        Date visitedAt = new Date(time);
+                        String id = SyncingDatabase.legacyVisitId(url, visitedAt);
+                        if (!batchIds.add(id)) {
+                            duplicates.incrementAndGet();
+                            continue;
+                        }
+                        batch.add(new HistoryVisit(id, url, visitedAt, transition, Collections.emptyList(), 0, 0, 0));
+                    }
+                    if (batch.size() >= batchSize || (!more && !batch.isEmpty())) {
+                        List<HistoryVisit> full = batch;
+                        long batchSequence = sequence++;
+                        long batchLastRow = rowId;
+                        batch = new ArrayList<>(batchSize);
+                        batchIds.clear();
+                        inFlight.acquireUninterruptibly();
+                        pool.execute(() -> {
+                            try {
+                                if (failure.get() == null) {
+                                    database.saveVisits(full);
+                                    count.addAndGet(full.size());
+                                    imported.addAndGet(full.size());
+                                    progress.completed(batchSequence, batchLastRow);
+                                }
+                            } catch (RuntimeException e) {
+                                failure.compareAndSet(null, e);
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    }
+                    long now = System.nanoTime();
+                    if (now >= nextReport) {
+                        nextReport = now + PROGRESS_INTERVAL_NANOS;
+                        System.out.printf("Importing %s: visit %d of %d, %d saved (%.0f/s)%n", file.getFileName(),
+                                rowId, lastRow, count.get(), count.get() / ((now - started) / 1e9));
+                    }
+                }
+                if (!more && !cancelled) {
+                    // Rows after the last saved batch were all skipped; don't read them again next time
+                    progress.completed(sequence++, rowId);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            progress.save();
+            importNanos.addAndGet(System.nanoTime() - started);
+        }
+        long elapsed = System.nanoTime() - started;
+        System.out.printf("Imported %d visits from %s in %.1f s (%.0f/s)%s%n", count.get(), file, elapsed / 1e9,
+                count.get() / Math.max(elapsed / 1e9, 1e-9), cancelled ? ", cancelled" : "");
+        if (failure.get() != null) {
+            throw new IOException("Import of " + file + " stopped at visit " + progress.getSavedThrough()
+                    + ": " + failure.get().getMessage(), failure.get());
+        }
+        return count.get();
+    }
+
+    /**
+     * Tell a Chromium History file from a Firefox places.sqlite by its tables
+     */
+    private static Source detect(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet tables = statement.executeQuery(
+                     "SELECT name FROM sqlite_master WHERE type = 'table' AND name IN ('moz_historyvisits', 'visits')")) {
+            while (tables.next()) {
+                return "moz_historyvisits".equals(tables.getString(1)) ? Source.FIREFOX : Source.CHROMIUM;
+            }
+        }
+        throw new SQLException("Not a Chromium or Firefox history database");
+    }
+
+    /**
+     * Convert a profile timestamp to epoch milliseconds
+     * @param source The browser family
+     * @param value Chromium: microseconds since 1601; Firefox: microseconds since 1970
+     * @return Epoch milliseconds
+     */
+    static long toEpochMillis(Source source, long value) {
+        return source == Source.CHROMIUM ? (value - CHROMIUM_EPOCH_OFFSET_MICROS) / 1000 : value / 1000;
+    }
+
+    /**
+     * Map a profile's visit type to a transition
+     * @param source The browser family
+     * @param type Chromium page transition or Firefox visit type
+     * @return The transition, or null for visits to frames and downloads, which are not pages
+     */
+    static HistoryVisit.Transition toTransition(Source source, int type) {
+        if (source == Source.CHROMIUM) {
+            switch (type & 0xFF) {
+                case 1: return HistoryVisit.Transition.TYPED;
+                case 2: return HistoryVisit.Transition.BOOKMARK;
+                case 3:
+                case 4: return null;
+                case 8: return HistoryVisit.Transition.RELOAD;
+                default: return HistoryVisit.Transition.LINK;
+            }
+        }
+        switch (type) {
+            case 2: return HistoryVisit.Transition.TYPED;
+            case 3: return HistoryVisit.Transition.BOOKMARK;
+            case 4:
+            case 7:
+            case 8: return null;
+            case 9: return HistoryVisit.Transition.RELOAD;
+            default: return HistoryVisit.Transition.LINK;
+        }
+    }
+
+    private static Map<String, Date> readFirefoxBookmarks(Connection connection) throws SQLException {
+        Map<String, Date> bookmarks = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(FIREFOX_BOOKMARKS)) {
+            while (rows.next()) {
+                String url = rows.getString(1);
+                if (url != null && (url.startsWith("http://") || url.startsWith("https://"))) {
+                    bookmarks.putIfAbsent(url, new Date(toEpochMillis(Source.FIREFOX, rows.getLong(2))));
+                }
+            }
+        }
+        return bookmarks;
+    }
+
+    /**
+     * Read Chromium's Bookmarks file, a JSON tree of folders under "roots"
+     */
+    private static Map<String, Date> readChromiumBookmarks(Path file) throws IOException {
+        Map<String, Date> bookmarks = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            Document roots = Document.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).get("roots", Document.class);
+            if (roots != null) {
+                for (Object root : roots.values()) {
+                    if (root instanceof Document) {
+                        collectChromiumBookmarks((Document) root, bookmarks);
+                    }
+                }
+            }
+        }
+        return bookmarks;
+    }
+
+    private static void collectChromiumBookmarks(Document node, Map<String, Date> bookmarks) {
+        String url = node.getString("url");
+        if ("url".equals(node.getString("type")) && url != null
+                && (url.startsWith("http://") || url.startsWith("https://"))) {
+            long added = 0;
+            try {
+                added = toEpochMillis(Source.CHROMIUM, Long.parseLong(node.get("date_added", "0")));
+            } catch (NumberFormatException | ClassCastException e) {
+                // Keep the bookmark without its time
+            }
+            bookmarks.putIfAbsent(url, new Date(Math.max(0, added)));
+        }
+        List<?> children = node.get("children", List.class);
+        if (children != null) {
+            for (Object child : children) {
+                if (child instanceof Document) {
+                    collectChromiumBookmarks((Document) child, bookmarks);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the database and its write-ahead log, since the other browser may have them locked
+     * and SQLite would otherwise need to write next to the original
+     */
+    private static Path copyDatabase(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("No such profile file: " + file);
+        }
+        Path directory = Files.createTempDirectory("nitron-import");
+        Path copy = directory.resolve(file.getFileName());
+        Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+        Path wal = file.resolveSibling(file.getFileName() + "-wal");
+        if (Files.exists(wal)) {
+            Files.copy(wal, directory.resolve(wal.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return copy;
+    }
+
+    private static void deleteCopy(Path copy) {
+        try (var files = Files.list(copy.getParent())) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(path);
+            }
+            Files.deleteIfExists(copy.getParent());
+        } catch (IOException e) {
+            System.err.println("Could not delete import copy " + copy + ": " + e.getMessage());
+        }
+    }
+
+    private static long readCheckpoint(Path file) {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+            return Long.parseLong(properties.getProperty("lastVisit", "0"));
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring unreadable import checkpoint " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Get import statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        double seconds = importNanos.get() / 1e9;
+        return String.format("Import: %d visits read, %d imported (%.0f/s), %d skipped, %d duplicates, %d bookmarks",
+                read.get(), imported.get(), seconds > 0 ? imported.get() / seconds : 0, skipped.get(),
+                duplicates.get(), bookmarksImported.get());
+    }
+
+    /**
+     * The highest visit saved together with every visit before it. Batches finish out of order on
+     * the writer threads, so a batch only moves the checkpoint once all earlier batches are saved.
+     */
+    private static final class Checkpoint {
+        private final Path file;
+        private final TreeMap<Long, Long> finishedAhead = new TreeMap<>();
+        private long nextSequence;
+        private long savedThrough;
+        private long lastWrite;
+        private boolean dirty;
+
+        private Checkpoint(Path file, long savedThrough) {
+            this.file = file;
+            this.savedThrough = savedThrough;
+        }
+
+        private synchronized void completed(long sequence, long lastRow) {
+            finishedAhead.put(sequence, lastRow);
+            while (!finishedAhead.isEmpty() && finishedAhead.firstKey() == nextSequence) {
+                savedThrough = finishedAhead.pollFirstEntry().getValue();
+                nextSequence++;
+                dirty = true;
+            }
+            if (dirty && System.nanoTime() - lastWrite > CHECKPOINT_INTERVAL_NANOS) {
+                save();
+            }
+        }
+
+        private synchronized long getSavedThrough() {
+            return savedThrough;
+        }
+
+        private synchronized void save() {
+            if (!dirty) {
+                return;
+            }
+            Properties properties = new Properties();
+            properties.setProperty("lastVisit", Long.toString(savedThrough));
+            try {
+                Files.createDirectories(file.getParent());
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    properties.store(out, "Nitron profile import");
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                lastWrite = System.nanoTime();
+                dirty = false;
+            } catch (IOException e) {
+                System.err.println("Could not save import checkpoint: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * PublicSuffixList knows the domains under which anyone can register names, such as com, co.uk
+ * or github.io, from Mozilla's Public Suffix List bundled as public_suffix_list.dat.
+ *
+ * Browsers use it to tell whether two hosts belong to the same site: a.example.co.uk and
+ * b.example.co.uk do, while example.co.uk and other.co.uk do not. The list is read once,
+ * on first use.
+ */
+public final class PublicSuffixList {
+    private static final String RESOURCE = "/public_suffix_list.dat";
+
+    private final Set<String> rules = new HashSet<>();
+    // "*.ck" is kept as "ck": every label directly under it is a public suffix
+    private final Set<String> wildcards = new HashSet<>();
+    // "!www.ck" is kept as "www.ck": registrable although a wildcard covers it
+    private final Set<String> exceptions = new HashSet<>();
+
+    private PublicSuffixList(InputStream in) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("//")) {
+                    continue;
+                }
+                // Rules end at the first whitespace
+                int space = line.indexOf(' ');
+                String rule = space < 0 ? line : line.substring(0, space);
+                if (rule.startsWith("!")) {
+                    exceptions.add(toAscii(rule.substring(1)));
+                } else if (rule.startsWith("*.")) {
+                    wildcards.add(toAscii(rule.substring(2)));
+                } else {
+                    rules.add(toAscii(rule));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the bundled list
+     * @return The list, read on first use
+     */
+    public static PublicSuffixList get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Check whether a domain is a public suffix, under which nobody may set cookies for all sites
+     * @param domain The lower-case domain, for example "co.uk"
+     * @return true if the domain is a public suffix
+     */
+    public boolean isPublicSuffix(String domain) {
+        return !domain.isEmpty() && publicSuffixStart(domain) == 0;
+    }
+
+    /**
+     * Get the registrable domain of a host: its public suffix plus one more label
+     * @param host The lower-case host name, for example "a.b.example.co.uk"
+     * @return The registrable domain, for example "example.co.uk"; the host itself for IP
+     *         addresses and single labels such as localhost; null if the host is a public suffix
+     */
+    public String getRegistrableDomain(String host) {
+        if (host == null || host.isEmpty()) {
+            return null;
+        }
+        if (isIpAddress(host) || host.indexOf('.') < 0) {
+            return host;
+        }
+        int suffix = publicSuffixStart(host);
+        if (suffix == 0) {
+            return null;
+        }
+        int dot = host.lastIndexOf('.', suffix - 2);
+        return host.substring(dot + 1);
+    }
+
+    /**
+     * Check whether two hosts belong to the same site
+     * @param host The lower-case host name
+     * @param other The other lower-case host name
+     * @return true if both have the same registrable domain
+     */
+    public boolean isSameSite(String host, String other) {
+        if (host.equals(other)) {
+            return true;
+        }
+        String site = getRegistrableDomain(host);
+        return site != null && site.equals(getRegistrableDomain(other));
+    }
+
+    /**
+     * Find where the longest public suffix of a domain starts. Tries the whole domain first and
+     * then each shorter suffix, so the first rule that applies is the longest.
+     */
+    private int publicSuffixStart(String domain) {
+        int start = 0;
+        while (true) {
+            String candidate = domain.substring(start);
+            int dot = domain.indexOf('.', start);
+            if (exceptions.contains(candidate)) {
+                // The exception is registrable, so its parent is the suffix
+                return dot < 0 ? domain.length() : dot + 1;
+            }
+            if (rules.contains(candidate) || (dot >= 0 && wildcards.contains(domain.substring(dot + 1)))) {
+                return start;
+            }
+            if (dot < 0) {
+                // Unlisted top-level domains are public suffixes too
+                return start;
+            }
+            start = dot + 1;
+        }
+    }
+
+    private static boolean isIpAddress(String host) {
+        if (host.indexOf(':') >= 0 || host.startsWith("[")) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toAscii(String rule) {
+        try {
+            return IDN.toASCII(rule, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return rule.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Reads the list when it is first needed
+     */
+    private static final class Holder {
+        private static final PublicSuffixList INSTANCE = load();
+
+        private static PublicSuffixList load() {
+            InputStream in = PublicSuffixList.class.getResourceAsStream(RESOURCE);
+            if (in == null) {
+                throw new IllegalStateException("Missing " + RESOURCE);
+            }
+            try {
+                return new PublicSuffixList(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read " + RESOURCE, e);
+            }
+        }
+    }
+}
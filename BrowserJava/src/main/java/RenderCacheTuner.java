@@ -0,0 +1,136 @@
+import javafx.animation.PauseTransition;
+import javafx.beans.value.ChangeListener;
+import javafx.scene.CacheHint;
+import javafx.scene.Node;
+import javafx.scene.input.ScrollEvent;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * RenderCacheTuner turns on node caching while a page or list is scrolled or its window resized.
+ *
+ * With caching on, JavaFX may keep a node as a bitmap and reuse it, and CacheHint.SPEED lets it
+ * reuse that bitmap even when it is stretched or moved, trading quality for speed. This only pays
+ * off while what the node draws does not change between frames, which is not true of every page,
+ * so it is off unless -Dnitron.renderCache=true is set and NitronBenchmark's scroll command
+ * measures frames both ways. Caching ends shortly after the last scroll or resize event, so nodes
+ * are redrawn at full quality once they are still. Call every method on the FX thread.
+ */
+public class RenderCacheTuner {
+    /**
+     * System property that turns caching during scroll and resize on
+     */
+    public static final String ENABLED_PROPERTY = "nitron.renderCache";
+    private static final Duration SETTLE_TIME = Duration.millis(150);
+
+    // Nodes are forgotten when their tab or dialog goes away
+    private final Set<Node> nodes = Collections.newSetFromMap(new WeakHashMap<>());
+    // Nodes cached by the current scroll or resize, restored once it settles
+    private final List<Node> cached = new ArrayList<>();
+    private final PauseTransition settle = new PauseTransition(SETTLE_TIME);
+    private boolean enabled;
+    private long scrolls;
+    private long resizes;
+    private long cachedNodes;
+
+    /**
+     * Constructor for RenderCacheTuner
+     */
+    public RenderCacheTuner() {
+        this.enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+        settle.setOnFinished(e -> restore());
+    }
+
+    /**
+     * Cache a node while it is scrolled and while its window is resized
+     * @param node A WebView or list container
+     */
+    public void attach(Node node) {
+        if (nodes.add(node)) {
+            node.addEventFilter(ScrollEvent.ANY, e -> {
+                if (enabled) {
+                    scrolls++;
+                    cache(List.of(node));
+                }
+            });
+        }
+    }
+
+    /**
+     * Cache a window's attached nodes while it is resized
+     * @param stage The window
+     */
+    public void attachWindow(Stage stage) {
+        ChangeListener<Number> onResize = (obs, oldSize, newSize) -> {
+            if (!enabled) {
+                return;
+            }
+            resizes++;
+            List<Node> inWindow = new ArrayList<>();
+            for (Node node : nodes) {
+                if (node.getScene() != null && node.getScene() == stage.getScene()) {
+                    inWindow.add(node);
+                }
+            }
+            cache(inWindow);
+        };
+        stage.widthProperty().addListener(onResize);
+        stage.heightProperty().addListener(onResize);
+    }
+
+    private void cache(List<Node> targets) {
+        for (Node node : targets) {
+            // Leave nodes alone that cache on their own
+            if (!node.isCache()) {
+                node.setCache(true);
+                node.setCacheHint(CacheHint.SPEED);
+                cached.add(node);
+                cachedNodes++;
+            }
+        }
+        settle.playFromStart();
+    }
+
+    private void restore() {
+        for (Node node : cached) {
+            node.setCacheHint(CacheHint.DEFAULT);
+            node.setCache(false);
+        }
+        cached.clear();
+    }
+
+    /**
+     * Check whether nodes are cached during scroll and resize
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn caching during scroll and resize on or off
+     * @param enabled true to cache
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            settle.stop();
+            restore();
+        }
+    }
+
+    /**
+     * Get tuning statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Render cache: %s, %d scroll events, %d resize events, %d nodes cached",
+                enabled ? "on" : "off", scrolls, resizes, cachedNodes);
+    }
+}
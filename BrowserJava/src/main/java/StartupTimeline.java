@@ -0,0 +1,87 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StartupTimeline records how long launch takes, from JVM start to the first loaded page.
+ * Marks are plain wall-clock timestamps so recording them loads no extra classes; the JVM
+ * start time is only looked up when the timeline is reported.
+ *
+ * Run with -Dnitron.startupTimeline=true to print it once the first page has loaded, and with
+ * -Dnitron.exitAfterFirstPage=true to quit right after, which is what the CDS training run uses.
+ */
+public final class StartupTimeline {
+    /** Entered NitronBrowser.main */
+    public static final String MAIN = "main";
+    /** Entered Application.start */
+    public static final String START = "start";
+    /** The primary stage has been shown */
+    public static final String STAGE_SHOWN = "stageShown";
+    /** The first frame has been rendered */
+    public static final String FIRST_FRAME = "firstFrame";
+    /** The first page load has finished */
+    public static final String FIRST_PAGE = "firstPageLoaded";
+
+    private static final Map<String, Long> marks = new LinkedHashMap<>();
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Record a startup milestone. Only the first mark of each name counts.
+     * @param name The milestone
+     */
+    public static synchronized void mark(String name) {
+        marks.putIfAbsent(name, System.currentTimeMillis());
+    }
+
+    /**
+     * Check whether a milestone has been reached
+     * @param name The milestone
+     * @return true if it has been marked
+     */
+    public static synchronized boolean isMarked(String name) {
+        return marks.containsKey(name);
+    }
+
+    /**
+     * Get the milestones reached so far
+     * @return Milliseconds since JVM start for each milestone, in the order they were reached
+     */
+    public static synchronized Map<String, Long> getMillisSinceJvmStart() {
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+        Map<String, Long> timeline = new LinkedHashMap<>();
+        marks.forEach((name, time) -> timeline.put(name, time - jvmStart));
+        return timeline;
+    }
+
+    /**
+     * Check whether the timeline should be printed when the first page loads
+     * @return true if -Dnitron.startupTimeline=true was given
+     */
+    public static boolean isPrintEnabled() {
+        return Boolean.getBoolean("nitron.startupTimeline");
+    }
+
+    /**
+     * Check whether the browser should quit after the first page, for training runs
+     * @return true if -Dnitron.exitAfterFirstPage=true was given
+     */
+    public static boolean isExitAfterFirstPage() {
+        return Boolean.getBoolean("nitron.exitAfterFirstPage");
+    }
+
+    /**
+     * Get the timeline as a printable report
+     * @return The report
+     */
+    public static String getStatisticsAsString() {
+        StringBuilder stats = new StringBuilder("=== Startup Timeline ===\n");
+        long previous = 0;
+        for (Map.Entry<String, Long> entry : getMillisSinceJvmStart().entrySet()) {
+            stats.append(String.format("%-16s %6d ms (+%d ms)%n", entry.getKey(), entry.getValue(), entry.getValue() - previous));
+            previous = entry.getValue();
+        }
+        return stats.toString();
+    }
+}
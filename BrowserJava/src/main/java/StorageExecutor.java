@@ -0,0 +1,137 @@
+import javafx.application.Platform;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * StorageExecutor runs database and disk work away from the JavaFX Application Thread.
+ * Results are handed back to the FX thread through Platform.runLater so callers
+ * can update controls directly in their callbacks.
+ */
+public class StorageExecutor {
+    /**
+     * System property that turns blocking storage calls on the FX thread into errors
+     */
+    public static final String STRICT_FX_THREAD_PROPERTY = "nitron.strictFxThread";
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final ExecutorService executor;
+
+    /**
+     * Constructor for StorageExecutor with the default number of worker threads
+     */
+    public StorageExecutor() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Constructor for StorageExecutor
+     * @param threads The number of storage worker threads
+     */
+    public StorageExecutor(int threads) {
+        this.executor = Executors.newFixedThreadPool(threads, new StorageThreadFactory());
+    }
+
+    /**
+     * Run storage work in the background and deliver its result on the FX thread
+     * @param work The storage work to run
+     * @param onSuccess Callback receiving the result on the FX thread
+     * @return Handle that can cancel delivery of the result
+     */
+    public <T> StorageTask<T> submit(Callable<T> work, Consumer<T> onSuccess) {
+        return submit(work, onSuccess, error ->
+                System.err.println("Storage task failed: " + error.getMessage()));
+    }
+
+    /**
+     * Run storage work in the background and deliver its outcome on the FX thread
+     * @param work The storage work to run
+     * @param onSuccess Callback receiving the result on the FX thread
+     * @param onFailure Callback receiving the failure on the FX thread
+     * @return Handle that can cancel delivery of the outcome
+     */
+    public <T> StorageTask<T> submit(Callable<T> work, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        StorageTask<T> task = new StorageTask<>();
+        task.setFuture(executor.submit(() -> {
+            if (task.isCancelled()) {
+                return;
+            }
+            try {
+                T result = work.call();
+                deliver(task, () -> onSuccess.accept(result));
+            } catch (Exception e) {
+                deliver(task, () -> onFailure.accept(e));
+            }
+        }));
+        return task;
+    }
+
+    /**
+     * Run storage work in the background without waiting for a result
+     * @param work The storage work to run
+     */
+    public void execute(Runnable work) {
+        executor.execute(() -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                System.err.println("Storage task failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stop accepting work and wait briefly for pending writes to finish
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Storage tasks still running after shutdown timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Guard for blocking storage calls. When the strict property is set,
+     * calling a blocking operation on the FX thread fails instead of freezing the UI.
+     * @param operation The name of the blocking operation
+     * @throws IllegalStateException if strict mode is on and called from the FX thread
+     */
+    public static void checkNotOnFxThread(String operation) {
+        if (Boolean.getBoolean(STRICT_FX_THREAD_PROPERTY) && Platform.isFxApplicationThread()) {
+            throw new IllegalStateException("Blocking storage call on the FX thread: " + operation);
+        }
+    }
+
+    private void deliver(StorageTask<?> task, Runnable callback) {
+        Platform.runLater(() -> {
+            if (!task.isCancelled()) {
+                callback.run();
+            }
+        });
+    }
+
+    /**
+     * Creates daemon worker threads so pending storage work never keeps the browser alive
+     */
+    private static class StorageThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "nitron-storage-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
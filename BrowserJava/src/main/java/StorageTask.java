@@ -0,0 +1,50 @@
+import java.util.concurrent.Future;
+
+/**
+ * Handle to a storage task submitted to the StorageExecutor.
+ * Cancelling a task drops its result so a closed dialog is never updated
+ * by a query that finished after it was dismissed.
+ * @param <T> The type of the task result
+ */
+public class StorageTask<T> {
+    private volatile boolean cancelled;
+    private volatile Future<?> future;
+
+    /**
+     * Attach the running future to this handle
+     * @param future The future of the submitted work
+     */
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Cancel the task. Work that already started runs to completion,
+     * but its result is discarded instead of being handed to the FX thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        Future<?> running = future;
+        if (running != null) {
+            // Do not interrupt: an interrupted Mongo call closes its pooled connection
+            running.cancel(false);
+        }
+    }
+
+    /**
+     * Check if the task was cancelled
+     * @return true if cancelled, false otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Check if the task has finished running
+     * @return true if the work has completed or was cancelled
+     */
+    public boolean isDone() {
+        Future<?> running = future;
+        return cancelled || (running != null && running.isDone());
+    }
+}
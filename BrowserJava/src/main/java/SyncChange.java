@@ -0,0 +1,188 @@
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * SyncChange is one change to a bookmark or history record, as exchanged between Nitron instances.
+ *
+ * Every change carries a version stamp: a hybrid logical clock value from the instance that made it,
+ * with the instance id breaking ties. Bookmarks and visits are records keyed by URL and visit id, and
+ * the change with the highest version wins, so every instance settles on the same state whatever
+ * order changes arrive in. Deletes are tombstones that win or lose the same way. A history delete
+ * is replayed as an operation, removing one visit of the URL as deleteHistory does locally.
+ */
+public class SyncChange {
+    /**
+     * What a change applies to
+     */
+    public enum Kind {
+        BOOKMARK, VISIT, HISTORY_DELETE
+    }
+
+    private final Kind kind;
+    private final String key;
+    private final boolean deleted;
+    private final long stamp;
+    private final String node;
+    private final HistoryVisit visit;
+
+    /**
+     * Constructor for SyncChange
+     * @param kind What the change applies to
+     * @param key The record key: the URL for bookmarks and history deletes, the visit id for visits
+     * @param deleted true for a tombstone
+     * @param stamp The version stamp
+     * @param node The id of the instance that made the change
+     * @param visit The visit for VISIT changes, otherwise null
+     */
+    public SyncChange(Kind kind, String key, boolean deleted, long stamp, String node, HistoryVisit visit) {
+        this.kind = kind;
+        this.key = key;
+        this.deleted = deleted;
+        this.stamp = stamp;
+        this.node = node;
+        this.visit = visit;
+    }
+
+    /**
+     * Get the unique id of this change
+     * @return The instance id and version stamp
+     */
+    public String getId() {
+        return node + ":" + stamp;
+    }
+
+    /**
+     * Get the key that identifies the record across instances
+     * @return The kind and key, for version comparisons
+     */
+    public String getRecordKey() {
+        return kind == Kind.HISTORY_DELETE ? "history-delete:" + getId() : kind.name().toLowerCase() + ":" + key;
+    }
+
+    /**
+     * Check whether this change beats another change to the same record
+     * @param other The other change, or null if the record is unknown
+     * @return true if this change has the higher version
+     */
+    public boolean isNewerThan(SyncChange other) {
+        if (other == null) {
+            return true;
+        }
+        if (stamp != other.stamp) {
+            return stamp > other.stamp;
+        }
+        return node.compareTo(other.node) > 0;
+    }
+
+    /**
+     * Get what the change applies to
+     * @return The kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the record key
+     * @return The URL for bookmarks and history deletes, the visit id for visits
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Check whether this change is a tombstone
+     * @return true if the record was deleted
+     */
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Get the version stamp
+     * @return The hybrid logical clock value
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Get the instance that made the change
+     * @return The instance id
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Get the visit of a VISIT change
+     * @return The visit, or null for other kinds
+     */
+    public HistoryVisit getVisit() {
+        return visit;
+    }
+
+    /**
+     * Convert to the wire and journal format
+     * @return The change as a document
+     */
+    public Document toDocument() {
+        Document doc = new Document("kind", kind.name())
+                .append("key", key)
+                .append("stamp", stamp)
+                .append("node", node);
+        if (deleted) {
+            doc.append("deleted", true);
+        }
+        if (visit != null) {
+            doc.append("url", visit.getUrl())
+               .append("visited_at", visit.getVisitedAt().getTime());
+            if (visit.getTransition() != null) {
+                doc.append("transition", visit.getTransition().name());
+            }
+            if (!visit.getRedirects().isEmpty()) {
+                doc.append("redirects", visit.getRedirects());
+            }
+            doc.append("reload_count", visit.getReloadCount())
+               .append("fragment_count", visit.getFragmentCount())
+               .append("dwell_ms", visit.getDwellMillis());
+        }
+        return doc;
+    }
+
+    /**
+     * Read a change from the wire and journal format
+     * @param doc The document
+     * @return The change
+     * @throws IllegalArgumentException if the document is not a change
+     */
+    public static SyncChange fromDocument(Document doc) {
+        Kind kind = Kind.valueOf(doc.getString("kind"));
+        String key = doc.getString("key");
+        String node = doc.getString("node");
+        if (key == null || node == null || !(doc.get("stamp") instanceof Number)) {
+            throw new IllegalArgumentException("Incomplete sync change: " + doc.toJson());
+        }
+        HistoryVisit visit = null;
+        if (kind == Kind.VISIT && doc.containsKey("url")) {
+            String transition = doc.getString("transition");
+            List<String> redirects = doc.getList("redirects", String.class);
+            visit = new HistoryVisit(key, doc.getString("url"),
+                    new Date(((Number) doc.get("visited_at")).longValue()),
+                    transition == null ? null : HistoryVisit.Transition.valueOf(transition),
+                    redirects == null ? new ArrayList<>() : redirects,
+                    doc.getInteger("reload_count", 0), doc.getInteger("fragment_count", 0),
+                    ((Number) doc.get("dwell_ms", 0L)).longValue());
+        }
+        return new SyncChange(kind, key, doc.getBoolean("deleted", false),
+                ((Number) doc.get("stamp")).longValue(), node, visit);
+    }
+
+    @Override
+    public String toString() {
+        return getRecordKey() + (deleted ? " deleted" : "") + " @ " + getId();
+    }
+}
@@ -0,0 +1,323 @@
+import org.bson.Document;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * SyncJournal records this instance's bookmark and history changes until they have been sent to
+ * the sync server, and remembers the winning version of every record so changes from other
+ * instances can be resolved against it.
+ *
+ * The journal is an append-only file of JSON lines, one change per line. Local changes carry a
+ * sequence number; the ones past the last pushed sequence are sent on the next sync, so a sync
+ * costs what changed since the previous one. Once the file holds mostly superseded changes it is
+ * rewritten with only the winning change of each record. The instance id, the clock and the
+ * sync cursors are kept in state.properties.
+ */
+public class SyncJournal {
+    private static final int COMPACT_MIN_LINES = 10_000;
+    // Milliseconds are shifted past a logical counter, so stamps still increase when the wall clock does not
+    private static final int LOGICAL_BITS = 12;
+
+    private final Path directory;
+    private final Map<String, SyncChange> latest = new HashMap<>();
+    private final List<SyncChange> unpushed = new ArrayList<>();
+    private final Map<SyncChange, Long> unpushedSeq = new HashMap<>();
+    private String nodeId;
+    private long clock;
+    private long localSeq;
+    private long pushedSeq;
+    private long pullCursor;
+    private long lines;
+    private boolean fresh;
+    private BufferedWriter log;
+
+    /**
+     * Constructor for SyncJournal
+     * @param directory Directory holding the journal and sync state
+     */
+    public SyncJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Read the journal and state if that has not happened yet. Reads from disk, so
+     * the first call belongs off the FX thread.
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized void open() throws IOException {
+        StorageExecutor.checkNotOnFxThread("SyncJournal.open");
+        if (log != null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        Properties state = new Properties();
+        Path stateFile = directory.resolve("state.properties");
+        if (Files.exists(stateFile)) {
+            try (InputStream in = Files.newInputStream(stateFile)) {
+                state.load(in);
+            }
+        }
+        nodeId = state.getProperty("node", UUID.randomUUID().toString());
+        clock = Long.parseLong(state.getProperty("clock", "0"));
+        pushedSeq = Long.parseLong(state.getProperty("pushedSeq", "0"));
+        pullCursor = Long.parseLong(state.getProperty("pullCursor", "0"));
+
+        Path journal = directory.resolve("journal.log");
+        fresh = !Files.exists(journal);
+        latest.clear();
+        unpushed.clear();
+        unpushedSeq.clear();
+        lines = 0;
+        if (!fresh) {
+            try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    readLine(line);
+                }
+            }
+            unpushed.sort(Comparator.comparingLong(unpushedSeq::get));
+        }
+        log = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        saveState();
+    }
+
+    private void readLine(String line) {
+        if (line.isBlank()) {
+            return;
+        }
+        try {
+            Document doc = Document.parse(line);
+            SyncChange change = SyncChange.fromDocument(doc);
+            lines++;
+            clock = Math.max(clock, change.getStamp());
+            SyncChange current = latest.get(change.getRecordKey());
+            if (change.isNewerThan(current)) {
+                latest.put(change.getRecordKey(), change);
+            }
+            long seq = ((Number) doc.get("seq", 0L)).longValue();
+            localSeq = Math.max(localSeq, seq);
+            if (seq > pushedSeq) {
+                unpushed.add(change);
+                unpushedSeq.put(change, seq);
+            }
+        } catch (RuntimeException e) {
+            // A line torn by a crash; the change was never pushed or applied
+            System.err.println("Skipping unreadable sync journal line: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Check whether the journal was created by this open, so existing data still needs recording
+     * @return true if there was no journal before
+     */
+    public synchronized boolean isFresh() throws IOException {
+        open();
+        return fresh;
+    }
+
+    /**
+     * Record a change made on this instance
+     * @param kind What changed
+     * @param key The URL, or the visit id for visits
+     * @param deleted true for a delete
+     * @param visit The visit for VISIT changes, otherwise null
+     * @return The recorded change
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized SyncChange recordLocal(SyncChange.Kind kind, String key, boolean deleted, HistoryVisit visit)
+            throws IOException {
+        open();
+        clock = Math.max(clock + 1, System.currentTimeMillis() << LOGICAL_BITS);
+        SyncChange change = new SyncChange(kind, key, deleted, clock, nodeId, visit);
+        latest.put(change.getRecordKey(), change);
+        long seq = ++localSeq;
+        unpushed.add(change);
+        unpushedSeq.put(change, seq);
+        append(change, seq);
+        return change;
+    }
+
+    /**
+     * Resolve a change from another instance against the local version of its record
+     * @param change The remote change
+     * @return true if the change wins and must be applied to the database
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized boolean acceptRemote(SyncChange change) throws IOException {
+        open();
+        clock = Math.max(clock, change.getStamp());
+        SyncChange current = latest.get(change.getRecordKey());
+        if (current != null && current.getId().equals(change.getId())) {
+            // Seen before, possibly without being applied; re-applying a record is harmless, a delete is not
+            return change.getKind() != SyncChange.Kind.HISTORY_DELETE;
+        }
+        if (!change.isNewerThan(current)) {
+            return false;
+        }
+        latest.put(change.getRecordKey(), change);
+        append(change, 0);
+        return true;
+    }
+
+    private void append(SyncChange change, long seq) throws IOException {
+        Document doc = change.toDocument();
+        if (seq > 0) {
+            doc.append("seq", seq);
+        }
+        log.write(doc.toJson());
+        log.newLine();
+        log.flush();
+        lines++;
+    }
+
+    /**
+     * Get the oldest local changes not yet sent to the server
+     * @param limit The most changes to return
+     * @return Changes in the order they were made
+     */
+    public synchronized List<SyncChange> getPending(int limit) throws IOException {
+        open();
+        return new ArrayList<>(unpushed.subList(0, Math.min(limit, unpushed.size())));
+    }
+
+    /**
+     * Mark the oldest pending changes as accepted by the server
+     * @param count The number of changes sent
+     * @throws IOException if the state cannot be saved
+     */
+    public synchronized void markPushed(int count) throws IOException {
+        StorageExecutor.checkNotOnFxThread("SyncJournal.markPushed");
+        for (int i = 0; i < count && !unpushed.isEmpty(); i++) {
+            pushedSeq = unpushedSeq.remove(unpushed.remove(0));
+        }
+        saveState();
+    }
+
+    /**
+     * Get the server position up to which changes from other instances have been applied
+     * @return The pull cursor
+     */
+    public synchronized long getPullCursor() throws IOException {
+        open();
+        return pullCursor;
+    }
+
+    /**
+     * Save the server position after applying a batch of remote changes
+     * @param cursor The new pull cursor
+     * @throws IOException if the state cannot be saved
+     */
+    public synchronized void setPullCursor(long cursor) throws IOException {
+        StorageExecutor.checkNotOnFxThread("SyncJournal.setPullCursor");
+        pullCursor = cursor;
+        saveState();
+    }
+
+    /**
+     * Rewrite the journal with only the winning change of each record, once most lines are superseded
+     * @return true if the journal was rewritten
+     * @throws IOException if the journal cannot be rewritten
+     */
+    public synchronized boolean compactIfNeeded() throws IOException {
+        open();
+        if (lines < COMPACT_MIN_LINES || lines < 2L * latest.size()) {
+            return false;
+        }
+        Path journal = directory.resolve("journal.log");
+        Path rewritten = directory.resolve("journal.log.tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(rewritten, StandardCharsets.UTF_8)) {
+            for (SyncChange change : latest.values()) {
+                Document doc = change.toDocument();
+                Long seq = unpushedSeq.get(change);
+                if (seq != null) {
+                    doc.append("seq", seq);
+                }
+                out.write(doc.toJson());
+                out.newLine();
+            }
+            // Pending changes already superseded by a remote change are still sent
+            for (SyncChange change : unpushed) {
+                if (latest.get(change.getRecordKey()) != change) {
+                    out.write(change.toDocument().append("seq", unpushedSeq.get(change)).toJson());
+                    out.newLine();
+                }
+            }
+        }
+        log.close();
+        Files.move(rewritten, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        lines = latest.size() + unpushed.size();
+        return true;
+    }
+
+    private void saveState() throws IOException {
+        Properties state = new Properties();
+        state.setProperty("node", nodeId);
+        state.setProperty("clock", Long.toString(clock));
+        state.setProperty("pushedSeq", Long.toString(pushedSeq));
+        state.setProperty("pullCursor", Long.toString(pullCursor));
+        Path stateFile = directory.resolve("state.properties");
+        Path temp = directory.resolve("state.properties.tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            state.store(out, "Nitron sync state");
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get this instance's id
+     * @return The id sent with every change
+     */
+    public synchronized String getNodeId() throws IOException {
+        open();
+        return nodeId;
+    }
+
+    /**
+     * Get the number of local changes waiting to be sent
+     * @return Pending change count
+     */
+    public synchronized int getPendingCount() {
+        return unpushed.size();
+    }
+
+    /**
+     * Get the number of records with a known version
+     * @return Record count, tombstones included
+     */
+    public synchronized int getRecordCount() {
+        return latest.size();
+    }
+
+    /**
+     * Save the state and close the journal file
+     */
+    public synchronized void close() {
+        if (log == null) {
+            return;
+        }
+        try {
+            saveState();
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Could not close sync journal: " + e.getMessage());
+        }
+        log = null;
+    }
+}
@@ -0,0 +1,359 @@
+import org.bson.Document;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * SyncManager is a derived class from BrowserFeature.
+ * Keeps bookmarks and history in step with other Nitron instances through a sync server.
+ *
+ * Each sync pushes the local changes recorded in the SyncJournal since the last push, then pulls
+ * the changes other instances pushed since the last pull, so a sync costs what changed rather than
+ * the size of the history. Changes travel in batches as gzip-compressed JSON lines:
+ * POST {url}/push?node=ID and GET {url}/pull?node=ID&amp;since=CURSOR&amp;limit=N, where the pull
+ * response names the next cursor in X-Nitron-Sync-Cursor and sets X-Nitron-Sync-More while more
+ * changes wait. Pulled changes are resolved against the journal and only the winners are
+ * written to the database.
+ *
+ * Settings: -Dnitron.sync.url (sync is off without it), -Dnitron.sync.intervalMinutes (5) and
+ * -Dnitron.sync.secret, sent as a bearer token to servers that require one.
+ */
+public class SyncManager extends BrowserFeature {
+    /**
+     * System property with the shared secret of the sync server
+     */
+    public static final String SECRET_PROPERTY = "nitron.sync.secret";
+
+    private static final int BATCH_SIZE = 500;
+    private static final int TIMEOUT_MILLIS = 15_000;
+
+    private final SyncJournal journal;
+    private final DatabaseOperations database;
+    private final String serverUrl;
+    private final String secret;
+    private final long intervalMinutes;
+    private final ScheduledExecutorService worker;
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong pushed = new AtomicLong();
+    private final AtomicLong pulled = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * Check whether a sync server has been configured
+     * @return true if -Dnitron.sync.url is set
+     */
+    public static boolean isConfigured() {
+        String url = System.getProperty("nitron.sync.url");
+        return url != null && !url.isBlank();
+    }
+
+    /**
+     * Constructor for SyncManager using the settings from the system properties
+     * @param journal The journal of local changes
+     * @param database The database pulled changes are written to, without change recording
+     */
+    public SyncManager(SyncJournal journal, DatabaseOperations database) {
+        this(journal, database, System.getProperty("nitron.sync.url"), Long.getLong("nitron.sync.intervalMinutes", 5),
+                System.getProperty(SECRET_PROPERTY));
+    }
+
+    /**
+     * Constructor for SyncManager
+     * @param journal The journal of local changes
+     * @param database The database pulled changes are written to, without change recording
+     * @param serverUrl The base URL of the sync server
+     * @param intervalMinutes Minutes between background syncs, or 0 to sync only on request
+     */
+    public SyncManager(SyncJournal journal, DatabaseOperations database, String serverUrl, long intervalMinutes) {
+        this(journal, database, serverUrl, intervalMinutes, null);
+    }
+
+    /**
+     * Constructor for SyncManager with a shared secret
+     * @param journal The journal of local changes
+     * @param database The database pulled changes are written to, without change recording
+     * @param serverUrl The base URL of the sync server
+     * @param intervalMinutes Minutes between background syncs, or 0 to sync only on request
+     * @param secret The sync server's shared secret, or null if it has none
+     */
+    public SyncManager(SyncJournal journal, DatabaseOperations database, String serverUrl, long intervalMinutes,
+                       String secret) {
+        super("Sync Manager");
+        this.secret = secret == null || secret.isEmpty() ? null : secret;
+        this.journal = journal;
+        this.database = database;
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        this.intervalMinutes = intervalMinutes;
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nitron-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Initialize the sync manager: record the existing bookmarks and history on the first run
+     * and start syncing in the background
+     */
+    @Override
+    public void initialize() {
+        System.out.println("Initializing " + featureName);
+        try {
+            if (journal.isFresh()) {
+                seed();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open sync journal: " + e.getMessage());
+            return;
+        }
+        if (intervalMinutes > 0) {
+            worker.scheduleWithFixedDelay(this::syncQuietly, 0, intervalMinutes, TimeUnit.MINUTES);
+        }
+        enable();
+    }
+
+    private void seed() throws IOException {
+        int bookmarks = 0;
+        for (String url : database.getBookmarks()) {
+            journal.recordLocal(SyncChange.Kind.BOOKMARK, url, false, null);
+            bookmarks++;
+        }
+        List<HistoryVisit> visits = database.getRecentVisits(Integer.MAX_VALUE);
+        for (HistoryVisit visit : visits) {
+            String id = visit.getId() != null ? visit.getId() : SyncingDatabase.legacyVisitId(visit.getUrl(), visit.getVisitedAt());
+            journal.recordLocal(SyncChange.Kind.VISIT, id, false, visit);
+        }
+        System.out.println("Recorded " + bookmarks + " bookmarks and " + visits.size() + " visits for sync");
+    }
+
+    /**
+     * Execute sync operation
+     */
+    @Override
+    public void execute() {
+        System.out.println("Executing " + featureName);
+    }
+
+    /**
+     * Sync in the background
+     * @return Completes when the sync has finished
+     */
+    public Future<?> syncAsync() {
+        return worker.submit(this::syncQuietly);
+    }
+
+    private void syncQuietly() {
+        if (!isEnabled) {
+            return;
+        }
+        try {
+            syncNow();
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            System.err.println("Sync with " + serverUrl + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Push local changes and pull remote ones on the calling thread. One sync runs at a time.
+     * @throws IOException if the server cannot be reached or rejects a batch
+     */
+    public synchronized void syncNow() throws IOException {
+        String node = URLEncoder.encode(journal.getNodeId(), StandardCharsets.UTF_8);
+        List<SyncChange> batch;
+        while (!(batch = journal.getPending(BATCH_SIZE)).isEmpty()) {
+            push(node, batch);
+            journal.markPushed(batch.size());
+            pushed.addAndGet(batch.size());
+        }
+        boolean more = true;
+        while (more) {
+            more = pull(node);
+        }
+        journal.compactIfNeeded();
+        syncs.incrementAndGet();
+    }
+
+    private void push(String node, List<SyncChange> batch) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(body), StandardCharsets.UTF_8)) {
+            for (SyncChange change : batch) {
+                writer.write(change.toDocument().toJson());
+                writer.write('\n');
+            }
+        }
+        HttpURLConnection connection = open(serverUrl + "/push?node=" + node);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-ndjson");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setFixedLengthStreamingMode(body.size());
+        try (OutputStream out = connection.getOutputStream()) {
+            body.writeTo(out);
+        }
+        bytesSent.addAndGet(body.size());
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        if (status / 100 != 2) {
+            throw new IOException("Push rejected with HTTP " + status);
+        }
+    }
+
+    private boolean pull(String node) throws IOException {
+        long since = journal.getPullCursor();
+        HttpURLConnection connection = open(serverUrl + "/pull?node=" + node + "&since=" + since + "&limit=" + BATCH_SIZE);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+            connection.disconnect();
+            throw new IOException("Pull rejected with HTTP " + status);
+        }
+        List<SyncChange> changes = new ArrayList<>();
+        try (InputStream raw = connection.getInputStream()) {
+            CountingInput counted = new CountingInput(raw);
+            InputStream in = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(counted) : counted;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    changes.add(SyncChange.fromDocument(Document.parse(line)));
+                }
+            }
+            bytesReceived.addAndGet(counted.count);
+        }
+        String cursor = connection.getHeaderField("X-Nitron-Sync-Cursor");
+        boolean more = "true".equals(connection.getHeaderField("X-Nitron-Sync-More"));
+        apply(changes);
+        pulled.addAndGet(changes.size());
+        if (cursor != null) {
+            journal.setPullCursor(Long.parseLong(cursor));
+        }
+        return more && !changes.isEmpty();
+    }
+
+    private void apply(List<SyncChange> changes) throws IOException {
+        Set<String> bookmarks = null;
+        for (SyncChange change : changes) {
+            if (!journal.acceptRemote(change)) {
+                continue;
+            }
+            switch (change.getKind()) {
+                case BOOKMARK:
+                    if (bookmarks == null) {
+                        bookmarks = new HashSet<>(database.getBookmarks());
+                    }
+                    if (change.isDeleted()) {
+                        if (bookmarks.remove(change.getKey())) {
+                            database.deleteBookmark(change.getKey());
+                        }
+                    } else if (bookmarks.add(change.getKey())) {
+                        database.addBookmark(change.getKey());
+                    }
+                    break;
+                case VISIT:
+                    if (change.getVisit() != null) {
+                        database.saveVisit(change.getVisit());
+                    }
+                    break;
+                case HISTORY_DELETE:
+                    database.deleteHistory(change.getKey());
+                    break;
+            }
+            applied.incrementAndGet();
+        }
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        // Sync traffic must not go through the response cache or the content blocker's counters
+        connection.setUseCaches(false);
+        if (secret != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + secret);
+        }
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * Run a last sync and stop the background thread
+     */
+    public void shutdown() {
+        if (isEnabled && journal.getPendingCount() > 0) {
+            worker.execute(this::syncQuietly);
+        }
+        // Cancels the periodic sync; a sync already queued or running still finishes
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(2L * TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get sync statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Sync: %d syncs (%d failed), %d pushed, %d pulled, %d applied, %d pending, %d records, %d KB sent, %d KB received",
+                syncs.get(), failures.get(), pushed.get(), pulled.get(), applied.get(), journal.getPendingCount(),
+                journal.getRecordCount(), bytesSent.get() / 1024, bytesReceived.get() / 1024);
+    }
+
+    /**
+     * Counts the compressed bytes of a pull response
+     */
+    private static final class CountingInput extends FilterInputStream {
+        private long count;
+
+        private CountingInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
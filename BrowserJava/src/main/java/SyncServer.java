@@ -0,0 +1,428 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * SyncServer is a stand-in sync server for trying sync between instances and for tests.
+ * It keeps every pushed change in memory in arrival order and numbers it; a pull returns the
+ * changes after the caller's cursor that other instances pushed. Changes pushed twice are stored
+ * once. It forgets everything when stopped.
+ *
+ * Memory is bounded: a push body may hold at most 8 MB, compressed or not, and at most 100,000
+ * changes are held. When the store is full, changes superseded by a newer version of the same
+ * record are dropped first, since no instance would apply them; if it is still full, pushes are
+ * refused with 507 and the instances keep their changes until there is room.
+ *
+ * It listens on loopback only unless told otherwise. Listening on another address needs a shared
+ * secret, which every request must then send as "Authorization: Bearer SECRET".
+ *
+ * Run with "java SyncServer [port] [address]" and start each instance with
+ * -Dnitron.sync.url=http://host:port; with an address, give the server and every instance the
+ * same -Dnitron.sync.secret.
+ */
+public class SyncServer {
+    private static final int MAX_PULL = 5000;
+    private static final int MAX_CHANGES = 100_000;
+    private static final long MAX_PUSH_BYTES = 8L * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] secret;
+    private final int maxChanges;
+    private final List<Entry> changes = new ArrayList<>();
+    private final Set<String> changeIds = new HashSet<>();
+    private final Map<String, Entry> latest = new HashMap<>();
+    private long lastSeq;
+    private int superseded;
+
+    /**
+     * Constructor for SyncServer on an ephemeral loopback port. Starts serving immediately.
+     * @throws IOException if the server socket cannot be opened
+     */
+    public SyncServer() throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * Constructor for SyncServer without a shared secret. Starts serving immediately.
+     * @param address The loopback address to listen on
+     * @throws IOException if the server socket cannot be opened
+     */
+    public SyncServer(InetSocketAddress address) throws IOException {
+        this(address, null);
+    }
+
+    /**
+     * Constructor for SyncServer. Starts serving immediately.
+     * @param address The address to listen on
+     * @param secret The shared secret requests must carry, or null to accept any request;
+     *               required unless the address is a loopback address
+     * @throws IOException if the server socket cannot be opened
+     */
+    public SyncServer(InetSocketAddress address, String secret) throws IOException {
+        this(address, secret, MAX_CHANGES);
+    }
+
+    /**
+     * Constructor for SyncServer with a custom change limit. Starts serving immediately.
+     * @param address The address to listen on
+     * @param secret The shared secret requests must carry, or null to accept any request
+     * @param maxChanges The most changes held at once
+     * @throws IOException if the server socket cannot be opened
+     */
+    SyncServer(InetSocketAddress address, String secret, int maxChanges) throws IOException {
+        this.maxChanges = maxChanges;
+        boolean hasSecret = secret != null && !secret.isEmpty();
+        if (!hasSecret && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+            throw new IllegalArgumentException("A shared secret is required to listen on " + address);
+        }
+        this.secret = hasSecret ? secret.getBytes(StandardCharsets.UTF_8) : null;
+        server = HttpServer.create(address, 0);
+        executor = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "nitron-sync-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/push", this::handlePush);
+        server.createContext("/pull", this::handlePull);
+        server.start();
+    }
+
+    /**
+     * Get the base URL to configure as -Dnitron.sync.url
+     * @return The http URL of the server
+     */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Get the number of distinct changes held
+     * @return Change count
+     */
+    public synchronized int getChangeCount() {
+        return changes.size();
+    }
+
+    /**
+     * Stop serving
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+        if (secret == null) {
+            return true;
+        }
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return false;
+        }
+        // Constant time, so the secret cannot be guessed from response times
+        return MessageDigest.isEqual(secret, header.substring("Bearer ".length()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handlePush(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!isAuthorized(exchange)) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            String node = query(exchange).get("node");
+            if (!"POST".equals(exchange.getRequestMethod()) || node == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            List<Entry> batch = new ArrayList<>();
+            // Both limits: a small gzip body can inflate to any size
+            InputStream in = new LimitedInputStream(exchange.getRequestBody());
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                in = new LimitedInputStream(new GZIPInputStream(in));
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            try {
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        Document doc = Document.parse(line);
+                        batch.add(new Entry(node, SyncChange.fromDocument(doc), doc.toJson()));
+                    }
+                }
+            } catch (TooLargeException e) {
+                exchange.sendResponseHeaders(413, -1);
+                return;
+            } catch (RuntimeException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            int added = 0;
+            synchronized (this) {
+                if (changes.size() + batch.size() > maxChanges) {
+                    dropSuperseded();
+                }
+                if (changes.size() + batch.size() > maxChanges) {
+                    // Nothing is stored, so the instance retries the whole batch later
+                    exchange.sendResponseHeaders(507, -1);
+                    return;
+                }
+                for (Entry entry : batch) {
+                    if (changeIds.add(entry.id)) {
+                        add(entry);
+                        added++;
+                    }
+                }
+            }
+            byte[] body = ("{\"accepted\": " + added + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private void handlePull(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!isAuthorized(exchange)) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            Map<String, String> query = query(exchange);
+            String node = query.get("node");
+            long since;
+            int limit;
+            try {
+                since = Long.parseLong(query.getOrDefault("since", "0"));
+                limit = Math.min(MAX_PULL, Integer.parseInt(query.getOrDefault("limit", "500")));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            List<String> lines = new ArrayList<>();
+            long cursor = since;
+            boolean more;
+            synchronized (this) {
+                int position = firstAfter(since);
+                while (position < changes.size() && lines.size() < limit) {
+                    Entry entry = changes.get(position++);
+                    cursor = entry.seq;
+                    if (!entry.node.equals(node)) {
+                        lines.add(entry.json);
+                    }
+                }
+                more = position < changes.size();
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            exchange.getResponseHeaders().set("X-Nitron-Sync-Cursor", Long.toString(cursor));
+            exchange.getResponseHeaders().set("X-Nitron-Sync-More", Boolean.toString(more));
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(exchange.getResponseBody()), StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    private void add(Entry entry) {
+        entry.seq = ++lastSeq;
+        changes.add(entry);
+        Entry current = latest.get(entry.recordKey);
+        if (entry.change.isNewerThan(current == null ? null : current.change)) {
+            latest.put(entry.recordKey, entry);
+            if (current != null) {
+                current.superseded = true;
+                superseded++;
+            }
+        } else {
+            entry.superseded = true;
+            superseded++;
+        }
+    }
+
+    /**
+     * Forget changes that lost to a newer version of their record. An instance whose cursor is
+     * before them still pulls the winning version, which comes later.
+     */
+    private void dropSuperseded() {
+        if (superseded == 0) {
+            return;
+        }
+        for (Iterator<Entry> it = changes.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.superseded) {
+                it.remove();
+                changeIds.remove(entry.id);
+            }
+        }
+        superseded = 0;
+    }
+
+    /**
+     * Find the first change numbered after a cursor. Numbers increase along the list but have
+     * gaps where superseded changes were dropped.
+     */
+    private int firstAfter(long cursor) {
+        int low = 0;
+        int high = changes.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (changes.get(middle).seq <= cursor) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                           URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Starts a stand-alone sync server
+     * @param args Optional port, default 8765, and optional address to listen on, default loopback.
+     *             Any other address needs -Dnitron.sync.secret.
+     * @throws IOException if the port cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8765;
+        InetAddress bind = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        SyncServer server;
+        try {
+            server = new SyncServer(new InetSocketAddress(bind, port), System.getProperty(SyncManager.SECRET_PROPERTY));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + "; set -D" + SyncManager.SECRET_PROPERTY + " or listen on loopback");
+            System.exit(2);
+            return;
+        }
+        System.out.println("Sync server listening on " + bind.getHostAddress() + ":" + port);
+        // The server threads are daemons; keep the process alive until it is killed
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "nitron-sync-server-shutdown"));
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A pushed change, the instance that pushed it and its position on the server
+     */
+    private static final class Entry {
+        private final String node;
+        private final SyncChange change;
+        private final String id;
+        private final String recordKey;
+        private final String json;
+        private long seq;
+        private boolean superseded;
+
+        private Entry(String node, SyncChange change, String json) {
+            this.node = node;
+            this.change = change;
+            this.id = change.getId();
+            this.recordKey = change.getRecordKey();
+            this.json = json;
+        }
+    }
+
+    /**
+     * Fails the read once more than MAX_PUSH_BYTES have been read
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining = MAX_PUSH_BYTES;
+
+        private LimitedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws TooLargeException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new TooLargeException();
+            }
+        }
+    }
+
+    /**
+     * A push body over the size limit
+     */
+    private static final class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private TooLargeException() {
+            super("Push body exceeds " + MAX_PUSH_BYTES + " bytes");
+        }
+    }
+}
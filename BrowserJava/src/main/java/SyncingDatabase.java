@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SyncingDatabase wraps another DatabaseOperations and records every bookmark and history change
+ * in the SyncJournal, so the SyncManager can send it to the other Nitron instances.
+ * Reads go straight to the wrapped database. Changes pulled from other instances are applied to
+ * the wrapped database directly, so they are not recorded again as local changes.
+ */
+public class SyncingDatabase implements DatabaseOperations {
+    private final DatabaseOperations delegate;
+    private final SyncJournal journal;
+
+    /**
+     * Constructor for SyncingDatabase
+     * @param delegate The database that stores the data
+     * @param journal The journal local changes are recorded in
+     */
+    public SyncingDatabase(DatabaseOperations delegate, SyncJournal journal) {
+        this.delegate = delegate;
+        this.journal = journal;
+    }
+
+    /**
+     * Get the id a visit is synced under when it was added without one
+     * @param url The visited URL
+     * @param visitedAt The time of the visit
+     * @return An id that is the same on every instance holding the visit
+     */
+    public static String legacyVisitId(String url, Date visitedAt) {
+        return url + "@" + visitedAt.getTime();
+    }
+
+    private void record(SyncChange.Kind kind, String key, boolean deleted, HistoryVisit visit) {
+        try {
+            journal.recordLocal(kind, key, deleted, visit);
+        } catch (IOException e) {
+            // The local write has happened; only syncing it is lost
+            System.err.println("Could not record change for sync: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void addBookmark(String url) {
+        delegate.addBookmark(url);
+        record(SyncChange.Kind.BOOKMARK, url, false, null);
+    }
+
+    @Override
+    public void addBookmarks(Map<String, Date> bookmarks) {
+        delegate.addBookmarks(bookmarks);
+        for (String url : bookmarks.keySet()) {
+            record(SyncChange.Kind.BOOKMARK, url, false, null);
+        }
+    }
+
+    @Override
+    public List<String> getBookmarks() {
+        return delegate.getBookmarks();
+    }
+
+    @Override
+    public void deleteBookmark(String url) {
+        delegate.deleteBookmark(url);
+        record(SyncChange.Kind.BOOKMARK, url, true, null);
+    }
+
+    @Override
+    public void addHistory(String url) {
+        addHistory(url, new Date());
+    }
+
+    @Override
+    public void addHistory(String url, Date visitedAt) {
+        delegate.addHistory(url, visitedAt);
+        String id = legacyVisitId(url, visitedAt);
+        record(SyncChange.Kind.VISIT, id, false,
+                new HistoryVisit(id, url, visitedAt, null, Collections.emptyList(), 0, 0, 0));
+    }
+
+    @Override
+    public void saveVisit(HistoryVisit visit) {
+        delegate.saveVisit(visit);
+        record(SyncChange.Kind.VISIT, visit.getId(), false, visit);
+    }
+
+    @Override
+    public void saveVisits(List<HistoryVisit> visits) {
+        delegate.saveVisits(visits);
+        for (HistoryVisit visit : visits) {
+            record(SyncChange.Kind.VISIT, visit.getId(), false, visit);
+        }
+    }
+
+    @Override
+    public List<String> getHistory() {
+        return delegate.getHistory();
+    }
+
+    @Override
+    public Map<String, List<String>> getHistoryByDay() {
+        return delegate.getHistoryByDay();
+    }
+
+    @Override
+    public List<HistoryVisit> getHistoryBefore(Date before, int limit) {
+        return delegate.getHistoryBefore(before, limit);
+    }
+
+    @Override
+    public List<HistoryVisit> getRecentVisits(int limit) {
+        return delegate.getRecentVisits(limit);
+    }
+
+    @Override
+    public void deleteHistory(String url) {
+        delegate.deleteHistory(url);
+        record(SyncChange.Kind.HISTORY_DELETE, url, true, null);
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+        delegate.close();
+    }
+}
@@ -0,0 +1,156 @@
+import javafx.scene.web.WebEngine;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * TabSampler measures what each tab's page costs, for the task manager.
+ *
+ * A sample is one short script per page: the number of DOM elements, the script heap where the
+ * engine reports it (performance.memory) and the number of pending timers. Timers cannot be
+ * listed from a page, so while the task manager is open the page's timer functions are wrapped
+ * to count the timeouts and intervals created from then on. Samples run on the FX thread, which
+ * owns the WebEngines, so the sampler times its own passes and stretches the interval whenever a
+ * pass would take more than its CPU budget.
+ */
+public class TabSampler {
+    public static final long MIN_INTERVAL_MILLIS = 2_000;
+    public static final long MAX_INTERVAL_MILLIS = 16_000;
+    // Share of one core a sampling pass may use
+    private static final double CPU_BUDGET = 0.01;
+
+    // Counts timeouts and intervals created after it runs; a second run on the same page does nothing
+    private static final String TIMER_HOOK_SCRIPT = "(function() { if (window.__nitronTimers) { return; } "
+            + "var active = {}, count = 0; "
+            + "var setT = window.setTimeout, clearT = window.clearTimeout, setI = window.setInterval, clearI = window.clearInterval; "
+            + "function done(id) { if (active[id]) { delete active[id]; count--; } } "
+            + "window.__nitronTimers = function() { return count; }; "
+            + "window.setTimeout = function(fn) { "
+            + "if (typeof fn !== 'function') { return setT.apply(window, arguments); } "
+            + "var args = Array.prototype.slice.call(arguments), id; "
+            + "args[0] = function() { done(id); return fn.apply(this, arguments); }; "
+            + "id = setT.apply(window, args); active[id] = true; count++; return id; }; "
+            + "window.clearTimeout = function(id) { done(id); return clearT.apply(window, arguments); }; "
+            + "window.setInterval = function() { var id = setI.apply(window, arguments); active[id] = true; count++; return id; }; "
+            + "window.clearInterval = function(id) { done(id); return clearI.apply(window, arguments); }; "
+            + "})()";
+
+    // "elements,jsHeapBytes,timers", -1 where unknown
+    private static final String SAMPLE_SCRIPT = "(function() { try { "
+            + "var memory = window.performance && performance.memory; "
+            + "return [document.getElementsByTagName('*').length, memory ? memory.usedJSHeapSize : -1, "
+            + "window.__nitronTimers ? window.__nitronTimers() : -1].join(','); "
+            + "} catch (e) { return ''; } })()";
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private long intervalMillis = MIN_INTERVAL_MILLIS;
+    private long passStartedAt;
+    private long lastPassNanos;
+    private long passes;
+    private long totalPassNanos;
+
+    /**
+     * Start counting a page's timers. Call on the FX thread.
+     * @param engine The tab's engine
+     */
+    public void hookTimers(WebEngine engine) {
+        try {
+            engine.executeScript(TIMER_HOOK_SCRIPT);
+        } catch (RuntimeException e) {
+            // Pages without a script context have no timers to count
+        }
+    }
+
+    /**
+     * Start timing a sampling pass
+     */
+    public void beginPass() {
+        passStartedAt = System.nanoTime();
+    }
+
+    /**
+     * Sample one page. Call on the FX thread between beginPass and endPass.
+     * @param engine The tab's engine
+     * @return {elements, jsHeapBytes, timers}, -1 where unknown
+     */
+    public long[] sample(WebEngine engine) {
+        long[] values = {-1, -1, -1};
+        try {
+            Object result = engine.executeScript(SAMPLE_SCRIPT);
+            if (result instanceof String && !((String) result).isEmpty()) {
+                String[] parts = ((String) result).split(",");
+                for (int i = 0; i < Math.min(parts.length, values.length); i++) {
+                    values[i] = (long) Double.parseDouble(parts[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Blank or discarded pages have nothing to sample
+        }
+        return values;
+    }
+
+    /**
+     * Finish timing a sampling pass and adjust the interval to the CPU budget
+     * @return Milliseconds until the next pass
+     */
+    public long endPass() {
+        lastPassNanos = System.nanoTime() - passStartedAt;
+        passes++;
+        totalPassNanos += lastPassNanos;
+        double share = lastPassNanos / (intervalMillis * 1_000_000.0);
+        if (share > CPU_BUDGET) {
+            intervalMillis = Math.min(MAX_INTERVAL_MILLIS, intervalMillis * 2);
+        } else if (share < CPU_BUDGET / 4 && intervalMillis > MIN_INTERVAL_MILLIS) {
+            intervalMillis = Math.max(MIN_INTERVAL_MILLIS, intervalMillis / 2);
+        }
+        return intervalMillis;
+    }
+
+    /**
+     * Describe the cost of sampling itself
+     * @return The interval, last pass time and its share of one core
+     */
+    public String getOverheadAsString() {
+        return String.format("Sampling every %d s, last pass %.1f ms (%.2f%% of one core)",
+                intervalMillis / 1000, lastPassNanos / 1_000_000.0,
+                100.0 * lastPassNanos / (intervalMillis * 1_000_000.0));
+    }
+
+    /**
+     * Describe JVM-wide resource use
+     * @return Heap, non-heap, threads, process CPU and garbage collection
+     */
+    public String getJvmStatsAsString() {
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        String cpu = "n/a";
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if (load >= 0) {
+                cpu = String.format("%.1f%%", load * 100);
+            }
+        }
+        return String.format("JVM: heap %d / %d MB, non-heap %d MB, %d threads, CPU %s, GC %d runs (%d ms)",
+                heap.getUsed() / 1048576, heap.getCommitted() / 1048576, nonHeap.getUsed() / 1048576,
+                ManagementFactory.getThreadMXBean().getThreadCount(), cpu, gcCount, gcMillis);
+    }
+
+    /**
+     * Get sampler statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Task manager: %d sampling passes, %.1f ms average",
+                passes, passes == 0 ? 0 : totalPassNanos / (passes * 1_000_000.0));
+    }
+}
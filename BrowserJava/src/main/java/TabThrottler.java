@@ -0,0 +1,254 @@
+import javafx.scene.web.WebEngine;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TabThrottler slows down pages in tabs that are not selected.
+ *
+ * WebView keeps running every page's timers, animation frames and videos at full speed whether
+ * or not its tab is visible. Each page gets a small script that takes over its timer and
+ * animation frame functions; while the tab is in the background timers fire at most once per
+ * second, animation frame callbacks are held back until the tab is selected again, muted videos
+ * are paused and the page is told it is hidden through document.hidden and visibilitychange.
+ * Selecting the tab restores full speed. Sites that must keep running, such as players or
+ * trading dashboards, can be exempted; the list is kept in throttle-exempt.txt.
+ *
+ * The script is installed as soon as the engine reports the page's document and again when the
+ * load finishes. Timers the page started before that cannot be slowed down, but animation frame
+ * loops and setTimeout chains re-arm themselves and are caught on their next iteration.
+ */
+public class TabThrottler {
+    /**
+     * System property that turns throttling off when set to false
+     */
+    public static final String ENABLED_PROPERTY = "nitron.throttle";
+    /**
+     * System property with extra comma-separated hosts that are never throttled
+     */
+    public static final String EXEMPT_PROPERTY = "nitron.throttle.exempt";
+    public static final long MIN_BACKGROUND_DELAY_MILLIS = 1_000;
+
+    // Installs window.__nitronThrottle(on), which returns whether anything changed; a second run on the same page does nothing
+    private static final String SHIM_SCRIPT = "(function() { if (window.__nitronThrottle) { return; } "
+            + "var MIN_DELAY = " + MIN_BACKGROUND_DELAY_MILLIS + "; "
+            + "var setT = window.setTimeout, clearT = window.clearTimeout, setI = window.setInterval, clearI = window.clearInterval; "
+            + "var raf = window.requestAnimationFrame, cancelRaf = window.cancelAnimationFrame; "
+            + "var throttled = false, nextId = 1, timers = {}, frames = {}, pausedMedia = []; "
+            // Timers get their own ids so they can be re-armed with another delay without the page noticing
+            + "function arm(timer) { "
+            + "var delay = throttled ? Math.max(timer.delay, MIN_DELAY) : timer.delay; "
+            + "timer.native = timer.repeat ? setI.call(window, timer.run, delay) "
+            + ": setT.call(window, timer.run, Math.max(0, timer.createdAt + delay - Date.now())); } "
+            + "function disarm(timer) { (timer.repeat ? clearI : clearT).call(window, timer.native); } "
+            + "function add(args, repeat) { "
+            + "var fn = args[0], id = nextId++, extra = Array.prototype.slice.call(args, 2); "
+            + "if (typeof fn !== 'function') { fn = new Function(String(fn)); } "
+            + "var timer = {delay: Math.max(0, Number(args[1]) || 0), repeat: repeat, createdAt: Date.now()}; "
+            + "timer.run = function() { if (!repeat) { delete timers[id]; } return fn.apply(window, extra); }; "
+            + "timers[id] = timer; arm(timer); return id; } "
+            + "function clear(id) { var timer = timers[id]; if (timer) { delete timers[id]; disarm(timer); } } "
+            + "window.setTimeout = function() { return add(arguments, false); }; "
+            + "window.setInterval = function() { return add(arguments, true); }; "
+            + "window.clearTimeout = clear; window.clearInterval = clear; "
+            // Frame callbacks wait while hidden and run on the first frame after the tab is selected
+            + "function armFrame(id, frame) { frame.native = raf.call(window, function(time) { delete frames[id]; frame.fn(time); }); } "
+            + "if (raf && cancelRaf) { "
+            + "window.requestAnimationFrame = function(fn) { var id = nextId++, frame = {fn: fn, native: null}; "
+            + "frames[id] = frame; if (!throttled) { armFrame(id, frame); } return id; }; "
+            + "window.cancelAnimationFrame = function(id) { var frame = frames[id]; "
+            + "if (frame) { delete frames[id]; if (frame.native !== null) { cancelRaf.call(window, frame.native); } } }; } "
+            + "try { Object.defineProperty(document, 'hidden', {configurable: true, get: function() { return throttled; }}); "
+            + "Object.defineProperty(document, 'visibilityState', {configurable: true, get: function() { return throttled ? 'hidden' : 'visible'; }}); "
+            + "} catch (e) { } "
+            + "window.__nitronThrottle = function(on) { on = !!on; if (on === throttled) { return false; } throttled = on; "
+            + "for (var id in timers) { var timer = timers[id]; if (timer.delay < MIN_DELAY) { disarm(timer); arm(timer); } } "
+            + "for (var fid in frames) { var frame = frames[fid]; "
+            + "if (on && frame.native !== null) { cancelRaf.call(window, frame.native); frame.native = null; } "
+            + "else if (!on && frame.native === null) { armFrame(fid, frame); } } "
+            // Muted videos only draw frames nobody sees; audible media keeps playing
+            + "if (on) { var media = document.querySelectorAll('video, audio'); "
+            + "for (var i = 0; i < media.length; i++) { if (!media[i].paused && (media[i].muted || media[i].volume === 0)) { "
+            + "media[i].pause(); pausedMedia.push(media[i]); } } } "
+            + "else { for (var j = 0; j < pausedMedia.length; j++) { try { pausedMedia[j].play(); } catch (e) { } } pausedMedia = []; } "
+            + "try { document.dispatchEvent(new Event('visibilitychange')); } catch (e) { } return true; }; "
+            + "})()";
+
+    private final Path exemptFile;
+    private final Set<String> exemptHosts = ConcurrentHashMap.newKeySet();
+    private final Set<String> configuredHosts = ConcurrentHashMap.newKeySet();
+    private boolean enabled;
+    private long installs;
+    private long throttles;
+    private long resumes;
+
+    /**
+     * Constructor for TabThrottler
+     * @param exemptFile File listing the hosts the user exempted, one per line
+     */
+    public TabThrottler(Path exemptFile) {
+        this.exemptFile = exemptFile;
+        this.enabled = !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+        String configured = System.getProperty(EXEMPT_PROPERTY, "");
+        for (String host : configured.split(",")) {
+            if (!host.isBlank()) {
+                configuredHosts.add(host.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * Load the user's exemptions. Reads from disk, so call it off the FX thread.
+     */
+    public void load() {
+        StorageExecutor.checkNotOnFxThread("TabThrottler.load");
+        if (!Files.exists(exemptFile)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(exemptFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    exemptHosts.add(line.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read throttling exemptions: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the user's exemptions atomically. Writes to disk, so call it off the FX thread.
+     */
+    public synchronized void save() {
+        StorageExecutor.checkNotOnFxThread("TabThrottler.save");
+        List<String> lines = new ArrayList<>(new TreeSet<>(exemptHosts));
+        try {
+            Files.createDirectories(exemptFile.getParent());
+            Path temp = exemptFile.resolveSibling(exemptFile.getFileName() + ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, exemptFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not save throttling exemptions: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Install the script on a new or loaded page, unless its site is exempt, and throttle it if
+     * its tab is in the background. Also used to re-apply a changed setting.
+     * Call on the FX thread.
+     * @param engine The tab's engine
+     * @param background true if the tab is not selected
+     */
+    public void prepare(WebEngine engine, boolean background) {
+        if (enabled && !isExempt(engine.getLocation())) {
+            try {
+                if (Boolean.TRUE.equals(engine.executeScript("!window.__nitronThrottle"))) {
+                    engine.executeScript(SHIM_SCRIPT);
+                    installs++;
+                }
+            } catch (RuntimeException e) {
+                // Pages without a script context have nothing to throttle
+                return;
+            }
+        }
+        setBackground(engine, background);
+    }
+
+    /**
+     * Slow a page down when its tab leaves the foreground, or restore it when it is selected.
+     * Call on the FX thread.
+     * @param engine The tab's engine
+     * @param background true if the tab is no longer selected
+     */
+    public void setBackground(WebEngine engine, boolean background) {
+        boolean throttle = background && enabled && !isExempt(engine.getLocation());
+        try {
+            Object changed = engine.executeScript("window.__nitronThrottle ? window.__nitronThrottle("
+                    + throttle + ") : false");
+            if (Boolean.TRUE.equals(changed)) {
+                if (throttle) {
+                    throttles++;
+                } else {
+                    resumes++;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Blank or discarded pages have no script installed
+        }
+    }
+
+    /**
+     * Check whether a page's site is exempt from throttling
+     * @param url The page URL
+     * @return true if the page always runs at full speed
+     */
+    public boolean isExempt(String url) {
+        String host = hostOf(url);
+        return host != null && (exemptHosts.contains(host) || configuredHosts.contains(host));
+    }
+
+    /**
+     * Exempt a site from throttling or throttle it again. Open tabs change on their next call to
+     * prepare or setBackground, and the list is written by the next call to save.
+     * @param url A page of the site
+     * @param exempt true to always run the site at full speed
+     */
+    public void setExempt(String url, boolean exempt) {
+        String host = hostOf(url);
+        if (host == null) {
+            return;
+        }
+        if (exempt) {
+            exemptHosts.add(host);
+        } else {
+            exemptHosts.remove(host);
+        }
+    }
+
+    /**
+     * Check whether background tabs are throttled
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn throttling on or off. Open tabs change on their next call to prepare or setBackground.
+     * @param enabled true to throttle background tabs
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    private static String hostOf(String url) {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return null;
+        }
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get throttling statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Tab throttling: %s, %d pages prepared, %d throttled, %d resumed, %d exempt sites",
+                enabled ? "on" : "off", installs, throttles, resumes, exemptHosts.size() + configuredHosts.size());
+    }
+}
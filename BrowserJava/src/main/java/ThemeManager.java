@@ -4,6 +4,57 @@
  * Demonstrates inheritance from the abstract BrowserFeature class.
  */
 public class ThemeManager extends BrowserFeature {
+    private static final String DARK_SCENE_CSS = "data:text/css," +
+            ".root { -fx-base: #282828; -fx-control-inner-background: #3c3c3c; -fx-text-fill: white; } " +
+            ".button { -fx-text-fill: white; -fx-background-color: #444444; } " +
+            ".button:hover { -fx-background-color: #555555; } " +
+            ".text-field { -fx-control-inner-background: #3c3c3c; -fx-text-fill: white; } " +
+            ".tab-pane { -fx-background-color: #333333; } " +
+            ".tab { -fx-background-color: #404040; -fx-text-fill: white; } " +
+            ".menu { -fx-background-color: #333333; -fx-text-fill: white; } " +
+            ".menu-item { -fx-background-color: #404040; -fx-text-fill: white; } " +
+            ".context-menu { -fx-background-color: #333333; } " +
+            ".list-view { -fx-control-inner-background: #3c3c3c; } " +
+            ".list-cell { -fx-text-fill: white; -fx-background-color: #404040; } " +
+            ".dialog-pane { -fx-background-color: #282828; -fx-text-fill: white; } " +
+            ".label { -fx-text-fill: white; }";
+    private static final String LIGHT_SCENE_CSS = "data:text/css," +
+            ".root { -fx-base: #f2f2f2; -fx-control-inner-background: #ffffff; -fx-text-fill: black; } " +
+            ".button { -fx-text-fill: black; -fx-background-color: #d0d0d0; } " +
+            ".button:hover { -fx-background-color: #b0b0b0; } " +
+            ".text-field { -fx-control-inner-background: #ffffff; -fx-text-fill: black; } " +
+            ".tab-pane { -fx-background-color: #e0e0e0; } " +
+            ".tab { -fx-background-color: #f0f0f0; -fx-text-fill: black; } " +
+            ".menu { -fx-background-color: #e0e0e0; -fx-text-fill: black; } " +
+            ".menu-item { -fx-background-color: #f0f0f0; -fx-text-fill: black; } " +
+            ".context-menu { -fx-background-color: #e0e0e0; } " +
+            ".list-view { -fx-control-inner-background: #ffffff; } " +
+            ".list-cell { -fx-text-fill: black; -fx-background-color: #f0f0f0; } " +
+            ".dialog-pane { -fx-background-color: #f2f2f2; -fx-text-fill: black; } " +
+            ".label { -fx-text-fill: black; }";
+    private static final String DARK_PAGE_SCRIPT = "try { " +
+            "var style = document.createElement('style'); " +
+            "style.innerHTML = 'body, html { background-color: #1a1a1a !important; color: #e0e0e0 !important; } " +
+            "a { color: #64b5f6 !important; } " +
+            "button { background-color: #333333 !important; color: #e0e0e0 !important; } " +
+            "input, textarea { background-color: #2d2d2d !important; color: #e0e0e0 !important; } " +
+            "pre, code { background-color: #2d2d2d !important; color: #e0e0e0 !important; } " +
+            "nav { background-color: #252525 !important; } " +
+            "td, th { background-color: #2d2d2d !important; color: #e0e0e0 !important; }'; " +
+            "document.head.appendChild(style); " +
+            "} catch(e) {}";
+    private static final String LIGHT_PAGE_SCRIPT = "try { " +
+            "var style = document.createElement('style'); " +
+            "style.innerHTML = 'body, html { background-color: #ffffff !important; color: #000000 !important; } " +
+            "a { color: #0066cc !important; } " +
+            "button { background-color: #e0e0e0 !important; color: #000000 !important; } " +
+            "input, textarea { background-color: #ffffff !important; color: #000000 !important; } " +
+            "pre, code { background-color: #f5f5f5 !important; color: #000000 !important; } " +
+            "nav { background-color: #f0f0f0 !important; } " +
+            "td, th { background-color: #f5f5f5 !important; color: #000000 !important; }'; " +
+            "document.head.appendChild(style); " +
+            "} catch(e) {}";
+
     private boolean darkModeEnabled;
     private Runnable themeChangeCallback;
 
@@ -96,4 +147,22 @@ public class ThemeManager extends BrowserFeature {
             return new String[]{"#ffffff", "#000000"};
         }
     }
+
+    /**
+     * Get the JavaFX stylesheet for the browser chrome
+     * @param dark true for the dark theme, false for the light theme
+     * @return A data: URL stylesheet
+     */
+    public static String getSceneStylesheet(boolean dark) {
+        return dark ? DARK_SCENE_CSS : LIGHT_SCENE_CSS;
+    }
+
+    /**
+     * Get the script that injects the theme into a web page
+     * @param dark true for the dark theme, false for the light theme
+     * @return JavaScript for WebEngine.executeScript
+     */
+    public static String getWebpageThemeScript(boolean dark) {
+        return dark ? DARK_PAGE_SCRIPT : LIGHT_PAGE_SCRIPT;
+    }
 }
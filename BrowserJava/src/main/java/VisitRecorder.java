@@ -0,0 +1,406 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * VisitRecorder turns each tab's stream of location changes into history visits.
+ *
+ * A page load often moves the location several times: server and script redirects, fragment
+ * changes inside the page, reloads. Instead of a history row per change, the recorder keeps a
+ * pending visit per tab while the page is loading, and once the load finishes an open visit
+ * holding the final URL and the redirects that led to it. Later fragment changes and quick
+ * reloads only bump counters on that visit. The visit is saved as soon as its page has loaded, so
+ * the page a tab shows is in history at once, and saved again under the same id when it ends, with
+ * its counters and how long the tab was in front. checkpoint() saves open visits that changed since,
+ * so a crash loses at most one checkpoint interval; flush() ends the visits still open at shutdown.
+ *
+ * Driven from the FX thread; writes go to the storage executor.
+ */
+public class VisitRecorder {
+    // How often the browser saves the visits still open, bounding what a crash loses
+    public static final long CHECKPOINT_MILLIS = 60_000;
+    // Location changes this close together, before the page finished loading, are redirect hops
+    private static final long REDIRECT_WINDOW_MILLIS = 2000;
+    // A new location this soon after a load finished is a script or meta refresh redirect
+    private static final long CLIENT_REDIRECT_MILLIS = 1000;
+    // Reloads this soon after the last load fold into the visit
+    private static final long RELOAD_WINDOW_MILLIS = 30_000;
+    // How long a hint from the toolbar waits for its navigation to start
+    private static final long TRANSITION_HINT_MILLIS = 10_000;
+
+    private final DatabaseOperations database;
+    private final Executor storage;
+    private final LongSupplier clock;
+    private final Map<String, TabVisits> tabs = new HashMap<>();
+    private long locationChanges;
+    private long visitsRecorded;
+    private long redirectsFolded;
+    private long fragmentsFolded;
+    private long reloadsFolded;
+    private long writes;
+
+    /**
+     * Constructor for VisitRecorder
+     * @param database Where visits are saved
+     * @param storage Executor that runs the saves off the FX thread
+     */
+    public VisitRecorder(DatabaseOperations database, Executor storage) {
+        this(database, storage, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor for VisitRecorder with a custom clock
+     * @param database Where visits are saved
+     * @param storage Executor that runs the saves off the FX thread
+     * @param clock Current time in milliseconds
+     */
+    VisitRecorder(DatabaseOperations database, Executor storage, LongSupplier clock) {
+        this.database = database;
+        this.storage = storage;
+        this.clock = clock;
+    }
+
+    /**
+     * Say how the next navigation in a tab was started, before starting it
+     * @param tabId The tab
+     * @param transition What the user did
+     */
+    public void expectTransition(String tabId, HistoryVisit.Transition transition) {
+        TabVisits tab = tab(tabId);
+        tab.expected = transition;
+        tab.expectedAt = clock.getAsLong();
+    }
+
+    /**
+     * Handle a change of a tab's location
+     * @param tabId The tab
+     * @param url The new location
+     */
+    public void locationChanged(String tabId, String url) {
+        locationChanges++;
+        if (!isRecordable(url)) {
+            return;
+        }
+        TabVisits tab = tab(tabId);
+        long now = clock.getAsLong();
+        Visit current = tab.current;
+        if (tab.pending == null && current != null) {
+            if (url.equals(current.url)) {
+                return;
+            }
+            if (sameDocument(url, current.url)) {
+                current.fragments++;
+                current.changed = true;
+                fragmentsFolded++;
+                return;
+            }
+            if (now - current.loadedAt < CLIENT_REDIRECT_MILLIS && !hasHint(tab, now)) {
+                // The page moved itself on straight away; keep one visit ending at the new URL
+                tab.pending = new Pending(current.transition, current.visitedAt, now);
+                tab.pending.chain.addAll(current.redirects);
+                tab.pending.chain.add(current.url);
+                tab.pending.chain.add(url);
+                tab.pending.replaces = current;
+                tab.current = null;
+                redirectsFolded++;
+                return;
+            }
+        }
+        if (tab.pending != null) {
+            if (now - tab.pending.lastChangeAt <= REDIRECT_WINDOW_MILLIS && !hasHint(tab, now)) {
+                tab.pending.chain.add(url);
+                tab.pending.lastChangeAt = now;
+                redirectsFolded++;
+                return;
+            }
+            // The user moved on before the page finished loading
+            commit(tab, now);
+        }
+        tab.pending = new Pending(takeHint(tab, now), new Date(now), now);
+        tab.pending.chain.add(url);
+    }
+
+    /**
+     * Handle a finished page load, successful or not
+     * @param tabId The tab
+     * @param url The tab's location when the load finished
+     */
+    public void loadFinished(String tabId, String url) {
+        TabVisits tab = tab(tabId);
+        long now = clock.getAsLong();
+        if (tab.pending != null) {
+            commit(tab, now);
+            return;
+        }
+        if (!isRecordable(url)) {
+            return;
+        }
+        Visit current = tab.current;
+        HistoryVisit.Transition hint = takeHint(tab, now);
+        if (current != null && sameDocument(url, current.url) && now - current.loadedAt <= RELOAD_WINDOW_MILLIS) {
+            // The location does not change on a reload, so the finished load is the only sign of one
+            current.reloads++;
+            current.loadedAt = now;
+            current.changed = true;
+            reloadsFolded++;
+            return;
+        }
+        boolean reload = current != null && sameDocument(url, current.url);
+        tab.pending = new Pending(reload ? HistoryVisit.Transition.RELOAD : hint, new Date(now), now);
+        tab.pending.chain.add(url);
+        commit(tab, now);
+    }
+
+    /**
+     * Handle a cancelled page load, such as one turned into a download. Nothing is recorded for it.
+     * @param tabId The tab
+     */
+    public void loadCancelled(String tabId) {
+        TabVisits tab = tabs.get(tabId);
+        if (tab != null && tab.pending != null) {
+            Visit replaced = tab.pending.replaces;
+            tab.pending = null;
+            tab.current = replaced;
+        }
+    }
+
+    /**
+     * Track which tab is in front, for dwell time
+     * @param tabId The tab
+     * @param selected true if the tab was selected, false if another tab was
+     */
+    public void tabSelected(String tabId, boolean selected) {
+        TabVisits tab = tab(tabId);
+        long now = clock.getAsLong();
+        if (tab.selected == selected) {
+            return;
+        }
+        tab.selected = selected;
+        Visit current = tab.current != null ? tab.current : tab.pending != null ? tab.pending.replaces : null;
+        if (current != null) {
+            if (selected) {
+                current.foregroundSince = now;
+            } else {
+                current.stopForeground(now);
+            }
+        }
+    }
+
+    /**
+     * End the visits of a closed tab
+     * @param tabId The tab
+     */
+    public void tabClosed(String tabId) {
+        TabVisits tab = tabs.remove(tabId);
+        if (tab != null) {
+            finish(tab, clock.getAsLong());
+        }
+    }
+
+    /**
+     * Save the open visits whose counters or dwell time changed since they were last saved
+     */
+    public void checkpoint() {
+        long now = clock.getAsLong();
+        for (TabVisits tab : tabs.values()) {
+            if (tab.current != null) {
+                save(tab.current, now);
+            }
+        }
+    }
+
+    /**
+     * End and save every open visit. Call before the storage executor shuts down.
+     */
+    public void flush() {
+        long now = clock.getAsLong();
+        for (TabVisits tab : tabs.values()) {
+            finish(tab, now);
+        }
+    }
+
+    private void finish(TabVisits tab, long now) {
+        if (tab.pending != null) {
+            commit(tab, now);
+        }
+        end(tab, now);
+    }
+
+    private void commit(TabVisits tab, long now) {
+        Pending pending = tab.pending;
+        tab.pending = null;
+        end(tab, now);
+        String url = pending.chain.get(pending.chain.size() - 1);
+        List<String> redirects = new ArrayList<>(pending.chain.subList(0, pending.chain.size() - 1));
+        Visit visit = pending.replaces;
+        if (visit == null) {
+            visit = new Visit(UUID.randomUUID().toString(), pending.startedAt, pending.transition);
+            if (tab.selected) {
+                visit.foregroundSince = now;
+            }
+            visitsRecorded++;
+        }
+        visit.url = url;
+        visit.redirects = redirects;
+        visit.loadedAt = now;
+        visit.changed = true;
+        tab.current = visit;
+        save(visit, now);
+    }
+
+    private void end(TabVisits tab, long now) {
+        Visit visit = tab.current;
+        if (visit == null) {
+            return;
+        }
+        tab.current = null;
+        visit.stopForeground(now);
+        save(visit, now);
+    }
+
+    /**
+     * Write a visit under its id, replacing the copy saved before, unless nothing changed since
+     */
+    private void save(Visit visit, long now) {
+        long dwellMillis = visit.dwellAt(now);
+        if (!visit.changed && dwellMillis == visit.savedDwellMillis) {
+            return;
+        }
+        visit.changed = false;
+        visit.savedDwellMillis = dwellMillis;
+        HistoryVisit snapshot = new HistoryVisit(visit.id, visit.url, visit.visitedAt, visit.transition,
+                visit.redirects, visit.reloads, visit.fragments, dwellMillis);
+        writes++;
+        storage.execute(() -> {
+            try {
+                database.saveVisit(snapshot);
+            } catch (RuntimeException e) {
+                System.err.println("Could not save visit to " + snapshot.getUrl() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private boolean hasHint(TabVisits tab, long now) {
+        return tab.expected != null && now - tab.expectedAt <= TRANSITION_HINT_MILLIS;
+    }
+
+    private HistoryVisit.Transition takeHint(TabVisits tab, long now) {
+        HistoryVisit.Transition transition = hasHint(tab, now) ? tab.expected : HistoryVisit.Transition.LINK;
+        tab.expected = null;
+        return transition;
+    }
+
+    private TabVisits tab(String tabId) {
+        return tabs.computeIfAbsent(tabId, id -> new TabVisits());
+    }
+
+    private static boolean isRecordable(String url) {
+        return url != null && !url.isEmpty() && !url.startsWith("about:") && !url.startsWith("data:");
+    }
+
+    /**
+     * Check whether two URLs differ at most in their fragment
+     */
+    static boolean sameDocument(String a, String b) {
+        return stripFragment(a).equals(stripFragment(b));
+    }
+
+    private static String stripFragment(String url) {
+        int hash = url.indexOf('#');
+        return hash < 0 ? url : url.substring(0, hash);
+    }
+
+    /**
+     * Get the number of location changes seen
+     * @return Location change count
+     */
+    public long getLocationChanges() {
+        return locationChanges;
+    }
+
+    /**
+     * Get the number of history writes made
+     * @return Write count
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Get visit recording statistics
+     * @return Statistics as formatted string
+     */
+    public String getStatisticsAsString() {
+        return String.format("Visits: %d location changes became %d visits (%d redirects, %d fragment changes, "
+                        + "%d reloads folded in), %d history writes",
+                locationChanges, visitsRecorded, redirectsFolded, fragmentsFolded, reloadsFolded, writes);
+    }
+
+    /**
+     * A tab's visit in progress and the load that may replace it
+     */
+    private static final class TabVisits {
+        private boolean selected;
+        private Pending pending;
+        private Visit current;
+        private HistoryVisit.Transition expected;
+        private long expectedAt;
+    }
+
+    /**
+     * A navigation whose page has not finished loading yet
+     */
+    private static final class Pending {
+        private final HistoryVisit.Transition transition;
+        private final Date startedAt;
+        private final List<String> chain = new ArrayList<>();
+        private long lastChangeAt;
+        private Visit replaces;
+
+        private Pending(HistoryVisit.Transition transition, Date startedAt, long now) {
+            this.transition = transition;
+            this.startedAt = startedAt;
+            this.lastChangeAt = now;
+        }
+    }
+
+    /**
+     * A recorded visit that is still open
+     */
+    private static final class Visit {
+        private final String id;
+        private final Date visitedAt;
+        private final HistoryVisit.Transition transition;
+        private String url;
+        private List<String> redirects = new ArrayList<>();
+        private int reloads;
+        private int fragments;
+        private long dwellMillis;
+        private long foregroundSince = -1;
+        private long loadedAt;
+        private boolean changed;
+        private long savedDwellMillis = -1;
+
+        private Visit(String id, Date visitedAt, HistoryVisit.Transition transition) {
+            this.id = id;
+            this.visitedAt = visitedAt;
+            this.transition = transition;
+        }
+
+        private long dwellAt(long now) {
+            return foregroundSince >= 0 ? dwellMillis + now - foregroundSince : dwellMillis;
+        }
+
+        private void stopForeground(long now) {
+            if (foregroundSince >= 0) {
+                dwellMillis += now - foregroundSince;
+                foregroundSince = -1;
+            }
+        }
+    }
+}
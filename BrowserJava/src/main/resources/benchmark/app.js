@@ -0,0 +1,16 @@
+// Builds a large DOM and runs a little script work, like a typical content page
+(function () {
+    var container = document.getElementById('generated');
+    if (!container) {
+        return;
+    }
+    var count = parseInt(container.getAttribute('data-count'), 10) || 100;
+    var fragment = document.createDocumentFragment();
+    for (var i = 0; i < count; i++) {
+        var card = document.createElement('div');
+        card.className = 'card';
+        card.textContent = 'Item ' + i + ' ' + Math.sqrt(i * 7919).toFixed(3);
+        fragment.appendChild(card);
+    }
+    container.appendChild(fragment);
+})();
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookmarkManagerTest {
+    // Nothing listens here, so the offline copy fails to save; only the pin matters
+    private static final String URL = "http://127.0.0.1:1/page";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void deletingBookmarkDropsItsOfflineCopy() throws Exception {
+        InMemoryDatabase database = new InMemoryDatabase();
+        PageArchive archive = new PageArchive(dir);
+        archive.open();
+        try {
+            BookmarkManager bookmarks = new BookmarkManager(database, archive);
+            bookmarks.initialize();
+            bookmarks.addBookmark(URL);
+            bookmarks.makeAvailableOffline(URL);
+            assertTrue(bookmarks.isAvailableOffline(URL));
+
+            bookmarks.deleteBookmark(URL);
+            assertFalse(database.getBookmarks().contains(URL));
+            assertFalse(archive.isPinned(URL));
+            assertFalse(Files.readAllLines(dir.resolve("pinned.list"), StandardCharsets.UTF_8).contains(URL));
+        } finally {
+            archive.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.ListView;
+import javafx.scene.control.MenuItem;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BookmarkMenuTest {
+    @BeforeAll
+    static void startFx() throws InterruptedException {
+        FxThread.start();
+    }
+
+    @Test
+    void bookmarkMenuOffersDelete() throws Exception {
+        NitronBrowser browser = new NitronBrowser(new InMemoryDatabase(), "about:blank");
+        List<String> labels = FxThread.call(() -> {
+            ObservableList<String> items = FXCollections.observableArrayList("https://example.com/");
+            ContextMenu menu = browser.createBookmarkMenu(new ListView<>(items), items);
+            return menu.getItems().stream().map(MenuItem::getText).collect(Collectors.toList());
+        });
+        assertEquals("Delete", labels.get(0));
+        assertEquals(List.of("Delete", "Open Offline Copy"),
+                labels.stream().filter(label -> label != null).collect(Collectors.toList()));
+    }
+}
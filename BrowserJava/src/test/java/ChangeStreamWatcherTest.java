@@ -0,0 +1,432 @@
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the watcher against in-memory stand-ins for the driver's collections and change stream,
+ * which understand just the queries the watcher makes
+ */
+class ChangeStreamWatcherTest {
+    private static final long POLL_MILLIS = 20;
+
+    @TempDir
+    Path dir;
+
+    private final FakeCollection bookmarks = new FakeCollection("bookmarks");
+    private final FakeCollection history = new FakeCollection("history");
+    private final BlockingQueue<ChangeStreamDocument<Document>> stream = new LinkedBlockingQueue<>();
+    private final BlockingQueue<DatabaseChange> received = new LinkedBlockingQueue<>();
+    private final Consumer<List<DatabaseChange>> listener = received::addAll;
+    private boolean standalone;
+    private ChangeStreamWatcher watcher;
+
+    @AfterEach
+    void stopWatcher() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void standaloneServerIsPolledForNewVisitsAndBookmarks() throws Exception {
+        standalone = true;
+        bookmarks.insert(bookmark("https://old.example", 1000));
+        startWatcher();
+        watcher.addListener(listener);
+        awaitPolls(2);
+        assertTrue(watcher.isPolling());
+        assertTrue(received.isEmpty(), "Existing documents are the baseline, not changes");
+
+        bookmarks.insert(bookmark("https://new.example", System.currentTimeMillis()));
+        history.insert(new Document("_id", "v1").append("url", "https://visited.example")
+                .append("visited_at", new Date()));
+        List<DatabaseChange> changes = List.of(next(), next());
+        assertTrue(changes.stream().anyMatch(change -> change.getType() == DatabaseChange.Type.BOOKMARK_ADDED
+                && change.getUrl().equals("https://new.example")), changes.toString());
+        DatabaseChange visit = changes.stream().filter(change -> change.getType() == DatabaseChange.Type.VISIT_ADDED)
+                .findFirst().orElseThrow();
+        assertEquals("https://visited.example", visit.getUrl());
+        assertNotNull(visit.getVisit());
+
+        bookmarks.remove("https://old.example");
+        DatabaseChange deleted = next();
+        assertEquals(DatabaseChange.Type.BOOKMARK_DELETED, deleted.getType());
+        assertEquals("https://old.example", deleted.getUrl());
+
+        // Imported with its original, older time: only the size gives it away
+        bookmarks.insert(bookmark("https://imported.example", 500));
+        DatabaseChange imported = next();
+        assertEquals(DatabaseChange.Type.BOOKMARK_ADDED, imported.getType());
+        assertEquals("https://imported.example", imported.getUrl());
+    }
+
+    @Test
+    void pollingReadsOnlyNewBookmarksUnlessSomeWereDeleted() throws Exception {
+        standalone = true;
+        for (int i = 0; i < 20; i++) {
+            bookmarks.insert(bookmark("https://site" + i + ".example", 1000 + i));
+        }
+        startWatcher();
+        watcher.addListener(listener);
+        awaitPolls(2);
+        long scans = watcher.getFullBookmarkScanCount();
+        assertEquals(1, scans, "Only the baseline reads every bookmark");
+
+        bookmarks.insert(bookmark("https://added.example", System.currentTimeMillis()));
+        assertEquals("https://added.example", next().getUrl());
+        // An insert racing the count check may cost one scan; later polls must not read everything
+        scans = watcher.getFullBookmarkScanCount();
+        awaitPolls(watcher.getPollCount() + 5);
+        assertEquals(scans, watcher.getFullBookmarkScanCount());
+        assertTrue(bookmarks.queries().stream().filter(query -> query.contains("added_at"))
+                .allMatch(query -> query.contains("$gte")), bookmarks.queries().toString());
+
+        bookmarks.remove("https://site3.example");
+        assertEquals(DatabaseChange.Type.BOOKMARK_DELETED, next().getType());
+        assertEquals(scans + 1, watcher.getFullBookmarkScanCount());
+    }
+
+    @Test
+    void standaloneServerIsNotQueriedWithoutListeners() throws Exception {
+        standalone = true;
+        bookmarks.insert(bookmark("https://old.example", 1000));
+        startWatcher();
+        Thread.sleep(POLL_MILLIS * 10);
+        assertEquals(0, watcher.getPollCount());
+        assertEquals(0, bookmarks.queries().size() + history.queries().size());
+
+        watcher.addListener(listener);
+        awaitPolls(2);
+        watcher.removeListener(listener);
+        // A poll may be under way while the listener goes
+        Thread.sleep(POLL_MILLIS * 3);
+        int queries = bookmarks.queries().size() + history.queries().size();
+        long polls = watcher.getPollCount();
+        Thread.sleep(POLL_MILLIS * 10);
+        assertEquals(polls, watcher.getPollCount());
+        assertEquals(queries, bookmarks.queries().size() + history.queries().size());
+
+        // Changes made while nobody listened are part of the next baseline
+        bookmarks.insert(bookmark("https://unseen.example", System.currentTimeMillis()));
+        watcher.addListener(listener);
+        awaitPolls(polls + 3);
+        assertTrue(received.isEmpty(), received.toString());
+    }
+
+    @Test
+    void passiveListenerDoesNotKeepStandaloneServerPolled() throws Exception {
+        standalone = true;
+        startWatcher();
+        watcher.addPassiveListener(listener);
+        Thread.sleep(POLL_MILLIS * 10);
+        assertEquals(0, watcher.getPollCount());
+
+        Consumer<List<DatabaseChange>> active = changes -> { };
+        watcher.addListener(active);
+        awaitPolls(2);
+        bookmarks.insert(bookmark("https://new.example", System.currentTimeMillis()));
+        assertEquals("https://new.example", next().getUrl());
+    }
+
+    @Test
+    void changeStreamEventsReachListeners() throws Exception {
+        startWatcher();
+        watcher.addListener(listener);
+        stream.add(event("insert", "bookmarks", bookmark("https://new.example", 1000), null));
+        stream.add(event("delete", "bookmarks", null, new Document("url", "https://old.example")));
+        stream.add(event("delete", "history", null, null));
+
+        DatabaseChange added = next();
+        assertEquals(DatabaseChange.Type.BOOKMARK_ADDED, added.getType());
+        assertEquals("https://new.example", added.getUrl());
+        DatabaseChange deleted = next();
+        assertEquals(DatabaseChange.Type.BOOKMARK_DELETED, deleted.getType());
+        assertEquals("https://old.example", deleted.getUrl());
+        DatabaseChange visitDeleted = next();
+        assertEquals(DatabaseChange.Type.VISIT_DELETED, visitDeleted.getType());
+        assertNull(visitDeleted.getUrl());
+        assertEquals(0, watcher.getPollCount());
+    }
+
+    @Test
+    void invalidatedStreamTellsListenersToReload() throws Exception {
+        startWatcher();
+        watcher.addListener(listener);
+        stream.add(event("invalidate", null, null, null));
+        List<DatabaseChange.Type> types = List.of(next().getType(), next().getType());
+        assertEquals(List.of(DatabaseChange.Type.BOOKMARKS_CHANGED, DatabaseChange.Type.HISTORY_CHANGED), types);
+    }
+
+    private void startWatcher() {
+        watcher = new ChangeStreamWatcher(database(), bookmarks.proxy(), history.proxy(),
+                dir.resolve("change-stream-token.json"), POLL_MILLIS);
+        watcher.start();
+    }
+
+    private DatabaseChange next() throws InterruptedException {
+        DatabaseChange change = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(change, "No change arrived");
+        return change;
+    }
+
+    private void awaitPolls(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (watcher.getPollCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "Watcher stopped polling");
+            Thread.sleep(5);
+        }
+    }
+
+    private static Document bookmark(String url, long addedAt) {
+        return new Document("url", url).append("added_at", new Date(addedAt));
+    }
+
+    private static ChangeStreamDocument<Document> event(String operation, String collection, Document full,
+                                                        Document before) {
+        BsonDocument namespace = collection == null ? null
+                : new BsonDocument("db", new BsonString("nitron")).append("coll", new BsonString(collection));
+        return new ChangeStreamDocument<>(operation, new BsonDocument("_data", new BsonString(operation)),
+                namespace, null, full, before, null, null, null, null, null, null, null, null);
+    }
+
+    private MongoDatabase database() {
+        return proxy(MongoDatabase.class, (method, args) -> {
+            if (!method.equals("watch")) {
+                throw new UnsupportedOperationException(method);
+            }
+            return changeStream();
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeStreamIterable<Document> changeStream() {
+        return proxy(ChangeStreamIterable.class, (method, args) -> {
+            switch (method) {
+                case "cursor":
+                    if (standalone) {
+                        throw new MongoCommandException(new BsonDocument("ok", new BsonInt32(0))
+                                .append("code", new BsonInt32(40573))
+                                .append("errmsg", new BsonString("The $changeStream stage is only supported on replica sets")),
+                                new ServerAddress());
+                    }
+                    return changeStreamCursor();
+                case "fullDocumentBeforeChange":
+                case "maxAwaitTime":
+                case "resumeAfter":
+                    return changeStream();
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> changeStreamCursor() {
+        BsonDocument[] token = new BsonDocument[1];
+        return proxy(MongoChangeStreamCursor.class, (method, args) -> {
+            switch (method) {
+                case "tryNext":
+                    ChangeStreamDocument<Document> change;
+                    try {
+                        change = stream.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // As the driver reports an interrupted wait
+                        throw new MongoInterruptedException(null, e);
+                    }
+                    if (change != null) {
+                        token[0] = change.getResumeToken();
+                    }
+                    return change;
+                case "available":
+                    return stream.size();
+                case "getResumeToken":
+                    return token[0];
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<?> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(ChangeStreamWatcherTest.class.getClassLoader(), new Class<?>[] {type},
+                (self, method, args) -> handler.handle(method.getName(), args));
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws Exception;
+    }
+
+    /**
+     * A collection kept in a list, answering find() with equality-free filters ($gte, $lt, $exists),
+     * sort and limit, and recording each filter it was asked for
+     */
+    private static final class FakeCollection {
+        private final String name;
+        private final List<Document> documents = new CopyOnWriteArrayList<>();
+        private final List<String> queries = new CopyOnWriteArrayList<>();
+        private final AtomicInteger ids = new AtomicInteger();
+
+        private FakeCollection(String name) {
+            this.name = name;
+        }
+
+        private void insert(Document doc) {
+            if (!doc.containsKey("_id")) {
+                doc.append("_id", name + ids.incrementAndGet());
+            }
+            documents.add(doc);
+        }
+
+        private void remove(String url) {
+            documents.removeIf(doc -> url.equals(doc.getString("url")));
+        }
+
+        private List<String> queries() {
+            return queries;
+        }
+
+        @SuppressWarnings("unchecked")
+        private MongoCollection<Document> proxy() {
+            return ChangeStreamWatcherTest.proxy(MongoCollection.class, (method, args) -> {
+                switch (method) {
+                    case "getNamespace":
+                        return new MongoNamespace("nitron", name);
+                    case "estimatedDocumentCount":
+                        return (long) documents.size();
+                    case "find":
+                        BsonDocument filter = args == null || args.length == 0 || !(args[0] instanceof Bson)
+                                ? new BsonDocument() : toBson((Bson) args[0]);
+                        queries.add(filter.toJson());
+                        return find(filter, null, Integer.MAX_VALUE);
+                    default:
+                        throw new UnsupportedOperationException(method);
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private FindIterable<Document> find(BsonDocument filter, BsonDocument sort, int limit) {
+            return ChangeStreamWatcherTest.proxy(FindIterable.class, (method, args) -> {
+                switch (method) {
+                    case "projection":
+                        return find(filter, sort, limit);
+                    case "sort":
+                        return find(filter, toBson((Bson) args[0]), limit);
+                    case "limit":
+                        return find(filter, sort, (Integer) args[0]);
+                    case "first":
+                        List<Document> results = results(filter, sort, limit);
+                        return results.isEmpty() ? null : results.get(0);
+                    case "iterator":
+                    case "cursor":
+                        return cursor(results(filter, sort, limit).iterator());
+                    default:
+                        throw new UnsupportedOperationException(method);
+                }
+            });
+        }
+
+        private List<Document> results(BsonDocument filter, BsonDocument sort, int limit) {
+            List<Document> results = new ArrayList<>();
+            for (Document doc : documents) {
+                if (matches(doc, filter)) {
+                    results.add(doc);
+                }
+            }
+            if (sort != null) {
+                for (Map.Entry<String, BsonValue> key : sort.entrySet()) {
+                    Comparator<Document> order = Comparator.comparing(doc -> doc.getDate(key.getKey()));
+                    results.sort(key.getValue().asNumber().intValue() < 0 ? order.reversed() : order);
+                }
+            }
+            return results.subList(0, Math.min(limit, results.size()));
+        }
+
+        private static boolean matches(Document doc, BsonDocument filter) {
+            for (Map.Entry<String, BsonValue> field : filter.entrySet()) {
+                Object value = doc.get(field.getKey());
+                for (Map.Entry<String, BsonValue> condition : field.getValue().asDocument().entrySet()) {
+                    boolean match;
+                    switch (condition.getKey()) {
+                        case "$exists":
+                            match = (value != null) == condition.getValue().asBoolean().getValue();
+                            break;
+                        case "$gte":
+                            match = value != null && ((Date) value).getTime() >= condition.getValue().asDateTime().getValue();
+                            break;
+                        case "$lt":
+                            match = value != null && ((Date) value).getTime() < condition.getValue().asDateTime().getValue();
+                            break;
+                        default:
+                            throw new UnsupportedOperationException(condition.getKey());
+                    }
+                    if (!match) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static MongoCursor<Document> cursor(Iterator<Document> results) {
+            return ChangeStreamWatcherTest.proxy(MongoCursor.class, (method, args) -> {
+                switch (method) {
+                    case "hasNext":
+                        return results.hasNext();
+                    case "next":
+                        return results.next();
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method);
+                }
+            });
+        }
+
+        private static BsonDocument toBson(Bson bson) {
+            return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void compactionKeepsLiveChunksAndDropsOldPacks() throws Exception {
+        byte[] kept = random(1, 1024 * 1024);
+        byte[] dropped = random(2, 17 * 1024 * 1024);
+        ChunkStore store = new ChunkStore(dir);
+        store.open();
+        List<String> keptHashes = store.put(kept);
+        List<String> droppedHashes = store.put(dropped);
+        Set<String> oldPacks = packFiles();
+
+        long reclaimed = store.compact(new HashSet<>(keptHashes));
+        assertTrue(reclaimed >= dropped.length, "Reclaimed " + reclaimed);
+        assertArrayEquals(kept, store.get(keptHashes));
+        assertNull(store.get(droppedHashes));
+        Set<String> newPacks = packFiles();
+        assertTrue(newPacks.stream().noneMatch(oldPacks::contains), newPacks + " after " + oldPacks);
+        assertFalse(Files.exists(dir.resolve("index.log.compact")));
+
+        // Chunks added after compaction go to a new pack and survive a restart with the rest
+        byte[] added = random(3, 100_000);
+        List<String> addedHashes = store.put(added);
+        store.close();
+        ChunkStore reopened = new ChunkStore(dir);
+        reopened.open();
+        assertArrayEquals(kept, reopened.get(keptHashes));
+        assertArrayEquals(added, reopened.get(addedHashes));
+        reopened.close();
+    }
+
+    @Test
+    void leftoversOfAnInterruptedCompactionAreIgnored() throws Exception {
+        byte[] data = random(4, 300_000);
+        ChunkStore store = new ChunkStore(dir);
+        store.open();
+        List<String> hashes = store.put(data);
+        store.close();
+        // What a compaction leaves when it stops before moving its index in
+        Files.write(dir.resolve("pack-00007.dat"), random(5, 10_000));
+        Files.write(dir.resolve("index.log.compact"), new byte[48]);
+
+        ChunkStore reopened = new ChunkStore(dir);
+        reopened.open();
+        assertArrayEquals(data, reopened.get(hashes));
+        assertEquals(Set.of("pack-00000.dat"), packFiles());
+        assertFalse(Files.exists(dir.resolve("index.log.compact")));
+        reopened.close();
+    }
+
+    private Set<String> packFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).filter(name -> name.startsWith("pack-"))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    private static byte[] random(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentBlockerTest {
+    private static ContentBlocker blocker(String... rules) {
+        ContentBlocker blocker = new ContentBlocker();
+        blocker.loadRules(List.of(rules));
+        return blocker;
+    }
+
+    @Test
+    void thirdPartyRuleLeavesTheSiteItselfAlone() {
+        ContentBlocker blocker = blocker("||cdn.example.com^$third-party");
+        String script = "https://cdn.example.com/app.js";
+        assertTrue(blocker.mayBlock(script));
+        assertFalse(blocker.matches(script, "https://www.example.com/"));
+        assertFalse(blocker.matches("https://cdn.example.com/", null));
+        assertTrue(blocker.matches(script, "https://news.other.org/story"));
+    }
+
+    @Test
+    void thirdPartyUsesRegistrableDomains() {
+        ContentBlocker blocker = blocker("||static.shop.co.uk^$third-party");
+        assertFalse(blocker.matches("https://static.shop.co.uk/a.css", "https://www.shop.co.uk/"));
+        assertTrue(blocker.matches("https://static.shop.co.uk/a.css", "https://www.other.co.uk/"));
+    }
+
+    @Test
+    void firstPartyRuleOnlyBlocksTheSameSite() {
+        ContentBlocker blocker = blocker("/tracking/pixel$first-party");
+        assertTrue(blocker.matches("https://example.com/tracking/pixel.gif", "https://example.com/"));
+        assertFalse(blocker.matches("https://example.com/tracking/pixel.gif", "https://other.org/"));
+    }
+
+    @Test
+    void domainOptionScopesTheRuleToPages() {
+        ContentBlocker blocker = blocker("/banner/ads.$domain=news.com|~sports.news.com");
+        String banner = "https://img.cdn.net/banner/ads.png";
+        assertTrue(blocker.matches(banner, "https://news.com/today"));
+        assertTrue(blocker.matches(banner, "https://world.news.com/"));
+        assertFalse(blocker.matches(banner, "https://sports.news.com/"));
+        assertFalse(blocker.matches(banner, "https://blog.org/"));
+    }
+
+    @Test
+    void rulesWithOptionsThatCannotBeHonouredAreSkipped() {
+        assertNull(FilterRule.parse("||ads.example.com^$script"));
+        assertNull(FilterRule.parse("/banner/$image,third-party"));
+        assertNull(FilterRule.parse("||example.com^$popup"));
+        assertNull(FilterRule.parse("/ad.js$match-case"));
+        ContentBlocker blocker = blocker("||ads.example.com^$script", "||tracker.net^");
+        assertEquals(1, blocker.getRuleCount());
+        assertFalse(blocker.mayBlock("https://ads.example.com/a.js"));
+        assertTrue(blocker.mayBlock("https://tracker.net/t.gif"));
+    }
+
+    @Test
+    void exceptionRulesHonourOptionsToo() {
+        ContentBlocker blocker = blocker("||widgets.net^", "@@||widgets.net^$domain=partner.com");
+        assertFalse(blocker.matches("https://widgets.net/w.js", "https://partner.com/"));
+        assertTrue(blocker.matches("https://widgets.net/w.js", "https://elsewhere.com/"));
+    }
+
+    @Test
+    void blockedRequestsAreCountedAgainstTheTabThatMadeThem() {
+        ContentBlocker blocker = blocker("||tracker.net^");
+        blocker.setTabPage("background", "https://blog.org/post");
+        blocker.setTabPage("foreground", "https://shop.com/");
+
+        assertTrue(blocker.shouldBlock("https://tracker.net/a.gif", "https://blog.org/post"));
+        assertTrue(blocker.shouldBlock("https://tracker.net/b.gif", "https://blog.org/post"));
+        // Cross-origin Referers are cut to the origin; the host still finds the tab
+        assertTrue(blocker.shouldBlock("https://tracker.net/c.gif", "https://shop.com/"));
+
+        assertEquals(2, blocker.getBlockedCount("background"));
+        assertEquals(1, blocker.getBlockedCount("foreground"));
+        assertEquals(3, blocker.getBlockedCount());
+
+        blocker.clearTab("background");
+        assertTrue(blocker.shouldBlock("https://tracker.net/d.gif", "https://blog.org/post"));
+        assertEquals(0, blocker.getBlockedCount("background"));
+        assertEquals(4, blocker.getBlockedCount());
+    }
+
+    @Test
+    void sameHostGoesToTheMostRecentlyNavigatedTab() {
+        ContentBlocker blocker = blocker("||tracker.net^");
+        blocker.setTabPage("first", "https://blog.org/one");
+        blocker.setTabPage("second", "https://blog.org/two");
+        assertTrue(blocker.shouldBlock("https://tracker.net/a.gif", "https://blog.org/"));
+        assertTrue(blocker.shouldBlock("https://tracker.net/b.gif", "https://blog.org/one"));
+        assertEquals(1, blocker.getBlockedCount("first"));
+        assertEquals(1, blocker.getBlockedCount("second"));
+    }
+}
@@ -0,0 +1,174 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class DownloadManagerTest {
+    private static final int MB = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private FixtureServer server;
+    private DownloadManager manager;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new FixtureServer();
+    }
+
+    @AfterEach
+    void stop() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        server.stop();
+    }
+
+    @Test
+    void splitsLargeFilesIntoRangesAndReassemblesThem() throws Exception {
+        manager = start(4, 0);
+        Download download = manager.download(server.url("/bytes/" + (5 * MB + 123)));
+        awaitState(download, Download.State.COMPLETED);
+        assertEquals(4, download.getSegmentCount());
+        assertEquals("fixture-" + (5 * MB + 123) + ".bin", download.getFileName());
+        assertGenerated(download.getFile(), 5 * MB + 123);
+        assertFalse(Files.exists(dir.resolve(download.getFileName() + Download.STATE_SUFFIX)));
+        assertFalse(Files.exists(dir.resolve(download.getFileName() + Download.PART_SUFFIX)));
+    }
+
+    @Test
+    void segmentCountIsLimitedBySizeAndSetting() throws Exception {
+        manager = start(2, 0);
+        Download small = manager.download(server.url("/bytes/" + (2 * MB - 1)));
+        Download large = manager.download(server.url("/bytes/" + (10 * MB)));
+        Download empty = manager.download(server.url("/bytes/0"));
+        awaitState(small, Download.State.COMPLETED);
+        awaitState(large, Download.State.COMPLETED);
+        awaitState(empty, Download.State.COMPLETED);
+        // Files under two minimum segments are not split; larger ones stop at the setting
+        assertEquals(1, small.getSegmentCount());
+        assertEquals(2, large.getSegmentCount());
+        assertGenerated(small.getFile(), 2 * MB - 1);
+        assertGenerated(large.getFile(), 10 * MB);
+        assertEquals(0, Files.size(empty.getFile()));
+    }
+
+    @Test
+    void bandwidthAndConcurrencyAreLimited() throws Exception {
+        manager = new DownloadManager(dir, 1, 4, MB);
+        manager.initialize();
+        long started = System.nanoTime();
+        Download first = manager.download(server.url("/bytes/" + (3 * MB)));
+        Download second = manager.download(server.url("/bytes/" + MB));
+        awaitState(first, Download.State.RUNNING);
+        // One download at a time: the second waits in the queue
+        assertEquals(Download.State.QUEUED, second.getState());
+        awaitState(first, Download.State.COMPLETED);
+        awaitState(second, Download.State.COMPLETED);
+        // 4 MB at 1 MB/s with one second of burst
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertTrue(elapsed >= 2500, "Took " + elapsed + " ms");
+        assertGenerated(first.getFile(), 3 * MB);
+        assertGenerated(second.getFile(), MB);
+    }
+
+    @Test
+    void interruptedDownloadResumesFromPersistedProgress() throws Exception {
+        long size = 6L * MB;
+        manager = new DownloadManager(dir, 3, 4, 2 * MB);
+        manager.initialize();
+        Download download = manager.download(server.url("/bytes/" + size));
+        await(() -> download.getDownloadedBytes() >= 3 * MB, "3 MB downloaded");
+        // Closing the browser stops the download and records how far each segment got
+        manager.shutdown();
+        manager = null;
+        assertEquals(Download.State.PAUSED, download.getState());
+        Path stateFile = dir.resolve(download.getFileName() + Download.STATE_SUFFIX);
+        long persisted = persistedBytes(stateFile);
+        assertTrue(persisted >= 3 * MB && persisted < size, "Persisted " + persisted);
+
+        long servedBefore = awaitBytesServed();
+        manager = start(4, 0);
+        assertEquals(1, manager.getDownloads().size());
+        Download resumed = manager.getDownloads().get(0);
+        awaitState(resumed, Download.State.COMPLETED);
+        // Only the bytes missing from the part file are fetched again
+        assertEquals(size - persisted, server.getBytesServed() - servedBefore);
+        assertEquals(4, resumed.getSegmentCount());
+        assertGenerated(resumed.getFile(), size);
+        assertFalse(Files.exists(stateFile));
+    }
+
+    private DownloadManager start(int maxSegments, long maxBytesPerSecond) {
+        DownloadManager started = new DownloadManager(dir, 3, maxSegments, maxBytesPerSecond);
+        started.initialize();
+        return started;
+    }
+
+    /**
+     * Wait for the server to finish the responses of stopped connections
+     */
+    private long awaitBytesServed() throws InterruptedException {
+        long served;
+        long previous = -1;
+        while ((served = server.getBytesServed()) != previous) {
+            previous = served;
+            Thread.sleep(200);
+        }
+        return served;
+    }
+
+    private static long persistedBytes(Path stateFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            properties.load(in);
+        }
+        long written = 0;
+        for (int i = 0; properties.containsKey("segment." + i); i++) {
+            written += Long.parseLong(properties.getProperty("segment." + i).split(",")[2]);
+        }
+        return written;
+    }
+
+    private static void assertGenerated(Path file, long size) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        assertEquals(size, content.length);
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != FixtureServer.generatedByte(i)) {
+                fail("Byte " + i + " of " + file + " differs");
+            }
+        }
+    }
+
+    private static void awaitState(Download download, Download.State state) throws InterruptedException {
+        await(() -> download.getState() == state, download.getUrl() + " " + state);
+        if (state == Download.State.COMPLETED) {
+            // The file is moved into place before the state changes
+            assertTrue(Files.exists(download.getFile()));
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for " + description);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FaviconDecoderTest {
+    private static final int RED = 0xFFFF0000;
+    private static final int GREEN = 0xFF00FF00;
+    private static final int BLUE = 0xFF0000FF;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    @Test
+    void decodesPngInsideIco() throws IOException {
+        byte[] png = png(2, 2, RED, GREEN, BLUE, WHITE);
+        assertArrayEquals(new int[]{RED, GREEN, BLUE, WHITE}, FaviconDecoder.decode(ico(2, 32, png), 2));
+        assertArrayEquals(new int[]{RED, GREEN, BLUE, WHITE}, FaviconDecoder.decode(png, 2));
+    }
+
+    @Test
+    void picksTheEntryClosestToTheTargetSize() throws IOException {
+        byte[] small = png(1, 1, RED);
+        byte[] large = png(4, 4, filled(16, GREEN));
+        byte[] icon = ico(new int[]{1, 4}, new int[]{32, 32}, small, large);
+        assertArrayEquals(filled(4, GREEN), FaviconDecoder.decode(icon, 2));
+        assertArrayEquals(new int[]{RED}, FaviconDecoder.decode(icon, 1));
+    }
+
+    @Test
+    void decodes32BitDibWithAlpha() {
+        int translucent = 0x80FF0000;
+        byte[] dib = dib(2, 2, 32, null, 0, new int[]{translucent, GREEN, 0, WHITE}, null);
+        assertArrayEquals(new int[]{translucent, GREEN, 0, WHITE}, FaviconDecoder.decode(ico(2, 32, dib), 2));
+    }
+
+    @Test
+    void decodes24BitDibWithMask() {
+        byte[] dib = dib(2, 2, 24, null, 0, new int[]{RED, GREEN, BLUE, WHITE}, new boolean[]{false, true, false, false});
+        assertArrayEquals(new int[]{RED, 0, BLUE, WHITE}, FaviconDecoder.decode(ico(2, 24, dib), 2));
+    }
+
+    @Test
+    void decodesPalettedDibs() {
+        int[] palette = {RED, GREEN, BLUE, WHITE};
+        int[] indices = {0, 1, 2, 3, 3, 2, 1, 0, 0, 0, 3, 3, 1, 2, 1, 2};
+        int[] expected = Arrays.stream(indices).map(i -> palette[i]).toArray();
+        for (int bits : new int[]{8, 4}) {
+            byte[] dib = dib(4, 4, bits, palette, palette.length, indices, null);
+            assertArrayEquals(expected, FaviconDecoder.decode(ico(4, bits, dib), 4), bits + " bits");
+        }
+
+        int[] mono = {0, 1, 1, 0};
+        byte[] dib = dib(2, 2, 1, new int[]{RED, BLUE}, 0, mono, null);
+        assertArrayEquals(new int[]{RED, BLUE, BLUE, RED}, FaviconDecoder.decode(ico(2, 1, dib), 2));
+    }
+
+    @Test
+    void clampsPaletteToTheBitDepth() {
+        // biClrUsed claims far more colours than 1 bit can index; only two entries are read
+        int[] mono = {0, 1, 1, 0};
+        byte[] dib = dib(2, 2, 1, new int[]{RED, BLUE}, 1000, mono, null);
+        assertArrayEquals(new int[]{RED, BLUE, BLUE, RED}, FaviconDecoder.decode(ico(2, 1, dib), 2));
+    }
+
+    @Test
+    void refusesOversizedImagesBeforeDecoding() throws IOException {
+        // A tiny file whose header claims 60000 x 60000 pixels: decoding it would need gigabytes
+        byte[] bomb = withDimensions(png(1, 1, RED), 60000, 60000);
+        assertNull(FaviconDecoder.decode(bomb, 16));
+        assertNull(FaviconDecoder.decode(ico(0, 32, bomb), 16));
+        assertNull(FaviconDecoder.decode(png(513, 1, filled(513, RED)), 16));
+    }
+
+    @Test
+    void rejectsTruncatedAndMalformedIcons() throws IOException {
+        byte[] dib = dib(4, 4, 32, null, 0, filled(16, RED), null);
+        byte[] icon = ico(4, 32, dib);
+        assertNull(FaviconDecoder.decode(new byte[0], 16));
+        assertNull(FaviconDecoder.decode(new byte[]{0, 0, 1, 0, 1, 0}, 16));
+        assertNull(FaviconDecoder.decode("not an icon".getBytes(), 16));
+        // Cut inside the directory, inside the DIB header and inside the pixels
+        assertNull(FaviconDecoder.decode(Arrays.copyOf(icon, 12), 16));
+        assertNull(FaviconDecoder.decode(ico(4, 32, Arrays.copyOf(dib, 20)), 16));
+        assertNull(FaviconDecoder.decode(ico(4, 32, Arrays.copyOf(dib, dib.length - 20)), 16));
+        // Entry pointing past the end of the file
+        byte[] pastEnd = icon.clone();
+        ByteBuffer.wrap(pastEnd).order(ByteOrder.LITTLE_ENDIAN).putInt(6 + 12, icon.length);
+        assertNull(FaviconDecoder.decode(pastEnd, 16));
+        // Header size, dimensions, compression and bit depth that make no sense
+        assertNull(FaviconDecoder.decode(ico(4, 32, patch(dib, 0, 0x7FFFFFF0)), 16));
+        assertNull(FaviconDecoder.decode(ico(4, 32, patch(dib, 4, -4)), 16));
+        assertNull(FaviconDecoder.decode(ico(4, 32, patch(dib, 8, Integer.MIN_VALUE)), 16));
+        assertNull(FaviconDecoder.decode(ico(4, 32, patch(dib, 4, 100000)), 16));
+        assertNull(FaviconDecoder.decode(ico(4, 32, patch(dib, 16, 1)), 16));
+        assertNull(FaviconDecoder.decode(ico(4, 16, patchShort(dib, 14, 16)), 16));
+        // A truncated PNG entry
+        byte[] png = png(4, 4, filled(16, RED));
+        assertNull(FaviconDecoder.decode(ico(4, 32, Arrays.copyOf(png, png.length / 2)), 16));
+    }
+
+    private static int[] filled(int length, int argb) {
+        int[] pixels = new int[length];
+        Arrays.fill(pixels, argb);
+        return pixels;
+    }
+
+    private static byte[] png(int width, int height, int... argb) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rewrite the IHDR dimensions of a PNG and fix its checksum
+     */
+    private static byte[] withDimensions(byte[] png, int width, int height) {
+        byte[] patched = png.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(patched);
+        buffer.putInt(16, width);
+        buffer.putInt(20, height);
+        CRC32 crc = new CRC32();
+        crc.update(patched, 12, 17);
+        buffer.putInt(29, (int) crc.getValue());
+        return patched;
+    }
+
+    private static byte[] ico(int width, int bits, byte[] image) {
+        return ico(new int[]{width}, new int[]{bits}, image);
+    }
+
+    private static byte[] ico(int[] widths, int[] bits, byte[]... images) {
+        int offset = 6 + 16 * images.length;
+        int length = offset + Arrays.stream(images).mapToInt(image -> image.length).sum();
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) 0).putShort((short) 1).putShort((short) images.length);
+        for (int i = 0; i < images.length; i++) {
+            buffer.put((byte) widths[i]).put((byte) widths[i]).put((byte) 0).put((byte) 0);
+            buffer.putShort((short) 1).putShort((short) bits[i]);
+            buffer.putInt(images[i].length).putInt(offset);
+            offset += images[i].length;
+        }
+        for (byte[] image : images) {
+            buffer.put(image);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Build a bottom-up DIB as stored in ICO files
+     * @param values Top-down ARGB pixels, or palette indices when bits is 8 or less
+     * @param transparent Top-down mask bits, or null for an opaque mask
+     */
+    private static byte[] dib(int width, int height, int bits, int[] palette, int colorsUsed, int[] values,
+                              boolean[] transparent) {
+        int stride = ((width * bits + 31) / 32) * 4;
+        int maskStride = ((width + 31) / 32) * 4;
+        int paletteLength = palette == null ? 0 : palette.length;
+        ByteBuffer buffer = ByteBuffer.allocate(40 + paletteLength * 4 + (stride + maskStride) * height)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(40).putInt(width).putInt(height * 2).putShort((short) 1).putShort((short) bits);
+        buffer.putInt(0).putInt(0).putInt(0).putInt(0).putInt(colorsUsed).putInt(0);
+        for (int i = 0; i < paletteLength; i++) {
+            buffer.putInt(palette[i] & 0xFFFFFF);
+        }
+        int pixels = buffer.position();
+        int mask = pixels + stride * height;
+        for (int row = 0; row < height; row++) {
+            int rowStart = pixels + (height - 1 - row) * stride;
+            int maskStart = mask + (height - 1 - row) * maskStride;
+            for (int x = 0; x < width; x++) {
+                int value = values[row * width + x];
+                if (bits == 32) {
+                    buffer.putInt(rowStart + x * 4, value);
+                } else if (bits == 24) {
+                    buffer.put(rowStart + x * 3, (byte) value).put(rowStart + x * 3 + 1, (byte) (value >> 8))
+                            .put(rowStart + x * 3 + 2, (byte) (value >> 16));
+                } else {
+                    int bitOffset = x * bits;
+                    int index = rowStart + bitOffset / 8;
+                    buffer.put(index, (byte) (buffer.get(index) | value << (8 - bits - bitOffset % 8)));
+                }
+                if (transparent != null && transparent[row * width + x]) {
+                    int index = maskStart + x / 8;
+                    buffer.put(index, (byte) (buffer.get(index) | 1 << (7 - x % 8)));
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private static byte[] patch(byte[] dib, int offset, int value) {
+        byte[] patched = dib.clone();
+        ByteBuffer.wrap(patched).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+        return patched;
+    }
+
+    private static byte[] patchShort(byte[] dib, int offset, int value) {
+        byte[] patched = dib.clone();
+        ByteBuffer.wrap(patched).order(ByteOrder.LITTLE_ENDIAN).putShort(offset, (short) value);
+        return patched;
+    }
+}
@@ -0,0 +1,81 @@
+import javafx.application.Platform;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * FxThread starts the JavaFX platform once per test run and runs code on its thread.
+ * The build runs tests on the headless Monocle platform, so no display is needed.
+ */
+final class FxThread {
+    private static boolean started;
+
+    private FxThread() {
+    }
+
+    /**
+     * Start the platform if this run has not yet
+     */
+    static synchronized void start() throws InterruptedException {
+        if (started) {
+            return;
+        }
+        CountDownLatch ready = new CountDownLatch(1);
+        try {
+            Platform.startup(ready::countDown);
+        } catch (IllegalStateException e) {
+            // Started by an earlier test class in the same JVM
+            ready.countDown();
+        }
+        Platform.setImplicitExit(false);
+        if (!ready.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("JavaFX platform did not start");
+        }
+        started = true;
+    }
+
+    /**
+     * Run a task on the FX thread and wait for it
+     * @param task The task
+     * @param <T> The result type
+     * @return The task's result
+     * @throws Exception Whatever the task threw
+     */
+    static <T> T call(java.util.concurrent.Callable<T> task) throws Exception {
+        start();
+        FutureTask<T> future = new FutureTask<>(task);
+        Platform.runLater(future);
+        try {
+            return future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("FX thread did not run the task", e);
+        }
+    }
+
+    /**
+     * Run a task on the FX thread and wait for it
+     * @param task The task
+     * @throws Exception Whatever the task threw
+     */
+    static void run(ThrowingRunnable task) throws Exception {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * A task that may throw
+     */
+    interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryDatabaseTest {
+    private static final int WINDOWS = 8;
+    private static final int VISITS_PER_WINDOW = 2000;
+
+    @Test
+    void concurrentWindowsLoseNoVisitsOrBookmarks() throws Exception {
+        InMemoryDatabase database = new InMemoryDatabase();
+        ExecutorService pool = Executors.newFixedThreadPool(WINDOWS + 2);
+        List<Future<?>> work = new ArrayList<>();
+        long start = System.currentTimeMillis() - WINDOWS * VISITS_PER_WINDOW;
+        for (int w = 0; w < WINDOWS; w++) {
+            int window = w;
+            work.add(pool.submit(() -> {
+                for (int i = 0; i < VISITS_PER_WINDOW; i++) {
+                    String id = window + "-" + i;
+                    String url = "https://site" + window + ".example/page" + i;
+                    Date visitedAt = new Date(start + (long) i * WINDOWS + window);
+                    // Saved as a recorder would, then updated with its counters under the same id
+                    database.saveVisit(new HistoryVisit(id, url, visitedAt, HistoryVisit.Transition.LINK,
+                            List.of(), 0, 0, 0));
+                    database.saveVisit(new HistoryVisit(id, url, visitedAt, HistoryVisit.Transition.LINK,
+                            List.of(), 1, 2, 5000));
+                    if (i % 10 == 0) {
+                        database.addBookmark(url);
+                        if (i % 200 == 0) {
+                            database.deleteBookmark(url);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        // Readers paging history and listing bookmarks while the windows write
+        for (int r = 0; r < 2; r++) {
+            work.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    List<HistoryVisit> page = database.getHistoryBefore(null, 200);
+                    while (!page.isEmpty()) {
+                        page = database.getHistoryBefore(page.get(page.size() - 1).getVisitedAt(), 200);
+                    }
+                    database.getBookmarks();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : work) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        List<HistoryVisit> visits = database.getRecentVisits(Integer.MAX_VALUE);
+        assertEquals(WINDOWS * VISITS_PER_WINDOW, visits.size());
+        Set<String> ids = new HashSet<>();
+        for (HistoryVisit visit : visits) {
+            assertTrue(ids.add(visit.getId()), "Duplicate visit " + visit.getId());
+            assertEquals(5000, visit.getDwellMillis());
+        }
+        int bookmarksPerWindow = VISITS_PER_WINDOW / 10 - VISITS_PER_WINDOW / 200;
+        assertEquals(WINDOWS * bookmarksPerWindow, database.getBookmarks().size());
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+    // Above this the top bucket absorbs everything
+    private static final long LARGEST_TRACKED = (128L << 32) - 1;
+
+    @Test
+    void smallValuesAreExactAndLargerOnesShareBuckets() {
+        assertEquals(0, LatencyHistogram.bucketIndex(0));
+        assertEquals(127, LatencyHistogram.bucketIndex(127));
+        assertEquals(127, LatencyHistogram.highestEquivalentValue(127));
+        // From 128 on, each power of two is split into 64 buckets
+        assertEquals(128, LatencyHistogram.bucketIndex(128));
+        assertEquals(128, LatencyHistogram.bucketIndex(129));
+        assertEquals(129, LatencyHistogram.bucketIndex(130));
+        assertEquals(129, LatencyHistogram.highestEquivalentValue(128));
+        assertEquals(191, LatencyHistogram.bucketIndex(255));
+        assertEquals(192, LatencyHistogram.bucketIndex(256));
+        assertEquals(259, LatencyHistogram.highestEquivalentValue(192));
+    }
+
+    @Test
+    void bucketsAreContiguousUpToTheLargestTrackedValue() {
+        long[] values = {128, 129, 1000, 4095, 4096, 65_536, 1L << 30, 1L << 38};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertTrue(highest >= value, value + " is above its bucket's top " + highest);
+            assertEquals(index, LatencyHistogram.bucketIndex(highest), "bucket of " + value);
+            assertEquals(index + 1, LatencyHistogram.bucketIndex(highest + 1), "bucket after " + value);
+        }
+        // Larger values land in the last bucket instead of past the end of the array
+        int last = LatencyHistogram.bucketIndex(LARGEST_TRACKED);
+        assertEquals(LARGEST_TRACKED, LatencyHistogram.highestEquivalentValue(last));
+        assertEquals(last, LatencyHistogram.bucketIndex(LARGEST_TRACKED - 1));
+        assertEquals(last, LatencyHistogram.bucketIndex(LARGEST_TRACKED + 1));
+        assertEquals(last, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void relativeErrorStaysWithinOneSixtyFourth() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (25 + random.nextInt(39));
+            if (value > LARGEST_TRACKED) {
+                continue;
+            }
+            long highest = LatencyHistogram.highestEquivalentValue(LatencyHistogram.bucketIndex(value));
+            assertTrue(highest >= value && highest - value <= value / 64, value + " reported as " + highest);
+        }
+    }
+
+    @Test
+    void percentilesAreWithinTheErrorBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new Random(7).longs(50_000, 0, 10_000_000).toArray();
+        for (long value : values) {
+            histogram.record(value);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getPercentile(percentile);
+            assertTrue(reported >= exact && reported - exact <= exact / 64,
+                    "p" + percentile + " is " + reported + ", exact " + exact);
+        }
+        // The top percentile never reports more than was recorded
+        assertEquals(values[values.length - 1], histogram.getPercentile(100));
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(Arrays.stream(values).average().orElseThrow(), histogram.getMean(), 1e-6);
+    }
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getPercentile(100));
+
+        histogram.record(3);
+        assertEquals(3, histogram.getPercentile(0));
+        assertEquals(3, histogram.getPercentile(100));
+    }
+}
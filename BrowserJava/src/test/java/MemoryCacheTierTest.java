@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryCacheTierTest {
+    private static CachedResponse response(int bodyBytes) {
+        return new CachedResponse(Map.of(), new byte[bodyBytes], null, List.of(), 0, Long.MAX_VALUE);
+    }
+
+    @Test
+    void keepsSmallResponsesAndSkipsLargeOnes() {
+        MemoryCacheTier tier = new MemoryCacheTier(1 << 20, 4096);
+        CachedResponse small = response(1000);
+        tier.put("small", small);
+        tier.put("large", response(8192));
+        assertSame(small, tier.get("small"));
+        assertNull(tier.get("large"));
+        assertEquals(small.getSize(), tier.getSizeBytes());
+        tier.remove("small");
+        assertEquals(0, tier.getSizeBytes());
+        assertEquals(0, tier.getEntryCount());
+    }
+
+    @Test
+    void concurrentWindowsKeepTheTierWithinBudget() throws Exception {
+        long budget = 256 * 1024;
+        MemoryCacheTier tier = new MemoryCacheTier(budget, 8192);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> work = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            work.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    String key = "https://cdn.example/" + random.nextInt(2000);
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            tier.put(key, response(random.nextInt(4096)));
+                            break;
+                        case 1:
+                            tier.remove(key);
+                            break;
+                        default:
+                            tier.get(key);
+                            break;
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : work) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertTrue(tier.getSizeBytes() <= budget, "Tier holds " + tier.getSizeBytes() + " bytes");
+        // The byte count must match what is left after every eviction and removal
+        long size = 0;
+        for (int i = 0; i < 2000; i++) {
+            CachedResponse cached = tier.get("https://cdn.example/" + i);
+            if (cached != null) {
+                size += cached.getSize();
+            }
+        }
+        assertEquals(size, tier.getSizeBytes());
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class NavigationPredictorTest {
+    private static final long LATENCY_MILLIS = 300;
+
+    private final NavigationPredictor predictor = new NavigationPredictor(new InMemoryDatabase());
+    private FixtureServer cold;
+    private FixtureServer warm;
+
+    @AfterEach
+    void stop() {
+        predictor.shutdown();
+        if (cold != null) {
+            cold.stop();
+        }
+        if (warm != null) {
+            warm.stop();
+        }
+    }
+
+    @Test
+    void failedWarmUpsDoNotCountAsWarm() throws Exception {
+        // Nothing listens on port 1
+        String url = "http://127.0.0.1:1/page";
+        predictor.hint(url);
+        await(predictor::getFailedWarmUps, 1);
+        assertFalse(predictor.isWarm(url));
+        predictor.recordNavigation(url, 10);
+        assertTrue(predictor.getStatisticsAsString().contains("warm navigations 0"), predictor.getStatisticsAsString());
+
+        // The next hint tries again instead of waiting out the cooldown
+        predictor.hint(url);
+        await(predictor::getFailedWarmUps, 2);
+        assertEquals(0, predictor.getConnectionsWarmed());
+    }
+
+    @Test
+    void warmedConnectionsSkipConnectionLatency() throws Exception {
+        cold = new FixtureServer(LATENCY_MILLIS);
+        warm = new FixtureServer(LATENCY_MILLIS);
+        long coldMillis = fetch(cold.url("/article.html"));
+
+        predictor.hint(warm.url("/article.html"));
+        await(predictor::getConnectionsWarmed, 1);
+        assertTrue(predictor.isWarm(warm.url("/article.html")));
+        long warmMillis = fetch(warm.url("/article.html"));
+        System.out.println("Navigation with " + LATENCY_MILLIS + " ms connection latency: cold "
+                + coldMillis + " ms, warm " + warmMillis + " ms");
+
+        assertTrue(coldMillis >= LATENCY_MILLIS, "Cold navigation took " + coldMillis + " ms");
+        assertTrue(warmMillis < LATENCY_MILLIS / 2, "Warm navigation took " + warmMillis + " ms");
+        // The navigation reused the connection the warm-up opened
+        assertEquals(1, warm.getConnectionCount());
+    }
+
+    private static long fetch(String url) throws IOException {
+        long started = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            in.readAllBytes();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    private static void await(LongSupplier count, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count.getAsLong() < expected) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for " + expected + ", have " + count.getAsLong());
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ResponseCache;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NitronResponseCacheTest {
+    @TempDir
+    Path dir;
+
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+    private final AtomicInteger version = new AtomicInteger(1);
+    private final AtomicInteger notModified = new AtomicInteger();
+    private HttpServer server;
+    private NitronResponseCache cache;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/fresh", exchange -> respond(exchange, "Cache-Control", "max-age=60", "fresh"));
+        server.createContext("/nostore", exchange -> respond(exchange, "Cache-Control", "no-store", "nostore"));
+        server.createContext("/etag", exchange -> {
+            String etag = "\"v" + version.get() + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                count(exchange);
+                notModified.incrementAndGet();
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            respond(exchange, "Cache-Control", "max-age=0", "version " + version.get());
+        });
+        server.start();
+        openCache();
+    }
+
+    @AfterEach
+    void stop() {
+        ResponseCache.setDefault(null);
+        cache.close();
+        server.stop(0);
+    }
+
+    @Test
+    void freshResponsesAreServedWithoutRequests() throws IOException {
+        assertEquals("fresh", fetch("/fresh"));
+        assertEquals("fresh", fetch("/fresh"));
+        assertEquals(1, hits("/fresh"));
+    }
+
+    @Test
+    void freshResponsesSurviveRestartOnDisk() throws IOException {
+        assertEquals("fresh", fetch("/fresh"));
+        cache.close();
+        openCache();
+        assertEquals("fresh", fetch("/fresh"));
+        assertEquals(1, hits("/fresh"));
+    }
+
+    @Test
+    void staleResponsesAreRevalidated() throws IOException {
+        assertEquals("version 1", fetch("/etag"));
+        assertEquals("version 1", fetch("/etag"));
+        assertEquals(2, hits("/etag"));
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    void changedResponsesAreFetchedOnceAndReplaced() throws IOException {
+        assertEquals("version 1", fetch("/etag"));
+        version.set(2);
+        // The 200 answering the conditional request is served, not requested again
+        assertEquals("version 2", fetch("/etag"));
+        assertEquals(2, hits("/etag"));
+        assertEquals(0, notModified.get());
+
+        // and it replaced the stored copy, on disk too
+        cache.close();
+        openCache();
+        assertEquals("version 2", fetch("/etag"));
+        assertEquals(3, hits("/etag"));
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    void noStoreResponsesAreAlwaysRequested() throws IOException {
+        assertEquals("nostore", fetch("/nostore"));
+        assertEquals("nostore", fetch("/nostore"));
+        assertEquals(2, hits("/nostore"));
+    }
+
+    private void openCache() throws IOException {
+        cache = NitronResponseCache.install(dir);
+        cache.open();
+    }
+
+    private String fetch(String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setUseCaches(true);
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        // Closing the fully read stream is what stores the response
+        try (InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private int hits(String path) {
+        AtomicInteger count = hits.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private void count(HttpExchange exchange) {
+        hits.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void respond(HttpExchange exchange, String header, String value, String body) throws IOException {
+        count(exchange);
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(header, value);
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NitronURLStreamHandlerFactoryTest {
+    // The factory can be installed once per JVM, so every test shares it and swaps the rules
+    private static final ContentBlocker BLOCKER = new ContentBlocker();
+    private static final int SIZE = 1000;
+
+    private FixtureServer server;
+
+    @BeforeAll
+    static void install() {
+        NitronURLStreamHandlerFactory.install(BLOCKER);
+    }
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new FixtureServer();
+    }
+
+    @AfterEach
+    void stop() {
+        // Later test classes open connections through the same factory
+        BLOCKER.loadRules(List.of());
+        server.stop();
+    }
+
+    @Test
+    void thirdPartyRuleBlocksRequestsFromOtherSitesOnly() throws Exception {
+        BLOCKER.loadRules(List.of("||127.0.0.1^$third-party"));
+        String url = server.url("/bytes/" + SIZE);
+        long blockedBefore = BLOCKER.getBlockedCount();
+
+        assertBlocked(url, "https://news.other.org/story");
+        assertEquals(0, server.getBytesServed());
+        // The site's own pages and navigations without a Referer reach the server
+        assertAllowed(url, server.url("/index.html"));
+        assertAllowed(url, null);
+        assertEquals(2 * SIZE, server.getBytesServed());
+        assertEquals(1, BLOCKER.getBlockedCount() - blockedBefore);
+    }
+
+    @Test
+    void domainOptionScopesTheRuleToPages() throws Exception {
+        BLOCKER.loadRules(List.of("/bytes/$domain=news.com|~sports.news.com"));
+        String url = server.url("/bytes/" + SIZE);
+
+        assertBlocked(url, "https://news.com/today");
+        assertBlocked(url, "https://world.news.com/");
+        assertEquals(0, server.getBytesServed());
+        assertAllowed(url, "https://sports.news.com/");
+        assertAllowed(url, "https://blog.org/");
+        assertEquals(2 * SIZE, server.getBytesServed());
+        // Requests no rule can match are not held back at all
+        assertAllowed(server.url("/article.html"), "https://news.com/today");
+    }
+
+    private static HttpURLConnection open(String url, String referer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (referer != null) {
+            connection.setRequestProperty("Referer", referer);
+        }
+        return connection;
+    }
+
+    private static void assertBlocked(String url, String referer) throws IOException {
+        HttpURLConnection connection = open(url, referer);
+        IOException error = assertThrows(IOException.class, connection::getResponseCode);
+        assertTrue(error.getMessage().contains("Blocked by content blocker"), error.getMessage());
+        assertThrows(IOException.class, connection::getInputStream);
+    }
+
+    private static void assertAllowed(String url, String referer) throws IOException {
+        HttpURLConnection connection = open(url, referer);
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode(), url + " from " + referer);
+        try (InputStream in = connection.getInputStream()) {
+            in.readAllBytes();
+        }
+    }
+}
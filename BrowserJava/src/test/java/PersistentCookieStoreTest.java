@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PersistentCookieStoreTest {
+    @TempDir
+    Path dir;
+
+    private PersistentCookieStore store;
+    private PersistentCookieStore.Handler handler;
+
+    @BeforeEach
+    void openStore() {
+        open();
+    }
+
+    @AfterEach
+    void closeStore() {
+        store.close();
+    }
+
+    @Test
+    void hostOnlyCookiesAreNotSentToSubdomains() throws Exception {
+        setCookies("https://example.com/", "host=1", "domain=2; Domain=example.com");
+        assertEquals("host=1; domain=2", cookieHeader("https://example.com/"));
+        assertEquals("domain=2", cookieHeader("https://a.example.com/"));
+        assertEquals("domain=2", cookieHeader("https://b.a.example.com/"));
+
+        // A subdomain's host-only cookie stays with it too
+        setCookies("https://a.example.com/", "sub=3");
+        assertEquals("domain=2", cookieHeader("https://b.a.example.com/"));
+        assertEquals("host=1; domain=2", cookieHeader("https://example.com/"));
+    }
+
+    @Test
+    void hostOnlyCookiesStayHostOnlyAfterRestart() throws Exception {
+        setCookies("https://example.com/", "host=1; Max-Age=3600", "domain=2; Domain=.example.com; Max-Age=3600");
+        store.close();
+        open();
+        // The log is replayed in no particular order
+        assertEquals(Set.of("host=1", "domain=2"), Set.of(cookieHeader("https://example.com/").split("; ")));
+        assertEquals("domain=2", cookieHeader("https://a.example.com/"));
+    }
+
+    @Test
+    void publicSuffixDomainsAreRejected() throws Exception {
+        setCookies("https://www.example.co.uk/", "super=1; Domain=co.uk", "site=2; Domain=example.co.uk");
+        setCookies("https://a.github.io/", "pages=3; Domain=github.io");
+        setCookies("https://example.com/", "tld=4; Domain=.com");
+        assertEquals("", cookieHeader("https://other.co.uk/"));
+        assertEquals("site=2", cookieHeader("https://shop.example.co.uk/"));
+        assertEquals("", cookieHeader("https://b.github.io/"));
+        assertEquals("", cookieHeader("https://a.github.io/"));
+        assertEquals("", cookieHeader("https://other.com/"));
+        assertEquals(1, store.size());
+    }
+
+    private void open() {
+        store = new PersistentCookieStore(dir);
+        store.load();
+        handler = new PersistentCookieStore.Handler(store);
+    }
+
+    private void setCookies(String url, String... headers) throws Exception {
+        handler.put(new URI(url), Map.of("Set-Cookie", List.of(headers)));
+    }
+
+    private String cookieHeader(String url) throws Exception {
+        List<String> header = handler.get(new URI(url), Map.of()).get("Cookie");
+        return header == null ? "" : String.join("; ", header);
+    }
+}
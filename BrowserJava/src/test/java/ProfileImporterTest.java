@@ -0,0 +1,216 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProfileImporterTest {
+    private static final long CHROMIUM_EPOCH_OFFSET_MICROS = 11_644_473_600_000_000L;
+    private static final long T = 1_700_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void importsChromiumHistoryAndBookmarks() throws Exception {
+        Path history = directory.resolve("chromium").resolve("History");
+        try (Connection connection = create(history,
+                "CREATE TABLE urls (id INTEGER PRIMARY KEY, url LONGVARCHAR)",
+                "CREATE TABLE visits (id INTEGER PRIMARY KEY, url INTEGER, visit_time INTEGER, transition INTEGER)")) {
+            insert(connection, "INSERT INTO urls (id, url) VALUES (?, ?)",
+                    new Object[] {1, "https://example.com/"}, new Object[] {2, "chrome://settings/"},
+                    new Object[] {3, "https://ads.example/frame"}, new Object[] {4, "https://news.org/"});
+            insert(connection, "INSERT INTO visits (url, visit_time, transition) VALUES (?, ?, ?)",
+                    // Typed, with redirect qualifiers in the high bits
+                    new Object[] {1, chromiumTime(T), 0x30000001},
+                    // Recorded again 300 ms later, as after a client redirect
+                    new Object[] {1, chromiumTime(T + 300), 0},
+                    new Object[] {2, chromiumTime(T + 1000), 1},
+                    // AUTO_SUBFRAME
+                    new Object[] {3, chromiumTime(T + 2000), 3},
+                    new Object[] {4, chromiumTime(T + 3000), 0},
+                    new Object[] {1, chromiumTime(T + 60_000), 8});
+        }
+        Files.write(history.resolveSibling("Bookmarks"), ("{\"roots\":{\"bookmark_bar\":{\"type\":\"folder\",\"children\":["
+                + "{\"type\":\"folder\",\"children\":[{\"type\":\"url\",\"url\":\"https://news.org/\",\"date_added\":\""
+                + chromiumTime(T) + "\"}]},"
+                + "{\"type\":\"url\",\"url\":\"chrome://settings/\",\"date_added\":\"0\"}]},"
+                + "\"other\":{\"type\":\"folder\",\"children\":[{\"type\":\"url\",\"url\":\"https://example.com/\"}]}}}")
+                .getBytes(StandardCharsets.UTF_8));
+
+        InMemoryDatabase database = new InMemoryDatabase();
+        long imported = new ProfileImporter(database, directory.resolve("checkpoints"), 2, 2).importProfile(history);
+
+        assertEquals(3, imported);
+        List<HistoryVisit> visits = database.getRecentVisits(10);
+        assertEquals(List.of("https://example.com/", "https://news.org/", "https://example.com/"), urls(visits));
+        assertEquals(T + 60_000, visits.get(0).getVisitedAt().getTime());
+        assertEquals(HistoryVisit.Transition.RELOAD, visits.get(0).getTransition());
+        assertEquals(HistoryVisit.Transition.LINK, visits.get(1).getTransition());
+        assertEquals(T, visits.get(2).getVisitedAt().getTime());
+        assertEquals(HistoryVisit.Transition.TYPED, visits.get(2).getTransition());
+        assertEquals(Set.of("https://news.org/", "https://example.com/"), new HashSet<>(database.getBookmarks()));
+    }
+
+    @Test
+    void importsFirefoxHistoryAndBookmarks() throws Exception {
+        Path places = directory.resolve("firefox").resolve("places.sqlite");
+        try (Connection connection = create(places,
+                "CREATE TABLE moz_places (id INTEGER PRIMARY KEY, url LONGVARCHAR)",
+                "CREATE TABLE moz_historyvisits (id INTEGER PRIMARY KEY, place_id INTEGER, visit_date INTEGER, visit_type INTEGER)",
+                "CREATE TABLE moz_bookmarks (id INTEGER PRIMARY KEY, type INTEGER, fk INTEGER, dateAdded INTEGER)")) {
+            insert(connection, "INSERT INTO moz_places (id, url) VALUES (?, ?)",
+                    new Object[] {1, "https://example.com/"}, new Object[] {2, "about:config"},
+                    new Object[] {3, "https://ads.example/frame"}, new Object[] {4, "https://news.org/"});
+            insert(connection, "INSERT INTO moz_historyvisits (place_id, visit_date, visit_type) VALUES (?, ?, ?)",
+                    new Object[] {1, T * 1000, 2},
+                    new Object[] {2, (T + 1000) * 1000, 1},
+                    // TRANSITION_EMBED
+                    new Object[] {3, (T + 2000) * 1000, 4},
+                    new Object[] {4, (T + 3000) * 1000, 3});
+            insert(connection, "INSERT INTO moz_bookmarks (type, fk, dateAdded) VALUES (?, ?, ?)",
+                    // A folder has no page
+                    new Object[] {2, null, 0},
+                    new Object[] {1, 4, T * 1000},
+                    new Object[] {1, 2, T * 1000});
+        }
+
+        InMemoryDatabase database = new InMemoryDatabase();
+        long imported = new ProfileImporter(database, directory.resolve("checkpoints"), 1, 10).importProfile(places);
+
+        assertEquals(2, imported);
+        List<HistoryVisit> visits = database.getRecentVisits(10);
+        assertEquals(List.of("https://news.org/", "https://example.com/"), urls(visits));
+        assertEquals(HistoryVisit.Transition.BOOKMARK, visits.get(0).getTransition());
+        assertEquals(HistoryVisit.Transition.TYPED, visits.get(1).getTransition());
+        assertEquals(T, visits.get(1).getVisitedAt().getTime());
+        assertEquals(List.of("https://news.org/"), database.getBookmarks());
+    }
+
+    @Test
+    void resumesFromTheCheckpointAndNeverDuplicates() throws Exception {
+        Path places = directory.resolve("firefox").resolve("places.sqlite");
+        int count = 100;
+        try (Connection connection = create(places,
+                "CREATE TABLE moz_places (id INTEGER PRIMARY KEY, url LONGVARCHAR)",
+                "CREATE TABLE moz_historyvisits (id INTEGER PRIMARY KEY, place_id INTEGER, visit_date INTEGER, visit_type INTEGER)",
+                "CREATE TABLE moz_bookmarks (id INTEGER PRIMARY KEY, type INTEGER, fk INTEGER, dateAdded INTEGER)")) {
+            List<Object[]> pages = new ArrayList<>();
+            List<Object[]> visits = new ArrayList<>();
+            for (int i = 1; i <= count; i++) {
+                pages.add(new Object[] {i, "https://site" + i + ".example/"});
+                visits.add(new Object[] {i, (T + i * 5000L) * 1000, 1});
+            }
+            insert(connection, "INSERT INTO moz_places (id, url) VALUES (?, ?)", pages.toArray(new Object[0][]));
+            insert(connection, "INSERT INTO moz_historyvisits (place_id, visit_date, visit_type) VALUES (?, ?, ?)",
+                    visits.toArray(new Object[0][]));
+        }
+        Path checkpoints = directory.resolve("checkpoints");
+        InMemoryDatabase database = new InMemoryDatabase();
+        CountingDatabase saves = new CountingDatabase(database);
+
+        // One writer, so the batches before the failing one are saved in order
+        ProfileImporter failing = new ProfileImporter(failingOn(saves, 4), checkpoints, 1, 10);
+        assertThrows(IOException.class, () -> failing.importProfile(places));
+        int savedBeforeFailure = database.getRecentVisits(count).size();
+        assertEquals(30, savedBeforeFailure);
+
+        ProfileImporter importer = new ProfileImporter(saves, checkpoints, 1, 10);
+        long resumed = importer.importProfile(places);
+        assertEquals(count - savedBeforeFailure, resumed);
+        assertNoDuplicates(database.getRecentVisits(Integer.MAX_VALUE), count);
+
+        long savesBefore = saves.getCounts().getOrDefault("saveVisits", 0L);
+        assertEquals(0, importer.importProfile(places));
+        assertEquals(savesBefore, saves.getCounts().getOrDefault("saveVisits", 0L));
+
+        // Without its checkpoint an import reads everything again, but replaces rather than adds
+        assertEquals(count, new ProfileImporter(saves, directory.resolve("fresh"), 2, 7).importProfile(places));
+        assertNoDuplicates(database.getRecentVisits(Integer.MAX_VALUE), count);
+    }
+
+    @Test
+    void rejectsFilesThatAreNotProfiles() throws Exception {
+        Path other = directory.resolve("other.sqlite");
+        create(other, "CREATE TABLE notes (id INTEGER PRIMARY KEY)").close();
+        IOException error = assertThrows(IOException.class,
+                () -> new ProfileImporter(new InMemoryDatabase(), directory, 1, 10).importProfile(other));
+        assertTrue(error.getMessage().contains("Not a Chromium or Firefox"), error.getMessage());
+        assertNull(ProfileImporter.toTransition(ProfileImporter.Source.CHROMIUM, 0x20000003));
+    }
+
+    private static void assertNoDuplicates(List<HistoryVisit> visits, int expected) {
+        assertEquals(expected, visits.size());
+        Set<String> ids = new HashSet<>();
+        for (HistoryVisit visit : visits) {
+            assertTrue(ids.add(visit.getId()), "Duplicate visit " + visit);
+        }
+    }
+
+    /**
+     * A database whose nth saveVisits call fails, as a dropped connection would
+     */
+    private static DatabaseOperations failingOn(DatabaseOperations database, int failingCall) {
+        AtomicInteger calls = new AtomicInteger();
+        return new CountingDatabase(database) {
+            @Override
+            public void saveVisits(List<HistoryVisit> visits) {
+                if (calls.incrementAndGet() == failingCall) {
+                    throw new IllegalStateException("Connection lost");
+                }
+                super.saveVisits(visits);
+            }
+        };
+    }
+
+    private static long chromiumTime(long epochMillis) {
+        return epochMillis * 1000 + CHROMIUM_EPOCH_OFFSET_MICROS;
+    }
+
+    private static List<String> urls(List<HistoryVisit> visits) {
+        List<String> urls = new ArrayList<>();
+        for (HistoryVisit visit : visits) {
+            urls.add(visit.getUrl());
+        }
+        return urls;
+    }
+
+    private static Connection create(Path file, String... tables) throws IOException, SQLException {
+        Files.createDirectories(file.getParent());
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.toAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            for (String table : tables) {
+                statement.execute(table);
+            }
+        }
+        return connection;
+    }
+
+    private static void insert(Connection connection, String sql, Object[]... rows) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    statement.setObject(i + 1, row[i]);
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PublicSuffixListTest {
+    private final PublicSuffixList list = PublicSuffixList.get();
+
+    @Test
+    void knowsPublicSuffixes() {
+        assertTrue(list.isPublicSuffix("com"));
+        assertTrue(list.isPublicSuffix("co.uk"));
+        assertTrue(list.isPublicSuffix("github.io"));
+        assertTrue(list.isPublicSuffix("unlisted-tld"));
+        assertFalse(list.isPublicSuffix("example.com"));
+        assertFalse(list.isPublicSuffix("example.co.uk"));
+    }
+
+    @Test
+    void handlesWildcardsAndExceptions() {
+        // *.ck with !www.ck
+        assertTrue(list.isPublicSuffix("anything.ck"));
+        assertFalse(list.isPublicSuffix("www.ck"));
+        assertEquals("www.ck", list.getRegistrableDomain("www.ck"));
+        assertEquals("shop.anything.ck", list.getRegistrableDomain("a.shop.anything.ck"));
+    }
+
+    @Test
+    void findsRegistrableDomains() {
+        assertEquals("example.com", list.getRegistrableDomain("a.b.example.com"));
+        assertEquals("example.co.uk", list.getRegistrableDomain("www.example.co.uk"));
+        assertEquals("someone.github.io", list.getRegistrableDomain("someone.github.io"));
+        assertEquals("localhost", list.getRegistrableDomain("localhost"));
+        assertEquals("192.168.1.10", list.getRegistrableDomain("192.168.1.10"));
+        assertNull(list.getRegistrableDomain("co.uk"));
+    }
+
+    @Test
+    void comparesSites() {
+        assertTrue(list.isSameSite("a.example.co.uk", "b.example.co.uk"));
+        assertFalse(list.isSameSite("example.co.uk", "other.co.uk"));
+        assertFalse(list.isSameSite("alice.github.io", "bob.github.io"));
+        assertFalse(list.isSameSite("co.uk", "co.uk.evil.com"));
+    }
+}
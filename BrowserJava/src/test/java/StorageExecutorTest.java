@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageExecutorTest {
+    // Nothing listens here; the FX thread guard fails before the driver connects
+    private static final String UNREACHABLE = "mongodb://localhost:1/?serverSelectionTimeoutMS=200";
+
+    @BeforeAll
+    static void startFx() throws InterruptedException {
+        FxThread.start();
+    }
+
+    // Surefire turns strict mode on for the whole run; put it back for the tests that follow
+    private final String strict = System.getProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY);
+
+    @AfterEach
+    void restoreStrict() {
+        if (strict == null) {
+            System.clearProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY);
+        } else {
+            System.setProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY, strict);
+        }
+    }
+
+    @Test
+    void storageCallOnFxThreadFailsWhenStrict() throws Exception {
+        System.setProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY, "true");
+        DatabaseManager database = new DatabaseManager(UNREACHABLE, "nitron_test");
+        try {
+            IllegalStateException error = assertThrows(IllegalStateException.class,
+                    () -> FxThread.run(database::getBookmarks));
+            assertTrue(error.getMessage().contains("getBookmarks"), error.getMessage());
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    void fileBackedStoresAreGuardedWhenStrict(@TempDir Path directory) {
+        System.setProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY, "true");
+        ChunkStore chunks = new ChunkStore(directory.resolve("chunks"));
+        IllegalStateException error = assertThrows(IllegalStateException.class, () -> FxThread.run(chunks::open));
+        assertTrue(error.getMessage().contains("ChunkStore.open"), error.getMessage());
+        TabThrottler throttler = new TabThrottler(directory.resolve("exempt.txt"));
+        assertThrows(IllegalStateException.class, () -> FxThread.run(throttler::save));
+        assertDoesNotThrow(throttler::save);
+    }
+
+    @Test
+    void guardOnlyAppliesToTheFxThread() throws Exception {
+        System.setProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY, "true");
+        assertDoesNotThrow(() -> StorageExecutor.checkNotOnFxThread("addHistory"));
+        System.clearProperty(StorageExecutor.STRICT_FX_THREAD_PROPERTY);
+        assertDoesNotThrow(() -> FxThread.run(() -> StorageExecutor.checkNotOnFxThread("addHistory")));
+    }
+
+    @Test
+    void submitRunsWorkOffTheFxThreadAndDeliversOnIt() throws Exception {
+        StorageExecutor executor = new StorageExecutor(1);
+        CompletableFuture<Boolean> workedOnFx = new CompletableFuture<>();
+        CompletableFuture<Boolean> deliveredOnFx = new CompletableFuture<>();
+        try {
+            FxThread.run(() -> executor.submit(() -> {
+                workedOnFx.complete(javafx.application.Platform.isFxApplicationThread());
+                return List.of("https://example.com");
+            }, urls -> deliveredOnFx.complete(javafx.application.Platform.isFxApplicationThread())));
+            assertFalse(workedOnFx.get(5, TimeUnit.SECONDS));
+            assertTrue(deliveredOnFx.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void cancelledTaskIsNotDelivered() throws Exception {
+        StorageExecutor executor = new StorageExecutor(1);
+        CompletableFuture<String> delivered = new CompletableFuture<>();
+        try {
+            StorageTask<String> task = FxThread.call(() -> {
+                StorageTask<String> submitted = executor.submit(() -> {
+                    Thread.sleep(100);
+                    return "late";
+                }, delivered::complete);
+                submitted.cancel();
+                return submitted;
+            });
+            assertTrue(task.isCancelled());
+            // Let the work finish and any delivery run before checking
+            Thread.sleep(300);
+            FxThread.run(() -> assertFalse(delivered.isDone()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncJournalTest {
+    private static final String URL = "https://example.com/";
+
+    @TempDir
+    Path directory;
+
+    private SyncJournal journal;
+
+    @AfterEach
+    void closeJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void equalStampsAreBrokenByNodeId() {
+        SyncChange fromA = bookmark(false, 100, "node-a");
+        SyncChange fromB = bookmark(true, 100, "node-b");
+        assertTrue(fromB.isNewerThan(fromA));
+        assertFalse(fromA.isNewerThan(fromB));
+        assertFalse(fromA.isNewerThan(fromA));
+        assertTrue(fromA.isNewerThan(null));
+    }
+
+    @Test
+    void conflictsResolveTheSameWhateverTheArrivalOrder() throws Exception {
+        SyncChange fromA = bookmark(false, 100, "node-a");
+        SyncChange fromB = bookmark(true, 100, "node-b");
+        SyncJournal first = new SyncJournal(directory.resolve("first"));
+        SyncJournal second = new SyncJournal(directory.resolve("second"));
+        try {
+            assertTrue(first.acceptRemote(fromA));
+            assertTrue(first.acceptRemote(fromB));
+            assertTrue(second.acceptRemote(fromB));
+            assertFalse(second.acceptRemote(fromA));
+            // Both settle on B's version: an edit older than it loses on either
+            SyncChange older = bookmark(false, 99, "node-z");
+            assertFalse(first.acceptRemote(older));
+            assertFalse(second.acceptRemote(older));
+            assertEquals(1, first.getRecordCount());
+            assertEquals(1, second.getRecordCount());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    void tombstonesBeatOlderEditsAfterRestart() throws Exception {
+        journal = new SyncJournal(directory);
+        SyncChange added = journal.recordLocal(SyncChange.Kind.BOOKMARK, URL, false, null);
+        SyncChange deleted = bookmark(true, added.getStamp() + 1, "node-other");
+        assertTrue(journal.acceptRemote(deleted));
+        // An edit made before the delete, arriving late, does not bring the bookmark back
+        assertFalse(journal.acceptRemote(bookmark(false, added.getStamp(), "node-late")));
+
+        journal.close();
+        journal = new SyncJournal(directory);
+        assertFalse(journal.acceptRemote(bookmark(false, added.getStamp(), "node-late")));
+        // Seen before: a tombstone is re-applied, a newer edit still wins
+        assertTrue(journal.acceptRemote(deleted));
+        assertTrue(journal.acceptRemote(bookmark(false, deleted.getStamp() + 1, "node-late")));
+        // Local changes are stamped after every change seen, so they win too
+        SyncChange local = journal.recordLocal(SyncChange.Kind.BOOKMARK, URL, true, null);
+        assertTrue(local.getStamp() > deleted.getStamp() + 1);
+    }
+
+    @Test
+    void pendingChangesAndCursorSurviveRestart() throws Exception {
+        journal = new SyncJournal(directory);
+        SyncChange first = journal.recordLocal(SyncChange.Kind.BOOKMARK, URL, false, null);
+        HistoryVisit visit = new HistoryVisit("visit-1", URL, new Date(1_000), HistoryVisit.Transition.TYPED,
+                List.of(), 0, 0, 1500);
+        SyncChange second = journal.recordLocal(SyncChange.Kind.VISIT, "visit-1", false, visit);
+        journal.markPushed(1);
+        journal.setPullCursor(42);
+        journal.close();
+
+        journal = new SyncJournal(directory);
+        assertEquals(42, journal.getPullCursor());
+        List<SyncChange> pending = journal.getPending(10);
+        assertEquals(1, pending.size());
+        assertEquals(second.getId(), pending.get(0).getId());
+        assertEquals(1500, pending.get(0).getVisit().getDwellMillis());
+        assertEquals(first.getNode(), journal.getNodeId());
+    }
+
+    private static SyncChange bookmark(boolean deleted, long stamp, String node) {
+        return new SyncChange(SyncChange.Kind.BOOKMARK, URL, deleted, stamp, node, null);
+    }
+}
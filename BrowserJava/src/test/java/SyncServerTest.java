@@ -0,0 +1,210 @@
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncServerTest {
+    private static final String SECRET = "correct horse battery staple";
+
+    @TempDir
+    Path directory;
+
+    private SyncServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private static int status(String url, String authorization) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    void loopbackNeedsNoSecret() throws IOException {
+        server = new SyncServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        assertEquals(200, status(server.url() + "/pull?node=a", null));
+    }
+
+    @Test
+    void otherAddressesNeedASecret() {
+        assertThrows(IllegalArgumentException.class, () -> new SyncServer(new InetSocketAddress(0)));
+        assertThrows(IllegalArgumentException.class, () -> new SyncServer(new InetSocketAddress(0), ""));
+    }
+
+    @Test
+    void requestsWithoutTheSecretAreRejected() throws IOException {
+        server = new SyncServer(new InetSocketAddress(0), SECRET);
+        String pull = server.url() + "/pull?node=a";
+        assertEquals(401, status(pull, null));
+        assertEquals(401, status(pull, "Bearer wrong"));
+        assertEquals(200, status(pull, "Bearer " + SECRET));
+    }
+
+    @Test
+    void instancesWithTheSecretSync() throws IOException {
+        server = new SyncServer(new InetSocketAddress(0), SECRET);
+        SyncJournal firstJournal = new SyncJournal(directory.resolve("first"));
+        SyncJournal secondJournal = new SyncJournal(directory.resolve("second"));
+        InMemoryDatabase first = new InMemoryDatabase();
+        InMemoryDatabase second = new InMemoryDatabase();
+        new SyncingDatabase(first, firstJournal).addBookmark("https://example.com/");
+
+        new SyncManager(firstJournal, first, server.url(), 0, SECRET).syncNow();
+        new SyncManager(secondJournal, second, server.url(), 0, SECRET).syncNow();
+        assertEquals(List.of("https://example.com/"), second.getBookmarks());
+
+        SyncManager outsider = new SyncManager(new SyncJournal(directory.resolve("outsider")), new InMemoryDatabase(),
+                server.url(), 0);
+        IOException rejected = assertThrows(IOException.class, outsider::syncNow);
+        assertTrue(rejected.getMessage().contains("401"), rejected.getMessage());
+        firstJournal.close();
+        secondJournal.close();
+    }
+
+    @Test
+    void pullsReturnOtherNodesChangesAfterTheCursor() throws IOException {
+        server = new SyncServer();
+        assertEquals(200, push("a", change("https://a1/", 1, "a"), change("https://a2/", 2, "a"), change("https://a3/", 3, "a")));
+        assertEquals(200, push("b", change("https://b1/", 4, "b"), change("https://b2/", 5, "b")));
+        // Pushed again after a lost response: stored once
+        assertEquals(200, push("a", change("https://a3/", 3, "a")));
+        assertEquals(5, server.getChangeCount());
+
+        Pull all = pull("c", 0, 500);
+        assertEquals(List.of("https://a1/", "https://a2/", "https://a3/", "https://b1/", "https://b2/"), all.keys);
+        assertEquals(5, all.cursor);
+        assertEquals(List.of("https://a3/", "https://b1/", "https://b2/"), pull("c", 2, 500).keys);
+        assertEquals(List.of(), pull("c", 5, 500).keys);
+
+        // An instance never gets its own changes back, but its cursor moves past them
+        Pull own = pull("a", 0, 500);
+        assertEquals(List.of("https://b1/", "https://b2/"), own.keys);
+        assertEquals(5, own.cursor);
+
+        Pull page = pull("c", 0, 2);
+        assertEquals(List.of("https://a1/", "https://a2/"), page.keys);
+        assertTrue(page.more);
+        Pull rest = pull("c", page.cursor, 500);
+        assertEquals(List.of("https://a3/", "https://b1/", "https://b2/"), rest.keys);
+        assertFalse(rest.more);
+    }
+
+    @Test
+    void supersededChangesMakeRoomWhenFull() throws IOException {
+        server = new SyncServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 4);
+        for (int stamp = 1; stamp <= 4; stamp++) {
+            assertEquals(200, push("a", change("https://same/", stamp, "a")));
+        }
+        assertEquals(200, push("a", change("https://same/", 5, "a")));
+        assertEquals(2, server.getChangeCount());
+        // A cursor inside the dropped range still gets the winning version
+        Pull caughtUp = pull("b", 1, 500);
+        assertEquals(List.of("https://same/", "https://same/"), caughtUp.keys);
+        assertEquals(5, caughtUp.cursor);
+
+        assertEquals(200, push("a", change("https://x/", 6, "a"), change("https://y/", 7, "a"), change("https://z/", 8, "a")));
+        assertEquals(4, server.getChangeCount());
+        // Nothing left to drop: refused until there is room, and nothing is stored
+        assertEquals(507, push("a", change("https://full/", 9, "a")));
+        assertEquals(4, server.getChangeCount());
+        assertEquals(List.of("https://same/", "https://x/", "https://y/", "https://z/"), pull("b", 0, 500).keys);
+    }
+
+    @Test
+    void oversizedPushesAreRejected() throws IOException {
+        server = new SyncServer();
+        // About 9 MB of blank lines compress to a few KB
+        byte[] body = new byte[9 * 1024 * 1024];
+        Arrays.fill(body, (byte) '\n');
+        assertEquals(413, post("/push?node=a", gzip(body)));
+        assertEquals(0, server.getChangeCount());
+        assertEquals(200, push("a", change("https://a1/", 1, "a")));
+    }
+
+    private static String change(String url, long stamp, String node) {
+        return new SyncChange(SyncChange.Kind.BOOKMARK, url, false, stamp, node, null).toDocument().toJson();
+    }
+
+    private int push(String node, String... changes) throws IOException {
+        return post("/push?node=" + node, gzip((String.join("\n", changes) + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private int post(String path, byte[] gzipped) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.url() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setFixedLengthStreamingMode(gzipped.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(gzipped);
+        }
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private Pull pull(String node, long since, int limit) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.url() + "/pull?node=" + node
+                + "&since=" + since + "&limit=" + limit).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        Pull pull = new Pull();
+        pull.cursor = Long.parseLong(connection.getHeaderField("X-Nitron-Sync-Cursor"));
+        pull.more = Boolean.parseBoolean(connection.getHeaderField("X-Nitron-Sync-More"));
+        try (InputStream in = new GZIPInputStream(connection.getInputStream())) {
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isBlank()) {
+                    pull.keys.add(SyncChange.fromDocument(Document.parse(line)).getKey());
+                }
+            }
+        }
+        return pull;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class Pull {
+        private final List<String> keys = new ArrayList<>();
+        private long cursor;
+        private boolean more;
+    }
+}
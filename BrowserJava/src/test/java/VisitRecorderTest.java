@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VisitRecorderTest {
+    private final CountingDatabase database = new CountingDatabase(new InMemoryDatabase());
+    private long now = 1_000_000;
+    private final VisitRecorder recorder = new VisitRecorder(database, Runnable::run, () -> now);
+
+    private long saves() {
+        return database.getCounts().getOrDefault("saveVisit", 0L);
+    }
+
+    @Test
+    void visitIsSavedWhenItLoadsAndUpdatedWhenItEnds() {
+        recorder.tabSelected("tab", true);
+        recorder.locationChanged("tab", "https://example.com/login");
+        now += 200;
+        recorder.locationChanged("tab", "https://example.com/home");
+        assertEquals(0, saves());
+        now += 300;
+        recorder.loadFinished("tab", "https://example.com/home");
+        // The page is in history as soon as it has loaded
+        assertEquals(1, saves());
+        assertEquals("https://example.com/home", database.getRecentVisits(10).get(0).getUrl());
+        now += 5000;
+        recorder.locationChanged("tab", "https://example.com/home#section");
+        assertEquals(1, saves());
+
+        now += 20_000;
+        recorder.locationChanged("tab", "https://other.org/");
+        // The page is still shown until the next one has loaded
+        assertEquals(1, saves());
+        now += 300;
+        recorder.loadFinished("tab", "https://other.org/");
+        assertEquals(3, saves());
+
+        // Closed at once: nothing changed since the second visit was saved
+        recorder.tabClosed("tab");
+        assertEquals(3, saves());
+        assertEquals(3, recorder.getWrites());
+
+        List<HistoryVisit> visits = database.getRecentVisits(10);
+        assertEquals(2, visits.size());
+        HistoryVisit first = visits.get(1);
+        assertEquals("https://example.com/home", first.getUrl());
+        assertEquals(List.of("https://example.com/login"), first.getRedirects());
+        assertEquals(1, first.getFragmentCount());
+        assertEquals(25_300, first.getDwellMillis());
+    }
+
+    @Test
+    void checkpointSavesOpenVisitsThatChanged() {
+        recorder.tabSelected("front", true);
+        recorder.locationChanged("front", "https://example.com/");
+        recorder.loadFinished("front", "https://example.com/");
+        recorder.locationChanged("back", "https://other.org/");
+        recorder.loadFinished("back", "https://other.org/");
+        assertEquals(2, saves());
+
+        now += VisitRecorder.CHECKPOINT_MILLIS;
+        recorder.checkpoint();
+        // Only the selected tab's dwell time grew
+        assertEquals(3, saves());
+        assertEquals(VisitRecorder.CHECKPOINT_MILLIS, dwellOf("https://example.com/"));
+
+        recorder.tabSelected("front", false);
+        now += VisitRecorder.CHECKPOINT_MILLIS;
+        recorder.checkpoint();
+        assertEquals(3, saves());
+        recorder.locationChanged("back", "https://other.org/#comments");
+        recorder.checkpoint();
+        assertEquals(4, saves());
+        assertEquals(1, database.getRecentVisits(10).stream()
+                .filter(visit -> visit.getUrl().equals("https://other.org/")).findFirst().orElseThrow().getFragmentCount());
+    }
+
+    private long dwellOf(String url) {
+        return database.getRecentVisits(10).stream().filter(visit -> visit.getUrl().equals(url))
+                .findFirst().orElseThrow().getDwellMillis();
+    }
+
+    @Test
+    void reloadsFoldIntoTheOpenVisit() {
+        recorder.locationChanged("tab", "https://example.com/");
+        recorder.loadFinished("tab", "https://example.com/");
+        now += 2000;
+        recorder.loadFinished("tab", "https://example.com/");
+        now += 2000;
+        recorder.loadFinished("tab", "https://example.com/");
+        recorder.flush();
+
+        // Saved when the page loaded and once more with its reloads when it ended
+        assertEquals(2, saves());
+        assertEquals(1, database.getRecentVisits(10).size());
+        assertEquals(2, database.getRecentVisits(10).get(0).getReloadCount());
+    }
+
+    @Test
+    void cancelledLoadRecordsNothing() {
+        recorder.locationChanged("tab", "https://example.com/setup.zip");
+        recorder.loadCancelled("tab");
+        recorder.flush();
+        assertEquals(0, saves());
+    }
+}